@@ -28,6 +28,7 @@ import com.distrimind.upnp_igd.model.message.UpnpHeaders;
 import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
 import com.distrimind.upnp_igd.model.meta.RemoteService;
 import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.protocol.RemoteDescriptorCache;
 import com.distrimind.upnp_igd.transport.impl.*;
 import com.distrimind.upnp_igd.transport.spi.*;
 import jakarta.annotation.PostConstruct;
@@ -36,6 +37,7 @@ import jakarta.inject.Inject;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
 
 /**
@@ -53,6 +55,7 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
     private int streamListenPort;
 
     private ExecutorService defaultExecutorService;
+    private ScheduledExecutorService scheduledExecutorService;
 
     @Inject
     protected DatagramProcessor datagramProcessor;
@@ -64,6 +67,7 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
     private ServiceDescriptorBinder serviceDescriptorBinderUDA10;
 
     private Namespace namespace;
+    private RemoteDescriptorCache remoteDescriptorCache;
     private NetworkAddressFactory networkAddressFactory=null;
     private int multicastPort;
 
@@ -77,6 +81,7 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
         this.streamListenPort = NetworkAddressFactoryImpl.DEFAULT_TCP_HTTP_LISTEN_PORT;
 
         defaultExecutorService = createDefaultExecutorService();
+        scheduledExecutorService = createScheduledExecutorService();
 
         soapActionProcessor = createSOAPActionProcessor();
         genaEventProcessor = createGENAEventProcessor();
@@ -85,6 +90,7 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
         serviceDescriptorBinderUDA10 = createServiceDescriptorBinderUDA10();
         multicastPort= Constants.UPNP_MULTICAST_PORT;
         namespace = createNamespace();
+        remoteDescriptorCache = createRemoteDescriptorCache();
     }
 
     public int getMulticastPort() {
@@ -187,6 +193,27 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
         return null;
     }
 
+    @Override
+    public RemoteDescriptorCache getRemoteDescriptorCache() {
+        return remoteDescriptorCache;
+    }
+
+    /**
+     * @return Defaults to <code>4</code>.
+     */
+    @Override
+    public int getDescriptorRetrievalConcurrency() {
+        return 4;
+    }
+
+    /**
+     * @return Defaults to <code>30000</code> milliseconds.
+     */
+    @Override
+    public int getDescriptorRetrievalTimeoutMillis() {
+        return 30000;
+    }
+
     @Override
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     public UpnpHeaders getEventSubscriptionHeaders(RemoteService service) {
@@ -209,6 +236,22 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
         return 0;
     }
 
+    /**
+     * @return Defaults to <code>0</code>, outgoing datagrams are not paced.
+     */
+    @Override
+    public int getMaxOutgoingDatagramsPerSecond() {
+        return 0;
+    }
+
+    /**
+     * @return Defaults to 4 requests per remote host.
+     */
+    @Override
+    public int getMaxStreamRequestsPerHost() {
+        return 4;
+    }
+
     @Override
     public Integer getRemoteDeviceMaxAgeSeconds() {
         return null;
@@ -224,6 +267,11 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
         return getDefaultExecutorService();
     }
 
+    @Override
+    public ScheduledExecutorService getScheduledExecutorService() {
+        return scheduledExecutorService;
+    }
+
     @Override
     public Namespace getNamespace() {
         return namespace;
@@ -248,6 +296,9 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
     public void shutdown() {
         log.fine("Shutting down default executor service");
         getDefaultExecutorService().shutdownNow();
+        getScheduledExecutorService().shutdownNow();
+        if (getRemoteDescriptorCache() != null)
+            getRemoteDescriptorCache().close();
     }
 
     protected NetworkAddressFactory createNetworkAddressFactory(int streamListenPort, int multicastPort) {
@@ -274,6 +325,10 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
         return new Namespace();
     }
 
+    protected RemoteDescriptorCache createRemoteDescriptorCache() {
+        return new RemoteDescriptorCache();
+    }
+
     protected ExecutorService getDefaultExecutorService() {
         return defaultExecutorService;
     }
@@ -281,4 +336,8 @@ public class AndroidManagedUpnpServiceConfiguration implements UpnpServiceConfig
     protected ExecutorService createDefaultExecutorService() {
         return new DefaultUpnpServiceConfiguration.ClingExecutor();
     }
+
+    protected ScheduledExecutorService createScheduledExecutorService() {
+        return new DefaultUpnpServiceConfiguration.ClingScheduledExecutor();
+    }
 }
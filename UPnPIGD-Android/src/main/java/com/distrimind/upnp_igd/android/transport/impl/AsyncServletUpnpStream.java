@@ -19,7 +19,6 @@ import com.distrimind.upnp_igd.model.message.*;
 import com.distrimind.upnp_igd.protocol.ProtocolFactory;
 import com.distrimind.upnp_igd.transport.spi.UpnpStream;
 import com.distrimind.upnp_igd.util.Exceptions;
-import com.distrimind.upnp_igd.util.io.IO;
 import jakarta.servlet.AsyncContext;
 import jakarta.servlet.AsyncEvent;
 import jakarta.servlet.AsyncListener;
@@ -194,7 +193,7 @@ public abstract class AsyncServletUpnpStream extends UpnpStream implements Async
         // Body
         byte[] bodyBytes;
 		try (InputStream is = getRequest().getInputStream()) {
-			bodyBytes = IO.readBytes(is);
+			bodyBytes = StreamingBody.of(is, getRequest().getContentLengthLong()).readBytes();
 		}
         if (log.isLoggable(Level.FINER))
             log.finer("Reading request body bytes: " + bodyBytes.length);
@@ -234,14 +233,15 @@ public abstract class AsyncServletUpnpStream extends UpnpStream implements Async
         // The Date header is recommended in UDA
         getResponse().setDateHeader("Date", System.currentTimeMillis());
 
-        // Body
-        byte[] responseBodyBytes = responseMessage.hasBody() ? responseMessage.getBodyBytes() : null;
-        int contentLength = responseBodyBytes != null ? responseBodyBytes.length : -1;
+        // Body, the container uses chunked transfer encoding if the length is unknown
+        StreamingBody responseBody = responseMessage.getStreamingBody();
+        long contentLength = responseBody != null ? responseBody.getContentLength() : -1;
 
-        if (contentLength > 0) {
-            getResponse().setContentLength(contentLength);
+        if (responseBody != null && contentLength != 0) {
+            if (contentLength > 0)
+                getResponse().setContentLengthLong(contentLength);
             log.finer("Response message has body, writing bytes to stream...");
-            IO.writeBytes(getResponse().getOutputStream(), responseBodyBytes);
+            responseBody.writeTo(getResponse().getOutputStream());
         }
     }
 
@@ -26,16 +26,17 @@ import com.distrimind.upnp_igd.model.message.UpnpHeaders;
 import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
 import com.distrimind.upnp_igd.model.meta.RemoteService;
 import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.protocol.RemoteDescriptorCache;
 import com.distrimind.upnp_igd.transport.impl.DatagramIOConfigurationImpl;
 import com.distrimind.upnp_igd.transport.impl.DatagramIOImpl;
 import com.distrimind.upnp_igd.transport.impl.DatagramProcessorImpl;
 import com.distrimind.upnp_igd.transport.impl.GENAEventProcessorImpl;
+import com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientConfigurationImpl;
+import com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientImpl;
 import com.distrimind.upnp_igd.transport.impl.MulticastReceiverConfigurationImpl;
 import com.distrimind.upnp_igd.transport.impl.MulticastReceiverImpl;
 import com.distrimind.upnp_igd.transport.impl.NetworkAddressFactoryImpl;
 import com.distrimind.upnp_igd.transport.impl.SOAPActionProcessorImpl;
-import com.distrimind.upnp_igd.transport.impl.StreamClientConfigurationImpl;
-import com.distrimind.upnp_igd.transport.impl.StreamClientImpl;
 import com.distrimind.upnp_igd.transport.impl.StreamServerConfigurationImpl;
 import com.distrimind.upnp_igd.transport.impl.StreamServerImpl;
 import com.distrimind.upnp_igd.transport.spi.*;
@@ -44,6 +45,8 @@ import jakarta.enterprise.inject.Alternative;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
@@ -72,6 +75,9 @@ import java.util.logging.Logger;
  * grow (and shrink) as needed - or restricted by your JVM.
  * </p>
  * <p>
+ * Delayed and periodic tasks are fired by a single thread of a {@link ClingScheduledExecutor}.
+ * </p>
+ * <p>
  * The default {@link Namespace} is configured without any
  * base path or prefix.
  * </p>
@@ -86,6 +92,7 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     final private int streamListenPort;
 
     final private ExecutorService defaultExecutorService;
+    final private ScheduledExecutorService scheduledExecutorService;
 
     final private DatagramProcessor datagramProcessor;
     final private SOAPActionProcessor soapActionProcessor;
@@ -95,6 +102,7 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     final private ServiceDescriptorBinder serviceDescriptorBinderUDA10;
 
     final private Namespace namespace;
+    final private RemoteDescriptorCache remoteDescriptorCache;
     final private int multicastPort;
     private NetworkAddressFactory networkAddressFactory;
 
@@ -121,6 +129,7 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         this.streamListenPort = streamListenPort;
         this.multicastPort=multicastPort;
         defaultExecutorService = createDefaultExecutorService();
+        scheduledExecutorService = createScheduledExecutorService();
 
         datagramProcessor = createDatagramProcessor();
         soapActionProcessor = createSOAPActionProcessor();
@@ -130,6 +139,7 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         serviceDescriptorBinderUDA10 = createServiceDescriptorBinderUDA10();
 
         namespace = createNamespace();
+        remoteDescriptorCache = createRemoteDescriptorCache();
         networkAddressFactory=null;
     }
 
@@ -154,8 +164,8 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
 
     @Override
     public StreamClient<?> createStreamClient() {
-        return new StreamClientImpl(
-            new StreamClientConfigurationImpl(
+        return new HttpClientStreamClientImpl(
+            new HttpClientStreamClientConfigurationImpl(
                 getSyncProtocolExecutorService()
             )
         );
@@ -229,6 +239,27 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         return null;
     }
 
+    @Override
+    public RemoteDescriptorCache getRemoteDescriptorCache() {
+        return remoteDescriptorCache;
+    }
+
+    /**
+     * @return Defaults to <code>4</code>.
+     */
+    @Override
+    public int getDescriptorRetrievalConcurrency() {
+        return 4;
+    }
+
+    /**
+     * @return Defaults to <code>30000</code> milliseconds.
+     */
+    @Override
+    public int getDescriptorRetrievalTimeoutMillis() {
+        return 30000;
+    }
+
     @Override
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     public UpnpHeaders getEventSubscriptionHeaders(RemoteService service) {
@@ -251,6 +282,22 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     	return 0;
     }
 
+    /**
+     * @return Defaults to <code>0</code>, outgoing datagrams are not paced.
+     */
+    @Override
+    public int getMaxOutgoingDatagramsPerSecond() {
+        return 0;
+    }
+
+    /**
+     * @return Defaults to 4 requests per remote host.
+     */
+    @Override
+    public int getMaxStreamRequestsPerHost() {
+        return 4;
+    }
+
     @Override
     public Integer getRemoteDeviceMaxAgeSeconds() {
         return null;
@@ -266,6 +313,11 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         return getDefaultExecutorService();
     }
 
+    @Override
+    public ScheduledExecutorService getScheduledExecutorService() {
+        return scheduledExecutorService;
+    }
+
     @Override
     public Namespace getNamespace() {
         return namespace;
@@ -290,6 +342,9 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
     public void shutdown() {
         log.fine("Shutting down default executor service");
         getDefaultExecutorService().shutdownNow();
+        getScheduledExecutorService().shutdownNow();
+        if (getRemoteDescriptorCache() != null)
+            getRemoteDescriptorCache().close();
     }
     protected NetworkAddressFactory getNetworkAddressFactory() {
         if (networkAddressFactory==null)
@@ -325,6 +380,10 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         return new Namespace();
     }
 
+    protected RemoteDescriptorCache createRemoteDescriptorCache() {
+        return new RemoteDescriptorCache();
+    }
+
     protected ExecutorService getDefaultExecutorService() {
         return defaultExecutorService;
     }
@@ -333,6 +392,10 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         return new ClingExecutor();
     }
 
+    protected ScheduledExecutorService createScheduledExecutorService() {
+        return new ClingScheduledExecutor();
+    }
+
     public static class ClingExecutor extends ThreadPoolExecutor {
 
         public ClingExecutor() {
@@ -382,6 +445,20 @@ public class DefaultUpnpServiceConfiguration implements UpnpServiceConfiguration
         }
     }
 
+    public static class ClingScheduledExecutor extends ScheduledThreadPoolExecutor {
+
+        public ClingScheduledExecutor() {
+            this(new ClingThreadFactory());
+        }
+
+        public ClingScheduledExecutor(ThreadFactory threadFactory) {
+            // A single thread fires the tasks, they hand over any longer work
+            super(1, threadFactory, new ThreadPoolExecutor.DiscardPolicy());
+            setRemoveOnCancelPolicy(true);
+            setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+    }
+
     // Executors.DefaultThreadFactory is package visibility (...no touching, you unworthy JDK user!)
     public static class ClingThreadFactory implements ThreadFactory {
 
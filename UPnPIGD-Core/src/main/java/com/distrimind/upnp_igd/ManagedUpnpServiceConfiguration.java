@@ -26,15 +26,16 @@ import com.distrimind.upnp_igd.model.message.UpnpHeaders;
 import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
 import com.distrimind.upnp_igd.model.meta.RemoteService;
 import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.protocol.RemoteDescriptorCache;
 import com.distrimind.upnp_igd.transport.impl.DatagramIOConfigurationImpl;
 import com.distrimind.upnp_igd.transport.impl.DatagramIOImpl;
 import com.distrimind.upnp_igd.transport.impl.GENAEventProcessorImpl;
+import com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientConfigurationImpl;
+import com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientImpl;
 import com.distrimind.upnp_igd.transport.impl.MulticastReceiverConfigurationImpl;
 import com.distrimind.upnp_igd.transport.impl.MulticastReceiverImpl;
 import com.distrimind.upnp_igd.transport.impl.NetworkAddressFactoryImpl;
 import com.distrimind.upnp_igd.transport.impl.SOAPActionProcessorImpl;
-import com.distrimind.upnp_igd.transport.impl.StreamClientConfigurationImpl;
-import com.distrimind.upnp_igd.transport.impl.StreamClientImpl;
 import com.distrimind.upnp_igd.transport.impl.StreamServerConfigurationImpl;
 import com.distrimind.upnp_igd.transport.impl.StreamServerImpl;
 import com.distrimind.upnp_igd.transport.spi.DatagramIO;
@@ -48,6 +49,7 @@ import com.distrimind.upnp_igd.transport.spi.StreamServer;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.logging.Logger;
 
 /**
@@ -65,6 +67,7 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
     private int streamListenPort;
 
     private ExecutorService defaultExecutorService;
+    private ScheduledExecutorService scheduledExecutorService;
 
     protected DatagramProcessor datagramProcessor;
 
@@ -75,6 +78,7 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
     private ServiceDescriptorBinder serviceDescriptorBinderUDA10;
 
     private Namespace namespace;
+    private RemoteDescriptorCache remoteDescriptorCache;
     private NetworkAddressFactory networkAddressFactory=null;
     private int multicastPort;
 
@@ -87,6 +91,7 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
         this.streamListenPort = NetworkAddressFactoryImpl.DEFAULT_TCP_HTTP_LISTEN_PORT;
 
         defaultExecutorService = createDefaultExecutorService();
+        scheduledExecutorService = createScheduledExecutorService();
 
         soapActionProcessor = createSOAPActionProcessor();
         genaEventProcessor = createGENAEventProcessor();
@@ -95,6 +100,7 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
         serviceDescriptorBinderUDA10 = createServiceDescriptorBinderUDA10();
         multicastPort= Constants.UPNP_MULTICAST_PORT;
         namespace = createNamespace();
+        remoteDescriptorCache = createRemoteDescriptorCache();
     }
 
     public int getMulticastPort() {
@@ -118,8 +124,8 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
 
     @Override
     public StreamClient<?> createStreamClient() {
-        return new StreamClientImpl(
-            new StreamClientConfigurationImpl(
+        return new HttpClientStreamClientImpl(
+            new HttpClientStreamClientConfigurationImpl(
                 getSyncProtocolExecutorService()
             )
         );
@@ -197,6 +203,27 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
         return null;
     }
 
+    @Override
+    public RemoteDescriptorCache getRemoteDescriptorCache() {
+        return remoteDescriptorCache;
+    }
+
+    /**
+     * @return Defaults to <code>4</code>.
+     */
+    @Override
+    public int getDescriptorRetrievalConcurrency() {
+        return 4;
+    }
+
+    /**
+     * @return Defaults to <code>30000</code> milliseconds.
+     */
+    @Override
+    public int getDescriptorRetrievalTimeoutMillis() {
+        return 30000;
+    }
+
     @Override
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     public UpnpHeaders getEventSubscriptionHeaders(RemoteService service) {
@@ -219,6 +246,22 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
     	return 0;
     }
 
+    /**
+     * @return Defaults to <code>0</code>, outgoing datagrams are not paced.
+     */
+    @Override
+    public int getMaxOutgoingDatagramsPerSecond() {
+        return 0;
+    }
+
+    /**
+     * @return Defaults to 4 requests per remote host.
+     */
+    @Override
+    public int getMaxStreamRequestsPerHost() {
+        return 4;
+    }
+
     @Override
     public Integer getRemoteDeviceMaxAgeSeconds() {
         return null;
@@ -234,6 +277,11 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
         return getDefaultExecutorService();
     }
 
+    @Override
+    public ScheduledExecutorService getScheduledExecutorService() {
+        return scheduledExecutorService;
+    }
+
     @Override
     public Namespace getNamespace() {
         return namespace;
@@ -258,6 +306,9 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
     public void shutdown() {
         log.fine("Shutting down default executor service");
         getDefaultExecutorService().shutdownNow();
+        getScheduledExecutorService().shutdownNow();
+        if (getRemoteDescriptorCache() != null)
+            getRemoteDescriptorCache().close();
     }
 
     protected NetworkAddressFactory createNetworkAddressFactory(int streamListenPort, int multicastPort) {
@@ -284,6 +335,10 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
         return new Namespace();
     }
 
+    protected RemoteDescriptorCache createRemoteDescriptorCache() {
+        return new RemoteDescriptorCache();
+    }
+
     protected ExecutorService getDefaultExecutorService() {
         return defaultExecutorService;
     }
@@ -291,4 +346,8 @@ public class ManagedUpnpServiceConfiguration implements UpnpServiceConfiguration
     protected ExecutorService createDefaultExecutorService() {
         return new DefaultUpnpServiceConfiguration.ClingExecutor();
     }
+
+    protected ScheduledExecutorService createScheduledExecutorService() {
+        return new DefaultUpnpServiceConfiguration.ClingScheduledExecutor();
+    }
 }
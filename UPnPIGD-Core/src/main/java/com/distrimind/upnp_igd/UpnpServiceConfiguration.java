@@ -26,6 +26,7 @@ import com.distrimind.upnp_igd.model.message.UpnpHeaders;
 import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
 import com.distrimind.upnp_igd.model.meta.RemoteService;
 import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.protocol.RemoteDescriptorCache;
 import com.distrimind.upnp_igd.transport.spi.DatagramIO;
 import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
 import com.distrimind.upnp_igd.transport.spi.GENAEventProcessor;
@@ -37,6 +38,7 @@ import com.distrimind.upnp_igd.transport.spi.StreamServer;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Shared configuration data of the UPnP stack.
@@ -165,6 +167,34 @@ public interface UpnpServiceConfiguration {
      */
 	int getAliveIntervalMillis();
 
+    /**
+     * Global limit for outgoing UDP datagrams (SSDP advertisements, search requests and responses).
+     * <p>
+     * Many local devices advertising at the same time produce multicast bursts which may overflow
+     * small switches and the receive buffers of control points. The {@link com.distrimind.upnp_igd.transport.Router}
+     * delays the sending threads when the limit is reached, a short burst of a tenth of this value is allowed.
+     * The delayed threads include those of the protocols and of the registry maintenance, so the limit
+     * is disabled by default and should only be set on networks known to drop bursts.
+     * </p>
+     *
+     * @return The maximum number of datagrams sent per second, set to <code>0</code> to disable the limit.
+     */
+	int getMaxOutgoingDatagramsPerSecond();
+
+    /**
+     * Limit for TCP stream requests (descriptor retrieval, actions, GENA) sent to the same remote host.
+     * <p>
+     * Some consumer routers stall when they receive several requests at the same time. The
+     * {@link com.distrimind.upnp_igd.transport.Router} queues the requests exceeding the limit until
+     * a request to the same host completed, and stops sending requests for a while to a host which
+     * didn't respond to several consecutive requests.
+     * </p>
+     *
+     * @return The maximum number of requests in flight per remote host, set to <code>0</code> to disable
+     *         the limit and the detection of unresponsive hosts.
+     */
+	int getMaxStreamRequestsPerHost();
+
     /**
      * Ignore the received event subscription timeout from remote control points.
      * <p>
@@ -216,6 +246,26 @@ public interface UpnpServiceConfiguration {
 	@SuppressWarnings("PMD.LooseCoupling")
 	UpnpHeaders getDescriptorRetrievalHeaders(RemoteDeviceIdentity identity);
 
+    /**
+     * @return The descriptors of remote devices retrieved earlier, used to revalidate
+     *         descriptors instead of downloading them again, or <code>null</code> to always
+     *         download all descriptors.
+     */
+	RemoteDescriptorCache getRemoteDescriptorCache();
+
+    /**
+     * @return The maximum number of service descriptors of a remote device retrieved at the same
+     *         time, <code>1</code> to retrieve them one after another.
+     */
+	int getDescriptorRetrievalConcurrency();
+
+    /**
+     * @return The time in milliseconds allowed to retrieve all service descriptors of a remote
+     *         device, the device is not added to the registry if they couldn't be retrieved in time.
+     *         <code>0</code> for no limit.
+     */
+	int getDescriptorRetrievalTimeoutMillis();
+
     /**
      * Optional extra headers for event subscription (almost HTTP) messages.
      * <p>
@@ -239,6 +289,12 @@ public interface UpnpServiceConfiguration {
      */
 	ExecutorService getSyncProtocolExecutorService();
 
+    /**
+     * @return The executor service which runs delayed and periodic tasks of the UPnP stack, tasks must
+     *         not block and should hand over any longer work to another executor.
+     */
+	ScheduledExecutorService getScheduledExecutorService();
+
     /**
      * @return An instance of {@link Namespace} for this UPnP stack.
      */
@@ -19,6 +19,8 @@ import com.distrimind.upnp_igd.controlpoint.ControlPoint;
 import com.distrimind.upnp_igd.controlpoint.ControlPointImpl;
 import com.distrimind.upnp_igd.protocol.ProtocolFactory;
 import com.distrimind.upnp_igd.protocol.ProtocolFactoryImpl;
+import com.distrimind.upnp_igd.protocol.RemoteDescriptorCache;
+import com.distrimind.upnp_igd.protocol.RestoreRemoteDevices;
 import com.distrimind.upnp_igd.registry.Registry;
 import com.distrimind.upnp_igd.registry.RegistryImpl;
 import com.distrimind.upnp_igd.registry.RegistryListener;
@@ -92,6 +94,8 @@ public class UpnpServiceImpl implements UpnpService {
 
         this.controlPoint = createControlPoint(protocolFactory, registry);
 
+        restoreRemoteDevices();
+
         log.info("<<< UPnP service started successfully");
     }
 
@@ -111,6 +115,15 @@ public class UpnpServiceImpl implements UpnpService {
         return new ControlPointImpl(getConfiguration(), protocolFactory, registry);
     }
 
+    /**
+     * Adds the remote devices of the configured {@link RemoteDescriptorCache} to the registry
+     * in the background, and revalidates them.
+     */
+    protected void restoreRemoteDevices() {
+        if (getConfiguration().getRemoteDescriptorCache() != null)
+            getConfiguration().getAsyncProtocolExecutor().execute(new RestoreRemoteDevices(this));
+    }
+
     @Override
     public UpnpServiceConfiguration getConfiguration() {
         return configuration;
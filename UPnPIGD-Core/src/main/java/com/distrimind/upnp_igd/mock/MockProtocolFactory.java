@@ -21,12 +21,15 @@ import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
 import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
+import com.distrimind.upnp_igd.protocol.DescriptorRetrievalCoordinator;
+import com.distrimind.upnp_igd.protocol.OutgoingDatagramTemplates;
 import com.distrimind.upnp_igd.protocol.ProtocolCreationException;
 import com.distrimind.upnp_igd.protocol.ProtocolFactory;
 import com.distrimind.upnp_igd.protocol.ReceivingAsync;
 import com.distrimind.upnp_igd.protocol.ReceivingSync;
 import com.distrimind.upnp_igd.protocol.async.SendingNotificationAlive;
 import com.distrimind.upnp_igd.protocol.async.SendingNotificationByebye;
+import com.distrimind.upnp_igd.protocol.async.SearchResponseScheduler;
 import com.distrimind.upnp_igd.protocol.async.SendingSearch;
 import com.distrimind.upnp_igd.UpnpService;
 import com.distrimind.upnp_igd.protocol.sync.SendingAction;
@@ -98,4 +101,19 @@ public class MockProtocolFactory implements ProtocolFactory {
     public SendingEvent createSendingEvent(LocalGENASubscription<?> subscription) {
         return null;
     }
+
+    @Override
+    public OutgoingDatagramTemplates getOutgoingDatagramTemplates() {
+        return null;
+    }
+
+    @Override
+    public SearchResponseScheduler getSearchResponseScheduler() {
+        return null;
+    }
+
+    @Override
+    public DescriptorRetrievalCoordinator getDescriptorRetrievalCoordinator() {
+        return null;
+    }
 }
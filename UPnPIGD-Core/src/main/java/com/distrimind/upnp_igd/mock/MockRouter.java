@@ -33,6 +33,8 @@ import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * <p>
@@ -50,9 +52,10 @@ public class MockRouter implements Router {
 
     public int counter = -1;
     public List<IncomingDatagramMessage<?>> incomingDatagramMessages = new ArrayList<>();
-    public List<OutgoingDatagramMessage<?>> outgoingDatagramMessages = new ArrayList<>();
+    // Written by the scheduled advertisement threads while the tests read it
+    public List<OutgoingDatagramMessage<?>> outgoingDatagramMessages = new CopyOnWriteArrayList<>();
     public List<UpnpStream> receivedUpnpStreams = new ArrayList<>();
-    public List<StreamRequestMessage> sentStreamRequestMessages = new ArrayList<>();
+    public List<StreamRequestMessage> sentStreamRequestMessages = Collections.synchronizedList(new ArrayList<>());
     public List<byte[]> broadcastedBytes = new ArrayList<>();
 
     protected UpnpServiceConfiguration configuration;
@@ -128,6 +131,16 @@ public class MockRouter implements Router {
         outgoingDatagramMessages.add(msg);
     }
 
+    @Override
+	public void send(OutgoingDatagramMessage<?> msg, InetAddress bindAddress) throws RouterException {
+        send(msg);
+    }
+
+    @Override
+	public CompletableFuture<StreamResponseMessage> sendAsync(StreamRequestMessage msg) throws RouterException {
+        return CompletableFuture.completedFuture(send(msg));
+    }
+
     @Override
 	public StreamResponseMessage send(StreamRequestMessage msg) throws RouterException {
         sentStreamRequestMessages.add(msg);
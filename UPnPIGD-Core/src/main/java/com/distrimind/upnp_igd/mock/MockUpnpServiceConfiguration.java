@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -38,6 +39,7 @@ public class MockUpnpServiceConfiguration extends DefaultUpnpServiceConfiguratio
 
     final protected boolean maintainsRegistry;
     final protected boolean multiThreaded;
+    final protected MockScheduledExecutorService mockScheduledExecutorService = new MockScheduledExecutorService();
 
     /**
      * Does not maintain registry, single threaded execution.
@@ -92,6 +94,14 @@ public class MockUpnpServiceConfiguration extends DefaultUpnpServiceConfiguratio
         return getDefaultExecutorService();
     }
 
+    @Override
+    public ScheduledExecutorService getScheduledExecutorService() {
+        if (isMultiThreaded()) {
+            return super.getScheduledExecutorService();
+        }
+        return mockScheduledExecutorService;
+    }
+
     @Override
     protected ExecutorService getDefaultExecutorService() {
         if (isMultiThreaded()) {
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.model.message;
+
+import java.net.InetAddress;
+
+/**
+ * An outgoing datagram message which has already been converted into bytes.
+ * <p>
+ * The headers and the operation are the ones of the message which has been encoded, they
+ * are shared and must not be modified. A {@link com.distrimind.upnp_igd.transport.spi.DatagramProcessor}
+ * sends the encoded data as is, see {@link com.distrimind.upnp_igd.protocol.OutgoingDatagramTemplates}.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class EncodedOutgoingDatagramMessage<O extends UpnpOperation> extends OutgoingDatagramMessage<O> {
+
+    private final OutgoingDatagramMessage<O> encodedMessage;
+    private final byte[] data;
+
+    public EncodedOutgoingDatagramMessage(OutgoingDatagramMessage<O> encodedMessage, byte[] data,
+                                          InetAddress destinationAddress, int destinationPort) {
+        super(encodedMessage.getOperation(), destinationAddress, destinationPort);
+        this.encodedMessage = encodedMessage;
+        this.data = data;
+    }
+
+    public OutgoingDatagramMessage<O> getEncodedMessage() {
+        return encodedMessage;
+    }
+
+    /**
+     * @return The encoded datagram data, shared and not to be modified.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    @Override
+    public IUpnpHeaders getHeaders() {
+        return encodedMessage.getHeaders();
+    }
+
+    @Override
+    public String toString() {
+        return encodedMessage.toString();
+    }
+}
@@ -15,6 +15,11 @@
 
 package com.distrimind.upnp_igd.model.message;
 
+import com.distrimind.upnp_igd.model.message.header.ConfigIdHeader;
+import com.distrimind.upnp_igd.model.message.header.MaxAgeHeader;
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.model.types.UDN;
+
 import java.net.InetAddress;
 
 /**
@@ -66,4 +71,58 @@ public class IncomingDatagramMessage<O extends UpnpOperation> extends UpnpMessag
         return localAddress;
     }
 
+    /**
+     * Reads the UDN of the raw <code>USN</code> header, without parsing the other headers of this message.
+     *
+     * @return The UDN, or <code>null</code> if the header is missing or doesn't start with a UDN.
+     */
+    public UDN getRawUDN() {
+        String usn = getHeaders().getFirstHeader(UpnpHeader.Type.USN.getHttpName());
+        if (usn == null || !usn.startsWith(UDN.PREFIX))
+            return null;
+        int end = usn.indexOf("::", UDN.PREFIX.length());
+        String identifier = end < 0 ? usn.substring(UDN.PREFIX.length()) : usn.substring(UDN.PREFIX.length(), end);
+        return identifier.isEmpty() ? null : new UDN(identifier);
+    }
+
+    /**
+     * @return The raw <code>LOCATION</code> header, or <code>null</code>.
+     */
+    public String getRawLocation() {
+        return getHeaders().getFirstHeader(UpnpHeader.Type.LOCATION.getHttpName());
+    }
+
+    /**
+     * @return The maximum age of the raw <code>CACHE-CONTROL</code> header, or <code>-1</code>.
+     */
+    public int getRawMaxAge() {
+        return MaxAgeHeader.parseMaxAgeSeconds(getHeaders().getFirstHeader(UpnpHeader.Type.MAX_AGE.getHttpName()));
+    }
+
+    /**
+     * @return The raw <code>CONFIGID.UPNP.ORG</code> header, or <code>null</code> if it is missing or invalid.
+     */
+    public Integer getRawConfigId() {
+        return parseRawInteger(UpnpHeader.Type.CONFIGID, ConfigIdHeader.MAX_VALUE);
+    }
+
+    /**
+     * @return The raw <code>BOOTID.UPNP.ORG</code> header, or <code>null</code> if it is missing or invalid.
+     */
+    public Integer getRawBootId() {
+        return parseRawInteger(UpnpHeader.Type.BOOTID, Integer.MAX_VALUE);
+    }
+
+    protected Integer parseRawInteger(UpnpHeader.Type type, int maxValue) {
+        String s = getHeaders().getFirstHeader(type.getHttpName());
+        if (s == null)
+            return null;
+        try {
+            int value = Integer.parseInt(s.trim());
+            return value < 0 || value > maxValue ? null : value;
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
 }
@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.model.message;
+
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Read-only view of the HTTP headers of a received datagram, tokenized in place.
+ * <p>
+ * Header names and values are only recorded as offsets into the datagram bytes. A
+ * <code>String</code> is created when a header value is actually read, and typed UPnP
+ * headers are only parsed for the requested {@link UpnpHeader.Type}. Any other access,
+ * for example iterating all entries or modifying the headers, copies the headers into a
+ * regular {@link UpnpHeaders} instance first, which is then used for all further calls.
+ * </p>
+ * <p>
+ * The datagram bytes must not be modified after construction of this instance.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+@SuppressWarnings("PMD.LooseCoupling")
+public class LazyUpnpHeaders implements IUpnpHeaders {
+
+    private static final Logger logger = Logger.getLogger(LazyUpnpHeaders.class.getName());
+
+    final static byte CR = 13;
+    final static byte LF = 10;
+
+    final protected byte[] data;
+    // Four offsets per header: name start, name end, value start, value end
+    protected int[] offsets = new int[4 * 12];
+    protected int headerCount;
+
+    protected Map<UpnpHeader.Type, List<UpnpHeader<?>>> parsedHeaders;
+    protected UpnpHeaders materialized;
+
+    /**
+     * @param data The datagram bytes.
+     * @param offset The offset of the first header line.
+     * @param end The offset after the last datagram byte.
+     */
+    public LazyUpnpHeaders(byte[] data, int offset, int end) {
+        this.data = data;
+        if (!tokenize(offset, end)) {
+            // Folded header lines can't be represented with offsets, they are rare enough to be parsed eagerly
+            headerCount = 0;
+            materialized = new UpnpHeaders(new ByteArrayInputStream(data, offset, end - offset));
+        }
+    }
+
+    /**
+     * @return <code>false</code> if a header line is folded and has to be parsed the regular way.
+     */
+    protected boolean tokenize(int offset, int end) {
+        int lineStart = offset;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            while (lineEnd < end && data[lineEnd] != CR && data[lineEnd] != LF)
+                lineEnd++;
+            if (lineEnd == lineStart || data[lineStart] == 0)
+                break; // Blank line, or the zero padding of a receive buffer
+            if (data[lineStart] == ' ' || data[lineStart] == '\t') {
+                if (headerCount > 0)
+                    return false;
+            } else {
+                addHeader(lineStart, lineEnd);
+            }
+            lineStart = lineEnd;
+            if (lineStart < end && data[lineStart] == CR)
+                lineStart++;
+            if (lineStart < end && data[lineStart] == LF)
+                lineStart++;
+        }
+        return true;
+    }
+
+    protected void addHeader(int lineStart, int lineEnd) {
+        int nameStart = skipWhitespace(lineStart, lineEnd);
+        int nameEnd = nameStart;
+        while (nameEnd < lineEnd && data[nameEnd] != ':' && !isWhitespace(data[nameEnd]))
+            nameEnd++;
+        int colonEnd = nameEnd;
+        while (colonEnd < lineEnd) {
+            if (data[colonEnd++] == ':')
+                break;
+        }
+        int valueStart = skipWhitespace(colonEnd, lineEnd);
+        int valueEnd = lineEnd;
+        while (valueEnd > valueStart && isWhitespace(data[valueEnd - 1]))
+            valueEnd--;
+
+        if (offsets.length < (headerCount + 1) * 4) {
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        int i = headerCount * 4;
+        offsets[i] = nameStart;
+        offsets[i + 1] = nameEnd;
+        offsets[i + 2] = valueStart;
+        offsets[i + 3] = valueEnd;
+        headerCount++;
+    }
+
+    protected int skipWhitespace(int offset, int end) {
+        while (offset < end && isWhitespace(data[offset]))
+            offset++;
+        return offset;
+    }
+
+    static protected boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == CR || b == LF;
+    }
+
+    /**
+     * @return <code>true</code> if the name of the header with the given index equals the key, ignoring case.
+     */
+    protected boolean nameEquals(int header, String key) {
+        int start = offsets[header * 4];
+        int length = offsets[header * 4 + 1] - start;
+        if (key == null || key.length() != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            char c = (char) (data[start + i] & 0xFF);
+            char k = key.charAt(i);
+            if (c != k && Character.toUpperCase(c) != Character.toUpperCase(k))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The header value, or <code>null</code> if it is empty, as in the regular {@link UpnpHeaders}.
+     */
+    protected String valueOf(int header) {
+        int start = offsets[header * 4 + 2];
+        int end = offsets[header * 4 + 3];
+        return start < end ? new String(data, start, end - start, StandardCharsets.ISO_8859_1) : null;
+    }
+
+    protected String nameOf(int header) {
+        int start = offsets[header * 4];
+        return new String(data, start, offsets[header * 4 + 1] - start, StandardCharsets.ISO_8859_1);
+    }
+
+    protected int indexOf(String key, int fromHeader) {
+        for (int i = fromHeader; i < headerCount; i++) {
+            if (nameEquals(i, key))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Copies all headers into a regular {@link UpnpHeaders} instance, once.
+     */
+    protected UpnpHeaders materialize() {
+        if (materialized == null) {
+            UpnpHeaders headers = new UpnpHeaders();
+            for (int i = 0; i < headerCount; i++) {
+                headers.add(nameOf(i), valueOf(i));
+            }
+            materialized = headers;
+            parsedHeaders = null;
+        }
+        return materialized;
+    }
+
+    /**
+     * @return <code>true</code> if this instance still reads headers from the datagram bytes.
+     */
+    public boolean isMaterialized() {
+        return materialized != null;
+    }
+
+    protected List<UpnpHeader<?>> parse(UpnpHeader.Type type) {
+        if (parsedHeaders == null)
+            parsedHeaders = new EnumMap<>(UpnpHeader.Type.class);
+        List<UpnpHeader<?>> list = parsedHeaders.get(type);
+        if (list == null && !parsedHeaders.containsKey(type)) {
+            for (int i = indexOf(type.getHttpName(), 0); i != -1; i = indexOf(type.getHttpName(), i + 1)) {
+                String value = valueOf(i);
+                UpnpHeader<?> upnpHeader = UpnpHeader.newInstance(type, value);
+                if (upnpHeader == null || upnpHeader.getValue() == null) {
+                    if (logger.isLoggable(Level.FINE))
+                        logger.fine(
+                            "Ignoring known but irrelevant header (value violates the UDA specification?) '"
+                                + type.getHttpName()
+                                + "': "
+                                + value
+                        );
+                    continue;
+                }
+                if (list == null)
+                    list = new ArrayList<>(1);
+                list.add(upnpHeader);
+            }
+            // Remember missing headers too, a message is usually checked several times for the same header
+            parsedHeaders.put(type, list);
+        }
+        return list;
+    }
+
+    @Override
+    public boolean containsKey(UpnpHeader.Type type) {
+        if (materialized != null) return materialized.containsKey(type);
+        return parse(type) != null;
+    }
+
+    @Override
+    public List<UpnpHeader<?>> get(UpnpHeader.Type type) {
+        if (materialized != null) return materialized.get(type);
+        return parse(type);
+    }
+
+    @Override
+    public void add(UpnpHeader.Type type, UpnpHeader<?> value) {
+        materialize().add(type, value);
+    }
+
+    @Override
+    public void remove(UpnpHeader.Type type) {
+        materialize().remove(type);
+    }
+
+    @Override
+    public List<UpnpHeader<?>> getList(UpnpHeader.Type type) {
+        if (materialized != null) return materialized.getList(type);
+        List<UpnpHeader<?>> list = parse(type);
+        return list != null ? Collections.unmodifiableList(list) : Collections.emptyList();
+    }
+
+    @Override
+    public UpnpHeader<?> getFirstHeader(UpnpHeader.Type type) {
+        if (materialized != null) return materialized.getFirstHeader(type);
+        List<UpnpHeader<?>> list = parse(type);
+        return list != null ? list.get(0) : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <H extends UpnpHeader<?>> H getFirstHeader(UpnpHeader.Type type, Class<H> subtype) {
+        if (materialized != null) return materialized.getFirstHeader(type, subtype);
+        List<UpnpHeader<?>> list = parse(type);
+        if (list != null) {
+            for (UpnpHeader<?> header : list) {
+                if (subtype.isAssignableFrom(header.getClass())) {
+                    return (H) header;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getFirstHeaderString(UpnpHeader.Type type) {
+        UpnpHeader<?> header = getFirstHeader(type);
+        return header != null ? header.getString() : null;
+    }
+
+    @Override
+    public String getFirstHeader(String key) {
+        if (materialized != null) return materialized.getFirstHeader(key);
+        int i = indexOf(key, 0);
+        return i != -1 ? valueOf(i) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (materialized != null) return materialized.containsKey(key);
+        return key instanceof String && indexOf((String) key, 0) != -1;
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        if (materialized != null) return materialized.get(key);
+        if (!(key instanceof String))
+            return null;
+        List<String> values = null;
+        for (int i = indexOf((String) key, 0); i != -1; i = indexOf((String) key, i + 1)) {
+            if (values == null)
+                values = new ArrayList<>(1);
+            values.add(valueOf(i));
+        }
+        return values;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (materialized != null) return materialized.isEmpty();
+        return headerCount == 0;
+    }
+
+    @Override
+    public int size() {
+        return materialize().size();
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return materialize().containsValue(value);
+    }
+
+    @Override
+    public List<String> put(String key, List<String> value) {
+        return materialize().put(key, value);
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        return materialize().remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends List<String>> m) {
+        materialize().putAll(m);
+    }
+
+    @Override
+    public void clear() {
+        materialize().clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return materialize().keySet();
+    }
+
+    @Override
+    public Collection<List<String>> values() {
+        return materialize().values();
+    }
+
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        return materialize().entrySet();
+    }
+
+    @Override
+    public void set(String key, String value) {
+        materialize().set(key, value);
+    }
+
+    @Override
+    public void add(String key, String value) {
+        materialize().add(key, value);
+    }
+
+    @Override
+    public void log() {
+        if (logger.isLoggable(Level.FINE))
+            materialize().log();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof LazyUpnpHeaders)
+            return materialize().equals(((LazyUpnpHeaders) o).materialize());
+        return materialize().equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return materialize().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return materialize().toString();
+    }
+}
@@ -69,6 +69,14 @@ public class StreamRequestMessage extends UpnpMessage<UpnpRequest> {
         super(new UpnpRequest(method, url), BodyType.BYTES, body);
     }
 
+    public StreamRequestMessage(UpnpRequest operation, StreamingBody body) {
+        super(operation, BodyType.STREAM, body);
+    }
+
+    public StreamRequestMessage(UpnpRequest.Method method, URI uri, StreamingBody body) {
+        super(new UpnpRequest(method, uri), BodyType.STREAM, body);
+    }
+
     public URI getUri() {
         return getOperation().getURI();
     }
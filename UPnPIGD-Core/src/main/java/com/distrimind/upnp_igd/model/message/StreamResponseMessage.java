@@ -57,6 +57,14 @@ public class StreamResponseMessage extends UpnpMessage<UpnpResponse> {
     }
 
 
+    public StreamResponseMessage(UpnpResponse operation, StreamingBody body) {
+        super(operation, BodyType.STREAM, body);
+    }
+
+    public StreamResponseMessage(StreamingBody body) {
+        super(new UpnpResponse(UpnpResponse.Status.OK), BodyType.STREAM, body);
+    }
+
     public StreamResponseMessage(String body, ContentTypeHeader contentType) {
         this(body);
         getHeaders().add(UpnpHeader.Type.CONTENT_TYPE, contentType);
@@ -75,4 +83,13 @@ public class StreamResponseMessage extends UpnpMessage<UpnpResponse> {
         this(body, new ContentTypeHeader(mimeType));
     }
 
-}
\ No newline at end of file
+    public StreamResponseMessage(StreamingBody body, ContentTypeHeader contentType) {
+        this(body);
+        getHeaders().add(UpnpHeader.Type.CONTENT_TYPE, contentType);
+    }
+
+    public StreamResponseMessage(StreamingBody body, MimeType mimeType) {
+        this(body, new ContentTypeHeader(mimeType));
+    }
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.model.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A message body which is read from a channel while the message is transmitted.
+ * <p>
+ * The transport writes such a body in chunks, with a <code>Content-Length</code> header if
+ * the length is known, otherwise with chunked transfer encoding. Large bodies, for example
+ * icons, are therefore not held in memory.
+ * </p>
+ * <p>
+ * A body backed by a stream or a channel can be opened only once, bodies backed by bytes
+ * or by a file can be opened again for every transmission.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public abstract class StreamingBody {
+
+    static final private int TRANSFER_BUFFER_SIZE = 8192;
+    static final private int INITIAL_READ_BUFFER_SIZE = TRANSFER_BUFFER_SIZE * 8;
+
+    /**
+     * @return The number of bytes of this body, or <code>-1</code> if unknown.
+     */
+    public abstract long getContentLength();
+
+    /**
+     * @return A channel reading this body from its start, the caller has to close it.
+     * @throws IOException If the body can't be opened, or has already been consumed.
+     */
+    public abstract ReadableByteChannel openChannel() throws IOException;
+
+    /**
+     * @return The body as a read-only buffer if it is held in memory, otherwise <code>null</code>.
+     */
+    public ByteBuffer getBuffer() {
+        return null;
+    }
+
+    /**
+     * @return An input stream reading this body from its start, the caller has to close it.
+     */
+    public InputStream openStream() throws IOException {
+        return Channels.newInputStream(openChannel());
+    }
+
+    /**
+     * Reads the whole body into memory.
+     * <p>
+     * The content length often comes from a remote peer, so it is not trusted for the
+     * allocation: the buffer starts with at most 64 KiB and
+     * grows as data arrives, never beyond the content length.
+     * </p>
+     */
+    public byte[] readBytes() throws IOException {
+        ByteBuffer buffer = getBuffer();
+        if (buffer != null) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+        try (ReadableByteChannel channel = openChannel()) {
+            long length = getContentLength();
+            if (length >= 0 && length <= Integer.MAX_VALUE) {
+                buffer = ByteBuffer.allocate((int) Math.min(length, INITIAL_READ_BUFFER_SIZE));
+                while (buffer.position() < length) {
+                    if (!buffer.hasRemaining()) {
+                        ByteBuffer larger = ByteBuffer.allocate((int) Math.min(length, buffer.capacity() * 2L));
+                        buffer.flip();
+                        larger.put(buffer);
+                        buffer = larger;
+                    }
+                    if (channel.read(buffer) < 0)
+                        throw new IOException("Body ended after " + buffer.position() + " of " + length + " bytes");
+                }
+                return buffer.array();
+            }
+            ByteArrayOutputStream os = new ByteArrayOutputStream(TRANSFER_BUFFER_SIZE);
+            transferTo(channel, os);
+            return os.toByteArray();
+        }
+    }
+
+    /**
+     * Copies the whole body to the given stream, which is not closed.
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        ByteBuffer buffer = getBuffer();
+        if (buffer != null) {
+            if (buffer.hasArray()) {
+                os.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                os.write(bytes);
+            }
+            return;
+        }
+        try (ReadableByteChannel channel = openChannel()) {
+            transferTo(channel, os);
+        }
+    }
+
+    static protected void transferTo(ReadableByteChannel channel, OutputStream os) throws IOException {
+        byte[] bytes = new byte[TRANSFER_BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int read;
+        while ((read = channel.read(buffer)) >= 0) {
+            os.write(bytes, 0, read);
+            buffer.clear();
+        }
+    }
+
+    /**
+     * @param bytes The body, it is not copied and must no longer be modified.
+     */
+    public static StreamingBody of(byte[] bytes) {
+        return new StreamingBody() {
+            @Override
+            public long getContentLength() {
+                return bytes.length;
+            }
+
+            @Override
+            public ReadableByteChannel openChannel() {
+                return Channels.newChannel(openStream());
+            }
+
+            @Override
+            public InputStream openStream() {
+                return new ByteArrayInputStream(bytes);
+            }
+
+            @Override
+            public ByteBuffer getBuffer() {
+                return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+            }
+        };
+    }
+
+    /**
+     * @param file The file, read again for every transmission.
+     */
+    public static StreamingBody of(Path file) {
+        return new StreamingBody() {
+            @Override
+            public long getContentLength() {
+                try {
+                    return Files.size(file);
+                } catch (IOException ex) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public ReadableByteChannel openChannel() throws IOException {
+                return FileChannel.open(file, StandardOpenOption.READ);
+            }
+
+            @Override
+            public String toString() {
+                return "(StreamingBody) " + file;
+            }
+        };
+    }
+
+    /**
+     * @param channel The body, read once.
+     * @param contentLength The number of bytes of the body, or <code>-1</code> if unknown.
+     */
+    public static StreamingBody of(ReadableByteChannel channel, long contentLength) {
+        return new StreamingBody() {
+            private boolean opened;
+
+            @Override
+            public long getContentLength() {
+                return contentLength;
+            }
+
+            @Override
+            synchronized public ReadableByteChannel openChannel() throws IOException {
+                if (opened)
+                    throw new IOException("Body has already been read");
+                opened = true;
+                return channel;
+            }
+        };
+    }
+
+    /**
+     * @param is The body, read once.
+     * @param contentLength The number of bytes of the body, or <code>-1</code> if unknown.
+     */
+    public static StreamingBody of(InputStream is, long contentLength) {
+        return of(Channels.newChannel(is), contentLength);
+    }
+}
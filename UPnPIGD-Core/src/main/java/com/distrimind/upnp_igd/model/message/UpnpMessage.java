@@ -19,13 +19,15 @@ import com.distrimind.upnp_igd.model.message.header.ContentTypeHeader;
 import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
 /**
  * A non-streaming message, the interface between the transport layer and the protocols.
  * <p>
- * Defaults to UDA version 1.0 and a string body type. Message content is not streamed,
- * it is always read into memory and transported as a string or bytes message body.
+ * Defaults to UDA version 1.0 and a string body type. Message content is usually read into
+ * memory and transported as a string or bytes message body. A {@link StreamingBody} is only
+ * read while the message is transmitted, unless a protocol asks for its string or bytes.
  * </p>
  * <p>
  * Subtypes of this class typically implement the integrity rules for individual UPnP
@@ -41,7 +43,7 @@ import java.nio.charset.StandardCharsets;
 public abstract class UpnpMessage<O extends UpnpOperation> {
 
     public enum BodyType {
-        STRING, BYTES
+        STRING, BYTES, STREAM
     }
 
     private int udaMajorVersion = 1;
@@ -109,6 +111,11 @@ public abstract class UpnpMessage<O extends UpnpOperation> {
         this.body = body;
     }
 
+    public void setBody(StreamingBody body) {
+        this.bodyType = BodyType.STREAM;
+        this.body = body;
+    }
+
     public void setBodyCharacters(byte[] characterData) throws UnsupportedEncodingException {
         setBody(
                 UpnpMessage.BodyType.STRING,
@@ -140,17 +147,22 @@ public abstract class UpnpMessage<O extends UpnpOperation> {
                 }
                 if(getBodyType().equals(BodyType.STRING)) {
                     String body = ((String) getBody());
-                    if(body.charAt(0) == '\ufeff') { /* utf8 BOM */
+                    if(!body.isEmpty() && body.charAt(0) == '\ufeff') { /* utf8 BOM */
                         body = body.substring(1);
                     }
                     return body;
                 } else {
-                    return new String((byte[]) getBody(), StandardCharsets.UTF_8);
+                    return new String(getBodyBytes(), getBodyCharset());
                 }
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
     }
+
+    /**
+     * Strings are encoded with the charset of the content type, or UTF-8. A {@link StreamingBody} is
+     * read into memory and replaced by its bytes.
+     */
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     public byte[] getBodyBytes() {
         try {
@@ -158,7 +170,11 @@ public abstract class UpnpMessage<O extends UpnpOperation> {
                 return null;
             }
             if(getBodyType().equals(BodyType.STRING)) {
-                return getBodyString().getBytes();
+                return getBodyString().getBytes(getBodyCharset());
+            } else if (getBodyType().equals(BodyType.STREAM)) {
+                byte[] bytes = ((StreamingBody) getBody()).readBytes();
+                setBody(BodyType.BYTES, bytes);
+                return bytes;
             } else {
                 return (byte[]) getBody();
             }
@@ -167,6 +183,29 @@ public abstract class UpnpMessage<O extends UpnpOperation> {
         }
     }
 
+    /**
+     * @return The body to transmit, string and bytes bodies are wrapped without copying them
+     *         again, or <code>null</code> if this message has no body.
+     */
+    public StreamingBody getStreamingBody() {
+        if (!hasBody()) {
+            return null;
+        }
+        if (getBodyType().equals(BodyType.STREAM)) {
+            return (StreamingBody) getBody();
+        }
+        return StreamingBody.of(getBodyBytes());
+    }
+
+    protected Charset getBodyCharset() {
+        String charset = getContentTypeCharset();
+        try {
+            return charset != null ? Charset.forName(charset) : StandardCharsets.UTF_8;
+        } catch (IllegalArgumentException ex) {
+            return StandardCharsets.UTF_8;
+        }
+    }
+
     public O getOperation() {
         return operation;
     }
@@ -17,6 +17,8 @@ package com.distrimind.upnp_igd.model.message.discovery;
 
 import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.header.BootIdHeader;
+import com.distrimind.upnp_igd.model.message.header.ConfigIdHeader;
 import com.distrimind.upnp_igd.model.message.header.DeviceUSNHeader;
 import com.distrimind.upnp_igd.model.message.header.InterfaceMacHeader;
 import com.distrimind.upnp_igd.model.message.header.LocationHeader;
@@ -88,6 +90,35 @@ public class IncomingNotificationRequest extends IncomingDatagramMessage<UpnpReq
         }
         return null;
     }
+    /**
+     * @return The configuration number of the device's descriptors, or <code>null</code> if the
+     *         device didn't announce one (UDA 1.0).
+     */
+    public Integer getConfigId() {
+        ConfigIdHeader header = getHeaders().getFirstHeader(UpnpHeader.Type.CONFIGID, ConfigIdHeader.class);
+        if (header != null) {
+            return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * @return The boot instance number of the device, or <code>null</code> if the device didn't
+     *         announce one (UDA 1.0).
+     */
+    public Integer getBootId() {
+        BootIdHeader header = getHeaders().getFirstHeader(UpnpHeader.Type.BOOTID, BootIdHeader.class);
+        if (header != null) {
+            return header.getValue();
+        }
+        return null;
+    }
+
+    public boolean isRawAliveMessage() {
+        String nts = getHeaders().getFirstHeader(UpnpHeader.Type.NTS.getHttpName());
+        return nts != null && nts.trim().equals(NotificationSubtype.ALIVE.getHeaderString());
+    }
+
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     public byte[] getInterfaceMacHeader() {
         InterfaceMacHeader header = getHeaders().getFirstHeader(UpnpHeader.Type.EXT_IFACE_MAC, InterfaceMacHeader.class);
@@ -17,6 +17,8 @@ package com.distrimind.upnp_igd.model.message.discovery;
 
 import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.model.message.header.BootIdHeader;
+import com.distrimind.upnp_igd.model.message.header.ConfigIdHeader;
 import com.distrimind.upnp_igd.model.message.header.DeviceUSNHeader;
 import com.distrimind.upnp_igd.model.message.header.InterfaceMacHeader;
 import com.distrimind.upnp_igd.model.message.header.LocationHeader;
@@ -47,6 +49,16 @@ public class IncomingSearchResponse extends IncomingDatagramMessage<UpnpResponse
         return st != null && st.getValue() != null && usn != null && usn.getValue() != null && ext != null;
     }
 
+    /**
+     * Checks the presence of the raw <code>ST</code>, <code>USN</code> and <code>EXT</code> headers,
+     * without parsing them.
+     */
+    public boolean isRawSearchResponseMessage() {
+        return getHeaders().getFirstHeader(UpnpHeader.Type.ST.getHttpName()) != null
+            && getHeaders().getFirstHeader(UpnpHeader.Type.USN.getHttpName()) != null
+            && getHeaders().containsKey(UpnpHeader.Type.EXT.getHttpName());
+    }
+
     public UDN getRootDeviceUDN() {
         // This processes the headers as specified in UDA 1.0, tables in section 1.1.12
 
@@ -80,6 +92,30 @@ public class IncomingSearchResponse extends IncomingDatagramMessage<UpnpResponse
         }
         return null;
     }
+    /**
+     * @return The configuration number of the device's descriptors, or <code>null</code> if the
+     *         device didn't announce one (UDA 1.0).
+     */
+    public Integer getConfigId() {
+        ConfigIdHeader header = getHeaders().getFirstHeader(UpnpHeader.Type.CONFIGID, ConfigIdHeader.class);
+        if (header != null) {
+            return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * @return The boot instance number of the device, or <code>null</code> if the device didn't
+     *         announce one (UDA 1.0).
+     */
+    public Integer getBootId() {
+        BootIdHeader header = getHeaders().getFirstHeader(UpnpHeader.Type.BOOTID, BootIdHeader.class);
+        if (header != null) {
+            return header.getValue();
+        }
+        return null;
+    }
+
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     public byte[] getInterfaceMacHeader() {
         InterfaceMacHeader header = getHeaders().getFirstHeader(UpnpHeader.Type.EXT_IFACE_MAC, InterfaceMacHeader.class);
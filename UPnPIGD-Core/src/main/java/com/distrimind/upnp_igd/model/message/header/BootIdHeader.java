@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.model.message.header;
+
+/**
+ * The <code>BOOTID.UPNP.ORG</code> header of UDA 1.1 discovery messages.
+ * <p>
+ * A device increases this value each time it rejoins the network, for example after a reboot.
+ * Its subscriptions and the state known by control points might then be lost.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class BootIdHeader extends UpnpHeader<Integer> {
+
+    public BootIdHeader() {
+    }
+
+    public BootIdHeader(Integer bootId) {
+        setValue(bootId);
+    }
+
+    @Override
+	public void setString(String s) throws InvalidHeaderException {
+        int value;
+        try {
+            value = Integer.parseInt(s.trim());
+        } catch (Exception ex) {
+            throw new InvalidHeaderException("Can't parse BOOTID integer from: " + s);
+        }
+        if (value < 0) {
+            throw new InvalidHeaderException("Invalid BOOTID value, must not be negative: " + s);
+        }
+        setValue(value);
+    }
+
+    @Override
+	public String getString() {
+        return getValue().toString();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.model.message.header;
+
+/**
+ * The <code>CONFIGID.UPNP.ORG</code> header of UDA 1.1 discovery messages.
+ * <p>
+ * The value identifies the current version of the device's and its services' descriptors,
+ * a device changes it whenever any of its descriptors changes.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class ConfigIdHeader extends UpnpHeader<Integer> {
+
+    // UDA 1.1: Values 0 to 16777215 (2^24-1) are allowed, higher values are reserved
+    public static final int MAX_VALUE = 16777215;
+
+    public ConfigIdHeader() {
+    }
+
+    public ConfigIdHeader(Integer configId) {
+        setValue(configId);
+    }
+
+    @Override
+	public void setString(String s) throws InvalidHeaderException {
+        int value;
+        try {
+            value = Integer.parseInt(s.trim());
+        } catch (Exception ex) {
+            throw new InvalidHeaderException("Can't parse CONFIGID integer from: " + s);
+        }
+        if (value < 0 || value > MAX_VALUE) {
+            throw new InvalidHeaderException("Invalid CONFIGID value, must be between 0 and " + MAX_VALUE + ": " + s);
+        }
+        setValue(value);
+    }
+
+    @Override
+	public String getString() {
+        return getValue().toString();
+    }
+}
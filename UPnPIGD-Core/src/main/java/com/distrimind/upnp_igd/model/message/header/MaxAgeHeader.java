@@ -28,6 +28,7 @@ public class MaxAgeHeader extends UpnpHeader<Integer> {
 
     // UDA 1.1 expands on the rules in UDA 1.0 and clearly says that anything but max-age has to be ignored
     public static final Pattern MAX_AGE_REGEX = Pattern.compile(".*max-age\\s*=\\s*([0-9]+).*");
+    private static final String MAX_AGE = "max-age";
 
     public MaxAgeHeader(Integer maxAge) {
         setValue(maxAge);
@@ -49,6 +50,37 @@ public class MaxAgeHeader extends UpnpHeader<Integer> {
         setValue(maxAge);
     }
 
+    /**
+     * Reads the <code>max-age</code> directive of a raw <code>CACHE-CONTROL</code> value, like
+     * {@link #setString(String)} but without allocating a matcher.
+     *
+     * @return The maximum age in seconds, or <code>-1</code> if the value can't be parsed.
+     */
+    public static int parseMaxAgeSeconds(String s) {
+        if (s == null)
+            return -1;
+        int length = s.length();
+        for (int i = length - MAX_AGE.length(); i >= 0; i--) {
+            if (!s.regionMatches(true, i, MAX_AGE, 0, MAX_AGE.length()))
+                continue;
+            int j = i + MAX_AGE.length();
+            while (j < length && Character.isWhitespace(s.charAt(j))) j++;
+            if (j == length || s.charAt(j) != '=')
+                continue;
+            j++;
+            while (j < length && Character.isWhitespace(s.charAt(j))) j++;
+            long value = 0;
+            int digits = 0;
+            while (j < length && s.charAt(j) >= '0' && s.charAt(j) <= '9') {
+                value = value * 10 + (s.charAt(j++) - '0');
+                if (++digits > 10)
+                    return -1;
+            }
+            return digits == 0 || value > Integer.MAX_VALUE ? -1 : (int) value;
+        }
+        return -1;
+    }
+
     @Override
 	public String getString() {
         return "max-age="+getValue().toString();
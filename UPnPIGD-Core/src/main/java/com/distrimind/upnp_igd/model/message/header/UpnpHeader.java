@@ -82,6 +82,8 @@ public abstract class UpnpHeader<T> {
         RANGE("RANGE", RangeHeader.class),
         CONTENT_RANGE("CONTENT-RANGE", ContentRangeHeader.class),
         PRAGMA("PRAGMA", PragmaHeader.class),
+        CONFIGID("CONFIGID.UPNP.ORG", ConfigIdHeader.class),
+        BOOTID("BOOTID.UPNP.ORG", BootIdHeader.class),
         
         EXT_IFACE_MAC("X-CLING-IFACE-MAC", InterfaceMacHeader.class),
         EXT_AV_CLIENT_INFO("X-AV-CLIENT-INFO", AVClientInfoHeader.class);
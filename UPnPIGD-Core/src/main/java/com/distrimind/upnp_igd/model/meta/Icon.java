@@ -18,6 +18,7 @@ package com.distrimind.upnp_igd.model.meta;
 
 import com.distrimind.upnp_igd.model.Validatable;
 import com.distrimind.upnp_igd.model.ValidationError;
+import com.distrimind.upnp_igd.model.message.StreamingBody;
 import com.distrimind.upnp_igd.model.types.BinHexDatatype;
 import com.distrimind.upnp_igd.util.io.IO;
 import com.distrimind.upnp_igd.util.MimeType;
@@ -57,6 +58,7 @@ public class Icon implements Validatable {
     final private int depth;
     final private URI uri;
     final private byte[] data;
+    final private StreamingBody body;
 
     // Package mutable state
     private Device<?, ?, ?> device;
@@ -81,9 +83,12 @@ public class Icon implements Validatable {
     /**
      * Use this constructor if your local icon data can be resolved with a <code>File</code>, the file's
      * name must be unique within the scope of a device.
+     * <p>
+     * The file is read when the icon is retrieved, it is not kept in memory.
+     * </p>
      */
     public Icon(String mimeType, int width, int height, int depth, File file) throws IOException {
-        this(mimeType, width, height, depth, file.getName(), IO.readBytes(file));
+        this(mimeType, width, height, depth, file.getName(), StreamingBody.of(checkReadable(file).toPath()));
     }
 
     /**
@@ -117,13 +122,34 @@ public class Icon implements Validatable {
         );
     }
 
+    /**
+     * Use this constructor if your local icon data is read from a channel every time the icon is retrieved.
+     *
+     * @param uniqueName Must be a valid URI path segment and unique within the scope of a device.
+     * @param body A body which can be opened several times, for example backed by a file.
+     */
+    public Icon(String mimeType, int width, int height, int depth, String uniqueName, StreamingBody body) {
+        this(mimeType != null && !mimeType.isEmpty() ? MimeType.valueOf(mimeType) : null, width, height, depth, URI.create(uniqueName), null, body);
+    }
+
     protected Icon(MimeType mimeType, int width, int height, int depth, URI uri, byte[] data) {
+        this(mimeType, width, height, depth, uri, data, null);
+    }
+
+    protected Icon(MimeType mimeType, int width, int height, int depth, URI uri, byte[] data, StreamingBody body) {
         this.mimeType = mimeType;
         this.width = width;
         this.height = height;
         this.depth = depth;
         this.uri = uri;
         this.data = data==null?null:data.clone();
+        this.body = body != null || this.data == null ? body : StreamingBody.of(this.data);
+    }
+
+    static private File checkReadable(File file) throws IOException {
+        if (!file.isFile() || !file.canRead())
+            throw new IOException("Can't read icon file: " + file);
+        return file;
     }
 
     public MimeType getMimeType() {
@@ -146,8 +172,27 @@ public class Icon implements Validatable {
         return uri;
     }
 
+    /**
+     * @return A copy of the icon data, read from its {@link StreamingBody} if the icon isn't held in memory.
+     */
     public byte[] getData() {
-        return data==null?null:data.clone();
+        if (data != null)
+            return data.clone();
+        if (body == null)
+            return null;
+        try {
+            return body.readBytes();
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.WARNING)) log.warning("Can't read icon data of " + this + ": " + ex);
+            return null;
+        }
+    }
+
+    /**
+     * @return The icon data, without copying it, or <code>null</code> if this is not a local icon.
+     */
+    public StreamingBody getBody() {
+        return body;
     }
 
     public Device<?, ?, ?> getDevice() {
@@ -223,7 +268,8 @@ public class Icon implements Validatable {
                 getHeight(),
                 getDepth(),
                 getUri(),
-                getData()
+                data,
+                data == null ? body : null
         );
     }
 
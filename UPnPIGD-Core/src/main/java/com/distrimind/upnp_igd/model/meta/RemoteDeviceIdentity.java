@@ -37,6 +37,11 @@ import java.net.URL;
  * reachable and might be sleeping. (Useful for "stateless" reconnecting control
  * points.)
  * </p>
+ * <p>
+ * UDA 1.1 devices also announce the configuration number of their descriptors, which
+ * changes whenever any of the device's descriptors changes, and a boot instance number,
+ * which changes whenever the device rejoins the network.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -45,16 +50,28 @@ public class RemoteDeviceIdentity extends DeviceIdentity {
     final private URL descriptorURL;
     final private byte[] interfaceMacAddress;
     final private InetAddress discoveredOnLocalAddress;
+    final private Integer configId;
+    final private Integer bootId;
 
     public RemoteDeviceIdentity(UDN udn, RemoteDeviceIdentity template) {
-        this(udn, template.getMaxAgeSeconds(), template.getDescriptorURL(), template.getInterfaceMacAddress(), template.getDiscoveredOnLocalAddress());
+        this(udn, template.getMaxAgeSeconds(), template.getDescriptorURL(), template.getInterfaceMacAddress(), template.getDiscoveredOnLocalAddress(), template.getConfigId(), template.getBootId());
     }
 
     public RemoteDeviceIdentity(UDN udn, Integer maxAgeSeconds, URL descriptorURL, byte[] interfaceMacAddress, InetAddress discoveredOnLocalAddress) {
+        this(udn, maxAgeSeconds, descriptorURL, interfaceMacAddress, discoveredOnLocalAddress, null);
+    }
+
+    public RemoteDeviceIdentity(UDN udn, Integer maxAgeSeconds, URL descriptorURL, byte[] interfaceMacAddress, InetAddress discoveredOnLocalAddress, Integer configId) {
+        this(udn, maxAgeSeconds, descriptorURL, interfaceMacAddress, discoveredOnLocalAddress, configId, null);
+    }
+
+    public RemoteDeviceIdentity(UDN udn, Integer maxAgeSeconds, URL descriptorURL, byte[] interfaceMacAddress, InetAddress discoveredOnLocalAddress, Integer configId, Integer bootId) {
         super(udn, maxAgeSeconds);
         this.descriptorURL = descriptorURL;
         this.interfaceMacAddress = interfaceMacAddress==null?null:interfaceMacAddress.clone();
         this.discoveredOnLocalAddress = discoveredOnLocalAddress;
+        this.configId = configId;
+        this.bootId = bootId;
     }
 
     public RemoteDeviceIdentity(IncomingNotificationRequest notificationRequest) {
@@ -62,7 +79,9 @@ public class RemoteDeviceIdentity extends DeviceIdentity {
              notificationRequest.getMaxAge(),
              notificationRequest.getLocationURL(),
              notificationRequest.getInterfaceMacHeader(),
-             notificationRequest.getLocalAddress()
+             notificationRequest.getLocalAddress(),
+             notificationRequest.getConfigId(),
+             notificationRequest.getBootId()
         );
     }
 
@@ -71,7 +90,9 @@ public class RemoteDeviceIdentity extends DeviceIdentity {
              searchResponse.getMaxAge(),
              searchResponse.getLocationURL(),
              searchResponse.getInterfaceMacHeader(),
-             searchResponse.getLocalAddress()
+             searchResponse.getLocalAddress(),
+             searchResponse.getConfigId(),
+             searchResponse.getBootId()
         );
     }
 
@@ -87,6 +108,20 @@ public class RemoteDeviceIdentity extends DeviceIdentity {
         return discoveredOnLocalAddress;
     }
 
+    /**
+     * @return The announced <code>CONFIGID.UPNP.ORG</code> value, or <code>null</code>.
+     */
+    public Integer getConfigId() {
+        return configId;
+    }
+
+    /**
+     * @return The announced <code>BOOTID.UPNP.ORG</code> value, or <code>null</code>.
+     */
+    public Integer getBootId() {
+        return bootId;
+    }
+
     @SuppressWarnings("PMD.ReturnEmptyCollectionRatherThanNull")
     public byte[] getWakeOnLANBytes() {
         if (getInterfaceMacAddress() == null) return null;
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.protocol;
+
+import com.distrimind.upnp_igd.model.meta.RemoteDevice;
+import com.distrimind.upnp_igd.model.types.UDN;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coordinates the {@link RetrieveRemoteDescriptors} protocols of a UPnP stack.
+ * <p>
+ * Only one retrieval runs at a time for a descriptor URL, callers arriving while it runs get the
+ * same future and can wait for the retrieved device. After a failed retrieval, the descriptor
+ * URL is not retrieved again for a delay doubling with each consecutive failure, so that broken
+ * or slow devices don't trigger a retrieval each time they announce themselves.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class DescriptorRetrievalCoordinator {
+
+    final private static Logger log = Logger.getLogger(DescriptorRetrievalCoordinator.class.getName());
+
+    public static final long DEFAULT_MIN_BACKOFF_MILLIS = 30000;
+    public static final long DEFAULT_MAX_BACKOFF_MILLIS = 600000;
+    public static final int DEFAULT_MAX_FAILED_URLS = 4096;
+
+    protected static class Failure {
+
+        final protected int count;
+        final protected long retryNanos;
+
+        protected Failure(int count, long retryNanos) {
+            this.count = count;
+            this.retryNanos = retryNanos;
+        }
+
+        protected boolean isRetryAllowed(long nowNanos) {
+            return nowNanos - retryNanos >= 0;
+        }
+    }
+
+    protected final long minBackoffMillis;
+    protected final long maxBackoffMillis;
+    protected final int maxFailedURLs;
+
+    // Keyed by URL string, URL.equals() resolves host names
+    protected final Map<String, CompletableFuture<RemoteDevice>> activeRetrievals = new ConcurrentHashMap<>();
+    protected final Map<String, Failure> failures = new ConcurrentHashMap<>();
+    protected final Set<UDN> errorsLogged = ConcurrentHashMap.newKeySet();
+
+    public DescriptorRetrievalCoordinator() {
+        this(DEFAULT_MIN_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_MAX_FAILED_URLS);
+    }
+
+    /**
+     * @param minBackoffMillis The delay before a descriptor URL is retrieved again after a first failure.
+     * @param maxBackoffMillis The maximum delay before a descriptor URL is retrieved again.
+     * @param maxFailedURLs The maximum number of failed descriptor URLs remembered.
+     */
+    public DescriptorRetrievalCoordinator(long minBackoffMillis, long maxBackoffMillis, int maxFailedURLs) {
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxFailedURLs = maxFailedURLs;
+    }
+
+    /**
+     * Runs the retrieval in the calling thread, unless a retrieval of the same descriptor URL is already
+     * in progress.
+     *
+     * @param retrieval Returns the retrieved device, or <code>null</code> if the retrieval failed.
+     * @return The future of the retrieval in progress, or of the completed retrieval.
+     */
+    public CompletableFuture<RemoteDevice> retrieve(URL descriptorURL, Supplier<RemoteDevice> retrieval) {
+        String key = descriptorURL.toString();
+        CompletableFuture<RemoteDevice> future = new CompletableFuture<>();
+        CompletableFuture<RemoteDevice> activeRetrieval = activeRetrievals.putIfAbsent(key, future);
+        if (activeRetrieval != null) {
+            if (log.isLoggable(Level.FINER)) {
+                log.finer("Joining active retrieval of: " + descriptorURL);
+            }
+            return activeRetrieval;
+        }
+        try {
+            RemoteDevice device = retrieval.get();
+            if (device != null)
+                succeeded(key);
+            else
+                failed(key);
+            future.complete(device);
+        } catch (RuntimeException ex) {
+            failed(key);
+            future.completeExceptionally(ex);
+        } finally {
+            activeRetrievals.remove(key, future);
+        }
+        return future;
+    }
+
+    /**
+     * @return The future of the retrieval in progress for the descriptor URL, or <code>null</code>.
+     */
+    public CompletableFuture<RemoteDevice> getActiveRetrieval(URL descriptorURL) {
+        return activeRetrievals.get(descriptorURL.toString());
+    }
+
+    /**
+     * @return <code>true</code> if the retrieval of the descriptor URL failed recently and shouldn't be attempted yet.
+     */
+    public boolean isBackingOff(URL descriptorURL) {
+        Failure failure = failures.get(descriptorURL.toString());
+        return failure != null && !failure.isRetryAllowed(System.nanoTime());
+    }
+
+    /**
+     * @return The number of consecutive failed retrievals of the descriptor URL.
+     */
+    public int getFailureCount(URL descriptorURL) {
+        Failure failure = failures.get(descriptorURL.toString());
+        return failure != null ? failure.count : 0;
+    }
+
+    /**
+     * Avoids logging the same errors each time a broken device announces itself.
+     *
+     * @return <code>true</code> if errors of this device weren't logged since it was last retrieved successfully.
+     */
+    public boolean markErrorLogged(UDN udn) {
+        if (errorsLogged.size() >= maxFailedURLs)
+            errorsLogged.clear();
+        return errorsLogged.add(udn);
+    }
+
+    public void clearErrorLogged(UDN udn) {
+        errorsLogged.remove(udn);
+    }
+
+    protected void succeeded(String key) {
+        failures.remove(key);
+    }
+
+    protected void failed(String key) {
+        long now = System.nanoTime();
+        if (failures.size() >= maxFailedURLs && !failures.containsKey(key)) {
+            Iterator<Failure> it = failures.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().isRetryAllowed(now))
+                    it.remove();
+            }
+            if (failures.size() >= maxFailedURLs)
+                return;
+        }
+        failures.compute(key, (k, previous) -> {
+            int count = previous != null ? previous.count + 1 : 1;
+            long backoffMillis = getBackoffMillis(count);
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Retrieval of " + k + " failed " + count + " time(s), retrying in " + backoffMillis + " ms");
+            }
+            return new Failure(count, now + TimeUnit.MILLISECONDS.toNanos(backoffMillis));
+        });
+    }
+
+    /**
+     * @return The delay before retrying after the given number of consecutive failures.
+     */
+    protected long getBackoffMillis(int failureCount) {
+        long backoffMillis = minBackoffMillis;
+        for (int i = 1; i < failureCount && backoffMillis < maxBackoffMillis; i++) {
+            backoffMillis *= 2;
+        }
+        return Math.min(backoffMillis, maxBackoffMillis);
+    }
+}
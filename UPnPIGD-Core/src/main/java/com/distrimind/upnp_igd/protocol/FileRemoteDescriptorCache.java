@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.protocol;
+
+import com.distrimind.upnp_igd.model.types.ServiceId;
+import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.model.types.UDN;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the descriptors of remote devices in a file, so that devices can be restored when the
+ * UPnP stack starts again, see {@link RestoreRemoteDevices}.
+ * <p>
+ * Changes are appended to the file as they happen. The file is read once when the cache is
+ * created, a record truncated by a crash is discarded. When the file holds too many outdated
+ * records, it is rewritten with the current descriptors and atomically replaces the old file.
+ * </p>
+ * <p>
+ * Hydrated service models are not stored, they are hydrated again from the stored XML when a
+ * service descriptor is used for the first time. Storage errors are logged, the cache then
+ * keeps working in memory only.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class FileRemoteDescriptorCache extends RemoteDescriptorCache {
+
+    final private static Logger log = Logger.getLogger(FileRemoteDescriptorCache.class.getName());
+
+    protected static final int FILE_HEADER = 0x55524443; // "URDC"
+    protected static final int FILE_VERSION = 1;
+
+    protected static final byte RECORD_DEVICE = 1;
+    protected static final byte RECORD_SERVICE = 2;
+    protected static final byte RECORD_REMOVE_DEVICE = 3;
+    protected static final byte RECORD_REMOVE_SERVICE = 4;
+    protected static final byte RECORD_CLEAR = 5;
+
+    protected static final int MIN_RECORDS_BEFORE_COMPACTION = 64;
+
+    protected final Path file;
+    protected DataOutputStream output;
+    protected int recordCount;
+
+    public FileRemoteDescriptorCache(Path file) {
+        this(file, DEFAULT_MAX_DEVICE_DESCRIPTORS, DEFAULT_MAX_SERVICE_DESCRIPTORS);
+    }
+
+    public FileRemoteDescriptorCache(Path file, int maxDeviceDescriptors, int maxServiceDescriptors) {
+        super(maxDeviceDescriptors, maxServiceDescriptors);
+        this.file = file;
+        load();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    @Override
+    synchronized public void putDeviceDescriptor(DeviceDescriptor descriptor) {
+        DeviceDescriptor previous = deviceDescriptors.get(descriptor.getDescriptorURL().toString());
+        super.putDeviceDescriptor(descriptor);
+        if (previous == null || !isStoredEqual(previous, descriptor)
+                || !Objects.equals(previous.getMaxAgeSeconds(), descriptor.getMaxAgeSeconds())
+                || !Objects.equals(previous.getDiscoveredOnLocalAddress(), descriptor.getDiscoveredOnLocalAddress()))
+            append(encode(descriptor));
+    }
+
+    @Override
+    synchronized public void putServiceDescriptor(ServiceDescriptor descriptor) {
+        ServiceDescriptor previous = serviceDescriptors.get(descriptor.getDescriptorURL().toString());
+        super.putServiceDescriptor(descriptor);
+        // Hydrating a restored service doesn't change what is stored
+        if (previous == null || !isStoredEqual(previous, descriptor)
+                || !previous.getServiceType().equals(descriptor.getServiceType())
+                || !previous.getServiceId().equals(descriptor.getServiceId()))
+            append(encode(descriptor));
+    }
+
+    @Override
+    synchronized public boolean removeDeviceDescriptor(URL descriptorURL) {
+        boolean removed = super.removeDeviceDescriptor(descriptorURL);
+        if (removed)
+            append(encodeRemoval(RECORD_REMOVE_DEVICE, descriptorURL));
+        return removed;
+    }
+
+    @Override
+    synchronized public boolean removeServiceDescriptor(URL descriptorURL) {
+        boolean removed = super.removeServiceDescriptor(descriptorURL);
+        if (removed)
+            append(encodeRemoval(RECORD_REMOVE_SERVICE, descriptorURL));
+        return removed;
+    }
+
+    @Override
+    synchronized public void clear() {
+        super.clear();
+        append(new byte[]{RECORD_CLEAR});
+    }
+
+    @Override
+    synchronized public void close() {
+        closeOutput();
+    }
+
+    protected boolean isStoredEqual(Descriptor a, Descriptor b) {
+        return Objects.equals(a.getRootUDN(), b.getRootUDN())
+                && Objects.equals(a.getConfigId(), b.getConfigId())
+                && Objects.equals(a.getEntityTag(), b.getEntityTag())
+                && Objects.equals(a.getDescriptorXML(), b.getDescriptorXML());
+    }
+
+    synchronized protected void load() {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null)
+                Files.createDirectories(parent);
+
+            long validLength = 0;
+            long fileLength = 0;
+            if (Files.exists(file)) {
+                byte[] content = Files.readAllBytes(file);
+                fileLength = content.length;
+                validLength = replay(content);
+            }
+
+            if (validLength == 0 || recordCount > getCompactionThreshold()) {
+                compact();
+            } else {
+                if (validLength < fileLength) {
+                    if (log.isLoggable(Level.WARNING))
+                        log.warning("Discarding incomplete records of remote descriptor cache: " + file);
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.truncate(validLength);
+                    }
+                }
+                openOutput();
+            }
+            if (log.isLoggable(Level.FINE))
+                log.fine("Loaded " + getDeviceDescriptorCount() + " device and " + getServiceDescriptorCount()
+                        + " service descriptors from: " + file);
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.WARNING))
+                log.log(Level.WARNING, "Can't use remote descriptor cache file, descriptors are kept in memory only: " + file, ex);
+            closeOutput();
+        }
+    }
+
+    /**
+     * @return The length of the valid records, <code>0</code> if the file isn't a descriptor cache.
+     */
+    protected long replay(byte[] content) {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(content);
+        DataInputStream in = new DataInputStream(bytes);
+        long validLength;
+        try {
+            if (in.readInt() != FILE_HEADER || in.readInt() != FILE_VERSION) {
+                if (log.isLoggable(Level.WARNING))
+                    log.warning("Unknown remote descriptor cache format, ignoring: " + file);
+                return 0;
+            }
+        } catch (IOException ex) {
+            return 0;
+        }
+        validLength = content.length - bytes.available();
+        while (bytes.available() > 0) {
+            try {
+                readRecord(in);
+            } catch (EOFException ex) {
+                // Record truncated by a crash
+                break;
+            } catch (IOException | RuntimeException ex) {
+                if (log.isLoggable(Level.WARNING))
+                    log.warning("Invalid record in remote descriptor cache, ignoring following records: " + ex);
+                break;
+            }
+            recordCount++;
+            validLength = content.length - bytes.available();
+        }
+        return validLength;
+    }
+
+    protected void readRecord(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case RECORD_DEVICE: {
+                UDN udn = UDN.valueOf(in.readUTF());
+                URL url = new URL(in.readUTF());
+                Integer configId = readInteger(in);
+                String entityTag = readString(in);
+                Integer maxAgeSeconds = readInteger(in);
+                InetAddress localAddress = null;
+                int addressLength = in.readUnsignedByte();
+                if (addressLength > 0) {
+                    byte[] address = new byte[addressLength];
+                    in.readFully(address);
+                    localAddress = InetAddress.getByAddress(address);
+                }
+                String xml = readText(in);
+                super.putDeviceDescriptor(new DeviceDescriptor(
+                        udn, url, configId, entityTag, xml, maxAgeSeconds, localAddress
+                ));
+                break;
+            }
+            case RECORD_SERVICE: {
+                UDN udn = UDN.valueOf(in.readUTF());
+                URL url = new URL(in.readUTF());
+                Integer configId = readInteger(in);
+                String entityTag = readString(in);
+                ServiceType serviceType = ServiceType.valueOf(in.readUTF());
+                ServiceId serviceId = ServiceId.valueOf(in.readUTF());
+                String xml = readText(in);
+                super.putServiceDescriptor(new ServiceDescriptor(
+                        udn, url, configId, entityTag, xml, serviceType, serviceId, null
+                ));
+                break;
+            }
+            case RECORD_REMOVE_DEVICE:
+                super.removeDeviceDescriptor(new URL(in.readUTF()));
+                break;
+            case RECORD_REMOVE_SERVICE:
+                super.removeServiceDescriptor(new URL(in.readUTF()));
+                break;
+            case RECORD_CLEAR:
+                super.clear();
+                break;
+            default:
+                throw new IOException("Unknown record type: " + type);
+        }
+    }
+
+    protected byte[] encode(DeviceDescriptor descriptor) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_DEVICE);
+            out.writeUTF(descriptor.getRootUDN().toString());
+            out.writeUTF(descriptor.getDescriptorURL().toString());
+            writeInteger(out, descriptor.getConfigId());
+            writeString(out, descriptor.getEntityTag());
+            writeInteger(out, descriptor.getMaxAgeSeconds());
+            if (descriptor.getDiscoveredOnLocalAddress() != null) {
+                byte[] address = descriptor.getDiscoveredOnLocalAddress().getAddress();
+                out.writeByte(address.length);
+                out.write(address);
+            } else {
+                out.writeByte(0);
+            }
+            writeText(out, descriptor.getDescriptorXML());
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    protected byte[] encode(ServiceDescriptor descriptor) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_SERVICE);
+            out.writeUTF(descriptor.getRootUDN().toString());
+            out.writeUTF(descriptor.getDescriptorURL().toString());
+            writeInteger(out, descriptor.getConfigId());
+            writeString(out, descriptor.getEntityTag());
+            out.writeUTF(descriptor.getServiceType().toString());
+            out.writeUTF(descriptor.getServiceId().toString());
+            writeText(out, descriptor.getDescriptorXML());
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    protected byte[] encodeRemoval(byte recordType, URL descriptorURL) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(recordType);
+            out.writeUTF(descriptorURL.toString());
+            return bytes.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    protected void append(byte[] record) {
+        if (output == null)
+            return;
+        try {
+            output.write(record);
+            output.flush();
+            recordCount++;
+            if (recordCount > getCompactionThreshold())
+                compact();
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.WARNING))
+                log.log(Level.WARNING, "Can't write remote descriptor cache file, descriptors are kept in memory only: " + file, ex);
+            closeOutput();
+        }
+    }
+
+    /**
+     * @return The number of records above which the file is rewritten with the current descriptors only.
+     */
+    protected int getCompactionThreshold() {
+        return 2 * (getDeviceDescriptorCount() + getServiceDescriptorCount()) + MIN_RECORDS_BEFORE_COMPACTION;
+    }
+
+    /**
+     * Rewrites the file with the current descriptors, least recently used first.
+     */
+    protected void compact() throws IOException {
+        closeOutput();
+        Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            out.writeInt(FILE_HEADER);
+            out.writeInt(FILE_VERSION);
+            for (DeviceDescriptor descriptor : deviceDescriptors.values()) {
+                out.write(encode(descriptor));
+                count++;
+            }
+            for (ServiceDescriptor descriptor : serviceDescriptors.values()) {
+                out.write(encode(descriptor));
+                count++;
+            }
+        }
+        try {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        recordCount = count;
+        openOutput();
+    }
+
+    protected void openOutput() throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+        ));
+    }
+
+    protected void closeOutput() {
+        if (output == null)
+            return;
+        try {
+            output.close();
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE))
+                log.fine("Closing remote descriptor cache file failed: " + ex);
+        }
+        output = null;
+    }
+
+    protected static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeInt(value);
+    }
+
+    protected static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    protected static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    protected static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    protected static void writeText(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readText(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available())
+            throw new EOFException();
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.protocol;
+
+import com.distrimind.upnp_igd.model.Location;
+import com.distrimind.upnp_igd.model.message.EncodedOutgoingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.UpnpOperation;
+import com.distrimind.upnp_igd.model.meta.Device;
+import com.distrimind.upnp_igd.model.meta.LocalDevice;
+import com.distrimind.upnp_igd.model.types.UDN;
+import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of encoded SSDP messages sent for local devices.
+ * <p>
+ * Advertisements and search responses of a local device only depend on the device, the kind of
+ * message, the notification or search target, and the descriptor {@link Location}. They are created
+ * and converted into bytes by the {@link DatagramProcessor} once, then every repetition sends the
+ * same bytes as {@link EncodedOutgoingDatagramMessage}s.
+ * </p>
+ * <p>
+ * The descriptor location contains the namespace path and the stream server address and port, a change
+ * of either is a different cache entry. Entries created for another instance of a local device (the
+ * device has been updated or registered again) are rebuilt. The least recently used entries are evicted
+ * once {@link #getMaxEntries()} is reached.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class OutgoingDatagramTemplates {
+
+    final private static Logger log = Logger.getLogger(OutgoingDatagramTemplates.class.getName());
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    final protected DatagramProcessor datagramProcessor;
+    final protected int maxEntries;
+    final protected Map<Key, Template> entries;
+
+    public OutgoingDatagramTemplates(DatagramProcessor datagramProcessor) {
+        this(datagramProcessor, DEFAULT_MAX_ENTRIES);
+    }
+
+    public OutgoingDatagramTemplates(DatagramProcessor datagramProcessor, int maxEntries) {
+        this.datagramProcessor = datagramProcessor;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Template> eldest) {
+                return size() > OutgoingDatagramTemplates.this.maxEntries;
+            }
+        };
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param device The local device the messages are sent for.
+     * @param kind The kind of message, for example the NTS of a notification.
+     * @param target The notification or search target the messages are sent for.
+     * @param location The descriptor location advertised by the messages.
+     * @param destinationAddress The destination of the messages, or <code>null</code> to keep the
+     *                           destination of the created messages.
+     * @param destinationPort The destination port, ignored if <code>destinationAddress</code> is <code>null</code>.
+     * @param factory Creates the messages if they are not cached.
+     * @return The encoded messages, ready to be sent.
+     */
+    public List<? extends OutgoingDatagramMessage<?>> getMessages(LocalDevice<?> device, String kind, String target, Location location,
+                                                                  InetAddress destinationAddress, int destinationPort,
+                                                                  Supplier<? extends List<? extends OutgoingDatagramMessage<?>>> factory) {
+        Key key = new Key(device.getIdentity().getUdn(), kind, target, location);
+        Template template;
+        synchronized (entries) {
+            template = entries.get(key);
+        }
+        if (template == null || template.device != device) {
+            template = new Template(device, encode(factory.get()));
+            synchronized (entries) {
+                entries.put(key, template);
+            }
+        }
+
+        if (destinationAddress == null)
+            return template.messages;
+
+        List<OutgoingDatagramMessage<?>> messages = new ArrayList<>(template.messages.size());
+        for (EncodedOutgoingDatagramMessage<?> message : template.messages) {
+            messages.add(redirect(message, destinationAddress, destinationPort));
+        }
+        return messages;
+    }
+
+    /**
+     * Removes all cached messages of a local device.
+     */
+    public void invalidate(UDN udn) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.udn.equals(udn));
+        }
+    }
+
+    /**
+     * Removes all cached messages of a local device and of its embedded devices.
+     */
+    public void invalidate(LocalDevice<?> device) {
+        Set<UDN> udns = new HashSet<>();
+        udns.add(device.getIdentity().getUdn());
+        for (Device<?, ?, ?> embeddedDevice : device.findEmbeddedDevices()) {
+            udns.add(embeddedDevice.getIdentity().getUdn());
+        }
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> udns.contains(key.udn));
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    protected List<EncodedOutgoingDatagramMessage<?>> encode(List<? extends OutgoingDatagramMessage<?>> messages) {
+        List<EncodedOutgoingDatagramMessage<?>> encoded = new ArrayList<>(messages.size());
+        for (OutgoingDatagramMessage<?> message : messages) {
+            encoded.add(encode(message));
+        }
+        if (log.isLoggable(Level.FINER)) {
+            log.finer("Encoded " + encoded.size() + " datagram message templates");
+        }
+        return Collections.unmodifiableList(encoded);
+    }
+
+    protected <O extends UpnpOperation> EncodedOutgoingDatagramMessage<O> encode(OutgoingDatagramMessage<O> message) {
+        DatagramPacket packet = datagramProcessor.write(message);
+        byte[] data = packet.getOffset() == 0 && packet.getLength() == packet.getData().length
+            ? packet.getData()
+            : Arrays.copyOfRange(packet.getData(), packet.getOffset(), packet.getOffset() + packet.getLength());
+        return new EncodedOutgoingDatagramMessage<>(
+            message, data, message.getDestinationAddress(), message.getDestinationPort()
+        );
+    }
+
+    protected <O extends UpnpOperation> EncodedOutgoingDatagramMessage<O> redirect(EncodedOutgoingDatagramMessage<O> message,
+                                                                                  InetAddress destinationAddress,
+                                                                                  int destinationPort) {
+        return new EncodedOutgoingDatagramMessage<>(
+            message.getEncodedMessage(), message.getData(), destinationAddress, destinationPort
+        );
+    }
+
+    protected static class Template {
+
+        final LocalDevice<?> device;
+        final List<EncodedOutgoingDatagramMessage<?>> messages;
+
+        Template(LocalDevice<?> device, List<EncodedOutgoingDatagramMessage<?>> messages) {
+            this.device = device;
+            this.messages = messages;
+        }
+    }
+
+    protected static class Key {
+
+        final UDN udn;
+        final String kind;
+        final String target;
+        final Location location;
+        final int hashCode;
+
+        Key(UDN udn, String kind, String target, Location location) {
+            this.udn = udn;
+            this.kind = kind;
+            this.target = target;
+            this.location = location;
+            this.hashCode = Objects.hash(udn, kind, target, location);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return udn.equals(key.udn)
+                && kind.equals(key.kind)
+                && target.equals(key.target)
+                && location.equals(key.location);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -115,4 +115,22 @@ public interface ProtocolFactory {
      * Called by the {@link GENASubscription}, creates a protocol for sending GENA events.
      */
 	SendingEvent createSendingEvent(LocalGENASubscription<?> subscription);
+
+    /**
+     * @return The cache of encoded advertisements and search responses, or <code>null</code> if the
+     *         messages of local devices should be created and encoded for every sending.
+     */
+	OutgoingDatagramTemplates getOutgoingDatagramTemplates();
+
+    /**
+     * @return The scheduler delaying search responses, or <code>null</code> if search
+     *         responses should wait in the thread receiving the search.
+     */
+	SearchResponseScheduler getSearchResponseScheduler();
+
+    /**
+     * @return The coordinator of remote descriptor retrievals, or <code>null</code> if concurrent
+     *         retrievals of a descriptor shouldn't be merged and failed retrievals shouldn't be delayed.
+     */
+	DescriptorRetrievalCoordinator getDescriptorRetrievalCoordinator();
 }
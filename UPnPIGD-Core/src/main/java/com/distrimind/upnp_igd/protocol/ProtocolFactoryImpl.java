@@ -15,6 +15,7 @@
 
 package com.distrimind.upnp_igd.protocol;
 
+import com.distrimind.upnp_igd.transport.IncomingDatagramFilter;
 import com.distrimind.upnp_igd.transport.RouterException;
 import com.distrimind.upnp_igd.UpnpService;
 import com.distrimind.upnp_igd.model.Namespace;
@@ -28,13 +29,11 @@ import com.distrimind.upnp_igd.model.message.UpnpRequest;
 import com.distrimind.upnp_igd.model.message.UpnpResponse;
 import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
-import com.distrimind.upnp_igd.model.types.InvalidValueException;
-import com.distrimind.upnp_igd.model.types.NamedServiceType;
 import com.distrimind.upnp_igd.model.types.NotificationSubtype;
-import com.distrimind.upnp_igd.model.types.ServiceType;
 import com.distrimind.upnp_igd.protocol.async.ReceivingNotification;
 import com.distrimind.upnp_igd.protocol.async.ReceivingSearch;
 import com.distrimind.upnp_igd.protocol.async.ReceivingSearchResponse;
+import com.distrimind.upnp_igd.protocol.async.SearchResponseScheduler;
 import com.distrimind.upnp_igd.protocol.async.SendingNotificationAlive;
 import com.distrimind.upnp_igd.protocol.async.SendingNotificationByebye;
 import com.distrimind.upnp_igd.protocol.async.SendingSearch;
@@ -68,9 +67,15 @@ public class ProtocolFactoryImpl implements ProtocolFactory {
     final private static Logger log = Logger.getLogger(ProtocolFactory.class.getName());
 
     protected final UpnpService upnpService;
+    protected final OutgoingDatagramTemplates outgoingDatagramTemplates;
+    protected final SearchResponseScheduler searchResponseScheduler;
+    protected final DescriptorRetrievalCoordinator descriptorRetrievalCoordinator;
 
     protected ProtocolFactoryImpl() {
         upnpService = null;
+        outgoingDatagramTemplates = null;
+        searchResponseScheduler = null;
+        descriptorRetrievalCoordinator = null;
     }
 
     @Inject
@@ -79,6 +84,24 @@ public class ProtocolFactoryImpl implements ProtocolFactory {
 			log.fine("Creating ProtocolFactory: " + getClass().getName());
 		}
 		this.upnpService = upnpService;
+        this.outgoingDatagramTemplates = createOutgoingDatagramTemplates();
+        this.searchResponseScheduler = createSearchResponseScheduler();
+        this.descriptorRetrievalCoordinator = createDescriptorRetrievalCoordinator();
+    }
+
+    protected OutgoingDatagramTemplates createOutgoingDatagramTemplates() {
+        return new OutgoingDatagramTemplates(getUpnpService().getConfiguration().getDatagramProcessor());
+    }
+
+    protected SearchResponseScheduler createSearchResponseScheduler() {
+        return new SearchResponseScheduler(
+            getUpnpService().getConfiguration().getScheduledExecutorService(),
+            getUpnpService().getConfiguration().getAsyncProtocolExecutor()
+        );
+    }
+
+    protected DescriptorRetrievalCoordinator createDescriptorRetrievalCoordinator() {
+        return new DescriptorRetrievalCoordinator();
     }
 
     @Override
@@ -86,6 +109,21 @@ public class ProtocolFactoryImpl implements ProtocolFactory {
         return upnpService;
     }
 
+    @Override
+    public OutgoingDatagramTemplates getOutgoingDatagramTemplates() {
+        return outgoingDatagramTemplates;
+    }
+
+    @Override
+    public SearchResponseScheduler getSearchResponseScheduler() {
+        return searchResponseScheduler;
+    }
+
+    @Override
+    public DescriptorRetrievalCoordinator getDescriptorRetrievalCoordinator() {
+        return descriptorRetrievalCoordinator;
+    }
+
     @Override
 	@SuppressWarnings("unchecked")
 	public ReceivingAsync<?> createReceivingAsync(IncomingDatagramMessage<?> message) throws ProtocolCreationException {
@@ -134,28 +172,10 @@ public class ProtocolFactoryImpl implements ProtocolFactory {
     }
 
     protected boolean isSupportedServiceAdvertisement(IncomingDatagramMessage<?> message) {
-        ServiceType[] exclusiveServiceTypes = getUpnpService().getConfiguration().getExclusiveServiceTypes();
-        if (exclusiveServiceTypes == null) return false; // Discovery is disabled
-        if (exclusiveServiceTypes.length == 0) return true; // Any advertisement is fine
-
-        String usnHeader = message.getHeaders().getFirstHeader(UpnpHeader.Type.USN.getHttpName());
-        if (usnHeader == null) return false; // Not a service advertisement, drop it
-
-        try {
-            NamedServiceType nst = NamedServiceType.valueOf(usnHeader);
-            for (ServiceType exclusiveServiceType : exclusiveServiceTypes) {
-                if (nst.getServiceType().implementsVersion(exclusiveServiceType))
-                    return true;
-            }
-        } catch (InvalidValueException ex) {
-			if (log.isLoggable(Level.FINEST)) {
-				log.finest("Not a named service type header value: " + usnHeader);
-			}
-		}
-		if (log.isLoggable(Level.FINE)) {
-			log.fine("Service advertisement not supported, dropping it: " + usnHeader);
-		}
-		return false;
+        return IncomingDatagramFilter.isSupportedServiceAdvertisement(
+            message.getHeaders().getFirstHeader(UpnpHeader.Type.USN.getHttpName()),
+            getUpnpService().getConfiguration().getExclusiveServiceTypes()
+        );
     }
 
     @Override
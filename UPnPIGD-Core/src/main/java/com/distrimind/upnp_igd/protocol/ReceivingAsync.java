@@ -68,17 +68,25 @@ public abstract class ReceivingAsync<M extends UpnpMessage<?>> implements Runnab
         }
 
         if (proceed) {
-            try {
-                execute();
-            } catch (Exception ex) {
-                Throwable cause = Exceptions.unwrap(ex);
-                if (cause instanceof InterruptedException) {
-                    if (log.isLoggable(Level.INFO)) log.log(Level.INFO, "Interrupted protocol '" + getClass().getSimpleName() + "': " + ex, cause);
-                } else {
-                    throw new RuntimeException(
-                        "Fatal error while executing protocol '" + getClass().getSimpleName() + "': " + ex, ex
-                    );
-                }
+            proceed();
+        }
+    }
+
+    /**
+     * Executes the protocol, called by {@link #run()} once {@link #waitBeforeExecution()} returned
+     * <code>true</code>. Protocols which schedule their execution instead of waiting call it later.
+     */
+    protected void proceed() {
+        try {
+            execute();
+        } catch (Exception ex) {
+            Throwable cause = Exceptions.unwrap(ex);
+            if (cause instanceof InterruptedException) {
+                if (log.isLoggable(Level.INFO)) log.log(Level.INFO, "Interrupted protocol '" + getClass().getSimpleName() + "': " + ex, cause);
+            } else {
+                throw new RuntimeException(
+                    "Fatal error while executing protocol '" + getClass().getSimpleName() + "': " + ex, ex
+                );
             }
         }
     }
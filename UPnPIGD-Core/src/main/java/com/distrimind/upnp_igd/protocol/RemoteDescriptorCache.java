@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.protocol;
+
+import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
+import com.distrimind.upnp_igd.model.meta.RemoteService;
+import com.distrimind.upnp_igd.model.types.ServiceId;
+import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.model.types.UDN;
+
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Descriptors of remote devices retrieved earlier, used by {@link RetrieveRemoteDescriptors}
+ * to revalidate descriptors instead of downloading and parsing them again.
+ * <p>
+ * Device descriptors are stored as XML, service descriptors also keep the hydrated service
+ * model. Each descriptor is stored with the validator returned by the remote device (its
+ * <code>ETag</code>), and with the <code>CONFIGID.UPNP.ORG</code> announced by the device when
+ * the descriptor was retrieved. Entries are keyed by descriptor URL and only apply to the
+ * root device they were retrieved for, the least recently used entries are discarded when
+ * the cache is full.
+ * </p>
+ * <p>
+ * This implementation only keeps descriptors in memory, see {@link FileRemoteDescriptorCache}
+ * for descriptors surviving a restart.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class RemoteDescriptorCache {
+
+    /**
+     * A descriptor retrieved from a remote device.
+     */
+    public static class Descriptor {
+
+        final private UDN rootUDN;
+        final private URL descriptorURL;
+        final private Integer configId;
+        final private String entityTag;
+        final private String descriptorXML;
+
+        public Descriptor(UDN rootUDN, URL descriptorURL, Integer configId, String entityTag, String descriptorXML) {
+            this.rootUDN = rootUDN;
+            this.descriptorURL = descriptorURL;
+            this.configId = configId;
+            this.entityTag = entityTag;
+            this.descriptorXML = descriptorXML;
+        }
+
+        public UDN getRootUDN() {
+            return rootUDN;
+        }
+
+        public URL getDescriptorURL() {
+            return descriptorURL;
+        }
+
+        /**
+         * @return The configuration number announced when the descriptor was retrieved, or <code>null</code>.
+         */
+        public Integer getConfigId() {
+            return configId;
+        }
+
+        /**
+         * @return The <code>ETag</code> of the descriptor, or <code>null</code> if the device didn't send one.
+         */
+        public String getEntityTag() {
+            return entityTag;
+        }
+
+        public String getDescriptorXML() {
+            return descriptorXML;
+        }
+
+        /**
+         * @return <code>true</code> if the device announced the same configuration number when this
+         *         descriptor was retrieved, the descriptor can then be used without revalidation.
+         */
+        public boolean isConfigIdMatching(Integer currentConfigId) {
+            return currentConfigId != null && currentConfigId.equals(configId);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + getClass().getSimpleName() + ") " + getDescriptorURL() + ", ETag: " + getEntityTag() + ", CONFIGID: " + getConfigId();
+        }
+    }
+
+    /**
+     * A root device descriptor and the discovery details required to restore the device.
+     */
+    public static class DeviceDescriptor extends Descriptor {
+
+        final private Integer maxAgeSeconds;
+        final private InetAddress discoveredOnLocalAddress;
+
+        public DeviceDescriptor(RemoteDeviceIdentity identity, String entityTag, String descriptorXML) {
+            this(identity.getUdn(), identity.getDescriptorURL(), identity.getConfigId(), entityTag, descriptorXML,
+                 identity.getMaxAgeSeconds(), identity.getDiscoveredOnLocalAddress());
+        }
+
+        public DeviceDescriptor(UDN rootUDN, URL descriptorURL, Integer configId, String entityTag, String descriptorXML,
+                                Integer maxAgeSeconds, InetAddress discoveredOnLocalAddress) {
+            super(rootUDN, descriptorURL, configId, entityTag, descriptorXML);
+            this.maxAgeSeconds = maxAgeSeconds;
+            this.discoveredOnLocalAddress = discoveredOnLocalAddress;
+        }
+
+        public Integer getMaxAgeSeconds() {
+            return maxAgeSeconds;
+        }
+
+        public InetAddress getDiscoveredOnLocalAddress() {
+            return discoveredOnLocalAddress;
+        }
+
+        /**
+         * @return The identity of the device as it was discovered when the descriptor was retrieved.
+         */
+        public RemoteDeviceIdentity createIdentity() {
+            return new RemoteDeviceIdentity(
+                    getRootUDN(), getMaxAgeSeconds(), getDescriptorURL(), null, getDiscoveredOnLocalAddress(), getConfigId()
+            );
+        }
+
+        /**
+         * @return A copy of this descriptor retrieved under the given configuration number.
+         */
+        public DeviceDescriptor withConfigId(Integer configId) {
+            return new DeviceDescriptor(
+                    getRootUDN(), getDescriptorURL(), configId, getEntityTag(), getDescriptorXML(),
+                    getMaxAgeSeconds(), getDiscoveredOnLocalAddress()
+            );
+        }
+    }
+
+    /**
+     * A service descriptor and the service model hydrated from it.
+     */
+    public static class ServiceDescriptor extends Descriptor {
+
+        final private ServiceType serviceType;
+        final private ServiceId serviceId;
+        final private RemoteService service;
+
+        public ServiceDescriptor(UDN rootUDN, URL descriptorURL, Integer configId, String entityTag,
+                                 String descriptorXML, RemoteService service) {
+            this(rootUDN, descriptorURL, configId, entityTag, descriptorXML,
+                 service.getServiceType(), service.getServiceId(), service);
+        }
+
+        /**
+         * @param service The hydrated service, or <code>null</code> if it has to be hydrated from the XML.
+         */
+        public ServiceDescriptor(UDN rootUDN, URL descriptorURL, Integer configId, String entityTag,
+                                 String descriptorXML, ServiceType serviceType, ServiceId serviceId,
+                                 RemoteService service) {
+            super(rootUDN, descriptorURL, configId, entityTag, descriptorXML);
+            this.serviceType = serviceType;
+            this.serviceId = serviceId;
+            this.service = service;
+        }
+
+        public ServiceType getServiceType() {
+            return serviceType;
+        }
+
+        public ServiceId getServiceId() {
+            return serviceId;
+        }
+
+        /**
+         * @return The hydrated service, its actions and state variables have to be copied before
+         *         they are bound to another service instance. <code>null</code> if the descriptor
+         *         was restored from storage and wasn't hydrated yet.
+         */
+        public RemoteService getService() {
+            return service;
+        }
+
+        /**
+         * @return A copy of this descriptor retrieved under the given configuration number.
+         */
+        public ServiceDescriptor withConfigId(Integer configId) {
+            return new ServiceDescriptor(
+                    getRootUDN(), getDescriptorURL(), configId, getEntityTag(), getDescriptorXML(),
+                    getServiceType(), getServiceId(), getService()
+            );
+        }
+
+        /**
+         * @return A copy of this descriptor with the given hydrated service.
+         */
+        public ServiceDescriptor withService(RemoteService service) {
+            return new ServiceDescriptor(
+                    getRootUDN(), getDescriptorURL(), getConfigId(), getEntityTag(), getDescriptorXML(),
+                    getServiceType(), getServiceId(), service
+            );
+        }
+    }
+
+    public static final int DEFAULT_MAX_DEVICE_DESCRIPTORS = 1024;
+    public static final int DEFAULT_MAX_SERVICE_DESCRIPTORS = 4096;
+
+    protected final Map<String, DeviceDescriptor> deviceDescriptors;
+    protected final Map<String, ServiceDescriptor> serviceDescriptors;
+
+    public RemoteDescriptorCache() {
+        this(DEFAULT_MAX_DEVICE_DESCRIPTORS, DEFAULT_MAX_SERVICE_DESCRIPTORS);
+    }
+
+    public RemoteDescriptorCache(int maxDeviceDescriptors, int maxServiceDescriptors) {
+        this.deviceDescriptors = createLRUMap(maxDeviceDescriptors);
+        this.serviceDescriptors = createLRUMap(maxServiceDescriptors);
+    }
+
+    /**
+     * @return The device descriptor retrieved from the given URL for the given root device, or <code>null</code>.
+     */
+    synchronized public DeviceDescriptor getDeviceDescriptor(UDN rootUDN, URL descriptorURL) {
+        return filter(deviceDescriptors.get(descriptorURL.toString()), rootUDN);
+    }
+
+    /**
+     * @return All cached root device descriptors, in no particular order.
+     */
+    synchronized public List<DeviceDescriptor> getDeviceDescriptors() {
+        return new ArrayList<>(deviceDescriptors.values());
+    }
+
+    synchronized public void putDeviceDescriptor(DeviceDescriptor descriptor) {
+        deviceDescriptors.put(descriptor.getDescriptorURL().toString(), descriptor);
+    }
+
+    /**
+     * @return The service descriptor retrieved from the given URL for the given root device, or <code>null</code>.
+     */
+    synchronized public ServiceDescriptor getServiceDescriptor(UDN rootUDN, URL descriptorURL) {
+        return filter(serviceDescriptors.get(descriptorURL.toString()), rootUDN);
+    }
+
+    synchronized public void putServiceDescriptor(ServiceDescriptor descriptor) {
+        serviceDescriptors.put(descriptor.getDescriptorURL().toString(), descriptor);
+    }
+
+    synchronized public boolean removeDeviceDescriptor(URL descriptorURL) {
+        return deviceDescriptors.remove(descriptorURL.toString()) != null;
+    }
+
+    synchronized public boolean removeServiceDescriptor(URL descriptorURL) {
+        return serviceDescriptors.remove(descriptorURL.toString()) != null;
+    }
+
+    synchronized public void clear() {
+        deviceDescriptors.clear();
+        serviceDescriptors.clear();
+    }
+
+    /**
+     * Releases the resources of this cache, called when the UPnP stack shuts down.
+     */
+    public void close() {
+    }
+
+    synchronized public int getDeviceDescriptorCount() {
+        return deviceDescriptors.size();
+    }
+
+    synchronized public int getServiceDescriptorCount() {
+        return serviceDescriptors.size();
+    }
+
+    protected <D extends Descriptor> D filter(D descriptor, UDN rootUDN) {
+        // A different device might now be reachable at the same address
+        return descriptor != null && Objects.equals(descriptor.getRootUDN(), rootUDN) ? descriptor : null;
+    }
+
+    protected static <V> Map<String, V> createLRUMap(final int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.protocol;
+
+import com.distrimind.upnp_igd.UpnpService;
+import com.distrimind.upnp_igd.model.ValidationException;
+import com.distrimind.upnp_igd.model.meta.RemoteDevice;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Adds the remote devices of the {@link RemoteDescriptorCache} to the registry when the UPnP stack starts.
+ * <p>
+ * Devices are restored from their cached descriptors without any network request, see
+ * {@link RetrieveRemoteDescriptors#restore()}. Each restored device is then revalidated in the
+ * background with {@link RetrieveRemoteDescriptors#revalidate()}, it is replaced if its descriptors
+ * changed and removed if it is no longer reachable.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class RestoreRemoteDevices implements Runnable {
+
+    final private static Logger log = Logger.getLogger(RestoreRemoteDevices.class.getName());
+
+    protected final UpnpService upnpService;
+
+    public RestoreRemoteDevices(UpnpService upnpService) {
+        this.upnpService = upnpService;
+    }
+
+    public UpnpService getUpnpService() {
+        return upnpService;
+    }
+
+    @Override
+    public void run() {
+        RemoteDescriptorCache descriptorCache = getUpnpService().getConfiguration().getRemoteDescriptorCache();
+        if (descriptorCache == null)
+            return;
+
+        int restored = 0;
+        for (RemoteDescriptorCache.DeviceDescriptor descriptor : descriptorCache.getDeviceDescriptors()) {
+            // Discovered while we were restoring the others
+            if (getUpnpService().getRegistry().getRemoteDevice(descriptor.getRootUDN(), true) != null)
+                continue;
+
+            final RetrieveRemoteDescriptors retrieval;
+            try {
+                retrieval = createRetrieveRemoteDescriptors(new RemoteDevice(descriptor.createIdentity()));
+            } catch (ValidationException ex) {
+                if (log.isLoggable(Level.FINE)) log.fine("Can't restore invalid device identity: " + descriptor + ", " + ex);
+                continue;
+            }
+            if (retrieval.restore()) {
+                restored++;
+                getUpnpService().getConfiguration().getAsyncProtocolExecutor().execute(retrieval::revalidate);
+            }
+        }
+        if (log.isLoggable(Level.FINE))
+            log.fine("Restored " + restored + " remote devices from cached descriptors");
+    }
+
+    protected RetrieveRemoteDescriptors createRetrieveRemoteDescriptors(RemoteDevice device) {
+        return new RetrieveRemoteDescriptors(getUpnpService(), device);
+    }
+}
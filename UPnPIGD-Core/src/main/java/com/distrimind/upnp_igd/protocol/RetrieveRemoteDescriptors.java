@@ -17,7 +17,10 @@ package com.distrimind.upnp_igd.protocol;
 
 import java.net.URL;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,11 +35,13 @@ import com.distrimind.upnp_igd.binding.xml.DeviceDescriptorBinder;
 import com.distrimind.upnp_igd.binding.xml.ServiceDescriptorBinder;
 import com.distrimind.upnp_igd.model.ValidationError;
 import com.distrimind.upnp_igd.model.ValidationException;
+import com.distrimind.upnp_igd.model.meta.Action;
 import com.distrimind.upnp_igd.model.meta.Icon;
 import com.distrimind.upnp_igd.model.meta.RemoteDevice;
 import com.distrimind.upnp_igd.model.meta.RemoteService;
+import com.distrimind.upnp_igd.model.meta.StateVariable;
+import com.distrimind.upnp_igd.protocol.sync.ReceivingRetrieval;
 import com.distrimind.upnp_igd.model.types.ServiceType;
-import com.distrimind.upnp_igd.model.types.UDN;
 import com.distrimind.upnp_igd.util.Exceptions;
 
 /**
@@ -56,6 +61,28 @@ import com.distrimind.upnp_igd.util.Exceptions;
  * Any descriptor retrieval, parsing, or validation error of the metadata will abort this protocol
  * with a warning message in the log.
  * </p>
+ * <p>
+ * Descriptors retrieved earlier are kept in the configured {@link RemoteDescriptorCache}. If the
+ * device announced the same <code>CONFIGID.UPNP.ORG</code> as when a descriptor was retrieved, the
+ * descriptor is not requested again. Otherwise, a descriptor is requested with the
+ * <code>If-None-Match</code> header if the device returned an <code>ETag</code>, and a
+ * <code>304 Not Modified</code> response reuses the cached descriptor and hydrated service model.
+ * </p>
+ * <p>
+ * The service descriptors of the device and of its embedded devices are retrieved concurrently, see
+ * {@link com.distrimind.upnp_igd.UpnpServiceConfiguration#getDescriptorRetrievalConcurrency()}, and
+ * must all be retrieved before {@link com.distrimind.upnp_igd.UpnpServiceConfiguration#getDescriptorRetrievalTimeoutMillis()}.
+ * </p>
+ * <p>
+ * Concurrent retrievals of the same descriptor URL are coordinated by the {@link DescriptorRetrievalCoordinator}
+ * of the {@link ProtocolFactory}: only one of them sends requests, and a descriptor URL which failed recently
+ * is not retrieved again before its backoff delay passed.
+ * </p>
+ * <p>
+ * A device whose descriptors are all cached can be {@link #restore() restored} without any
+ * network request, and {@link #revalidate() revalidated} later: the device is then replaced in
+ * the registry if one of its descriptors changed, or removed if its descriptors can't be retrieved.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -66,8 +93,11 @@ public class RetrieveRemoteDescriptors implements Runnable {
     private final UpnpService upnpService;
     private final RemoteDevice rd;
 
-    private static final List<URL> activeRetrievals = new CopyOnWriteArrayList<>();
-    protected List<UDN> errorsAlreadyLogged = new ArrayList<>();
+    protected boolean restoring;
+    protected boolean revalidating;
+    protected boolean retrieving;
+    protected volatile boolean modified;
+    protected boolean described;
 
     public RetrieveRemoteDescriptors(UpnpService upnpService, RemoteDevice rd) {
         this.upnpService = upnpService;
@@ -80,38 +110,131 @@ public class RetrieveRemoteDescriptors implements Runnable {
 
     @Override
 	public void run() {
+        retrieve();
+    }
+
+    /**
+     * Retrieves the descriptors in the calling thread, or joins the retrieval of the same descriptor
+     * URL already in progress.
+     *
+     * @return The future of the hydrated and registered device, completed with <code>null</code> if the
+     *         retrieval failed or if the descriptor URL failed recently.
+     */
+    public CompletableFuture<RemoteDevice> retrieve() {
 
         URL deviceURL = rd.getIdentity().getDescriptorURL();
 
+        // Exit if it has been discovered already, could be we have been waiting in the executor queue too long
+        if (!revalidating) {
+            RemoteDevice discoveredDevice = getUpnpService().getRegistry().getRemoteDevice(rd.getIdentity().getUdn(), true);
+            if (discoveredDevice != null) {
+                if (log.isLoggable(Level.FINER)) {
+                    log.finer("Exiting early, already discovered: " + deviceURL);
+                }
+                return CompletableFuture.completedFuture(discoveredDevice);
+            }
+        }
+
+        DescriptorRetrievalCoordinator coordinator = getDescriptorRetrievalCoordinator();
+        if (coordinator == null)
+            return CompletableFuture.completedFuture(retrieveDevice());
+
         // Performance optimization, try to avoid concurrent GET requests for device descriptor,
         // if we retrieve it once, we have the hydrated device. There is no different outcome
         // processing this several times concurrently.
-
-        if (activeRetrievals.contains(deviceURL)) {
-			if (log.isLoggable(Level.FINER)) {
-				log.finer("Exiting early, active retrieval for URL already in progress: " + deviceURL);
-			}
-			return;
+        CompletableFuture<RemoteDevice> activeRetrieval = coordinator.getActiveRetrieval(deviceURL);
+        if (activeRetrieval != null) {
+            if (log.isLoggable(Level.FINER)) {
+                log.finer("Joining active retrieval for URL already in progress: " + deviceURL);
+            }
+            return activeRetrieval;
         }
 
-        // Exit if it has been discovered already, could be we have been waiting in the executor queue too long
-        if (getUpnpService().getRegistry().getRemoteDevice(rd.getIdentity().getUdn(), true) != null) {
-			if (log.isLoggable(Level.FINER)) {
-				log.finer("Exiting early, already discovered: " + deviceURL);
-			}
-			return;
+        if (coordinator.isBackingOff(deviceURL)) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Exiting early, retrieval failed recently " + coordinator.getFailureCount(deviceURL) + " time(s): " + deviceURL);
+            }
+            return CompletableFuture.completedFuture(null);
         }
 
+        return coordinator.retrieve(deviceURL, this::retrieveDevice);
+    }
+
+    /**
+     * @return The hydrated and registered device, or <code>null</code> if the retrieval failed.
+     */
+    protected RemoteDevice retrieveDevice() {
+        retrieving = true;
+        described = false;
         try {
-            activeRetrievals.add(deviceURL);
             describe();
         } catch (RouterException ex) {
 			if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING,
-                "Descriptor retrieval failed: " + deviceURL,
+                "Descriptor retrieval failed: " + rd.getIdentity().getDescriptorURL(),
                 ex
             );
+        }
+        return described ? getUpnpService().getRegistry().getRemoteDevice(rd.getIdentity().getUdn(), true) : null;
+    }
+
+    protected DescriptorRetrievalCoordinator getDescriptorRetrievalCoordinator() {
+        return getUpnpService().getProtocolFactory() != null
+                ? getUpnpService().getProtocolFactory().getDescriptorRetrievalCoordinator()
+                : null;
+    }
+
+    /**
+     * Avoids error log spam each time a broken device is discovered, errors are logged once per device
+     * until it is retrieved successfully.
+     *
+     * @return <code>true</code> if the errors of the device should be logged.
+     */
+    protected boolean markErrorLogged() {
+        DescriptorRetrievalCoordinator coordinator = getDescriptorRetrievalCoordinator();
+        return coordinator == null || coordinator.markErrorLogged(rd.getIdentity().getUdn());
+    }
+
+    /**
+     * Adds the device to the registry with the descriptors of the {@link RemoteDescriptorCache},
+     * without sending any request to the device.
+     *
+     * @return <code>true</code> if all descriptors of the device were cached and the device was added to the registry.
+     */
+    public boolean restore() {
+        restoring = true;
+        described = false;
+        try {
+            describe();
+        } catch (RouterException ex) {
+            // Not sending any request
+            if (log.isLoggable(Level.FINE)) log.log(Level.FINE, "Restoring device failed: " + rd, ex);
         } finally {
-            activeRetrievals.remove(deviceURL);
+            restoring = false;
+        }
+        return described;
+    }
+
+    /**
+     * Retrieves the descriptors of a device added to the registry with {@link #restore()}, the cached
+     * descriptors are revalidated even if the device announced the same configuration number. The device
+     * is replaced in the registry if one of its descriptors changed, and removed from the registry if its
+     * descriptors can't be retrieved.
+     */
+    public void revalidate() {
+        revalidating = true;
+        retrieving = false;
+        modified = false;
+        described = false;
+        try {
+            run();
+        } finally {
+            revalidating = false;
+        }
+        if (retrieving && !described) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Revalidation failed, removing restored device: " + rd);
+            }
+            getUpnpService().getRegistry().removeDevice(rd.getIdentity().getUdn());
         }
     }
 	@SuppressWarnings("PMD.LooseCoupling")
@@ -127,6 +250,30 @@ public class RetrieveRemoteDescriptors implements Runnable {
     		return ;
     	}
 
+    	RemoteDescriptorCache descriptorCache = getUpnpService().getConfiguration().getRemoteDescriptorCache();
+    	RemoteDescriptorCache.DeviceDescriptor cachedDescriptor = descriptorCache != null
+                ? descriptorCache.getDeviceDescriptor(rd.getIdentity().getUdn(), rd.getIdentity().getDescriptorURL())
+                : null;
+
+        if (restoring) {
+            if (cachedDescriptor == null) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Device descriptor not cached, can't restore: " + rd.getIdentity().getDescriptorURL());
+                }
+            } else {
+                describe(cachedDescriptor.getDescriptorXML());
+            }
+            return;
+        }
+
+        if (!revalidating && cachedDescriptor != null && cachedDescriptor.isConfigIdMatching(rd.getIdentity().getConfigId())) {
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Device descriptor unchanged since retrieval, same CONFIGID: " + cachedDescriptor);
+			}
+			describe(cachedDescriptor.getDescriptorXML());
+            return;
+        }
+
     	StreamRequestMessage deviceDescRetrievalMsg;
     	StreamResponseMessage deviceDescMsg;
 
@@ -141,6 +288,9 @@ public class RetrieveRemoteDescriptors implements Runnable {
             if (headers != null)
                 deviceDescRetrievalMsg.getHeaders().putAll(headers);
 
+            if (cachedDescriptor != null && cachedDescriptor.getEntityTag() != null)
+                deviceDescRetrievalMsg.getHeaders().add(ReceivingRetrieval.HEADER_IF_NONE_MATCH, cachedDescriptor.getEntityTag());
+
 			if (log.isLoggable(Level.FINE)) {
 				log.fine("Sending device descriptor retrieval message: " + deviceDescRetrievalMsg);
 			}
@@ -163,6 +313,17 @@ public class RetrieveRemoteDescriptors implements Runnable {
             return;
         }
 
+        if (cachedDescriptor != null && isNotModified(deviceDescMsg)) {
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Device descriptor not modified: " + cachedDescriptor);
+			}
+			if (!cachedDescriptor.isConfigIdMatching(rd.getIdentity().getConfigId())) {
+                descriptorCache.putDeviceDescriptor(cachedDescriptor.withConfigId(rd.getIdentity().getConfigId()));
+            }
+            describe(cachedDescriptor.getDescriptorXML());
+            return;
+        }
+
         if (deviceDescMsg.getOperation().isFailed()) {
 			if (log.isLoggable(Level.WARNING)) log.warning(
                     "Device descriptor retrieval failed: "
@@ -191,9 +352,29 @@ public class RetrieveRemoteDescriptors implements Runnable {
 		if (log.isLoggable(Level.FINE)) {
 			log.fine("Received root device descriptor: " + deviceDescMsg);
 		}
+		modified = true;
+		if (descriptorCache != null) {
+            descriptorCache.putDeviceDescriptor(new RemoteDescriptorCache.DeviceDescriptor(
+                    rd.getIdentity(),
+                    deviceDescMsg.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_ETAG),
+                    descriptorContent
+            ));
+        }
 		describe(descriptorContent);
     }
 
+    protected boolean isNotModified(StreamResponseMessage responseMessage) {
+        return responseMessage.getOperation().getStatusCode() == UpnpResponse.Status.NOT_MODIFIED.getStatusCode();
+    }
+
+    protected void removeCachedDeviceDescriptor() {
+        if (restoring)
+            return;
+        RemoteDescriptorCache descriptorCache = getUpnpService().getConfiguration().getRemoteDescriptorCache();
+        if (descriptorCache != null)
+            descriptorCache.removeDeviceDescriptor(rd.getIdentity().getDescriptorURL());
+    }
+
     protected void describe(String descriptorXML) throws RouterException {
 
         boolean notifiedStart = false;
@@ -218,8 +399,7 @@ public class RetrieveRemoteDescriptors implements Runnable {
 			}
 			RemoteDevice hydratedDevice = describeServices(describedDevice);
             if (hydratedDevice == null) {
-            	if(!errorsAlreadyLogged.contains(rd.getIdentity().getUdn())) {
-            		errorsAlreadyLogged.add(rd.getIdentity().getUdn());
+            	if (markErrorLogged()) {
 					if (log.isLoggable(Level.WARNING)) log.warning("Device service description failed: " + rd);
             	}
                 if (notifiedStart)
@@ -235,13 +415,21 @@ public class RetrieveRemoteDescriptors implements Runnable {
                 // already present or we just received the descriptor again (because we got an embedded
                 // devices' notification), it will simply update the expiration timestamp of the root
                 // device.
+                if (revalidating && modified) {
+                    // The restored device is outdated, listeners are notified of the new metadata
+                    getUpnpService().getRegistry().removeDevice(rd.getIdentity().getUdn());
+                }
                 getUpnpService().getRegistry().addDevice(hydratedDevice);
+                described = true;
+                DescriptorRetrievalCoordinator coordinator = getDescriptorRetrievalCoordinator();
+                if (coordinator != null)
+                    coordinator.clearErrorLogged(rd.getIdentity().getUdn());
             }
 
         } catch (ValidationException ex) {
+            removeCachedDeviceDescriptor();
     		// Avoid error log spam each time device is discovered, errors are logged once per device.
-        	if(!errorsAlreadyLogged.contains(rd.getIdentity().getUdn())) {
-        		errorsAlreadyLogged.add(rd.getIdentity().getUdn());
+        	if (markErrorLogged()) {
 				if (log.isLoggable(Level.WARNING)) log.warning("Could not validate device model: " + rd);
         		for (ValidationError validationError : ex.getErrors()) {
 					if (log.isLoggable(Level.WARNING)) log.warning(validationError.toString());
@@ -251,7 +439,10 @@ public class RetrieveRemoteDescriptors implements Runnable {
         	}
 
         } catch (DescriptorBindingException ex) {
-			if (log.isLoggable(Level.WARNING)) {
+            removeCachedDeviceDescriptor();
+			if (restoring) {
+				if (log.isLoggable(Level.FINE)) log.fine("Could not restore device: " + rd + ", " + ex);
+			} else if (log.isLoggable(Level.WARNING)) {
 				log.warning("Could not hydrate device or its services from descriptor: " + rd);
 				log.warning("Cause was: " + Exceptions.unwrap(ex));
 			}
@@ -271,14 +462,81 @@ public class RetrieveRemoteDescriptors implements Runnable {
     protected RemoteDevice describeServices(RemoteDevice currentDevice)
             throws RouterException, DescriptorBindingException, ValidationException {
 
-        List<RemoteService> describedServices = new ArrayList<>();
+        // The service descriptors of the device and of all its embedded devices are retrieved
+        // concurrently, the device graph is created once all of them are available
+        List<RemoteService> services = new ArrayList<>();
+        collectServices(currentDevice, services);
+
+        Map<RemoteService, RemoteService> describedServices = describeServices(services);
+        if (describedServices == null)
+            return null;
+        return createDescribedDevice(currentDevice, describedServices);
+    }
+
+    protected void collectServices(RemoteDevice currentDevice, List<RemoteService> services) {
+        if (currentDevice.hasServices())
+            services.addAll(filterExclusiveServices(currentDevice.getServices()));
+        if (currentDevice.hasEmbeddedDevices()) {
+            for (RemoteDevice embeddedDevice : currentDevice.getEmbeddedDevices()) {
+                if (embeddedDevice != null)
+                    collectServices(embeddedDevice, services);
+            }
+        }
+    }
+
+    /**
+     * Retrieves the given service descriptors, at most {@link com.distrimind.upnp_igd.UpnpServiceConfiguration#getDescriptorRetrievalConcurrency()}
+     * at the same time. The calling thread retrieves descriptors as well, so that retrieval makes progress
+     * even if no thread of the executor is available.
+     *
+     * @return The described services, keyed by undescribed service, without the invalid services, or
+     *         <code>null</code> if the descriptors couldn't be retrieved before the deadline.
+     */
+    protected Map<RemoteService, RemoteService> describeServices(List<RemoteService> services)
+            throws RouterException, DescriptorBindingException, ValidationException {
+
+        int timeoutMillis = getUpnpService().getConfiguration().getDescriptorRetrievalTimeoutMillis();
+        ServiceDescriptorRetrieval retrieval = new ServiceDescriptorRetrieval(
+                services,
+                timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : 0
+        );
+
+        int concurrency = Math.min(services.size(), getUpnpService().getConfiguration().getDescriptorRetrievalConcurrency());
+        for (int i = 1; i < concurrency; i++) {
+            try {
+                getUpnpService().getConfiguration().getSyncProtocolExecutorService().execute(retrieval);
+            } catch (RejectedExecutionException ex) {
+                if (log.isLoggable(Level.FINE)) log.fine("Retrieving service descriptors with fewer threads: " + ex);
+                break;
+            }
+        }
+        retrieval.run();
+
+        try {
+            if (!retrieval.await()) {
+                if (log.isLoggable(Level.WARNING))
+                    log.warning("Service descriptors not retrieved in time, in " + timeoutMillis + " ms: " + rd);
+                return null;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            retrieval.abort();
+            if (log.isLoggable(Level.FINE)) log.fine("Interrupted while retrieving service descriptors: " + rd);
+            return null;
+        }
+        return retrieval.getDescribedServices();
+    }
+
+    protected RemoteDevice createDescribedDevice(RemoteDevice currentDevice, Map<RemoteService, RemoteService> describedServices)
+            throws ValidationException {
+
+        List<RemoteService> services = new ArrayList<>();
         if (currentDevice.hasServices()) {
-            List<RemoteService> filteredServices = filterExclusiveServices(currentDevice.getServices());
-            for (RemoteService service : filteredServices) {
-                RemoteService svc = describeService(service);
+            for (RemoteService service : filterExclusiveServices(currentDevice.getServices())) {
+                RemoteService svc = describedServices.get(service);
                  // Skip invalid services (yes, we can continue with only some services available)
                 if (svc != null)
-                    describedServices.add(svc);
+                    services.add(svc);
                 else if (log.isLoggable(Level.WARNING))
 					log.warning("Skipping invalid service '" + service + "' of: " + currentDevice);
             }
@@ -290,10 +548,7 @@ public class RetrieveRemoteDescriptors implements Runnable {
                  // Skip invalid embedded device
                 if (embeddedDevice == null)
                     continue;
-                RemoteDevice describedEmbeddedDevice = describeServices(embeddedDevice);
-                 // Skip invalid embedded services
-                if (describedEmbeddedDevice != null)
-                    describedEmbeddedDevices.add(describedEmbeddedDevice);
+                describedEmbeddedDevices.add(createDescribedDevice(embeddedDevice, describedServices));
             }
         }
 
@@ -309,11 +564,107 @@ public class RetrieveRemoteDescriptors implements Runnable {
                 currentDevice.getType(),
                 currentDevice.getDetails(),
                 iconDupes,
-                describedServices,
+                services,
                 describedEmbeddedDevices
         );
     }
 
+    /**
+     * Retrieves service descriptors from a shared queue, run by several threads until the
+     * queue is empty, the deadline passed, or a retrieval failed.
+     */
+    protected class ServiceDescriptorRetrieval implements Runnable {
+
+        final protected Queue<RemoteService> pendingServices;
+        final protected long deadlineNanos;
+        final protected Map<RemoteService, RemoteService> describedServices = new IdentityHashMap<>();
+        protected int remaining;
+        protected Exception failure;
+        protected boolean aborted;
+
+        /**
+         * @param deadlineNanos The {@link System#nanoTime()} after which no descriptor is retrieved anymore, <code>0</code> for none.
+         */
+        public ServiceDescriptorRetrieval(List<RemoteService> services, long deadlineNanos) {
+            this.pendingServices = new ConcurrentLinkedQueue<>(services);
+            this.deadlineNanos = deadlineNanos;
+            this.remaining = services.size();
+        }
+
+        @Override
+        public void run() {
+            RemoteService service;
+            while (!isAborted() && !isDeadlinePassed() && (service = pendingServices.poll()) != null) {
+                RemoteService describedService = null;
+                Exception exception = null;
+                try {
+                    describedService = describeService(service);
+                } catch (RouterException | DescriptorBindingException | ValidationException | RuntimeException ex) {
+                    exception = ex;
+                }
+                completed(service, describedService, exception);
+            }
+        }
+
+        synchronized protected void completed(RemoteService service, RemoteService describedService, Exception exception) {
+            if (describedService != null)
+                describedServices.put(service, describedService);
+            if (exception != null && failure == null) {
+                failure = exception;
+                aborted = true;
+            }
+            remaining--;
+            notifyAll();
+        }
+
+        synchronized protected boolean isAborted() {
+            return aborted;
+        }
+
+        synchronized protected void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        protected boolean isDeadlinePassed() {
+            return deadlineNanos != 0 && System.nanoTime() - deadlineNanos >= 0;
+        }
+
+        /**
+         * Waits until all descriptors were retrieved, rethrowing the first retrieval failure.
+         *
+         * @return <code>false</code> if the deadline passed before all descriptors were retrieved.
+         */
+        synchronized public boolean await()
+                throws InterruptedException, RouterException, DescriptorBindingException, ValidationException {
+            while (remaining > 0 && failure == null) {
+                if (deadlineNanos == 0) {
+                    wait();
+                } else {
+                    long waitNanos = deadlineNanos - System.nanoTime();
+                    if (waitNanos <= 0) {
+                        aborted = true;
+                        return false;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                }
+            }
+            if (failure instanceof RouterException)
+                throw (RouterException) failure;
+            if (failure instanceof DescriptorBindingException)
+                throw (DescriptorBindingException) failure;
+            if (failure instanceof ValidationException)
+                throw (ValidationException) failure;
+            if (failure != null)
+                throw (RuntimeException) failure;
+            return true;
+        }
+
+        synchronized public Map<RemoteService, RemoteService> getDescribedServices() {
+            return new IdentityHashMap<>(describedServices);
+        }
+    }
+
     protected RemoteService describeService(RemoteService service)
             throws RouterException, DescriptorBindingException, ValidationException {
 
@@ -325,6 +676,26 @@ public class RetrieveRemoteDescriptors implements Runnable {
     		return null;
     	}
 
+        RemoteDescriptorCache descriptorCache = getUpnpService().getConfiguration().getRemoteDescriptorCache();
+        RemoteDescriptorCache.ServiceDescriptor cachedDescriptor = descriptorCache != null
+                ? descriptorCache.getServiceDescriptor(rd.getIdentity().getUdn(), descriptorURL)
+                : null;
+        if (cachedDescriptor != null && !isSameService(cachedDescriptor, service))
+            cachedDescriptor = null;
+
+        if (restoring) {
+            if (cachedDescriptor == null)
+                throw new DescriptorBindingException("Service descriptor not cached: " + descriptorURL);
+            return hydrateService(service, cachedDescriptor, descriptorCache);
+        }
+
+        if (!revalidating && cachedDescriptor != null && cachedDescriptor.isConfigIdMatching(rd.getIdentity().getConfigId())) {
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Service descriptor unchanged since retrieval, same CONFIGID: " + cachedDescriptor);
+			}
+			return hydrateService(service, cachedDescriptor, descriptorCache);
+        }
+
         StreamRequestMessage serviceDescRetrievalMsg = new StreamRequestMessage(UpnpRequest.Method.GET, descriptorURL);
 
         // Extra headers
@@ -333,6 +704,9 @@ public class RetrieveRemoteDescriptors implements Runnable {
         if (headers != null)
             serviceDescRetrievalMsg.getHeaders().putAll(headers);
 
+        if (cachedDescriptor != null && cachedDescriptor.getEntityTag() != null)
+            serviceDescRetrievalMsg.getHeaders().add(ReceivingRetrieval.HEADER_IF_NONE_MATCH, cachedDescriptor.getEntityTag());
+
 		if (log.isLoggable(Level.FINE)) {
 			log.fine("Sending service descriptor retrieval message: " + serviceDescRetrievalMsg);
 		}
@@ -343,6 +717,17 @@ public class RetrieveRemoteDescriptors implements Runnable {
             return null;
         }
 
+        if (cachedDescriptor != null && isNotModified(serviceDescMsg)) {
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Service descriptor not modified, reusing hydrated service model: " + cachedDescriptor);
+			}
+			if (!cachedDescriptor.isConfigIdMatching(rd.getIdentity().getConfigId())) {
+                cachedDescriptor = cachedDescriptor.withConfigId(rd.getIdentity().getConfigId());
+                descriptorCache.putServiceDescriptor(cachedDescriptor);
+            }
+            return hydrateService(service, cachedDescriptor, descriptorCache);
+        }
+
         if (serviceDescMsg.getOperation().isFailed()) {
 			if (log.isLoggable(Level.WARNING)) log.warning("Service descriptor retrieval failed: "
                                 + descriptorURL
@@ -370,7 +755,67 @@ public class RetrieveRemoteDescriptors implements Runnable {
 		ServiceDescriptorBinder serviceDescriptorBinder =
                 getUpnpService().getConfiguration().getServiceDescriptorBinderUDA10();
 
-        return serviceDescriptorBinder.describe(service, descriptorContent);
+        modified = true;
+        RemoteService describedService = serviceDescriptorBinder.describe(service, descriptorContent);
+        if (descriptorCache != null && describedService != null) {
+            descriptorCache.putServiceDescriptor(new RemoteDescriptorCache.ServiceDescriptor(
+                    rd.getIdentity().getUdn(),
+                    descriptorURL,
+                    rd.getIdentity().getConfigId(),
+                    serviceDescMsg.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_ETAG),
+                    descriptorContent,
+                    describedService
+            ));
+        }
+        return describedService;
+    }
+
+    protected boolean isSameService(RemoteDescriptorCache.ServiceDescriptor cachedDescriptor, RemoteService undescribedService) {
+        return cachedDescriptor.getServiceType().equals(undescribedService.getServiceType())
+                && cachedDescriptor.getServiceId().equals(undescribedService.getServiceId());
+    }
+
+    /**
+     * Creates the service of a newly described device from a cached descriptor, hydrating the
+     * service model from the cached XML if the descriptor was restored from storage.
+     */
+    protected RemoteService hydrateService(RemoteService undescribedService,
+                                           RemoteDescriptorCache.ServiceDescriptor cachedDescriptor,
+                                           RemoteDescriptorCache descriptorCache)
+            throws DescriptorBindingException, ValidationException {
+        if (cachedDescriptor.getService() != null)
+            return hydrateService(undescribedService, cachedDescriptor.getService());
+
+        RemoteService describedService = getUpnpService().getConfiguration().getServiceDescriptorBinderUDA10()
+                .describe(undescribedService, cachedDescriptor.getDescriptorXML());
+        if (describedService != null)
+            descriptorCache.putServiceDescriptor(cachedDescriptor.withService(describedService));
+        return describedService;
+    }
+
+    /**
+     * Creates the service of a newly described device with the actions and state variables of a
+     * service hydrated earlier from the same descriptor.
+     */
+    protected RemoteService hydrateService(RemoteService undescribedService, RemoteService describedService)
+            throws ValidationException {
+        List<Action<RemoteService>> actions = new ArrayList<>();
+        for (Action<RemoteService> action : describedService.getActions()) {
+            actions.add(action.deepCopy());
+        }
+        List<StateVariable<RemoteService>> stateVariables = new ArrayList<>();
+        for (StateVariable<RemoteService> stateVariable : describedService.getStateVariables()) {
+            stateVariables.add(stateVariable.deepCopy());
+        }
+        return undescribedService.getDevice().newInstance(
+                undescribedService.getServiceType(),
+                undescribedService.getServiceId(),
+                undescribedService.getDescriptorURI(),
+                undescribedService.getControlURI(),
+                undescribedService.getEventSubscriptionURI(),
+                actions,
+                stateVariables
+        );
     }
 
     protected List<RemoteService> filterExclusiveServices(Collection<RemoteService> services) {
@@ -19,6 +19,8 @@ import com.distrimind.upnp_igd.transport.RouterException;
 import com.distrimind.upnp_igd.UpnpService;
 import com.distrimind.upnp_igd.util.Exceptions;
 
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,6 +69,28 @@ public abstract class SendingAsync implements Runnable {
 
     protected abstract void execute() throws RouterException;
 
+    /**
+     * Executes the given task with the asynchronous protocol executor once the delay expired, no
+     * thread is held while waiting.
+     */
+    protected void executeLater(Runnable task, long delayMillis) {
+        try {
+            getUpnpService().getConfiguration().getScheduledExecutorService().schedule(
+                () -> {
+                    try {
+                        getUpnpService().getConfiguration().getAsyncProtocolExecutor().execute(task);
+                    } catch (RejectedExecutionException ex) {
+                        if (log.isLoggable(Level.FINE)) log.fine("Delayed execution rejected (on shutdown?): " + this);
+                    }
+                },
+                delayMillis,
+                TimeUnit.MILLISECONDS
+            );
+        } catch (RejectedExecutionException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Delayed execution rejected (on shutdown?): " + this);
+        }
+    }
+
     @Override
     public String toString() {
         return "(" + getClass().getSimpleName() + ")";
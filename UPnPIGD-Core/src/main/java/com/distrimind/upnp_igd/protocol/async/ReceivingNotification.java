@@ -37,6 +37,11 @@ import java.util.logging.Logger;
  * First, the UDN is created from the received message.
  * </p>
  * <p>
+ * An <em>ALIVE</em> message of an already known device only refreshes its expiration, reading the
+ * raw headers of the message. The message is fully processed only if the device is unknown, or if
+ * it announced another descriptor location, maximum age, configuration or boot instance number.
+ * </p>
+ * <p>
  * If an <em>ALIVE</em> message has been received, a new background process will be started
  * running {@link RetrieveRemoteDescriptors}.
  * </p>
@@ -81,6 +86,9 @@ public class ReceivingNotification extends ReceivingAsync<IncomingNotificationRe
     @Override
 	protected void execute() throws RouterException {
 
+        if (refreshKnownDevice())
+            return;
+
         UDN udn = getInputMessage().getUDN();
         if (udn == null) {
 			if (log.isLoggable(Level.FINE)) {
@@ -156,5 +164,36 @@ public class ReceivingNotification extends ReceivingAsync<IncomingNotificationRe
 
     }
 
+    /**
+     * Refreshes the expiration of an already known device, without parsing all headers and without
+     * building a {@link RemoteDevice}.
+     *
+     * @return <code>true</code> if the message was an <em>ALIVE</em> message of a known device that didn't change.
+     */
+    protected boolean refreshKnownDevice() {
+        IncomingNotificationRequest message = getInputMessage();
+        if (!message.isRawAliveMessage())
+            return false;
+
+        UDN udn = message.getRawUDN();
+        String location = message.getRawLocation();
+        int maxAgeSeconds = message.getRawMaxAge();
+        if (udn == null || location == null || maxAgeSeconds < 0)
+            return false;
+
+        if (getUpnpService().getRegistry().refresh(
+                udn,
+                location,
+                message.getLocalAddress(),
+                maxAgeSeconds,
+                message.getRawConfigId(),
+                message.getRawBootId())) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.finest("Remote device was already known: " + udn);
+			}
+			return true;
+        }
+        return false;
+    }
 
 }
@@ -17,11 +17,14 @@ package com.distrimind.upnp_igd.protocol.async;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.distrimind.upnp_igd.protocol.OutgoingDatagramTemplates;
 import com.distrimind.upnp_igd.protocol.ReceivingAsync;
 import com.distrimind.upnp_igd.registry.Registry;
 import com.distrimind.upnp_igd.transport.RouterException;
@@ -30,6 +33,7 @@ import com.distrimind.upnp_igd.model.DiscoveryOptions;
 import com.distrimind.upnp_igd.model.Location;
 import com.distrimind.upnp_igd.model.NetworkAddress;
 import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.UpnpRequest;
 import com.distrimind.upnp_igd.model.message.discovery.IncomingSearchRequest;
 import com.distrimind.upnp_igd.model.message.discovery.OutgoingSearchResponse;
@@ -54,7 +58,9 @@ import com.distrimind.upnp_igd.model.types.UDN;
  * Handles reception of search requests, responds for local registered devices.
  * <p>
  * Waits a random time between 0 and the requested <em>MX</em> (maximum 120 seconds)
- * before executing. Only waits if there are actually any registered local devices.
+ * before executing. Only waits if there are actually any registered local devices. If the
+ * protocol factory provides a {@link SearchResponseScheduler}, no thread is held while waiting
+ * and duplicate searches of a control point are folded into the pending response.
  * </p>
  * <p>
  * Extracts the <em>search target</em>, builds and sends the dozens of messages
@@ -70,6 +76,11 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
 
     private static final boolean LOG_ENABLED = log.isLoggable(Level.FINE);
 
+    protected static final String SEARCH_RESPONSE = "search-response";
+    protected static final String ALL_DEVICE_MESSAGES = "ssdp:all/device";
+    protected static final String ALL_SERVICE_TYPE_MESSAGES = "ssdp:all/serviceTypes";
+    protected static final String ROOT_DEVICE_MESSAGES = "upnp:rootdevice";
+
     final protected Random randomGenerator = new Random();
 
     public ReceivingSearch(UpnpService upnpService, IncomingDatagramMessage<UpnpRequest> inputMessage) {
@@ -132,6 +143,24 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
         // Only wait if there is something to wait for
         if (!getUpnpService().getRegistry().getLocalDevices().isEmpty()) {
             int sleepTime = randomGenerator.nextInt(mx * 1000);
+
+            SearchResponseScheduler scheduler = getUpnpService().getProtocolFactory().getSearchResponseScheduler();
+            UpnpHeader<?> searchTarget = getInputMessage().getSearchTarget();
+            if (scheduler != null && searchTarget != null) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Scheduling search response in " + sleepTime + " milliseconds to avoid flooding");
+                }
+                // Don't hold this thread, the scheduler executes the protocol when the delay expired
+                scheduler.schedule(
+                        getInputMessage().getSourceAddress(),
+                        getInputMessage().getSourcePort(),
+                        searchTarget.getString(),
+                        this::proceed,
+                        sleepTime
+                );
+                return false;
+            }
+
 			if (log.isLoggable(Level.FINE)) {
 				log.fine("Sleeping " + sleepTime + " milliseconds to avoid flooding with search responses");
 			}
@@ -182,11 +211,10 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
 					log.finer("Sending root device messages: " + localDevice);
 				}
 			}
-            List<OutgoingSearchResponse> rootDeviceMsgs =
-                    createDeviceMessages(localDevice, activeStreamServer);
-            for (OutgoingSearchResponse upnpMessage : rootDeviceMsgs) {
-                getUpnpService().getRouter().send(upnpMessage);
-            }
+            sendSearchResponses(
+                    localDevice, ALL_DEVICE_MESSAGES, activeStreamServer,
+                    () -> createDeviceMessages(localDevice, activeStreamServer)
+            );
 
             if (localDevice.hasEmbeddedDevices()) {
                 for (LocalDevice<?> embeddedDevice : localDevice.findEmbeddedDevices()) {
@@ -195,24 +223,20 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
 							log.finer("Sending embedded device messages: " + embeddedDevice);
 						}
 					}
-                    List<OutgoingSearchResponse> embeddedDeviceMsgs =
-                            createDeviceMessages(embeddedDevice, activeStreamServer);
-                    for (OutgoingSearchResponse upnpMessage : embeddedDeviceMsgs) {
-                        getUpnpService().getRouter().send(upnpMessage);
-                    }
+                    sendSearchResponses(
+                            embeddedDevice, ALL_DEVICE_MESSAGES, activeStreamServer,
+                            () -> createDeviceMessages(embeddedDevice, activeStreamServer)
+                    );
                 }
             }
 
-            List<OutgoingSearchResponse> serviceTypeMsgs =
-                    createServiceTypeMessages(localDevice, activeStreamServer);
-            if (!serviceTypeMsgs.isEmpty()) {
-                if (LOG_ENABLED) {
-                    log.finer("Sending service type messages");
-                }
-                for (OutgoingSearchResponse upnpMessage : serviceTypeMsgs) {
-                    getUpnpService().getRouter().send(upnpMessage);
-                }
+            if (LOG_ENABLED) {
+                log.finer("Sending service type messages");
             }
+            sendSearchResponses(
+                    localDevice, ALL_SERVICE_TYPE_MESSAGES, activeStreamServer,
+                    () -> createServiceTypeMessages(localDevice, activeStreamServer)
+            );
 
         }
     }
@@ -280,14 +304,16 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
             if (isAdvertisementDisabled(device))
                 continue;
 
-            OutgoingSearchResponse message =
-                new OutgoingSearchResponseRootDevice(
-                        getInputMessage(),
-                        getDescriptorLocation(activeStreamServer, device),
-                        device
-                );
-            prepareOutgoingSearchResponse(message);
-            getUpnpService().getRouter().send(message);
+            sendSearchResponses(
+                    device, ROOT_DEVICE_MESSAGES, activeStreamServer,
+                    () -> prepareOutgoingSearchResponses(
+                            new OutgoingSearchResponseRootDevice(
+                                    getInputMessage(),
+                                    getDescriptorLocation(activeStreamServer, device),
+                                    device
+                            )
+                    )
+            );
         }
     }
 
@@ -301,14 +327,17 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
 			if (log.isLoggable(Level.FINE)) {
 				log.fine("Responding to UDN device search: " + udn);
 			}
-			OutgoingSearchResponse message =
-                new OutgoingSearchResponseUDN(
-                        getInputMessage(),
-                        getDescriptorLocation(activeStreamServer, (LocalDevice<?>) device),
-                        (LocalDevice<?>) device
-                );
-            prepareOutgoingSearchResponse(message);
-            getUpnpService().getRouter().send(message);
+			LocalDevice<?> localDevice = (LocalDevice<?>) device;
+            sendSearchResponses(
+                    localDevice, udn.toString(), activeStreamServer,
+                    () -> prepareOutgoingSearchResponses(
+                            new OutgoingSearchResponseUDN(
+                                    getInputMessage(),
+                                    getDescriptorLocation(activeStreamServer, localDevice),
+                                    localDevice
+                            )
+                    )
+            );
         }
     }
 
@@ -326,14 +355,17 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
 				if (log.isLoggable(Level.FINER)) {
 					log.finer("Sending matching device type search result for: " + device);
 				}
-				OutgoingSearchResponse message =
-                    new OutgoingSearchResponseDeviceType(
-                            getInputMessage(),
-                            getDescriptorLocation(activeStreamServer, (LocalDevice<?>) device),
-                            (LocalDevice<?>) device
-                    );
-                prepareOutgoingSearchResponse(message);
-                getUpnpService().getRouter().send(message);
+				LocalDevice<?> localDevice = (LocalDevice<?>) device;
+                sendSearchResponses(
+                        localDevice, deviceType.toString(), activeStreamServer,
+                        () -> prepareOutgoingSearchResponses(
+                                new OutgoingSearchResponseDeviceType(
+                                        getInputMessage(),
+                                        getDescriptorLocation(activeStreamServer, localDevice),
+                                        localDevice
+                                )
+                        )
+                );
             }
         }
     }
@@ -352,19 +384,40 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
 				if (log.isLoggable(Level.FINER)) {
 					log.finer("Sending matching service type search result: " + device);
 				}
-				OutgoingSearchResponse message =
-                    new OutgoingSearchResponseServiceType(
-                            getInputMessage(),
-                            getDescriptorLocation(activeStreamServer, (LocalDevice<?>) device),
-                            (LocalDevice<?>) device,
-                            serviceType
-                    );
-                prepareOutgoingSearchResponse(message);
-                getUpnpService().getRouter().send(message);
+				LocalDevice<?> localDevice = (LocalDevice<?>) device;
+                sendSearchResponses(
+                        localDevice, serviceType.toString(), activeStreamServer,
+                        () -> prepareOutgoingSearchResponses(
+                                new OutgoingSearchResponseServiceType(
+                                        getInputMessage(),
+                                        getDescriptorLocation(activeStreamServer, localDevice),
+                                        localDevice,
+                                        serviceType
+                                )
+                        )
+                );
             }
         }
     }
 
+    /**
+     * Sends the responses of the given device to the searching control point, encoded only
+     * once if the protocol factory provides {@link OutgoingDatagramTemplates}.
+     */
+    protected void sendSearchResponses(LocalDevice<?> device, String target, NetworkAddress activeStreamServer,
+                                       Supplier<? extends List<? extends OutgoingDatagramMessage<?>>> factory) throws RouterException {
+        OutgoingDatagramTemplates templates = getUpnpService().getProtocolFactory().getOutgoingDatagramTemplates();
+        List<? extends OutgoingDatagramMessage<?>> msgs = templates != null
+                ? templates.getMessages(
+                        device, SEARCH_RESPONSE, target, getDescriptorLocation(activeStreamServer, device),
+                        getInputMessage().getSourceAddress(), getInputMessage().getSourcePort(), factory
+                )
+                : factory.get();
+        for (OutgoingDatagramMessage<?> upnpMessage : msgs) {
+            getUpnpService().getRouter().send(upnpMessage);
+        }
+    }
+
     protected Location getDescriptorLocation(NetworkAddress activeStreamServer, LocalDevice<?> device) {
         return new Location(
                 activeStreamServer,
@@ -380,8 +433,17 @@ public class ReceivingSearch extends ReceivingAsync<IncomingSearchRequest> {
 
     /**
      * Override this to edit the outgoing message, e.g. by adding headers.
+     * <p>
+     * Messages are encoded once and then reused by {@link OutgoingDatagramTemplates}, headers
+     * added here must not depend on the search request.
+     * </p>
      */
     protected void prepareOutgoingSearchResponse(OutgoingSearchResponse message) {
     }
 
+    protected List<OutgoingSearchResponse> prepareOutgoingSearchResponses(OutgoingSearchResponse message) {
+        prepareOutgoingSearchResponse(message);
+        return Collections.singletonList(message);
+    }
+
 }
@@ -52,6 +52,9 @@ public class ReceivingSearchResponse extends ReceivingAsync<IncomingSearchRespon
     @Override
 	protected void execute() throws RouterException {
 
+        if (refreshKnownDevice())
+            return;
+
         if (!getInputMessage().isSearchResponseMessage()) {
 			if (log.isLoggable(Level.FINE)) {
 				log.fine("Ignoring invalid search response message: " + getInputMessage());
@@ -112,4 +115,38 @@ public class ReceivingSearchResponse extends ReceivingAsync<IncomingSearchRespon
 
     }
 
+    /**
+     * Refreshes the expiration of an already known device from the raw headers of the response,
+     * without parsing them or creating a {@link RemoteDeviceIdentity}.
+     *
+     * @return <code>true</code> if the device was known and refreshed, <code>false</code> if the
+     *         response has to be handled by the regular path.
+     * @see com.distrimind.upnp_igd.registry.Registry#refresh
+     */
+    protected boolean refreshKnownDevice() {
+        IncomingSearchResponse message = getInputMessage();
+        if (!message.isRawSearchResponseMessage())
+            return false;
+
+        UDN udn = message.getRawUDN();
+        String location = message.getRawLocation();
+        int maxAgeSeconds = message.getRawMaxAge();
+        if (udn == null || location == null || maxAgeSeconds < 0)
+            return false;
+
+        if (getUpnpService().getRegistry().refresh(
+                udn,
+                location,
+                message.getLocalAddress(),
+                maxAgeSeconds,
+                message.getRawConfigId(),
+                message.getRawBootId())) {
+			if (log.isLoggable(Level.FINEST)) {
+				log.finest("Remote device was already known: " + udn);
+			}
+			return true;
+        }
+        return false;
+    }
+
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.protocol.async;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delays search responses without holding a thread while waiting.
+ * <p>
+ * A response is scheduled on the {@link ScheduledExecutorService} of the configuration and then
+ * handed over to the asynchronous protocol executor for sending. As long as a response to the same
+ * control point (address and port) and search target is pending, further identical searches, for
+ * example retransmissions, are folded into it and do not trigger additional responses.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class SearchResponseScheduler {
+
+    final private static Logger log = Logger.getLogger(SearchResponseScheduler.class.getName());
+
+    public static final int DEFAULT_MAX_PENDING_RESPONSES = 1024;
+
+    final protected ScheduledExecutorService scheduledExecutorService;
+    final protected Executor executor;
+    final protected int maxPendingResponses;
+    final protected Map<Key, Runnable> pendingResponses = new HashMap<>();
+    final protected LongAdder coalescedCount = new LongAdder();
+
+    public SearchResponseScheduler(ScheduledExecutorService scheduledExecutorService, Executor executor) {
+        this(scheduledExecutorService, executor, DEFAULT_MAX_PENDING_RESPONSES);
+    }
+
+    public SearchResponseScheduler(ScheduledExecutorService scheduledExecutorService, Executor executor,
+                                   int maxPendingResponses) {
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.executor = executor;
+        this.maxPendingResponses = maxPendingResponses;
+    }
+
+    /**
+     * @param requesterAddress The address of the searching control point.
+     * @param requesterPort The port of the searching control point.
+     * @param searchTarget The search target (ST) of the request.
+     * @param response Sends the responses, executed by the asynchronous protocol executor.
+     * @param delayMillis The delay before sending the responses.
+     * @return <code>true</code> if the response has been scheduled, <code>false</code> if an identical search
+     *         is already pending or too many responses are pending.
+     */
+    public boolean schedule(InetAddress requesterAddress, int requesterPort, String searchTarget,
+                            Runnable response, long delayMillis) {
+        Key key = new Key(requesterAddress, requesterPort, searchTarget);
+        synchronized (pendingResponses) {
+            if (pendingResponses.containsKey(key)) {
+                coalescedCount.increment();
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Folding duplicate search into pending response: " + key);
+                }
+                return false;
+            }
+            if (pendingResponses.size() >= maxPendingResponses) {
+                if (log.isLoggable(Level.WARNING)) {
+                    log.warning("Too many pending search responses, ignoring search: " + key);
+                }
+                return false;
+            }
+            pendingResponses.put(key, response);
+        }
+        try {
+            scheduledExecutorService.schedule(() -> fire(key), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {
+            synchronized (pendingResponses) {
+                pendingResponses.remove(key);
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Search response rejected (on shutdown?): " + key);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The number of searches which have been folded into a pending response.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    public int getPendingCount() {
+        synchronized (pendingResponses) {
+            return pendingResponses.size();
+        }
+    }
+
+    protected void fire(Key key) {
+        Runnable response;
+        synchronized (pendingResponses) {
+            response = pendingResponses.remove(key);
+        }
+        if (response == null)
+            return;
+        try {
+            executor.execute(response);
+        } catch (RejectedExecutionException ex) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Search response rejected (on shutdown?): " + key);
+            }
+        }
+    }
+
+    protected static class Key {
+
+        final InetAddress address;
+        final int port;
+        final String searchTarget;
+
+        Key(InetAddress address, int port, String searchTarget) {
+            this.address = address;
+            this.port = port;
+            this.searchTarget = searchTarget;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return port == key.port && address.equals(key.address) && searchTarget.equals(key.searchTarget);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = address.hashCode();
+            result = 31 * result + port;
+            result = 31 * result + searchTarget.hashCode();
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return address.getHostAddress() + ":" + port + " " + searchTarget;
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.distrimind.upnp_igd.transport.RouterException;
 import com.distrimind.upnp_igd.UpnpService;
 import com.distrimind.upnp_igd.model.Location;
 import com.distrimind.upnp_igd.model.NetworkAddress;
+import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.discovery.OutgoingNotificationRequest;
 import com.distrimind.upnp_igd.model.message.discovery.OutgoingNotificationRequestDeviceType;
 import com.distrimind.upnp_igd.model.message.discovery.OutgoingNotificationRequestRootDevice;
@@ -27,10 +28,13 @@ import com.distrimind.upnp_igd.model.message.discovery.OutgoingNotificationReque
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
 import com.distrimind.upnp_igd.model.types.NotificationSubtype;
 import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.protocol.OutgoingDatagramTemplates;
 import com.distrimind.upnp_igd.protocol.SendingAsync;
 
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,7 +42,8 @@ import java.util.logging.Logger;
  * Sending notification messages for a registered local device.
  * <p>
  * Sends all required (dozens) of messages three times, waits between 0 and 150
- * milliseconds between each bulk sending procedure.
+ * milliseconds between each bulk sending procedure. The repetitions are scheduled,
+ * the executing thread returns after the first bulk.
  * </p>
  *
  * @author Christian Bauer
@@ -47,6 +52,9 @@ public abstract class SendingNotification extends SendingAsync {
 
     final private static Logger log = Logger.getLogger(SendingNotification.class.getName());
 
+    protected static final String DEVICE_MESSAGES = "device";
+    protected static final String SERVICE_TYPE_MESSAGES = "serviceTypes";
+
     private final LocalDevice<?> device;
 
     public SendingNotification(UpnpService upnpService, LocalDevice<?> device) {
@@ -79,25 +87,65 @@ public abstract class SendingNotification extends SendingAsync {
             );
         }
 
-        for (int i = 0; i < getBulkRepeat(); i++) {
-            try {
+        if (!isBulkRepeatScheduled()) {
+            for (int i = 0; i < getBulkRepeat(); i++) {
+                try {
 
-                for (Location descriptorLocation : descriptorLocations) {
-                    sendMessages(descriptorLocation);
-                }
+                    sendBulk(descriptorLocations);
 
-                // UDA 1.0 is silent about this but UDA 1.1 recomments "a few hundred milliseconds"
-				if (log.isLoggable(Level.FINER)) {
-					log.finer("Sleeping " + getBulkIntervalMilliseconds() + " milliseconds");
-				}
-				Thread.sleep(getBulkIntervalMilliseconds());
+                    // UDA 1.0 is silent about this but UDA 1.1 recomments "a few hundred milliseconds"
+                    if (log.isLoggable(Level.FINER)) {
+                        log.finer("Sleeping " + getBulkIntervalMilliseconds() + " milliseconds");
+                    }
+                    Thread.sleep(getBulkIntervalMilliseconds());
 
-            } catch (InterruptedException ex) {
-                if (log.isLoggable(Level.WARNING)) log.warning("Advertisement thread was interrupted: " + ex);
+                } catch (InterruptedException ex) {
+                    if (log.isLoggable(Level.WARNING)) log.warning("Advertisement thread was interrupted: " + ex);
+                }
             }
+            return;
+        }
+
+        sendBulk(descriptorLocations);
+
+        // A device removed in the meantime already sent its BYEBYE, don't repeat anything after it
+        final boolean registered = isDeviceRegistered();
+
+        // UDA 1.0 is silent about this but UDA 1.1 recomments "a few hundred milliseconds"
+        for (int i = 1; i < getBulkRepeat(); i++) {
+            executeLater(() -> {
+                if (registered && !isDeviceRegistered()) {
+                    if (log.isLoggable(Level.FINE)) log.fine("Device removed, not repeating advertisement: " + getDevice());
+                    return;
+                }
+                try {
+                    sendBulk(descriptorLocations);
+                } catch (RouterException ex) {
+                    if (log.isLoggable(Level.WARNING)) log.warning("Repeating advertisement failed: " + ex);
+                }
+            }, (long) i * getBulkIntervalMilliseconds());
         }
     }
 
+    protected void sendBulk(List<Location> descriptorLocations) throws RouterException {
+        for (Location descriptorLocation : descriptorLocations) {
+            sendMessages(descriptorLocation);
+        }
+    }
+
+    protected boolean isDeviceRegistered() {
+        return getUpnpService().getRegistry().getLocalDevice(getDevice().getIdentity().getUdn(), true) != null;
+    }
+
+    /**
+     * @return <code>true</code> (the default) if the repetitions are scheduled with the
+     *         {@link com.distrimind.upnp_igd.UpnpServiceConfiguration#getScheduledExecutorService()},
+     *         <code>false</code> if the executing thread sleeps between them.
+     */
+    protected boolean isBulkRepeatScheduled() {
+        return true;
+    }
+
     protected int getBulkRepeat() {
         return 3; // UDA 1.0 says maximum 3 times for alive messages, let's just do it for all
     }
@@ -110,32 +158,46 @@ public abstract class SendingNotification extends SendingAsync {
 		if (log.isLoggable(Level.FINER)) {
 			log.finer("Sending root device messages: " + getDevice());
 		}
-		List<OutgoingNotificationRequest> rootDeviceMsgs =
-                createDeviceMessages(getDevice(), descriptorLocation);
-        for (OutgoingNotificationRequest upnpMessage : rootDeviceMsgs) {
-            getUpnpService().getRouter().send(upnpMessage);
-        }
+		sendMessages(
+                getDevice(), DEVICE_MESSAGES, descriptorLocation,
+                () -> createDeviceMessages(getDevice(), descriptorLocation)
+        );
 
         if (getDevice().hasEmbeddedDevices()) {
             for (LocalDevice<?> embeddedDevice : getDevice().findEmbeddedDevices()) {
 				if (log.isLoggable(Level.FINER)) {
 					log.finer("Sending embedded device messages: " + embeddedDevice);
 				}
-				List<OutgoingNotificationRequest> embeddedDeviceMsgs =
-                        createDeviceMessages(embeddedDevice, descriptorLocation);
-                for (OutgoingNotificationRequest upnpMessage : embeddedDeviceMsgs) {
-                    getUpnpService().getRouter().send(upnpMessage);
-                }
+				sendMessages(
+                        embeddedDevice, DEVICE_MESSAGES, descriptorLocation,
+                        () -> createDeviceMessages(embeddedDevice, descriptorLocation)
+                );
             }
         }
 
-        List<OutgoingNotificationRequest> serviceTypeMsgs =
-                createServiceTypeMessages(getDevice(), descriptorLocation);
-        if (!serviceTypeMsgs.isEmpty()) {
-            log.finer("Sending service type messages");
-            for (OutgoingNotificationRequest upnpMessage : serviceTypeMsgs) {
-                getUpnpService().getRouter().send(upnpMessage);
-            }
+        log.finer("Sending service type messages");
+        sendMessages(
+                getDevice(), SERVICE_TYPE_MESSAGES, descriptorLocation,
+                () -> createServiceTypeMessages(getDevice(), descriptorLocation)
+        );
+    }
+
+    /**
+     * Sends the messages of the given device, encoded only once if the protocol factory
+     * provides {@link OutgoingDatagramTemplates}.
+     */
+    protected void sendMessages(LocalDevice<?> device, String target, Location descriptorLocation,
+                                Supplier<? extends List<? extends OutgoingDatagramMessage<?>>> factory) throws RouterException {
+        OutgoingDatagramTemplates templates = getUpnpService().getProtocolFactory().getOutgoingDatagramTemplates();
+        List<? extends OutgoingDatagramMessage<?>> msgs = templates != null
+                ? templates.getMessages(
+                        device, getNotificationSubtype().getHeaderString(), target, descriptorLocation, null, 0, factory
+                )
+                : factory.get();
+        // Only the interface the location is bound to can reach it, don't send it on the others
+        InetAddress bindAddress = descriptorLocation.getNetworkAddress().getAddress();
+        for (OutgoingDatagramMessage<?> upnpMessage : msgs) {
+            getUpnpService().getRouter().send(upnpMessage, bindAddress);
         }
     }
 
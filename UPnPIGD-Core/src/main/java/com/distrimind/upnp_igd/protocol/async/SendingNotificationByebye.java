@@ -19,6 +19,7 @@ import com.distrimind.upnp_igd.transport.RouterException;
 import com.distrimind.upnp_igd.UpnpService;
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
 import com.distrimind.upnp_igd.model.types.NotificationSubtype;
+import com.distrimind.upnp_igd.protocol.OutgoingDatagramTemplates;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,7 +51,23 @@ public class SendingNotificationByebye extends SendingNotification {
 		if (log.isLoggable(Level.FINE)) {
 			log.fine("Sending byebye messages ("+getBulkRepeat()+" times) for: " + getDevice());
 		}
-		super.execute();
+		try {
+            super.execute();
+        } finally {
+            // The device is gone, its messages won't be sent again
+            OutgoingDatagramTemplates templates = getUpnpService().getProtocolFactory().getOutgoingDatagramTemplates();
+            if (templates != null)
+                templates.invalidate(getDevice());
+        }
+    }
+
+    /**
+     * Byebye messages are sent on removal and shutdown of a local device, all repetitions have
+     * to be sent before the router is stopped.
+     */
+    @Override
+    protected boolean isBulkRepeatScheduled() {
+        return false;
     }
 
     @Override
@@ -89,21 +89,18 @@ public class SendingSearch extends SendingAsync {
 		OutgoingSearchRequest msg = new OutgoingSearchRequest(searchTarget, getMxSeconds());
         prepareOutgoingSearchRequest(msg);
 
-        for (int i = 0; i < getBulkRepeat(); i++) {
-            try {
-
-                getUpnpService().getRouter().send(msg);
-
-                // UDA 1.0 is silent about this but UDA 1.1 recommends "a few hundred milliseconds"
-				if (log.isLoggable(Level.FINER)) {
-					log.finer("Sleeping " + getBulkIntervalMilliseconds() + " milliseconds");
-				}
-				Thread.sleep(getBulkIntervalMilliseconds());
-
-            } catch (InterruptedException ex) {
-                // Interruption means we stop sending search messages, e.g. on shutdown of thread pool
-                break;
-            }
+        getUpnpService().getRouter().send(msg);
+
+        // UDA 1.0 is silent about this but UDA 1.1 recommends "a few hundred milliseconds"
+        // The repetitions are scheduled, they stop on shutdown of the scheduled executor
+        for (int i = 1; i < getBulkRepeat(); i++) {
+            executeLater(() -> {
+                try {
+                    getUpnpService().getRouter().send(msg);
+                } catch (RouterException ex) {
+                    if (log.isLoggable(Level.WARNING)) log.warning("Repeating search failed: " + ex);
+                }
+            }, (long) i * getBulkIntervalMilliseconds());
         }
     }
 
@@ -16,6 +16,7 @@
 package com.distrimind.upnp_igd.protocol.sync;
 
 import com.distrimind.upnp_igd.protocol.ReceivingSync;
+import com.distrimind.upnp_igd.registry.DescriptorCache;
 import com.distrimind.upnp_igd.registry.Registry;
 import com.distrimind.upnp_igd.transport.RouterException;
 import com.distrimind.upnp_igd.UpnpService;
@@ -28,6 +29,9 @@ import com.distrimind.upnp_igd.model.message.UpnpResponse;
 import com.distrimind.upnp_igd.model.message.header.ContentTypeHeader;
 import com.distrimind.upnp_igd.model.message.header.ServerHeader;
 import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.model.Namespace;
+import com.distrimind.upnp_igd.model.meta.Device;
+import com.distrimind.upnp_igd.model.meta.DeviceDetails;
 import com.distrimind.upnp_igd.model.meta.Icon;
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
 import com.distrimind.upnp_igd.model.meta.LocalService;
@@ -38,6 +42,13 @@ import com.distrimind.upnp_igd.model.resource.ServiceDescriptorResource;
 import com.distrimind.upnp_igd.util.Exceptions;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,11 +56,16 @@ import java.util.logging.Logger;
  * Handles reception of device/service descriptor and icon retrieval messages.
  *
  * <p>
- * Requested device and service XML descriptors are generated on-the-fly for every request.
+ * Requested device and service XML descriptors are generated on-the-fly and kept in the
+ * registry's {@link DescriptorCache}, further requests are answered with the cached bytes,
+ * their <code>ETag</code> and <code>Last-Modified</code> time. A request with a matching
+ * <code>If-None-Match</code> header is answered with <code>304 Not Modified</code>.
  * </p>
  * <p>
  * Descriptor XML is dynamically generated depending on the control point - some control
- * points require different metadata than others for the same device and services.
+ * points require different metadata than others for the same device and services. The
+ * cache stores one variant for each distinct {@link DeviceDetails} selection, see
+ * {@link #getDescriptorVariant(LocalDevice, Namespace)}.
  * </p>
  *
  * @author Christian Bauer
@@ -58,6 +74,14 @@ public class ReceivingRetrieval extends ReceivingSync<StreamRequestMessage, Stre
 
     final private static Logger log = Logger.getLogger(ReceivingRetrieval.class.getName());
 
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    // RFC 7231, section 7.1.1.1, IMF-fixdate
+    private static final DateTimeFormatter HTTP_DATE_FORMAT =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.ENGLISH);
+
     public ReceivingRetrieval(UpnpService upnpService, StreamRequestMessage inputMessage) {
         super(upnpService, inputMessage);
     }
@@ -101,18 +125,26 @@ public class ReceivingRetrieval extends ReceivingSync<StreamRequestMessage, Stre
 					log.fine("Found local device matching relative request URI: " + requestedURI);
 				}
 				LocalDevice<?> device = (LocalDevice<?>) resource.getModel();
+                Namespace namespace = getUpnpService().getConfiguration().getNamespace();
 
-                DeviceDescriptorBinder deviceDescriptorBinder =
-                        getUpnpService().getConfiguration().getDeviceDescriptorBinderUDA10();
-                String deviceDescriptor = deviceDescriptorBinder.generate(
-                        device,
-                        getRemoteClientInfo(),
-                        getUpnpService().getConfiguration().getNamespace()
-                );
-                response = new StreamResponseMessage(
-                        deviceDescriptor,
-                        new ContentTypeHeader(ContentTypeHeader.DEFAULT_CONTENT_TYPE)
-                );
+                Object variant = getDescriptorVariant(device, namespace);
+
+                DescriptorCache.Entry entry = getDescriptorCache().get(resource, variant);
+                if (entry == null) {
+                    DeviceDescriptorBinder deviceDescriptorBinder =
+                            getUpnpService().getConfiguration().getDeviceDescriptorBinderUDA10();
+                    String deviceDescriptor = deviceDescriptorBinder.generate(
+                            device,
+                            getRemoteClientInfo(),
+                            namespace
+                    );
+                    entry = getDescriptorCache().put(
+                            resource,
+                            variant,
+                            deviceDescriptor.getBytes(StandardCharsets.UTF_8)
+                    );
+                }
+                response = createDescriptorResponse(entry);
             } else if (ServiceDescriptorResource.class.isAssignableFrom(resource.getClass())) {
 
 
@@ -123,11 +155,16 @@ public class ReceivingRetrieval extends ReceivingSync<StreamRequestMessage, Stre
 
                 ServiceDescriptorBinder serviceDescriptorBinder =
                         getUpnpService().getConfiguration().getServiceDescriptorBinderUDA10();
-                String serviceDescriptor = serviceDescriptorBinder.generate(service);
-                response = new StreamResponseMessage(
-                        serviceDescriptor,
-                        new ContentTypeHeader(ContentTypeHeader.DEFAULT_CONTENT_TYPE)
-                );
+                DescriptorCache.Entry entry = getDescriptorCache().get(resource, serviceDescriptorBinder);
+                if (entry == null) {
+                    String serviceDescriptor = serviceDescriptorBinder.generate(service);
+                    entry = getDescriptorCache().put(
+                            resource,
+                            serviceDescriptorBinder,
+                            serviceDescriptor.getBytes(StandardCharsets.UTF_8)
+                    );
+                }
+                response = createDescriptorResponse(entry);
 
             } else if (IconResource.class.isAssignableFrom(resource.getClass())) {
 
@@ -135,7 +172,7 @@ public class ReceivingRetrieval extends ReceivingSync<StreamRequestMessage, Stre
 					log.fine("Found local icon matching relative request URI: " + requestedURI);
 				}
 				Icon icon = (Icon) resource.getModel();
-                response = new StreamResponseMessage(icon.getData(), icon.getMimeType());
+                response = new StreamResponseMessage(icon.getBody(), icon.getMimeType());
 
             } else {
 
@@ -158,6 +195,83 @@ public class ReceivingRetrieval extends ReceivingSync<StreamRequestMessage, Stre
         return response;
     }
 
+    protected DescriptorCache getDescriptorCache() {
+        return getUpnpService().getRegistry().getDescriptorCache();
+    }
+
+    /**
+     * The generated device descriptor only depends on the device details selected for the
+     * requesting control point, for the root and each embedded device, besides the device model,
+     * the binder and the namespace.
+     * <p>
+     * A {@link com.distrimind.upnp_igd.model.profile.DeviceDetailsProvider} should return the same
+     * instance for equivalent requests, otherwise each request generates a new variant. Override this
+     * method if your binder generates output based on other client properties.
+     * </p>
+     *
+     * @param device The requested root device.
+     * @param namespace The namespace used for the generated URLs.
+     * @return The key of the descriptor variant for the current request.
+     */
+    protected Object getDescriptorVariant(LocalDevice<?> device, Namespace namespace) {
+        List<Object> variant = new ArrayList<>();
+        variant.add(getUpnpService().getConfiguration().getDeviceDescriptorBinderUDA10());
+        variant.add(namespace);
+        addDeviceDetails(variant, device);
+        return variant;
+    }
+
+    private void addDeviceDetails(List<Object> variant, Device<?, ?, ?> device) {
+        variant.add(device.getDetails(getRemoteClientInfo()));
+        if (device.hasEmbeddedDevices()) {
+            for (Device<?, ?, ?> embeddedDevice : device.getEmbeddedDevices()) {
+                addDeviceDetails(variant, embeddedDevice);
+            }
+        }
+    }
+
+    protected StreamResponseMessage createDescriptorResponse(DescriptorCache.Entry entry) {
+        StreamResponseMessage response;
+        if (isEntityTagMatching(getInputMessage().getHeaders().getFirstHeader(HEADER_IF_NONE_MATCH), entry.getEntityTag())) {
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Descriptor not modified: " + entry);
+			}
+            response = new StreamResponseMessage(new UpnpResponse(UpnpResponse.Status.NOT_MODIFIED));
+        } else {
+            response = new StreamResponseMessage(
+                    entry.getBody(),
+                    new ContentTypeHeader(ContentTypeHeader.DEFAULT_CONTENT_TYPE)
+            );
+        }
+        response.getHeaders().add(HEADER_ETAG, entry.getEntityTag());
+        response.getHeaders().add(HEADER_LAST_MODIFIED, formatHttpDate(entry.getLastModified()));
+        return response;
+    }
+
+    /**
+     * @param ifNoneMatch The value of the <code>If-None-Match</code> request header, or <code>null</code>.
+     * @param entityTag The current strong entity tag.
+     * @return <code>true</code> if the header lists the entity tag, weakly compared, or is <code>*</code>.
+     */
+    public static boolean isEntityTagMatching(String ifNoneMatch, String entityTag) {
+        if (ifNoneMatch == null || entityTag == null)
+            return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*"))
+                return true;
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals(entityTag))
+                return true;
+        }
+        return false;
+    }
+
+    public static String formatHttpDate(long timeMillis) {
+        return HTTP_DATE_FORMAT.format(Instant.ofEpochMilli(timeMillis).atZone(ZoneOffset.UTC));
+    }
+
     /**
      * Called if the {@link Registry} had no result.
      *
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.registry;
+
+import com.distrimind.upnp_igd.model.types.UDN;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Internal class, required by {@link LocalItems}: the time of the next ALIVE advertisement of each
+ * local device.
+ * <p>
+ * Refreshing all local devices at the same time produces multicast bursts, so the first refresh of a
+ * device is placed randomly in the second half of its refresh period, and each following refresh
+ * is advanced by up to a tenth of the period. Devices registered together are spread over the
+ * window and don't converge again.
+ * </p>
+ * <p>
+ * The refreshes are ordered by time in an {@link ExpirationQueue}, the registry maintenance
+ * only handles the devices whose refresh is due.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class AliveAdvertisementSchedule {
+
+    protected final ExpirationQueue<UDN> nextAdvertisementTimestamps = new ExpirationQueue<>();
+    protected final Random randomGenerator;
+
+    public AliveAdvertisementSchedule() {
+        this(new Random());
+    }
+
+    public AliveAdvertisementSchedule(Random randomGenerator) {
+        this.randomGenerator = randomGenerator;
+    }
+
+    /**
+     * Schedules the first refresh after the device has been announced.
+     *
+     * @param periodMillis The refresh period, <code>0</code> if the device doesn't need to be refreshed.
+     */
+    public void scheduleFirst(UDN udn, long periodMillis, long now) {
+        if (periodMillis <= 0) {
+            nextAdvertisementTimestamps.cancel(udn);
+            return;
+        }
+        long half = periodMillis / 2;
+        nextAdvertisementTimestamps.schedule(udn, now + half + nextLong(periodMillis - half));
+    }
+
+    /**
+     * Schedules the next refresh after the device has been refreshed.
+     *
+     * @param periodMillis The refresh period, <code>0</code> if the device doesn't need to be refreshed.
+     */
+    public void scheduleNext(UDN udn, long periodMillis, long now) {
+        if (periodMillis <= 0) {
+            nextAdvertisementTimestamps.cancel(udn);
+            return;
+        }
+        nextAdvertisementTimestamps.schedule(udn, now + periodMillis - nextLong(periodMillis / 10));
+    }
+
+    /**
+     * @return <code>true</code> if the device is scheduled and its refresh is due.
+     */
+    public boolean isDue(UDN udn, long now) {
+        Long next = nextAdvertisementTimestamps.getDeadline(udn);
+        return next != null && next <= now;
+    }
+
+    public boolean isScheduled(UDN udn) {
+        return nextAdvertisementTimestamps.contains(udn);
+    }
+
+    /**
+     * Removes the devices whose refresh is due, they have to be scheduled again once refreshed.
+     *
+     * @return The devices to refresh, ordered by refresh time.
+     */
+    public List<UDN> pollDue(long now) {
+        return nextAdvertisementTimestamps.pollDue(now);
+    }
+
+    /**
+     * @return The time of the earliest refresh, <code>Long.MAX_VALUE</code> if no device is scheduled.
+     */
+    public long getNextTimestamp() {
+        return nextAdvertisementTimestamps.getNextDeadline();
+    }
+
+    /**
+     * @return The time of the next refresh of the device, <code>null</code> if it isn't scheduled.
+     */
+    public Long getNextAdvertisementTimestamp(UDN udn) {
+        return nextAdvertisementTimestamps.getDeadline(udn);
+    }
+
+    public void remove(UDN udn) {
+        nextAdvertisementTimestamps.cancel(udn);
+    }
+
+    public void clear() {
+        nextAdvertisementTimestamps.clear();
+    }
+
+    protected long nextLong(long bound) {
+        return bound > 0 ? (long) (randomGenerator.nextDouble() * (bound + 1)) : 0;
+    }
+
+}
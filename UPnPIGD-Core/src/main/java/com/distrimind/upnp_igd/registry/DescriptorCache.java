@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.registry;
+
+import com.distrimind.upnp_igd.model.message.StreamingBody;
+import com.distrimind.upnp_igd.model.resource.Resource;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generated device and service descriptors of local resources, kept by the {@link Registry}.
+ * <p>
+ * Entries are stored per resource and per variant, the variant being whatever distinguishes
+ * the outputs generated for different control points (e.g. the device details selected for
+ * the client's request headers). The registry invalidates all entries of a resource when the
+ * resource is added, removed or expires. An entry is also only returned as long as the
+ * resource still holds the model instance the descriptor was generated from, so a descriptor
+ * generated concurrently with a re-registration is never served for the new model.
+ * </p>
+ * <p>
+ * Variants are compared with <code>equals()</code>, a resource keeps at most
+ * {@link #getMaxVariantsPerResource()} of them, older variants are discarded when the
+ * limit is reached.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class DescriptorCache {
+
+    /**
+     * An immutable generated descriptor.
+     */
+    public static class Entry {
+
+        final private Object model;
+        final private byte[] bytes;
+        final private String entityTag;
+        final private long lastModified;
+
+        public Entry(Object model, byte[] bytes) {
+            this(model, bytes, System.currentTimeMillis());
+        }
+
+        public Entry(Object model, byte[] bytes, long lastModified) {
+            this.model = model;
+            this.bytes = bytes;
+            this.entityTag = createEntityTag(bytes);
+            this.lastModified = lastModified;
+        }
+
+        public Object getModel() {
+            return model;
+        }
+
+        /**
+         * @return The shared descriptor bytes, which must not be modified.
+         */
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getContentLength() {
+            return bytes.length;
+        }
+
+        /**
+         * @return A strong entity tag derived from the descriptor bytes, including the quotes.
+         */
+        public String getEntityTag() {
+            return entityTag;
+        }
+
+        /**
+         * @return The time in milliseconds when the descriptor was generated.
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return A new body serving the shared descriptor bytes.
+         */
+        public StreamingBody getBody() {
+            return StreamingBody.of(bytes);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + getClass().getSimpleName() + ") ETag: " + getEntityTag() + ", Content-Length: " + getContentLength();
+        }
+    }
+
+    public static final int DEFAULT_MAX_VARIANTS_PER_RESOURCE = 16;
+
+    protected final Map<Resource<?>, Map<Object, Entry>> entries = new ConcurrentHashMap<>();
+    protected final int maxVariantsPerResource;
+
+    public DescriptorCache() {
+        this(DEFAULT_MAX_VARIANTS_PER_RESOURCE);
+    }
+
+    public DescriptorCache(int maxVariantsPerResource) {
+        if (maxVariantsPerResource < 1)
+            throw new IllegalArgumentException();
+        this.maxVariantsPerResource = maxVariantsPerResource;
+    }
+
+    public int getMaxVariantsPerResource() {
+        return maxVariantsPerResource;
+    }
+
+    /**
+     * @param resource The registered resource.
+     * @param variant The variant of the descriptor, not <code>null</code>.
+     * @return The cached descriptor, or <code>null</code> if none was generated for the resource's current model.
+     */
+    public Entry get(Resource<?> resource, Object variant) {
+        Map<Object, Entry> variants = entries.get(resource);
+        if (variants == null)
+            return null;
+        Entry entry = variants.get(variant);
+        if (entry == null || entry.getModel() != resource.getModel())
+            return null;
+        return entry;
+    }
+
+    /**
+     * @param resource The registered resource.
+     * @param variant The variant of the descriptor, not <code>null</code>.
+     * @param bytes The generated descriptor.
+     * @return The new cache entry.
+     */
+    public Entry put(Resource<?> resource, Object variant, byte[] bytes) {
+        Entry entry = new Entry(resource.getModel(), bytes);
+        Map<Object, Entry> variants = entries.computeIfAbsent(resource, r -> new ConcurrentHashMap<>());
+        if (variants.size() >= getMaxVariantsPerResource() && !variants.containsKey(variant))
+            variants.clear();
+        variants.put(variant, entry);
+        return entry;
+    }
+
+    /**
+     * Removes all variants of the given resource's descriptor.
+     */
+    public void invalidate(Resource<?> resource) {
+        entries.remove(resource);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Object, Entry> variants : entries.values()) {
+            size += variants.size();
+        }
+        return size;
+    }
+
+    protected static String createEntityTag(byte[] bytes) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder(34).append('"');
+            for (int i = 0; i < 16; i++) {
+                sb.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return sb.append('"').toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
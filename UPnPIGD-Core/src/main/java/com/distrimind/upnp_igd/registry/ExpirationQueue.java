@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.registry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Keys ordered by deadline, the registry maintenance only handles the items whose deadline
+ * has passed and sleeps until the next deadline.
+ * <p>
+ * A key has at most one deadline, scheduling it again replaces the previous deadline. Replaced
+ * and cancelled deadlines stay in the queue until they reach its head or until the queue is
+ * compacted, so that scheduling and cancelling cost <code>O(log n)</code>.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class ExpirationQueue<K> {
+
+    protected static class Entry<K> implements Comparable<Entry<K>> {
+
+        final K key;
+        final long deadlineMillis;
+        final long sequence;
+
+        Entry(K key, long deadlineMillis, long sequence) {
+            this.key = key;
+            this.deadlineMillis = deadlineMillis;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry<K> that) {
+            int c = Long.compare(deadlineMillis, that.deadlineMillis);
+            return c != 0 ? c : Long.compare(sequence, that.sequence);
+        }
+    }
+
+    protected final PriorityQueue<Entry<K>> queue = new PriorityQueue<>();
+    protected final Map<K, Entry<K>> entries = new HashMap<>();
+    protected long sequence;
+
+    /**
+     * Schedules the given key, replacing its previous deadline.
+     */
+    synchronized public void schedule(K key, long deadlineMillis) {
+        Entry<K> entry = new Entry<>(key, deadlineMillis, sequence++);
+        entries.put(key, entry);
+        queue.add(entry);
+        if (queue.size() > 2 * entries.size() + 64)
+            compact();
+    }
+
+    /**
+     * @return <code>true</code> if the key was scheduled.
+     */
+    synchronized public boolean cancel(K key) {
+        return entries.remove(key) != null;
+    }
+
+    synchronized public boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * @return The deadline of the given key, or <code>null</code> if it isn't scheduled.
+     */
+    synchronized public Long getDeadline(K key) {
+        Entry<K> entry = entries.get(key);
+        return entry != null ? entry.deadlineMillis : null;
+    }
+
+    /**
+     * Removes the keys whose deadline has passed.
+     *
+     * @return The removed keys, ordered by deadline.
+     */
+    synchronized public List<K> pollDue(long nowMillis) {
+        List<K> due = new ArrayList<>();
+        Entry<K> head;
+        while ((head = queue.peek()) != null && head.deadlineMillis <= nowMillis) {
+            queue.poll();
+            if (entries.get(head.key) == head) {
+                entries.remove(head.key);
+                due.add(head.key);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * @return The earliest deadline, or <code>Long.MAX_VALUE</code> if no key is scheduled.
+     */
+    synchronized public long getNextDeadline() {
+        Entry<K> head;
+        while ((head = queue.peek()) != null) {
+            if (entries.get(head.key) == head)
+                return head.deadlineMillis;
+            queue.poll();
+        }
+        return Long.MAX_VALUE;
+    }
+
+    synchronized public int size() {
+        return entries.size();
+    }
+
+    synchronized public void clear() {
+        entries.clear();
+        queue.clear();
+    }
+
+    protected void compact() {
+        queue.clear();
+        queue.addAll(entries.values());
+    }
+}
@@ -16,21 +16,23 @@
 package com.distrimind.upnp_igd.registry;
 
 import com.distrimind.upnp_igd.model.DiscoveryOptions;
+import com.distrimind.upnp_igd.model.ExpirationDetails;
 import com.distrimind.upnp_igd.model.resource.Resource;
 import com.distrimind.upnp_igd.model.gena.CancelReason;
 import com.distrimind.upnp_igd.model.gena.LocalGENASubscription;
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
 import com.distrimind.upnp_igd.model.types.UDN;
+import com.distrimind.upnp_igd.protocol.OutgoingDatagramTemplates;
 import com.distrimind.upnp_igd.protocol.SendingAsync;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,8 +45,8 @@ class LocalItems extends RegistryItems<LocalDevice<?>, LocalGENASubscription<?>>
 
     private static final Logger log = Logger.getLogger(Registry.class.getName());
     
-    protected Map<UDN, DiscoveryOptions> discoveryOptions = new HashMap<>();
-    protected long lastAliveIntervalTimestamp = 0;
+    protected Map<UDN, DiscoveryOptions> discoveryOptions = new ConcurrentHashMap<>();
+    protected AliveAdvertisementSchedule aliveAdvertisementSchedule = new AliveAdvertisementSchedule();
 
     LocalItems(RegistryImpl registry) {
         super(registry);
@@ -81,57 +83,55 @@ class LocalItems extends RegistryItems<LocalDevice<?>, LocalGENASubscription<?>>
         // Always set/override the options, even if we don't end up adding the device
         setDiscoveryOptions(localDevice.getIdentity().getUdn(), options);
 
-        if (registry.getDevice(localDevice.getIdentity().getUdn(), false) != null) {
-			if (log.isLoggable(Level.FINE)) {
-				log.fine("Ignoring addition, device already registered: " + localDevice);
-			}
-			return;
-        }
-
-		if (log.isLoggable(Level.FINE)) {
-			log.fine("Adding local device to registry: " + localDevice);
-		}
-
-		for (Resource<?> deviceResource : getResources(localDevice)) {
-
-            if (registry.getResource(deviceResource.getPathQuery()) != null) {
-                throw new RegistrationException("URI namespace conflict with already registered resource: " + deviceResource);
+        synchronized (registry.getDeviceLock(localDevice.getIdentity().getUdn())) {
+            if (registry.getDevice(localDevice.getIdentity().getUdn(), false) != null) {
+				if (log.isLoggable(Level.FINE)) {
+					log.fine("Ignoring addition, device already registered: " + localDevice);
+				}
+				return;
             }
 
-            registry.addResource(deviceResource);
 			if (log.isLoggable(Level.FINE)) {
-				log.fine("Registered resource: " + deviceResource);
+				log.fine("Adding local device to registry: " + localDevice);
 			}
 
-		}
+            // Validates all resources before adding any of them
+            registry.addResources(getResources(localDevice));
 
-		if (log.isLoggable(Level.FINE)) {
-			log.fine("Adding item to registry with expiration in seconds: " + localDevice.getIdentity().getMaxAgeSeconds());
-		}
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Adding item to registry with expiration in seconds: " + localDevice.getIdentity().getMaxAgeSeconds());
+			}
 
-		RegistryItem<UDN, LocalDevice<?>> localItem = new RegistryItem<>(
-                localDevice.getIdentity().getUdn(),
-                localDevice,
-                localDevice.getIdentity().getMaxAgeSeconds()
-        );
+			RegistryItem<UDN, LocalDevice<?>> localItem = new RegistryItem<>(
+                    localDevice.getIdentity().getUdn(),
+                    localDevice,
+                    localDevice.getIdentity().getMaxAgeSeconds()
+            );
 
-        getDeviceItems().add(localItem);
-		if (log.isLoggable(Level.FINE)) {
-			log.fine("Registered local device: " + localItem);
-		}
+            putDeviceItem(localItem);
+			if (log.isLoggable(Level.FINE)) {
+				log.fine("Registered local device: " + localItem);
+			}
 
-		if (isByeByeBeforeFirstAlive(localItem.getKey()))
-            advertiseByebye(localDevice, true);
+            // Messages encoded for a previous registration might advertise another location
+            invalidateOutgoingDatagramTemplates(localDevice);
 
-        if (isAdvertised(localItem.getKey()))
-             advertiseAlive(localDevice);
+			if (isByeByeBeforeFirstAlive(localItem.getKey()))
+                advertiseByebye(localDevice, true);
 
-        for (final RegistryListener listener : registry.getListeners()) {
-            registry.getConfiguration().getRegistryListenerExecutor().execute(
-					() -> listener.localDeviceAdded(registry, localDevice)
-			);
+            if (isAdvertised(localItem.getKey()))
+                 advertiseAlive(localDevice);
+            aliveAdvertisementSchedule.scheduleFirst(
+                    localItem.getKey(), getAliveRefreshPeriodMillis(localDevice), System.currentTimeMillis()
+            );
+            scheduleAliveAdvertisement(localItem.getKey());
+
+            for (final RegistryListener listener : registry.getListeners()) {
+                registry.getConfiguration().getRegistryListenerExecutor().execute(
+						() -> listener.localDeviceAdded(registry, localDevice)
+				);
+            }
         }
-
     }
 
     @Override
@@ -149,60 +149,65 @@ class LocalItems extends RegistryItems<LocalDevice<?>, LocalGENASubscription<?>>
 
     boolean remove(final LocalDevice<?> localDevice, boolean shuttingDown) throws RegistrationException {
 
-        LocalDevice<?> registeredDevice = get(localDevice.getIdentity().getUdn(), true);
-        if (registeredDevice != null) {
+        synchronized (registry.getDeviceLock(localDevice.getIdentity().getUdn())) {
+            LocalDevice<?> registeredDevice = get(localDevice.getIdentity().getUdn(), true);
+            if (registeredDevice != null) {
 
-			if (log.isLoggable(Level.FINE)) {
-				log.fine("Removing local device from registry: " + localDevice);
-			}
+				if (log.isLoggable(Level.FINE)) {
+					log.fine("Removing local device from registry: " + localDevice);
+				}
 
-			setDiscoveryOptions(localDevice.getIdentity().getUdn(), null);
-            getDeviceItems().remove(new RegistryItem<UDN, LocalDevice<?>>(localDevice.getIdentity().getUdn()));
+				setDiscoveryOptions(localDevice.getIdentity().getUdn(), null);
+                aliveAdvertisementSchedule.remove(localDevice.getIdentity().getUdn());
+                removeDeviceItem(localDevice.getIdentity().getUdn());
 
-            for (Resource<?> deviceResource : getResources(localDevice)) {
-                if (registry.removeResource(deviceResource)) {
-					if (log.isLoggable(Level.FINE)) {
-						log.fine("Unregistered resource: " + deviceResource);
+                for (Resource<?> deviceResource : getResources(localDevice)) {
+                    if (registry.removeResource(deviceResource)) {
+						if (log.isLoggable(Level.FINE)) {
+							log.fine("Unregistered resource: " + deviceResource);
+						}
 					}
-				}
-            }
+                }
 
-            // Active subscriptions
-            Iterator<RegistryItem<String, LocalGENASubscription<?>>> it = getSubscriptionItems().iterator();
-            while (it.hasNext()) {
-                final RegistryItem<String, LocalGENASubscription<?>> incomingSubscription = it.next();
+                // Active subscriptions
+                Iterator<RegistryItem<String, LocalGENASubscription<?>>> it = getSubscriptionItems().iterator();
+                while (it.hasNext()) {
+                    final RegistryItem<String, LocalGENASubscription<?>> incomingSubscription = it.next();
 
-                UDN subscriptionForUDN =
-                        incomingSubscription.getItem().getService().getDevice().getIdentity().getUdn();
+                    UDN subscriptionForUDN =
+                            incomingSubscription.getItem().getService().getDevice().getIdentity().getUdn();
 
-                if (subscriptionForUDN.equals(registeredDevice.getIdentity().getUdn())) {
-					if (log.isLoggable(Level.FINE)) {
-						log.fine("Removing incoming subscription: " + incomingSubscription.getKey());
-					}
-					it.remove();
-                    if (!shuttingDown) {
-                        registry.getConfiguration().getRegistryListenerExecutor().execute(
-								() -> incomingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED)
-						);
+                    if (subscriptionForUDN.equals(registeredDevice.getIdentity().getUdn())) {
+						if (log.isLoggable(Level.FINE)) {
+							log.fine("Removing incoming subscription: " + incomingSubscription.getKey());
+						}
+						it.remove();
+                        subscriptionExpirations.cancel(incomingSubscription.getKey());
+                        if (!shuttingDown) {
+                            registry.getConfiguration().getRegistryListenerExecutor().execute(
+									() -> incomingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED)
+							);
+                        }
                     }
                 }
-            }
 
-            if (isAdvertised(localDevice.getIdentity().getUdn()))
-         		advertiseByebye(localDevice, !shuttingDown);
+                invalidateOutgoingDatagramTemplates(localDevice);
+                if (isAdvertised(localDevice.getIdentity().getUdn()))
+             		advertiseByebye(localDevice, !shuttingDown);
 
-            if (!shuttingDown) {
-                for (final RegistryListener listener : registry.getListeners()) {
-                    registry.getConfiguration().getRegistryListenerExecutor().execute(
-							() -> listener.localDeviceRemoved(registry, localDevice)
-					);
+                if (!shuttingDown) {
+                    for (final RegistryListener listener : registry.getListeners()) {
+                        registry.getConfiguration().getRegistryListenerExecutor().execute(
+								() -> listener.localDeviceRemoved(registry, localDevice)
+						);
+                    }
                 }
+
+                return true;
             }
 
-            return true;
+            return false;
         }
-
-        return false;
     }
 
     @Override
@@ -219,7 +224,7 @@ class LocalItems extends RegistryItems<LocalDevice<?>, LocalGENASubscription<?>>
     /* ############################################################################################################ */
 
     public void advertiseLocalDevices() {
-        for (RegistryItem<UDN, LocalDevice<?>> localItem : deviceItems) {
+        for (RegistryItem<UDN, LocalDevice<?>> localItem : getDeviceItems()) {
             if (isAdvertised(localItem.getKey()))
                 advertiseAlive(localItem.getItem());
         }
@@ -230,37 +235,21 @@ class LocalItems extends RegistryItems<LocalDevice<?>, LocalGENASubscription<?>>
     @Override
 	void maintain() {
 
-    	if(getDeviceItems().isEmpty()) return ;
-
+        // Only the devices whose refresh is due, each device has its own refresh time, spread over the
+        // refresh period to avoid bursts
         Set<RegistryItem<UDN, LocalDevice<?>>> expiredLocalItems = new HashSet<>();
-
-        // "Flooding" is enabled, check if we need to send advertisements for all devices
-        int aliveIntervalMillis = registry.getConfiguration().getAliveIntervalMillis();
-        if(aliveIntervalMillis > 0) {
-        	long now = System.currentTimeMillis();
-        	if(now - lastAliveIntervalTimestamp > aliveIntervalMillis) {
-        		lastAliveIntervalTimestamp = now;
-                for (RegistryItem<UDN, LocalDevice<?>> localItem : getDeviceItems()) {
-                    if (isAdvertised(localItem.getKey())) {
-						if (log.isLoggable(Level.FINER)) {
-							log.finer("Flooding advertisement of local item: " + localItem);
-						}
-						expiredLocalItems.add(localItem);
-                    }
-                }
-        	}
-        } else {
-            // Reset, the configuration might dynamically switch the alive interval
-            lastAliveIntervalTimestamp = 0;
-
-            // Alive interval is not enabled, regular expiration check of all devices
-            for (RegistryItem<UDN, LocalDevice<?>> localItem : getDeviceItems()) {
-                if (isAdvertised(localItem.getKey()) && localItem.getExpirationDetails().hasExpired(true)) {
-					if (log.isLoggable(Level.FINER)) {
-						log.finer("Local item has expired: " + localItem);
-					}
-					expiredLocalItems.add(localItem);
+        long now = System.currentTimeMillis();
+        for (UDN udn : aliveAdvertisementSchedule.pollDue(now)) {
+            RegistryItem<UDN, LocalDevice<?>> localItem = deviceItems.get(udn);
+            if (localItem == null)
+                continue;
+            aliveAdvertisementSchedule.scheduleNext(udn, getAliveRefreshPeriodMillis(localItem.getItem()), now);
+            scheduleAliveAdvertisement(udn);
+            if (isAdvertised(udn)) {
+                if (log.isLoggable(Level.FINER)) {
+                    log.finer("Local item advertisement is due: " + localItem);
                 }
+                expiredLocalItems.add(localItem);
             }
         }
 
@@ -273,14 +262,16 @@ class LocalItems extends RegistryItems<LocalDevice<?>, LocalGENASubscription<?>>
             expiredLocalItem.getExpirationDetails().stampLastRefresh();
         }
 
-        // Expire incoming subscriptions
-        Set<RegistryItem<String, LocalGENASubscription<?>>> expiredIncomingSubscriptions = new HashSet<>();
-        for (RegistryItem<String, LocalGENASubscription<?>> item : getSubscriptionItems()) {
-            if (item.getExpirationDetails().hasExpired(false)) {
-                expiredIncomingSubscriptions.add(item);
+        // Expire incoming subscriptions whose deadline has passed
+        for (String subscriptionId : subscriptionExpirations.pollDue(now)) {
+            RegistryItem<String, LocalGENASubscription<?>> subscription = subscriptionItems.get(subscriptionId);
+            if (subscription == null)
+                continue;
+            if (!subscription.getExpirationDetails().hasExpired(false)) {
+                // Not yet, the item was replaced
+                scheduleExpiration(subscriptionExpirations, subscriptionId, getSubscriptionExpirationMillis(subscription));
+                continue;
             }
-        }
-        for (RegistryItem<String, LocalGENASubscription<?>> subscription : expiredIncomingSubscriptions) {
 			if (log.isLoggable(Level.FINE)) {
 				log.fine("Removing expired: " + subscription);
 			}
@@ -290,29 +281,77 @@ class LocalItems extends RegistryItems<LocalDevice<?>, LocalGENASubscription<?>>
 
     }
 
+    @Override
+    long getExpirationMillis(RegistryItem<UDN, LocalDevice<?>> deviceItem) {
+        // Local devices don't expire, their advertisements are scheduled separately
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    long getSubscriptionExpirationMillis(RegistryItem<String, LocalGENASubscription<?>> subscriptionItem) {
+        return subscriptionItem.getExpirationDetails().getExpirationMillis(false);
+    }
+
+    @Override
+    long getNextExpirationMillis() {
+        return Math.min(super.getNextExpirationMillis(), aliveAdvertisementSchedule.getNextTimestamp());
+    }
+
+    protected void scheduleAliveAdvertisement(UDN udn) {
+        Long timestamp = aliveAdvertisementSchedule.getNextAdvertisementTimestamp(udn);
+        if (timestamp != null)
+            registry.scheduleMaintenance(timestamp);
+    }
+
     @Override
 	void shutdown() {
         log.fine("Clearing all registered subscriptions to local devices during shutdown");
         getSubscriptionItems().clear();
+        subscriptionExpirations.clear();
 
         log.fine("Removing all local devices from registry during shutdown");
         removeAll(true);
     }
 
+    /**
+     * "Flooding" of the configured alive interval if it is enabled, otherwise half the maximum age
+     * of the device.
+     *
+     * @return The time in milliseconds between two ALIVE advertisements, <code>0</code> if the device
+     *         doesn't expire.
+     */
+    protected long getAliveRefreshPeriodMillis(LocalDevice<?> localDevice) {
+        int aliveIntervalMillis = registry.getConfiguration().getAliveIntervalMillis();
+        if (aliveIntervalMillis > 0)
+            return aliveIntervalMillis;
+        Integer maxAgeSeconds = localDevice.getIdentity().getMaxAgeSeconds();
+        if (maxAgeSeconds == null || maxAgeSeconds == ExpirationDetails.UNLIMITED_AGE)
+            return 0;
+        return maxAgeSeconds * 1000L / 2;
+    }
+
     /* ############################################################################################################ */
 
     protected Random randomGenerator = new Random();
 
     protected void advertiseAlive(final LocalDevice<?> localDevice) {
-        registry.executeAsyncProtocol(() -> {
-			try {
-				log.finer("Sleeping some milliseconds to avoid flooding the network with ALIVE msgs");
-				Thread.sleep(randomGenerator.nextInt(100));
-			} catch (InterruptedException ex) {
-				if (log.isLoggable(Level.SEVERE)) log.severe("Background execution interrupted: " + ex.getMessage());
-			}
-			registry.getProtocolFactory().createSendingNotificationAlive(localDevice).run();
-		});
+        // Wait some milliseconds to avoid flooding the network with ALIVE msgs
+        final SendingAsync prot = registry.getProtocolFactory().createSendingNotificationAlive(localDevice);
+        final UDN udn = localDevice.getIdentity().getUdn();
+        registry.executeAsyncProtocol(
+                () -> {
+                    // Removed while waiting, its BYEBYE is already on its way
+                    if (registry.getLocalDevice(udn, true) != null)
+                        prot.run();
+                },
+                randomGenerator.nextInt(100)
+        );
+    }
+
+    protected void invalidateOutgoingDatagramTemplates(LocalDevice<?> localDevice) {
+        OutgoingDatagramTemplates templates = registry.getProtocolFactory().getOutgoingDatagramTemplates();
+        if (templates != null)
+            templates.invalidate(localDevice);
     }
 
     protected void advertiseByebye(final LocalDevice<?> localDevice, boolean asynchronous) {
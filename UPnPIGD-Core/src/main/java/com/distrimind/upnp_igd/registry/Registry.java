@@ -33,6 +33,7 @@ import com.distrimind.upnp_igd.model.types.ServiceType;
 import com.distrimind.upnp_igd.model.types.UDN;
 import com.distrimind.upnp_igd.protocol.ProtocolFactory;
 
+import java.net.InetAddress;
 import java.net.URI;
 import java.util.Collection;
 
@@ -226,6 +227,19 @@ public interface Registry {
      */
 	boolean update(RemoteDeviceIdentity rdIdentity);
 
+    /**
+     * Called internally by the UPnP discovery protocol, refreshes the expiration of a known device
+     * without notifying registry listeners.
+     *
+     * @param descriptorURL The announced descriptor location.
+     * @param discoveredOnLocalAddress The local address the announcement was received on.
+     * @param configId The announced configuration number, or <code>null</code>.
+     * @param bootId The announced boot instance number, or <code>null</code>.
+     * @return <code>true</code> if the device is known and its announcement didn't change,
+     *         otherwise {@link #update(RemoteDeviceIdentity)} has to be called.
+     */
+	boolean refresh(UDN udn, String descriptorURL, InetAddress discoveredOnLocalAddress, int maxAgeSeconds, Integer configId, Integer bootId);
+
     /**
      * Call this to remove your local device metadata.
      *
@@ -367,6 +381,12 @@ public interface Registry {
      */
 	<T extends Resource<?>> Collection<T> getResources(Class<T> resourceType);
 
+    /**
+     * @return The generated descriptors of registered local resources, invalidated
+     *         whenever a resource is added, removed or expires.
+     */
+	DescriptorCache getDescriptorCache();
+
     // #################################################################################################
 
     /**
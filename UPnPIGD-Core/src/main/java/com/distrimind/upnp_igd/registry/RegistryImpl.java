@@ -35,19 +35,33 @@ import com.distrimind.upnp_igd.protocol.ProtocolFactory;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import java.net.InetAddress;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Default implementation of {@link Registry}.
+ * <p>
+ * Lookups of devices, resources and subscriptions don't lock, they read concurrent maps. Changes of
+ * a device graph are serialized by the lock of its root UDN, see {@link #getDeviceLock(UDN)}, so that
+ * discovery, GENA and control messages concerning different devices don't wait for each other.
+ * Only maintenance and the lifecycle of the registry (pause, resume and shutdown) are synchronized
+ * on the registry itself.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -56,8 +70,10 @@ public class RegistryImpl implements Registry {
 
     private static final Logger log = Logger.getLogger(Registry.class.getName());
 
+    public static final int DEFAULT_DEVICE_LOCK_STRIPES = 64;
+
     protected UpnpService upnpService;
-    protected RegistryMaintainer registryMaintainer;
+    protected volatile RegistryMaintainer registryMaintainer;
     protected final Set<RemoteGENASubscription> pendingSubscriptionsLock = new HashSet<>();
 
     public RegistryImpl() {
@@ -77,7 +93,7 @@ public class RegistryImpl implements Registry {
         log.fine("Starting registry background maintenance...");
         registryMaintainer = createRegistryMaintainer();
         if (registryMaintainer != null) {
-            getConfiguration().getRegistryMaintainerExecutor().execute(registryMaintainer);
+            startRegistryMaintainer(registryMaintainer);
         }
     }
 
@@ -103,11 +119,29 @@ public class RegistryImpl implements Registry {
         );
     }
 
+    protected void startRegistryMaintainer(RegistryMaintainer maintainer) {
+        maintainer.start(
+                getConfiguration().getScheduledExecutorService(),
+                getConfiguration().getRegistryMaintainerExecutor()
+        );
+    }
+
     // #################################################################################################
 
-    protected final Set<RegistryListener> registryListeners = new HashSet<>();
-    final Set<RegistryItem<URI, Resource<?>>> resourceItems = new HashSet<>();
-    protected final List<Runnable> pendingExecutions = new ArrayList<>();
+    protected final Set<RegistryListener> registryListeners = new CopyOnWriteArraySet<>();
+    // Resources by path and query, the index of incoming requests
+    final Map<URI, RegistryItem<URI, Resource<?>>> resourceItems = new ConcurrentHashMap<>();
+    // Resources overriding Resource#matches(URI), they might match other paths than their own
+    final Map<URI, RegistryItem<URI, Resource<?>>> customMatchingResourceItems = new ConcurrentHashMap<>();
+    protected static final Map<Class<?>, Boolean> customMatchingResourceTypes = new ConcurrentHashMap<>();
+    // Resources overriding Resource#maintain(List, ExpirationDetails), they are maintained at each pass
+    final Map<URI, RegistryItem<URI, Resource<?>>> customMaintainingResourceItems = new ConcurrentHashMap<>();
+    protected static final Map<Class<?>, Boolean> customMaintainingResourceTypes = new ConcurrentHashMap<>();
+    // Expiration deadlines of resources with a limited age
+    protected final ExpirationQueue<URI> resourceExpirations = new ExpirationQueue<>();
+    protected final DescriptorCache descriptorCache = createDescriptorCache();
+    protected final Queue<Runnable> pendingExecutions = new ConcurrentLinkedQueue<>();
+    protected final Object[] deviceLocks = createDeviceLocks();
 
     final RemoteItems remoteItems = new RemoteItems(this);
     final LocalItems localItems = new LocalItems(this);
@@ -115,39 +149,59 @@ public class RegistryImpl implements Registry {
     // #################################################################################################
 
     @Override
-	synchronized public void addListener(RegistryListener listener) {
+	public void addListener(RegistryListener listener) {
         registryListeners.add(listener);
     }
 
     @Override
-	synchronized public void removeListener(RegistryListener listener) {
+	public void removeListener(RegistryListener listener) {
         registryListeners.remove(listener);
     }
 
     @Override
-	synchronized public Collection<RegistryListener> getListeners() {
+	public Collection<RegistryListener> getListeners() {
         return Collections.unmodifiableCollection(registryListeners);
     }
 
+    protected Object[] createDeviceLocks() {
+        Object[] locks = new Object[DEFAULT_DEVICE_LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+        return locks;
+    }
+
+    /**
+     * Changes of a registered device graph, and of the subscriptions and resources of its devices,
+     * are made while holding the lock of the UDN of its root device. Devices with different UDNs
+     * usually don't share their lock.
+     *
+     * @return The lock of the given root device UDN.
+     */
+    protected Object getDeviceLock(UDN udn) {
+        return deviceLocks[(udn.hashCode() & 0x7FFFFFFF) % deviceLocks.length];
+    }
+
     @Override
-	synchronized public boolean notifyDiscoveryStart(final RemoteDevice device) {
-        // Exit if we have it already, this is atomic inside this method, finally
-        if (getUpnpService().getRegistry().getRemoteDevice(device.getIdentity().getUdn(), true) != null) {
-			if (log.isLoggable(Level.FINER)) {
-				log.finer("Not notifying listeners, already registered: " + device);
-			}
-			return false;
-        }
-        for (final RegistryListener listener : getListeners()) {
-            getConfiguration().getRegistryListenerExecutor().execute(
-					() -> listener.remoteDeviceDiscoveryStarted(RegistryImpl.this, device)
-			);
+	public boolean notifyDiscoveryStart(final RemoteDevice device) {
+        // Exit if we have it already, this is atomic for the UDN, finally
+        synchronized (getDeviceLock(device.getIdentity().getUdn())) {
+            if (getUpnpService().getRegistry().getRemoteDevice(device.getIdentity().getUdn(), true) != null) {
+                if (log.isLoggable(Level.FINER)) {
+                    log.finer("Not notifying listeners, already registered: " + device);
+                }
+                return false;
+            }
+            for (final RegistryListener listener : getListeners()) {
+                getConfiguration().getRegistryListenerExecutor().execute(
+                        () -> listener.remoteDeviceDiscoveryStarted(RegistryImpl.this, device)
+                );
+            }
+            return true;
         }
-        return true;
     }
 
     @Override
-	synchronized public void notifyDiscoveryFailure(final RemoteDevice device, final Exception ex) {
+	public void notifyDiscoveryFailure(final RemoteDevice device, final Exception ex) {
         for (final RegistryListener listener : getListeners()) {
             getConfiguration().getRegistryListenerExecutor().execute(
 					() -> listener.remoteDeviceDiscoveryFailed(RegistryImpl.this, device, ex)
@@ -158,57 +212,62 @@ public class RegistryImpl implements Registry {
     // #################################################################################################
 
     @Override
-	synchronized public void addDevice(LocalDevice<?> localDevice) {
+	public void addDevice(LocalDevice<?> localDevice) {
         localItems.add(localDevice);
     }
 
     @Override
-	synchronized public void addDevice(LocalDevice<?> localDevice, DiscoveryOptions options) {
+	public void addDevice(LocalDevice<?> localDevice, DiscoveryOptions options) {
         localItems.add(localDevice, options);
     }
 
     @Override
-	synchronized public void setDiscoveryOptions(UDN udn, DiscoveryOptions options) {
+	public void setDiscoveryOptions(UDN udn, DiscoveryOptions options) {
         localItems.setDiscoveryOptions(udn, options);
     }
 
     @Override
-	synchronized public DiscoveryOptions getDiscoveryOptions(UDN udn) {
+	public DiscoveryOptions getDiscoveryOptions(UDN udn) {
         return localItems.getDiscoveryOptions(udn);
     }
 
     @Override
-	synchronized public void addDevice(RemoteDevice remoteDevice) {
+	public void addDevice(RemoteDevice remoteDevice) {
         remoteItems.add(remoteDevice);
     }
 
     @Override
-	synchronized public boolean update(RemoteDeviceIdentity rdIdentity) {
+	public boolean update(RemoteDeviceIdentity rdIdentity) {
         return remoteItems.update(rdIdentity);
     }
 
     @Override
-	synchronized public boolean removeDevice(LocalDevice<?> localDevice) {
+	public boolean refresh(UDN udn, String descriptorURL, InetAddress discoveredOnLocalAddress, int maxAgeSeconds, Integer configId, Integer bootId) {
+        return remoteItems.refresh(udn, descriptorURL, discoveredOnLocalAddress, maxAgeSeconds, configId, bootId);
+    }
+
+    @Override
+	public boolean removeDevice(LocalDevice<?> localDevice) {
         return localItems.remove(localDevice);
     }
 
     @Override
-	synchronized public boolean removeDevice(RemoteDevice remoteDevice) {
+	public boolean removeDevice(RemoteDevice remoteDevice) {
         return remoteItems.remove(remoteDevice);
     }
 
     @Override
-	synchronized public void removeAllLocalDevices() {
+	public void removeAllLocalDevices() {
         localItems.removeAll();
     }
 
     @Override
-	synchronized public void removeAllRemoteDevices() {
+	public void removeAllRemoteDevices() {
         remoteItems.removeAll();
     }
 
 	@Override
-	synchronized public boolean removeDevice(UDN udn) {
+	public boolean removeDevice(UDN udn) {
         Device<?, ?, ?> device = getDevice(udn, true);
         if (device instanceof LocalDevice)
             return removeDevice((LocalDevice<?>) device);
@@ -218,7 +277,7 @@ public class RegistryImpl implements Registry {
     }
 
     @Override
-	synchronized public Device<?, ?, ?> getDevice(UDN udn, boolean rootOnly) {
+	public Device<?, ?, ?> getDevice(UDN udn, boolean rootOnly) {
         Device<?, ?, ?> device;
         if ((device = localItems.get(udn, rootOnly)) != null) return device;
         if ((device = remoteItems.get(udn, rootOnly)) != null) return device;
@@ -226,27 +285,27 @@ public class RegistryImpl implements Registry {
     }
 
     @Override
-	synchronized public LocalDevice<?> getLocalDevice(UDN udn, boolean rootOnly) {
+	public LocalDevice<?> getLocalDevice(UDN udn, boolean rootOnly) {
         return localItems.get(udn, rootOnly);
     }
 
     @Override
-	synchronized public RemoteDevice getRemoteDevice(UDN udn, boolean rootOnly) {
+	public RemoteDevice getRemoteDevice(UDN udn, boolean rootOnly) {
         return remoteItems.get(udn, rootOnly);
     }
 
     @Override
-	synchronized public Collection<LocalDevice<?>> getLocalDevices() {
+	public Collection<LocalDevice<?>> getLocalDevices() {
         return Collections.unmodifiableCollection(localItems.get());
     }
 
     @Override
-	synchronized public Collection<RemoteDevice> getRemoteDevices() {
+	public Collection<RemoteDevice> getRemoteDevices() {
         return Collections.unmodifiableCollection(remoteItems.get());
     }
 
     @Override
-	synchronized public Collection<Device<?, ?, ?>> getDevices() {
+	public Collection<Device<?, ?, ?>> getDevices() {
         Set<Device<?, ?, ?>> all = new HashSet<>();
         all.addAll(localItems.get());
         all.addAll(remoteItems.get());
@@ -254,7 +313,7 @@ public class RegistryImpl implements Registry {
     }
 
     @Override
-	synchronized public Collection<Device<?, ?, ?>> getDevices(DeviceType deviceType) {
+	public Collection<Device<?, ?, ?>> getDevices(DeviceType deviceType) {
         Collection<Device<?, ?, ?>> devices = new HashSet<>();
 
         devices.addAll(localItems.get(deviceType));
@@ -264,7 +323,7 @@ public class RegistryImpl implements Registry {
     }
 
     @Override
-	synchronized public Collection<Device<?, ?, ?>> getDevices(ServiceType serviceType) {
+	public Collection<Device<?, ?, ?>> getDevices(ServiceType serviceType) {
         Collection<Device<?, ?, ?>> devices = new HashSet<>();
 
         devices.addAll(localItems.get(serviceType));
@@ -274,7 +333,7 @@ public class RegistryImpl implements Registry {
     }
 
     @Override
-	synchronized public Service<?, ?, ?> getService(ServiceReference serviceReference) {
+	public Service<?, ?, ?> getService(ServiceReference serviceReference) {
         Device<?, ?, ?> device;
         if ((device = getDevice(serviceReference.getUdn(), false)) != null) {
             return device.findService(serviceReference.getServiceId());
@@ -285,39 +344,77 @@ public class RegistryImpl implements Registry {
     // #################################################################################################
 
     @Override
-	synchronized public Resource<?> getResource(URI pathQuery) throws IllegalArgumentException {
+	public Resource<?> getResource(URI pathQuery) throws IllegalArgumentException {
         if (pathQuery.isAbsolute()) {
             throw new IllegalArgumentException("Resource URI can not be absolute, only path and query:" + pathQuery);
         }
 
-        // Note: Uses field access on resourceItems for performance reasons
-
-		for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems) {
-        	Resource<?> resource = resourceItem.getItem();
-        	if (resource.matches(pathQuery)) {
-                return resource;
-            }
+        Resource<?> resource = findResource(pathQuery);
+        if (resource != null) {
+            return resource;
         }
 
         // TODO: UPNP VIOLATION: Fuppes on my ReadyNAS thinks it's a cool idea to add a slash at the end of the callback URI...
         // It also cuts off any query parameters in the callback URL - nice!
         if (pathQuery.getPath().endsWith("/")) {
             URI pathQueryWithoutSlash = URI.create(pathQuery.toString().substring(0, pathQuery.toString().length() - 1));
+            return findResource(pathQueryWithoutSlash);
+        }
+
+        return null;
+    }
 
- 			for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems) {
-            	Resource<?> resource = resourceItem.getItem();
-            	if (resource.matches(pathQueryWithoutSlash)) {
-                    return resource;
+    /**
+     * Looks up the resource registered under the given path and query, its cost doesn't depend on
+     * the number of registered resources. Only the resources overriding {@link Resource#matches(URI)}
+     * are tested one after the other, if no resource is registered under the path and query.
+     */
+    protected Resource<?> findResource(URI pathQuery) {
+        // Note: Uses field access on resourceItems for performance reasons
+        RegistryItem<URI, Resource<?>> resourceItem = resourceItems.get(pathQuery);
+        if (resourceItem != null && resourceItem.getItem().matches(pathQuery)) {
+            return resourceItem.getItem();
+        }
+        if (!customMatchingResourceItems.isEmpty()) {
+            for (RegistryItem<URI, Resource<?>> customItem : customMatchingResourceItems.values()) {
+                if (customItem.getItem().matches(pathQuery)) {
+                    return customItem.getItem();
                 }
             }
         }
-
         return null;
     }
 
+    /**
+     * @return <code>true</code> if the resource overrides {@link Resource#matches(URI)}, it can't
+     *         be looked up by its path and query only.
+     */
+    protected boolean isCustomMatching(Resource<?> resource) {
+        return isOverridden(customMatchingResourceTypes, resource, "matches", URI.class);
+    }
+
+    /**
+     * @return <code>true</code> if the resource overrides {@link Resource#maintain(List, ExpirationDetails)},
+     *         it has to be maintained at each maintenance pass.
+     */
+    protected boolean isCustomMaintaining(Resource<?> resource) {
+        return isOverridden(customMaintainingResourceTypes, resource, "maintain", List.class, ExpirationDetails.class);
+    }
+
+    protected static boolean isOverridden(Map<Class<?>, Boolean> types, Resource<?> resource,
+                                          String methodName, Class<?>... parameterTypes) {
+        return types.computeIfAbsent(resource.getClass(), type -> {
+            try {
+                return type.getMethod(methodName, parameterTypes).getDeclaringClass() != Resource.class;
+            } catch (NoSuchMethodException ex) {
+                return false;
+            }
+        });
+    }
+
     @Override
 	@SuppressWarnings("unchecked")
-	synchronized public <T extends Resource<?>> T getResource(Class<T> resourceType, URI pathQuery) throws IllegalArgumentException {
+	public <T extends Resource<?>> T getResource(Class<T> resourceType, URI pathQuery) throws IllegalArgumentException {
         Resource<?> resource = getResource(pathQuery);
         if (resource != null && resourceType.isAssignableFrom(resource.getClass())) {
             return (T) resource;
@@ -326,9 +423,9 @@ public class RegistryImpl implements Registry {
     }
 
     @Override
-	synchronized public Collection<Resource<?>> getResources() {
+	public Collection<Resource<?>> getResources() {
         Collection<Resource<?>> s = new HashSet<>();
-        for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems) {
+        for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems.values()) {
             s.add(resourceItem.getItem());
         }
         return s;
@@ -336,9 +433,9 @@ public class RegistryImpl implements Registry {
 
     @Override
 	@SuppressWarnings("unchecked")
-	synchronized public <T extends Resource<?>> Collection<T> getResources(Class<T> resourceType) {
+	public <T extends Resource<?>> Collection<T> getResources(Class<T> resourceType) {
         Collection<T> s = new HashSet<>();
-        for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems) {
+        for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems.values()) {
             if (resourceType.isAssignableFrom(resourceItem.getItem().getClass()))
                 s.add((T) resourceItem.getItem());
         }
@@ -346,68 +443,123 @@ public class RegistryImpl implements Registry {
     }
 
     @Override
-	synchronized public void addResource(Resource<?> resource) {
+	public void addResource(Resource<?> resource) {
         addResource(resource, ExpirationDetails.UNLIMITED_AGE);
     }
 
     @Override
-	synchronized public void addResource(Resource<?> resource, int maxAgeSeconds) {
+	public void addResource(Resource<?> resource, int maxAgeSeconds) {
         RegistryItem<URI, Resource<?>> resourceItem = new RegistryItem<>(resource.getPathQuery(), resource, maxAgeSeconds);
-        resourceItems.remove(resourceItem);
-        resourceItems.add(resourceItem);
+        synchronized (resourceItems) {
+            resourceItems.put(resourceItem.getKey(), resourceItem);
+            if (isCustomMatching(resource))
+                customMatchingResourceItems.put(resourceItem.getKey(), resourceItem);
+            else
+                customMatchingResourceItems.remove(resourceItem.getKey());
+            if (isCustomMaintaining(resource))
+                customMaintainingResourceItems.put(resourceItem.getKey(), resourceItem);
+            else
+                customMaintainingResourceItems.remove(resourceItem.getKey());
+            long expirationMillis = resourceItem.getExpirationDetails().getExpirationMillis(false);
+            if (expirationMillis != Long.MAX_VALUE)
+                resourceExpirations.schedule(resourceItem.getKey(), expirationMillis);
+            else
+                resourceExpirations.cancel(resourceItem.getKey());
+        }
+        descriptorCache.invalidate(resource);
+        scheduleMaintenance(isCustomMaintaining(resource)
+                ? System.currentTimeMillis()
+                : resourceItem.getExpirationDetails().getExpirationMillis(false));
+    }
+
+    /**
+     * Adds the resources of a device, none of them is added if one conflicts with an already
+     * registered resource.
+     *
+     * @throws RegistrationException If a resource conflicts with an already registered resource.
+     */
+    void addResources(Collection<Resource<?>> resources) throws RegistrationException {
+        synchronized (resourceItems) {
+            for (Resource<?> resource : resources) {
+                if (getResource(resource.getPathQuery()) != null) {
+                    throw new RegistrationException("URI namespace conflict with already registered resource: " + resource);
+                }
+            }
+            for (Resource<?> resource : resources) {
+                addResource(resource);
+				if (log.isLoggable(Level.FINE)) {
+					log.fine("Registered resource: " + resource);
+				}
+            }
+        }
     }
 
     @Override
-	synchronized public boolean removeResource(Resource<?> resource) {
-        return resourceItems.remove(new RegistryItem<URI, Resource<?>>(resource.getPathQuery()));
+	public boolean removeResource(Resource<?> resource) {
+        descriptorCache.invalidate(resource);
+        synchronized (resourceItems) {
+            customMatchingResourceItems.remove(resource.getPathQuery());
+            customMaintainingResourceItems.remove(resource.getPathQuery());
+            resourceExpirations.cancel(resource.getPathQuery());
+            return resourceItems.remove(resource.getPathQuery()) != null;
+        }
+    }
+
+    @Override
+    public DescriptorCache getDescriptorCache() {
+        return descriptorCache;
+    }
+
+    protected DescriptorCache createDescriptorCache() {
+        return new DescriptorCache();
     }
 
     // #################################################################################################
 
     @Override
-	synchronized public void addLocalSubscription(LocalGENASubscription<?> subscription) {
+	public void addLocalSubscription(LocalGENASubscription<?> subscription) {
         localItems.addSubscription(subscription);
     }
 
     @Override
-	synchronized public LocalGENASubscription<?> getLocalSubscription(String subscriptionId) {
+	public LocalGENASubscription<?> getLocalSubscription(String subscriptionId) {
         return localItems.getSubscription(subscriptionId);
     }
 
     @Override
-	synchronized public boolean updateLocalSubscription(LocalGENASubscription<?> subscription) {
+	public boolean updateLocalSubscription(LocalGENASubscription<?> subscription) {
         return localItems.updateSubscription(subscription);
     }
 
     @Override
-	synchronized public boolean removeLocalSubscription(LocalGENASubscription<?> subscription) {
+	public boolean removeLocalSubscription(LocalGENASubscription<?> subscription) {
         return localItems.removeSubscription(subscription);
     }
 
     @Override
-	synchronized public void addRemoteSubscription(RemoteGENASubscription subscription) {
+	public void addRemoteSubscription(RemoteGENASubscription subscription) {
         remoteItems.addSubscription(subscription);
     }
 
     @Override
-	synchronized public RemoteGENASubscription getRemoteSubscription(String subscriptionId) {
+	public RemoteGENASubscription getRemoteSubscription(String subscriptionId) {
         return remoteItems.getSubscription(subscriptionId);
     }
 
     @Override
-	synchronized public void updateRemoteSubscription(RemoteGENASubscription subscription) {
+	public void updateRemoteSubscription(RemoteGENASubscription subscription) {
         remoteItems.updateSubscription(subscription);
     }
 
     @Override
-	synchronized public void removeRemoteSubscription(RemoteGENASubscription subscription) {
+	public void removeRemoteSubscription(RemoteGENASubscription subscription) {
         remoteItems.removeSubscription(subscription);
     }
 
     /* ############################################################################################################ */
 
    	@Override
-	synchronized public void advertiseLocalDevices() {
+	public void advertiseLocalDevices() {
    		localItems.advertiseLocalDevices();
    	}
 
@@ -432,12 +584,13 @@ public class RegistryImpl implements Registry {
             listener.beforeShutdown(this);
         }
 
-        for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems) {
+        for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems.values()) {
             resourceItem.getItem().shutdown();
         }
 
         remoteItems.shutdown();
         localItems.shutdown();
+        descriptorCache.clear();
 
         for (RegistryListener listener : registryListeners) {
             listener.afterShutdown();
@@ -461,7 +614,7 @@ public class RegistryImpl implements Registry {
             remoteItems.resume();
             registryMaintainer = createRegistryMaintainer();
             if (registryMaintainer != null) {
-                getConfiguration().getRegistryMaintainerExecutor().execute(registryMaintainer);
+                startRegistryMaintainer(registryMaintainer);
             }
         }
     }
@@ -478,24 +631,36 @@ public class RegistryImpl implements Registry {
         if (log.isLoggable(Level.FINEST))
             log.finest("Maintaining registry...");
 
-        // Remove expired resources
-        Iterator<RegistryItem<URI, Resource<?>>> it = resourceItems.iterator();
-        while (it.hasNext()) {
-            RegistryItem<URI, Resource<?>> item = it.next();
-            if (item.getExpirationDetails().hasExpired()) {
-                if (log.isLoggable(Level.FINER))
-                    log.finer("Removing expired resource: " + item);
-                it.remove();
+        // Remove resources whose deadline has passed
+        for (URI pathQuery : resourceExpirations.pollDue(System.currentTimeMillis())) {
+            RegistryItem<URI, Resource<?>> item;
+            synchronized (resourceItems) {
+                item = resourceItems.get(pathQuery);
+                if (item == null)
+                    continue;
+                if (!item.getExpirationDetails().hasExpired()) {
+                    // Not yet, the resource was replaced
+                    resourceExpirations.schedule(pathQuery, item.getExpirationDetails().getExpirationMillis(false));
+                    continue;
+                }
+                resourceItems.remove(pathQuery);
+                customMatchingResourceItems.remove(pathQuery);
+                customMaintainingResourceItems.remove(pathQuery);
             }
+            if (log.isLoggable(Level.FINER))
+                log.finer("Removing expired resource: " + item);
+            descriptorCache.invalidate(item.getItem());
         }
 
-        // Let each resource do its own maintenance
-        for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems) {
+        // Let each resource do its own maintenance, if it has any
+        List<Runnable> resourceExecutions = new ArrayList<>();
+        for (RegistryItem<URI, Resource<?>> resourceItem : customMaintainingResourceItems.values()) {
             resourceItem.getItem().maintain(
-                    pendingExecutions,
+                    resourceExecutions,
                     resourceItem.getExpirationDetails()
             );
         }
+        pendingExecutions.addAll(resourceExecutions);
 
         // These add all their operations to the pendingExecutions queue
         remoteItems.maintain();
@@ -505,22 +670,70 @@ public class RegistryImpl implements Registry {
         runPendingExecutions(true);
     }
 
-    synchronized void executeAsyncProtocol(Runnable runnable) {
+    /**
+     * @return The earliest time at which the maintenance has work to do, <code>Long.MAX_VALUE</code>
+     *         if it can sleep until an item is added.
+     */
+    long getNextMaintenanceMillis() {
+        if (!pendingExecutions.isEmpty() || !customMaintainingResourceItems.isEmpty())
+            return System.currentTimeMillis();
+        return Math.min(
+                resourceExpirations.getNextDeadline(),
+                Math.min(remoteItems.getNextExpirationMillis(), localItems.getNextExpirationMillis())
+        );
+    }
+
+    /**
+     * Wakes up the maintenance at the given time, if it would sleep longer.
+     */
+    void scheduleMaintenance(long timestampMillis) {
+        RegistryMaintainer maintainer = registryMaintainer;
+        if (maintainer != null && timestampMillis != Long.MAX_VALUE)
+            maintainer.wakeUpAt(timestampMillis);
+    }
+
+    void executeAsyncProtocol(Runnable runnable) {
         pendingExecutions.add(runnable);
+        scheduleMaintenance(System.currentTimeMillis());
+    }
+
+    /**
+     * Like {@link #executeAsyncProtocol(Runnable)}, but the protocol is then executed with the asynchronous
+     * protocol executor once the delay expired, no thread is held while waiting.
+     */
+    void executeAsyncProtocol(Runnable runnable, long delayMillis) {
+        executeAsyncProtocol(() -> {
+            try {
+                getConfiguration().getScheduledExecutorService().schedule(
+                        () -> executeAsyncProtocolNow(runnable), delayMillis, TimeUnit.MILLISECONDS
+                );
+            } catch (RejectedExecutionException ex) {
+                if (log.isLoggable(Level.FINE))
+                    log.fine("Delayed protocol execution rejected (on shutdown?): " + runnable);
+            }
+        });
     }
 
-    synchronized void runPendingExecutions(boolean async) {
+    protected void executeAsyncProtocolNow(Runnable runnable) {
+        try {
+            getConfiguration().getAsyncProtocolExecutor().execute(runnable);
+        } catch (RejectedExecutionException ex) {
+            if (log.isLoggable(Level.FINE))
+                log.fine("Protocol execution rejected (on shutdown?): " + runnable);
+        }
+    }
+
+    void runPendingExecutions(boolean async) {
         if (log.isLoggable(Level.FINEST))
             log.finest("Executing pending operations: " + pendingExecutions.size());
-        for (Runnable pendingExecution : pendingExecutions) {
+        // Operations queued concurrently while running are executed as well
+        Runnable pendingExecution;
+        while ((pendingExecution = pendingExecutions.poll()) != null) {
             if (async)
                 getConfiguration().getAsyncProtocolExecutor().execute(pendingExecution);
             else
                 pendingExecution.run();
         }
-        if (!pendingExecutions.isEmpty()) {
-            pendingExecutions.clear();
-        }
     }
 
     /* ############################################################################################################ */
@@ -541,7 +754,7 @@ public class RegistryImpl implements Registry {
 
             log.fine("====================================  RESOURCES  ================================================");
 
-            for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems) {
+            for (RegistryItem<URI, Resource<?>> resourceItem : resourceItems.values()) {
                 log.fine(resourceItem.toString());
             }
 
@@ -18,17 +18,32 @@ package com.distrimind.upnp_igd.registry;
 import com.distrimind.upnp_igd.model.resource.Resource;
 import com.distrimind.upnp_igd.model.ValidationException;
 import com.distrimind.upnp_igd.model.meta.Device;
+import com.distrimind.upnp_igd.model.meta.Service;
 import com.distrimind.upnp_igd.model.gena.GENASubscription;
 import com.distrimind.upnp_igd.model.types.DeviceType;
 import com.distrimind.upnp_igd.model.types.ServiceType;
 import com.distrimind.upnp_igd.model.types.UDN;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Internal class, required by {@link RegistryImpl}.
+ * <p>
+ * Registered root devices are indexed by the UDN of every device of their graph, by the type of
+ * every device of their graph, and by the type of every service of their graph. Subscriptions are
+ * indexed by subscription identifier. Device items must only be added and removed with
+ * {@link #putDeviceItem(RegistryItem)} and {@link #removeDeviceItem(UDN)}, which maintain these indexes.
+ * </p>
+ * <p>
+ * Items and indexes are concurrent maps, lookups don't lock. Changes of a device graph are made while
+ * holding the lock of its root UDN, see {@link RegistryImpl#getDeviceLock(UDN)}.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -36,19 +51,29 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
 
     protected final RegistryImpl registry;
 
-    protected final Set<RegistryItem<UDN, D>> deviceItems = new HashSet<>();
-    protected final Set<RegistryItem<String, S>> subscriptionItems = new HashSet<>();
+    protected final Map<UDN, RegistryItem<UDN, D>> deviceItems = new ConcurrentHashMap<>();
+    protected final Map<String, RegistryItem<String, S>> subscriptionItems = new ConcurrentHashMap<>();
+
+    // Root or embedded device UDN to the item of its root device
+    protected final Map<UDN, RegistryItem<UDN, D>> rootItemsByUDN = new ConcurrentHashMap<>();
+    // Device types and service types are indexed without version, compatible versions are checked on lookup
+    protected final Map<String, Set<D>> devicesByType = new ConcurrentHashMap<>();
+    protected final Map<String, Set<Service<?, ?, ?>>> servicesByType = new ConcurrentHashMap<>();
+
+    // Deadlines handled by the maintenance, see getExpirationMillis()
+    protected final ExpirationQueue<UDN> deviceExpirations = new ExpirationQueue<>();
+    protected final ExpirationQueue<String> subscriptionExpirations = new ExpirationQueue<>();
 
     RegistryItems(RegistryImpl registry) {
         this.registry = registry;
     }
 
-    Set<RegistryItem<UDN, D>> getDeviceItems() {
-        return deviceItems;
+    Collection<RegistryItem<UDN, D>> getDeviceItems() {
+        return deviceItems.values();
     }
 
-    Set<RegistryItem<String, S>> getSubscriptionItems() {
-        return subscriptionItems;
+    Collection<RegistryItem<String, S>> getSubscriptionItems() {
+        return subscriptionItems.values();
     }
 
     abstract void add(D device);
@@ -58,6 +83,145 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
     abstract void maintain();
     abstract void shutdown();
 
+    /**
+     * @return The time in milliseconds at which the maintenance has to handle the device item,
+     *         <code>Long.MAX_VALUE</code> if it doesn't.
+     */
+    abstract long getExpirationMillis(RegistryItem<UDN, D> deviceItem);
+
+    /**
+     * @return The time in milliseconds at which the maintenance has to handle the subscription item,
+     *         <code>Long.MAX_VALUE</code> if it doesn't.
+     */
+    abstract long getSubscriptionExpirationMillis(RegistryItem<String, S> subscriptionItem);
+
+    /**
+     * @return The earliest time at which the maintenance has to handle an item, <code>Long.MAX_VALUE</code>
+     *         if no item has to be handled.
+     */
+    long getNextExpirationMillis() {
+        return Math.min(deviceExpirations.getNextDeadline(), subscriptionExpirations.getNextDeadline());
+    }
+
+    protected <K> void scheduleExpiration(ExpirationQueue<K> expirations, K key, long deadlineMillis) {
+        if (deadlineMillis == Long.MAX_VALUE) {
+            expirations.cancel(key);
+            return;
+        }
+        expirations.schedule(key, deadlineMillis);
+        registry.scheduleMaintenance(deadlineMillis);
+    }
+
+    /**
+     * Adds the item of a root device, or replaces the item registered under the same UDN, and
+     * updates the indexes. Called while holding the lock of the root UDN.
+     */
+    protected void putDeviceItem(RegistryItem<UDN, D> item) {
+        RegistryItem<UDN, D> previous = deviceItems.put(item.getKey(), item);
+        scheduleExpiration(deviceExpirations, item.getKey(), getExpirationMillis(item));
+        if (previous != null && previous.getItem() == item.getItem()) {
+            // Same device graph with new expiration details, only the item changed
+            for (D device : collectDevices(item.getItem())) {
+                UDN udn = device.getIdentity().getUdn();
+                if (udn != null)
+                    rootItemsByUDN.put(udn, item);
+            }
+            return;
+        }
+        if (previous != null)
+            unindex(previous.getItem());
+        index(item);
+    }
+
+    /**
+     * Removes the item of the root device with the given UDN and updates the indexes. Called while
+     * holding the lock of the root UDN.
+     *
+     * @return The removed item, or <code>null</code> if no root device was registered under the UDN.
+     */
+    protected RegistryItem<UDN, D> removeDeviceItem(UDN udn) {
+        RegistryItem<UDN, D> removed = deviceItems.remove(udn);
+        deviceExpirations.cancel(udn);
+        if (removed != null)
+            unindex(removed.getItem());
+        return removed;
+    }
+
+    protected void index(RegistryItem<UDN, D> item) {
+        for (D device : collectDevices(item.getItem())) {
+            UDN udn = device.getIdentity().getUdn();
+            if (udn != null)
+                rootItemsByUDN.put(udn, item);
+            // Type might be null if the device hasn't been hydrated
+            if (device.getType() != null)
+                addToIndex(devicesByType, getTypeKey(device.getType()), device);
+            if (device.hasServices()) {
+                for (Service<?, ?, ?> service : device.getServices()) {
+                    if (service.getServiceType() != null)
+                        addToIndex(servicesByType, getTypeKey(service.getServiceType()), service);
+                }
+            }
+        }
+    }
+
+    protected void unindex(D rootDevice) {
+        for (D device : collectDevices(rootDevice)) {
+            UDN udn = device.getIdentity().getUdn();
+            if (udn != null) {
+                RegistryItem<UDN, D> item = rootItemsByUDN.get(udn);
+                if (item != null && item.getItem() == rootDevice)
+                    rootItemsByUDN.remove(udn);
+            }
+            if (device.getType() != null)
+                removeFromIndex(devicesByType, getTypeKey(device.getType()), device);
+            if (device.hasServices()) {
+                for (Service<?, ?, ?> service : device.getServices()) {
+                    if (service.getServiceType() != null)
+                        removeFromIndex(servicesByType, getTypeKey(service.getServiceType()), service);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The given device and all its embedded devices.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<D> collectDevices(D rootDevice) {
+        List<D> devices = new ArrayList<>();
+        List<Device<?, ?, ?>> pending = new ArrayList<>();
+        pending.add(rootDevice);
+        while (!pending.isEmpty()) {
+            Device<?, ?, ?> device = pending.remove(pending.size() - 1);
+            devices.add((D) device);
+            if (device.hasEmbeddedDevices())
+                pending.addAll(device.getEmbeddedDevices());
+        }
+        return devices;
+    }
+
+    protected static <V> void addToIndex(Map<String, Set<V>> index, String key, V value) {
+        // Atomic for the key, a concurrent removal can't discard the set after the value was added
+        index.compute(key, (k, values) -> {
+            if (values == null)
+                values = ConcurrentHashMap.newKeySet();
+            values.add(value);
+            return values;
+        });
+    }
+
+    protected static <V> void removeFromIndex(Map<String, Set<V>> index, String key, V value) {
+        index.computeIfPresent(key, (k, values) -> values.remove(value) && values.isEmpty() ? null : values);
+    }
+
+    protected static String getTypeKey(DeviceType deviceType) {
+        return deviceType.getNamespace() + ":" + deviceType.getType();
+    }
+
+    protected static String getTypeKey(ServiceType serviceType) {
+        return serviceType.getNamespace() + ":" + serviceType.getType();
+    }
+
     /**
      * Returns root and embedded devices registered under the given UDN.
      *
@@ -66,18 +230,19 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
      * @return Any registered root or embedded device under the given UDN, <code>null</code> if
      *         no device with the given UDN has been registered.
      */
+    @SuppressWarnings("unchecked")
     D get(UDN udn, boolean rootOnly) {
-        for (RegistryItem<UDN, D> item : deviceItems) {
-            D device = item.getItem();
-            if (device.getIdentity().getUdn().equals(udn)) {
-                return device;
-            }
-            if (!rootOnly) {
-                @SuppressWarnings("unchecked") D foundDevice = (D)item.getItem().findDevice(udn);
-                if (foundDevice != null) return foundDevice;
-            }
+        if (rootOnly) {
+            RegistryItem<UDN, D> item = deviceItems.get(udn);
+            return item != null ? item.getItem() : null;
         }
-        return null;
+        RegistryItem<UDN, D> item = rootItemsByUDN.get(udn);
+        if (item == null)
+            return null;
+        D device = item.getItem();
+        if (device.getIdentity().getUdn().equals(udn))
+            return device;
+        return (D) device.findDevice(udn);
     }
 
     /**
@@ -91,10 +256,11 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
      */
     Collection<D> get(DeviceType deviceType) {
         Collection<D> devices = new HashSet<>();
-        for (RegistryItem<UDN, D> item : deviceItems) {
-            @SuppressWarnings("unchecked") Collection<D> d = (Collection<D>) item.getItem().findDevices(deviceType);
-            if (d != null) {
-                devices.addAll(d);
+        Set<D> candidates = devicesByType.get(getTypeKey(deviceType));
+        if (candidates != null) {
+            for (D device : candidates) {
+                if (device.getType().implementsVersion(deviceType))
+                    devices.add(device);
             }
         }
         return devices;
@@ -106,12 +272,22 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
      * @param serviceType The type of service to search for.
      * @return Any registered root or embedded device with at least one matching service.
      */
+    @SuppressWarnings("unchecked")
     Collection<D> get(ServiceType serviceType) {
         Collection<D> devices = new HashSet<>();
-        for (RegistryItem<UDN, D> item : deviceItems) {
-            @SuppressWarnings("unchecked") Collection<D> d = (Collection<D>) item.getItem().findDevices(serviceType);
-            if (d != null) {
-                devices.addAll(d);
+        if (serviceType == null) {
+            // Any device with at least one service
+            for (Set<Service<?, ?, ?>> services : servicesByType.values()) {
+                for (Service<?, ?, ?> service : services)
+                    devices.add((D) service.getDevice());
+            }
+            return devices;
+        }
+        Set<Service<?, ?, ?>> candidates = servicesByType.get(getTypeKey(serviceType));
+        if (candidates != null) {
+            for (Service<?, ?, ?> service : candidates) {
+                if (service.getServiceType().implementsVersion(serviceType))
+                    devices.add((D) service.getDevice());
             }
         }
         return devices;
@@ -119,7 +295,7 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
 
     Collection<D> get() {
         Collection<D> devices = new HashSet<>();
-        for (RegistryItem<UDN, D> item : deviceItems) {
+        for (RegistryItem<UDN, D> item : deviceItems.values()) {
             devices.add(item.getItem());
         }
         return devices;
@@ -130,7 +306,7 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
     }
 
     boolean contains(UDN udn) {
-        return deviceItems.contains(new RegistryItem<UDN, D>(udn));
+        return deviceItems.containsKey(udn);
     }
 
     void addSubscription(S subscription) {
@@ -142,7 +318,8 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
                         subscription.getActualDurationSeconds()
                 );
 
-        subscriptionItems.add(subscriptionItem);
+        subscriptionItems.put(subscriptionItem.getKey(), subscriptionItem);
+        scheduleExpiration(subscriptionExpirations, subscriptionItem.getKey(), getSubscriptionExpirationMillis(subscriptionItem));
     }
 
     boolean updateSubscription(S subscription) {
@@ -154,16 +331,13 @@ abstract class RegistryItems<D extends Device<?, ?, ?>, S extends GENASubscripti
     }
 
     boolean removeSubscription(S subscription) {
-        return subscriptionItems.remove(new RegistryItem<String, S>(subscription.getSubscriptionId()));
+        subscriptionExpirations.cancel(subscription.getSubscriptionId());
+        return subscriptionItems.remove(subscription.getSubscriptionId()) != null;
     }
 
     S getSubscription(String subscriptionId) {
-        for (RegistryItem<String, S> registryItem : subscriptionItems) {
-            if (registryItem.getKey().equals(subscriptionId)) {
-                return registryItem.getItem();
-            }
-        }
-        return null;
+        RegistryItem<String, S> registryItem = subscriptionItems.get(subscriptionId);
+        return registryItem != null ? registryItem.getItem() : null;
     }
 
     Collection<Resource<?>> getResources(Device<?, ?, ?> device) throws RegistrationException {
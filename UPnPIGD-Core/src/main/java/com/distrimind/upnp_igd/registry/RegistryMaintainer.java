@@ -15,11 +15,24 @@
 
 package com.distrimind.upnp_igd.registry;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * Runs periodically and calls {@link RegistryImpl#maintain()}.
+ * Calls {@link RegistryImpl#maintain()} when the registry has work to do.
+ * <p>
+ * After each maintenance pass, the next pass is scheduled with a {@link ScheduledExecutorService} at
+ * the earliest deadline of the registry items, see {@link RegistryImpl#getNextMaintenanceMillis()}.
+ * The registry wakes up the maintainer earlier when an item with an earlier deadline is added, see
+ * {@link #wakeUpAt(long)}. Two passes are separated by at least the maintenance interval. Each pass
+ * is executed by the registry maintainer executor, no thread is held between two passes.
+ * </p>
  *
  * @author Christian Bauer
  */
@@ -30,35 +43,127 @@ public class RegistryMaintainer implements Runnable {
     final private RegistryImpl registry;
     final private int sleepIntervalMillis;
 
+    final private AtomicBoolean running = new AtomicBoolean();
     private volatile boolean stopped = false;
+    private ScheduledExecutorService scheduledExecutorService;
+    private Executor executor;
+    private ScheduledFuture<?> scheduledFuture;
+    private long scheduledMillis = Long.MAX_VALUE;
+    private long lastPassMillis;
+    // Wake-ups requested while a pass is running
+    private long requestedMillis = Long.MAX_VALUE;
 
     public RegistryMaintainer(RegistryImpl registry, int sleepIntervalMillis) {
         this.registry = registry;
         this.sleepIntervalMillis = sleepIntervalMillis;
     }
 
-    public void stop() {
+    /**
+     * Schedules the first maintenance pass immediately.
+     *
+     * @param scheduledExecutorService Waits until the next pass.
+     * @param executor Executes each maintenance pass.
+     */
+    synchronized public void start(ScheduledExecutorService scheduledExecutorService, Executor executor) {
+        stopped = false;
+        if (log.isLoggable(Level.FINE))
+            log.fine("Running registry maintenance at most every milliseconds: " + sleepIntervalMillis);
+        this.scheduledExecutorService = scheduledExecutorService;
+        this.executor = executor;
+        this.lastPassMillis = System.currentTimeMillis() - sleepIntervalMillis;
+        schedule(System.currentTimeMillis());
+    }
+
+    synchronized public void stop() {
         if (log.isLoggable(Level.FINE))
-            log.fine("Setting stopped status on thread");
+            log.fine("Setting stopped status on maintenance");
         stopped = true;
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+            scheduledFuture = null;
+        }
+        scheduledMillis = Long.MAX_VALUE;
     }
 
+    /**
+     * Runs a maintenance pass at the given time, or when the maintenance interval has elapsed since the
+     * last pass, unless a pass is already scheduled earlier.
+     */
+    synchronized public void wakeUpAt(long timestampMillis) {
+        if (stopped || scheduledExecutorService == null)
+            return;
+        requestedMillis = Math.min(requestedMillis, timestampMillis);
+        if (running.get())
+            return; // The next pass is scheduled at the end of the running pass
+        long millis = Math.max(timestampMillis, lastPassMillis + sleepIntervalMillis);
+        if (millis < scheduledMillis)
+            schedule(millis);
+    }
+
+    /**
+     * Executes one maintenance pass.
+     */
     @Override
 	public void run() {
-        stopped = false;
-        if (log.isLoggable(Level.FINE))
-            log.fine("Running registry maintenance loop every milliseconds: " + sleepIntervalMillis);
-        while (!stopped) {
-
-            try {
+        try {
+            if (!stopped) {
+                synchronized (this) {
+                    // This pass handles what was requested until now
+                    requestedMillis = Long.MAX_VALUE;
+                    lastPassMillis = System.currentTimeMillis();
+                }
                 registry.maintain();
-                Thread.sleep(sleepIntervalMillis);
-            } catch (InterruptedException ex) {
-                stopped = true;
             }
+        } finally {
+            running.set(false);
+            scheduleNextPass();
+        }
+    }
+
+    synchronized protected void scheduleNextPass() {
+        if (stopped)
+            return;
+        long next = Math.min(registry.getNextMaintenanceMillis(), requestedMillis);
+        if (next == Long.MAX_VALUE) {
+            if (log.isLoggable(Level.FINEST))
+                log.finest("Registry maintenance sleeps until an item is added");
+            scheduledMillis = Long.MAX_VALUE;
+            return;
+        }
+        schedule(Math.max(next, lastPassMillis + sleepIntervalMillis));
+    }
 
+    private void schedule(long timestampMillis) {
+        if (scheduledFuture != null)
+            scheduledFuture.cancel(false);
+        scheduledMillis = timestampMillis;
+        try {
+            scheduledFuture = scheduledExecutorService.schedule(
+                this::execute,
+                Math.max(0, timestampMillis - System.currentTimeMillis()),
+                TimeUnit.MILLISECONDS
+            );
+        } catch (RejectedExecutionException ex) {
+            // Shutting down
+            scheduledFuture = null;
+            scheduledMillis = Long.MAX_VALUE;
+        }
+    }
+
+    private void execute() {
+        synchronized (this) {
+            if (stopped)
+                return;
+            scheduledFuture = null;
+            scheduledMillis = Long.MAX_VALUE;
+        }
+        if (running.compareAndSet(false, true)) {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                running.set(false);
+            }
         }
-        log.fine("Stopped status on thread received, ending maintenance loop");
     }
 
-}
\ No newline at end of file
+}
@@ -18,11 +18,11 @@ package com.distrimind.upnp_igd.registry;
 import com.distrimind.upnp_igd.model.resource.Resource;
 import com.distrimind.upnp_igd.model.gena.CancelReason;
 import com.distrimind.upnp_igd.model.gena.RemoteGENASubscription;
-import com.distrimind.upnp_igd.model.meta.LocalDevice;
 import com.distrimind.upnp_igd.model.meta.RemoteDevice;
 import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
 import com.distrimind.upnp_igd.model.types.UDN;
 
+import java.net.InetAddress;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -55,73 +55,90 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
 	@Override
 	void add(final RemoteDevice device) {
 
-        if (update(device.getIdentity())) {
-			if (log.isLoggable(Level.FINE)) {
-				log.fine("Ignoring addition, device already registered: " + device);
-			}
-			return;
-        }
-        Collection<Resource<?>> r=getResources(device);
-        for (Resource<?> deviceResource : r) {
+        synchronized (registry.getDeviceLock(device.getIdentity().getUdn())) {
+            if (update(device.getIdentity())) {
+				if (log.isLoggable(Level.FINE)) {
+					log.fine("Ignoring addition, device already registered: " + device);
+				}
+				return;
+            }
+            // Validates all resources before adding any of them
+            registry.addResources(getResources(device));
+
+            RegistryItem<UDN, RemoteDevice> item = new RegistryItem<>(
+                    device.getIdentity().getUdn(),
+                    device,
+                    getMaxAgeSeconds(device.getIdentity().getMaxAgeSeconds())
+            );
 			if (log.isLoggable(Level.FINE)) {
-				log.fine("Validating remote device resource; " + deviceResource);
+				log.fine("Adding hydrated remote device to registry with "
+								 + item.getExpirationDetails().getMaxAgeSeconds() + " seconds expiration: " + device);
 			}
-			if (registry.getResource(deviceResource.getPathQuery()) != null) {
-                throw new RegistrationException("URI namespace conflict with already registered resource: " + deviceResource);
+			putDeviceItem(item);
+
+            if (log.isLoggable(Level.FINEST)) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("\n");
+                sb.append("-------------------------- START Registry Namespace -----------------------------------\n");
+                for (Resource<?> resource : registry.getResources()) {
+                    sb.append(resource).append("\n");
+                }
+                sb.append("-------------------------- END Registry Namespace -----------------------------------");
+                log.finest(sb.toString());
             }
-        }
 
-        for (Resource<?> validatedResource : r) {
-            registry.addResource(validatedResource);
+            // Only notify the listeners when the device is fully usable
 			if (log.isLoggable(Level.FINE)) {
-				log.fine("Added remote device resource: " + validatedResource);
+				log.fine("Completely hydrated remote device graph available, calling listeners: " + device);
 			}
-		}
-
-        // Override the device's maximum age if configured (systems without multicast support)
-        RegistryItem<UDN, RemoteDevice> item = new RegistryItem<>(
-                device.getIdentity().getUdn(),
-                device,
-                registry.getConfiguration().getRemoteDeviceMaxAgeSeconds() != null
-                        ? registry.getConfiguration().getRemoteDeviceMaxAgeSeconds()
-                        : device.getIdentity().getMaxAgeSeconds()
-        );
-		if (log.isLoggable(Level.FINE)) {
-			log.fine("Adding hydrated remote device to registry with "
-							 + item.getExpirationDetails().getMaxAgeSeconds() + " seconds expiration: " + device);
-		}
-		getDeviceItems().add(item);
-
-        if (log.isLoggable(Level.FINEST)) {
-            StringBuilder sb = new StringBuilder();
-            sb.append("\n");
-            sb.append("-------------------------- START Registry Namespace -----------------------------------\n");
-            for (Resource<?> resource : registry.getResources()) {
-                sb.append(resource).append("\n");
+			for (final RegistryListener listener : registry.getListeners()) {
+                registry.getConfiguration().getRegistryListenerExecutor().execute(
+						() -> listener.remoteDeviceAdded(registry, device)
+				);
             }
-            sb.append("-------------------------- END Registry Namespace -----------------------------------");
-            log.finest(sb.toString());
         }
+    }
 
-        // Only notify the listeners when the device is fully usable
-		if (log.isLoggable(Level.FINE)) {
-			log.fine("Completely hydrated remote device graph available, calling listeners: " + device);
-		}
-		for (final RegistryListener listener : registry.getListeners()) {
-            registry.getConfiguration().getRegistryListenerExecutor().execute(
-					() -> listener.remoteDeviceAdded(registry, device)
-			);
+    /**
+     * Refreshes the expiration of a known remote device in place, without notifying registry listeners.
+     *
+     * @return <code>false</code> if the device is unknown, or if its descriptor location, maximum age,
+     *         configuration or boot instance changed.
+     */
+    boolean refresh(UDN udn, String descriptorURL, InetAddress discoveredOnLocalAddress,
+                    int maxAgeSeconds, Integer configId, Integer bootId) {
+
+        if (registry.getLocalDevice(udn, false) != null) {
+            log.fine("Ignoring refresh, a local device graph contains UDN");
+            return true;
         }
 
+        RegistryItem<UDN, RemoteDevice> item = rootItemsByUDN.get(udn);
+        if (item == null)
+            return false;
+
+        synchronized (registry.getDeviceLock(item.getKey())) {
+            // The device might have been removed or updated since it was looked up
+            if (deviceItems.get(item.getKey()) != item)
+                return false;
+
+            if (isRediscoveryRequired(item.getItem().getIdentity(), descriptorURL, discoveredOnLocalAddress, configId, bootId)
+                    || !getMaxAgeSeconds(maxAgeSeconds).equals(item.getExpirationDetails().getMaxAgeSeconds()))
+                return false;
+
+            // The expiration queue is not updated, the maintenance reschedules the refreshed device
+            item.getExpirationDetails().stampLastRefresh();
+            if (log.isLoggable(Level.FINEST))
+                log.finest("Refreshed expiration of: " + item.getItem());
+            return true;
+        }
     }
 
     boolean update(RemoteDeviceIdentity rdIdentity) {
 
-        for (LocalDevice<?> localDevice : registry.getLocalDevices()) {
-            if (localDevice.findDevice(rdIdentity.getUdn()) != null) {
-                log.fine("Ignoring update, a local device graph contains UDN");
-                return true;
-            }
+        if (registry.getLocalDevice(rdIdentity.getUdn(), false) != null) {
+            log.fine("Ignoring update, a local device graph contains UDN");
+            return true;
         }
 
         RemoteDevice registeredRemoteDevice = get(rdIdentity.getUdn(), false);
@@ -134,28 +151,45 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
 				registeredRemoteDevice = registeredRemoteDevice.getRoot();
             }
 
-            // Override the device's maximum age if configured (systems without multicast support)
+            if (isRediscoveryRequired(
+                    registeredRemoteDevice.getIdentity(),
+                    rdIdentity.getDescriptorURL() != null ? rdIdentity.getDescriptorURL().toString() : null,
+                    rdIdentity.getDiscoveredOnLocalAddress(),
+                    rdIdentity.getConfigId(),
+                    rdIdentity.getBootId())) {
+                // The descriptors have to be retrieved again, the device is added again when they are
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Remote device announced a new location, configuration or boot instance, removing: " + registeredRemoteDevice);
+                }
+                remove(registeredRemoteDevice);
+                return false;
+            }
+
             final RegistryItem<UDN, RemoteDevice> item = new RegistryItem<>(
                     registeredRemoteDevice.getIdentity().getUdn(),
                     registeredRemoteDevice,
-                    registry.getConfiguration().getRemoteDeviceMaxAgeSeconds() != null
-                            ? registry.getConfiguration().getRemoteDeviceMaxAgeSeconds()
-                            : rdIdentity.getMaxAgeSeconds()
+                    getMaxAgeSeconds(rdIdentity.getMaxAgeSeconds())
             );
 
-			if (log.isLoggable(Level.FINE)) {
-				log.fine("Updating expiration of: " + registeredRemoteDevice);
-			}
-			getDeviceItems().remove(item);
-            getDeviceItems().add(item);
+            synchronized (registry.getDeviceLock(item.getKey())) {
+                // The device might have been removed since it was looked up
+                RegistryItem<UDN, RemoteDevice> registeredItem = deviceItems.get(item.getKey());
+                if (registeredItem == null || registeredItem.getItem() != item.getItem())
+                    return false;
 
-			if (log.isLoggable(Level.FINE)) {
-				log.fine("Remote device updated, calling listeners: " + registeredRemoteDevice);
-			}
-			for (final RegistryListener listener : registry.getListeners()) {
-                registry.getConfiguration().getRegistryListenerExecutor().execute(
-						() -> listener.remoteDeviceUpdated(registry, item.getItem())
-				);
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Updating expiration of: " + registeredRemoteDevice);
+                }
+                putDeviceItem(item);
+
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Remote device updated, calling listeners: " + registeredRemoteDevice);
+                }
+                for (final RegistryListener listener : registry.getListeners()) {
+                    registry.getConfiguration().getRegistryListenerExecutor().execute(
+                            () -> listener.remoteDeviceUpdated(registry, item.getItem())
+                    );
+                }
             }
 
             return true;
@@ -164,6 +198,37 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
         return false;
     }
 
+    /**
+     * Override the device's maximum age if configured (systems without multicast support).
+     */
+    protected Integer getMaxAgeSeconds(Integer announcedMaxAgeSeconds) {
+        return registry.getConfiguration().getRemoteDeviceMaxAgeSeconds() != null
+                ? registry.getConfiguration().getRemoteDeviceMaxAgeSeconds()
+                : announcedMaxAgeSeconds;
+    }
+
+    /**
+     * @return <code>true</code> if the descriptors of the registered device can't be trusted anymore, because
+     *         the device announced another descriptor location on the same network interface, or another
+     *         configuration or boot instance number.
+     */
+    protected boolean isRediscoveryRequired(RemoteDeviceIdentity registered, String descriptorURL,
+                                            InetAddress discoveredOnLocalAddress, Integer configId, Integer bootId) {
+        // A multi-homed device announces a different location on each network
+        boolean moved = descriptorURL != null
+                && registered.getDescriptorURL() != null
+                && Objects.equals(registered.getDiscoveredOnLocalAddress(), discoveredOnLocalAddress)
+                && !descriptorURL.equals(registered.getDescriptorURL().toString());
+        return moved
+                || isChanged(registered.getConfigId(), configId)
+                || isChanged(registered.getBootId(), bootId);
+    }
+
+    protected static boolean isChanged(Integer registered, Integer announced) {
+        // Devices not announcing a value don't change it
+        return registered != null && announced != null && !registered.equals(announced);
+    }
+
     /**
      * Removes the given device from the registry and notifies registry listeners.
      *
@@ -176,59 +241,63 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
     }
 
     boolean remove(final RemoteDevice remoteDevice, boolean shuttingDown) throws RegistrationException {
-        final RemoteDevice registeredDevice = get(remoteDevice.getIdentity().getUdn(), true);
-        if (registeredDevice != null) {
 
-			if (log.isLoggable(Level.FINE)) {
-				log.fine("Removing remote device from registry: " + remoteDevice);
-			}
+        synchronized (registry.getDeviceLock(remoteDevice.getIdentity().getUdn())) {
+            final RemoteDevice registeredDevice = get(remoteDevice.getIdentity().getUdn(), true);
+            if (registeredDevice != null) {
 
-			// Resources
-            for (Resource<?> deviceResource : getResources(registeredDevice)) {
-                if (registry.removeResource(deviceResource)) {
-					if (log.isLoggable(Level.FINE)) {
-						log.fine("Unregistered resource: " + deviceResource);
-					}
+				if (log.isLoggable(Level.FINE)) {
+					log.fine("Removing remote device from registry: " + remoteDevice);
 				}
-            }
 
-            // Active subscriptions
-            Iterator<RegistryItem<String, RemoteGENASubscription>> it = getSubscriptionItems().iterator();
-            while (it.hasNext()) {
-                final RegistryItem<String, RemoteGENASubscription> outgoingSubscription = it.next();
+				// Resources
+                for (Resource<?> deviceResource : getResources(registeredDevice)) {
+                    if (registry.removeResource(deviceResource)) {
+						if (log.isLoggable(Level.FINE)) {
+							log.fine("Unregistered resource: " + deviceResource);
+						}
+					}
+                }
 
-                UDN subscriptionForUDN =
-                        outgoingSubscription.getItem().getService().getDevice().getIdentity().getUdn();
+                // Active subscriptions
+                Iterator<RegistryItem<String, RemoteGENASubscription>> it = getSubscriptionItems().iterator();
+                while (it.hasNext()) {
+                    final RegistryItem<String, RemoteGENASubscription> outgoingSubscription = it.next();
+
+                    UDN subscriptionForUDN =
+                            outgoingSubscription.getItem().getService().getDevice().getIdentity().getUdn();
+
+                    if (subscriptionForUDN.equals(registeredDevice.getIdentity().getUdn())) {
+						if (log.isLoggable(Level.FINE)) {
+							log.fine("Removing outgoing subscription: " + outgoingSubscription.getKey());
+						}
+						it.remove();
+                        subscriptionExpirations.cancel(outgoingSubscription.getKey());
+                        if (!shuttingDown) {
+                            registry.getConfiguration().getRegistryListenerExecutor().execute(
+									() -> outgoingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED, null)
+							);
+                        }
+                    }
+                }
 
-                if (subscriptionForUDN.equals(registeredDevice.getIdentity().getUdn())) {
-					if (log.isLoggable(Level.FINE)) {
-						log.fine("Removing outgoing subscription: " + outgoingSubscription.getKey());
-					}
-					it.remove();
-                    if (!shuttingDown) {
+                // Only notify listeners if we are NOT in the process of shutting down the registry
+                if (!shuttingDown) {
+                    for (final RegistryListener listener : registry.getListeners()) {
                         registry.getConfiguration().getRegistryListenerExecutor().execute(
-								() -> outgoingSubscription.getItem().end(CancelReason.DEVICE_WAS_REMOVED, null)
+								() -> listener.remoteDeviceRemoved(registry, registeredDevice)
 						);
                     }
                 }
-            }
 
-            // Only notify listeners if we are NOT in the process of shutting down the registry
-            if (!shuttingDown) {
-                for (final RegistryListener listener : registry.getListeners()) {
-                    registry.getConfiguration().getRegistryListenerExecutor().execute(
-							() -> listener.remoteDeviceRemoved(registry, registeredDevice)
-					);
-                }
-            }
+                // Finally, remove the device from the registry
+                removeDeviceItem(registeredDevice.getIdentity().getUdn());
 
-            // Finally, remove the device from the registry
-            getDeviceItems().remove(new RegistryItem<UDN, RemoteDevice>(registeredDevice.getIdentity().getUdn()));
+                return true;
+            }
 
-            return true;
+            return false;
         }
-
-        return false;
     }
 
     @Override
@@ -251,29 +320,39 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
     @Override
 	void maintain() {
 
-        if (getDeviceItems().isEmpty()) return;
-
-        // Remove expired remote devices
-        Map<UDN, RemoteDevice> expiredRemoteDevices = new HashMap<>();
-        for (RegistryItem<UDN, RemoteDevice> remoteItem : getDeviceItems()) {
-            if (log.isLoggable(Level.FINEST))
-                log.finest("Device '" + remoteItem.getItem() + "' expires in seconds: "
-                                   + remoteItem.getExpirationDetails().getSecondsUntilExpiration());
-            if (remoteItem.getExpirationDetails().hasExpired(false)) {
-                expiredRemoteDevices.put(remoteItem.getKey(), remoteItem.getItem());
+        long now = System.currentTimeMillis();
+
+        // Remove remote devices whose deadline has passed
+        for (UDN udn : deviceExpirations.pollDue(now)) {
+            synchronized (registry.getDeviceLock(udn)) {
+                RegistryItem<UDN, RemoteDevice> remoteItem = deviceItems.get(udn);
+                if (remoteItem == null)
+                    continue;
+                if (!remoteItem.getExpirationDetails().hasExpired(false)) {
+                    // Not yet, the device was updated
+                    scheduleExpiration(deviceExpirations, udn, getExpirationMillis(remoteItem));
+                    continue;
+                }
+                if (log.isLoggable(Level.FINE))
+                    log.fine("Removing expired: " + remoteItem.getItem());
+                remove(remoteItem.getItem());
             }
         }
-        for (RemoteDevice remoteDevice : expiredRemoteDevices.values()) {
-            if (log.isLoggable(Level.FINE))
-                log.fine("Removing expired: " + remoteDevice);
-            remove(remoteDevice);
-        }
 
-        // Renew outgoing subscriptions
+        // Renew outgoing subscriptions whose deadline has passed
         Set<RemoteGENASubscription> expiredOutgoingSubscriptions = new HashSet<>();
-        for (RegistryItem<String, RemoteGENASubscription> item : getSubscriptionItems()) {
+        for (String subscriptionId : subscriptionExpirations.pollDue(now)) {
+            RegistryItem<String, RemoteGENASubscription> item = subscriptionItems.get(subscriptionId);
+            if (item == null)
+                continue;
             if (item.getExpirationDetails().hasExpired(true)) {
                 expiredOutgoingSubscriptions.add(item.getItem());
+                // Renewed again at the end of the subscription, if the renewal didn't update it
+                long endMillis = item.getExpirationDetails().getExpirationMillis(false);
+                if (endMillis > now)
+                    scheduleExpiration(subscriptionExpirations, subscriptionId, endMillis);
+            } else {
+                scheduleExpiration(subscriptionExpirations, subscriptionId, getSubscriptionExpirationMillis(item));
             }
         }
         for (RemoteGENASubscription subscription : expiredOutgoingSubscriptions) {
@@ -283,6 +362,17 @@ class RemoteItems extends RegistryItems<RemoteDevice, RemoteGENASubscription> {
         }
     }
 
+    @Override
+    long getExpirationMillis(RegistryItem<UDN, RemoteDevice> deviceItem) {
+        return deviceItem.getExpirationDetails().getExpirationMillis(false);
+    }
+
+    @Override
+    long getSubscriptionExpirationMillis(RegistryItem<String, RemoteGENASubscription> subscriptionItem) {
+        // Renewed at half time
+        return subscriptionItem.getExpirationDetails().getExpirationMillis(true);
+    }
+
     public void resume() {
         log.fine("Updating remote device expiration timestamps on resume");
         List<RemoteDeviceIdentity> toUpdate = new ArrayList<>();
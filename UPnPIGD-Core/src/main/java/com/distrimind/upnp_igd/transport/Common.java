@@ -32,19 +32,10 @@ knowledge of the CeCILL-C license and that you accept its terms.
 */
 
 import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
-import com.distrimind.upnp_igd.model.message.header.CallbackHeader;
-import com.distrimind.upnp_igd.model.message.header.HostHeader;
-import com.distrimind.upnp_igd.model.message.header.LocationHeader;
-import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
 
 import java.net.Inet6Address;
 import java.net.InetAddress;
-import java.net.URL;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
 
 /**
  * @author Jason Mahdjoub
@@ -52,15 +43,7 @@ import java.util.Set;
  * @since MaDKitLanEdition 1.0.0
  */
 
-@SuppressWarnings("PMD.UseEnumCollections")
 public class Common {
-	private static final Set<UpnpHeader.Type> allowedUpnpHeaders=new HashSet<>(Arrays.asList(UpnpHeader.Type.EXT, UpnpHeader.Type.ST, UpnpHeader.Type.SERVER, UpnpHeader.Type.USN, UpnpHeader.Type.LOCATION, UpnpHeader.Type.MAX_AGE));
-	static boolean isNotValidRemoteAddress(URL u, NetworkAddressFactory networkAddressFactory)
-	{
-		if (u==null)
-			return false;
-		return isNotValidRemoteAddress(u.getHost(), networkAddressFactory);
-	}
 	public static boolean isNotValidRemoteAddress(String host, NetworkAddressFactory networkAddressFactory)
 	{
 		try {
@@ -77,47 +60,26 @@ public class Common {
 		}
 		return false;
 	}
+	/**
+	 * Checks the raw headers of a received datagram with the given filter.
+	 *
+	 * @see IncomingDatagramFilter
+	 * @return the message, or <code>null</code> if it has to be dropped
+	 */
+	public static IncomingDatagramMessage<?> getValidIncomingDatagramMessage(IncomingDatagramMessage<?> idm, NetworkAddressFactory networkAddressFactory, IncomingDatagramFilter incomingDatagramFilter)
+	{
+		return incomingDatagramFilter.filter(idm, networkAddressFactory);
+	}
+	/**
+	 * Checks the raw headers of a received datagram, without the exclusive service types of a configuration.
+	 *
+	 * @return the message, or <code>null</code> if it has to be dropped
+	 * @deprecated Use the {@link IncomingDatagramFilter} of the router, which counts the dropped datagrams of
+	 * its configuration, or {@link #getValidIncomingDatagramMessage(IncomingDatagramMessage, NetworkAddressFactory, IncomingDatagramFilter)}
+	 */
+	@Deprecated
 	public static IncomingDatagramMessage<?> getValidIncomingDatagramMessage(IncomingDatagramMessage<?> idm, NetworkAddressFactory networkAddressFactory)
 	{
-		for (UpnpHeader.Type t : UpnpHeader.Type.values()) {
-			if (allowedUpnpHeaders.contains(t))
-				continue;
-			if (idm.getHeaders().containsKey(t))
-				return null;
-		}
-		List<UpnpHeader<?>> luh=idm.getHeaders().get(UpnpHeader.Type.CALLBACK);
-
-		if (luh!=null) {
-			for (UpnpHeader<?> uh : luh) {
-				if (CallbackHeader.class.isAssignableFrom(uh.getClass())) {
-					CallbackHeader ch = (CallbackHeader) uh;
-					for (URL u : ch.getValue()) {
-						if (isNotValidRemoteAddress(u, networkAddressFactory))
-							return null;
-					}
-				}
-			}
-		}
-		luh=idm.getHeaders().get(UpnpHeader.Type.HOST);
-		if (luh!=null) {
-			for (UpnpHeader<?> uh : luh) {
-				if (HostHeader.class.isAssignableFrom(uh.getClass())) {
-					HostHeader hh = (HostHeader) uh;
-					if (isNotValidRemoteAddress(hh.getValue().getHost(), networkAddressFactory))
-						return null;
-				}
-			}
-		}
-		luh=idm.getHeaders().get(UpnpHeader.Type.LOCATION);
-		if (luh!=null) {
-			for (UpnpHeader<?> uh : luh) {
-				if (LocationHeader.class.isAssignableFrom(uh.getClass())) {
-					LocationHeader hh = (LocationHeader) uh;
-					if (isNotValidRemoteAddress(hh.getValue().getHost(), networkAddressFactory))
-						return null;
-				}
-			}
-		}
-		return idm;
+		return getValidIncomingDatagramMessage(idm, networkAddressFactory, new IncomingDatagramFilter(null));
 	}
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport;
+
+import com.distrimind.upnp_igd.UpnpServiceConfiguration;
+import com.distrimind.upnp_igd.model.message.IUpnpHeaders;
+import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.model.types.InvalidValueException;
+import com.distrimind.upnp_igd.model.types.NamedServiceType;
+import com.distrimind.upnp_igd.model.types.NotificationSubtype;
+import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Admission filter for received datagrams, applied before any typed UPnP header is parsed.
+ * <p>
+ * All checks work on the raw header strings: the allow-list of UPnP headers, the validation
+ * of the hosts found in <code>CALLBACK</code>, <code>HOST</code> and <code>LOCATION</code>
+ * headers, and the exclusive service types of the configuration. Only messages passing
+ * these checks reach the protocols, which parse the typed headers they need.
+ * </p>
+ * <p>
+ * Only search responses are admitted: <code>NOTIFY</code> and <code>M-SEARCH</code> messages
+ * carry <code>NT</code>, <code>NTS</code> or <code>HOST</code> headers, which are not allowed.
+ * </p>
+ * <p>
+ * The number of accepted messages, and of dropped messages per {@link DropReason}, is
+ * counted. This class is thread-safe.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class IncomingDatagramFilter {
+
+    private static final Logger log = Logger.getLogger(IncomingDatagramFilter.class.getName());
+
+    public enum DropReason {
+        DISALLOWED_HEADER,
+        INVALID_CALLBACK,
+        INVALID_HOST,
+        INVALID_LOCATION,
+        UNSUPPORTED_ADVERTISEMENT
+    }
+
+    static final private List<UpnpHeader.Type> allowedUpnpHeaders = Collections.unmodifiableList(Arrays.asList(
+        UpnpHeader.Type.EXT, UpnpHeader.Type.ST, UpnpHeader.Type.SERVER, UpnpHeader.Type.USN, UpnpHeader.Type.LOCATION, UpnpHeader.Type.MAX_AGE,
+        UpnpHeader.Type.CONFIGID, UpnpHeader.Type.BOOTID
+    ));
+
+    static final private String[] disallowedHeaderNames;
+    static {
+        List<String> names = new ArrayList<>();
+        for (UpnpHeader.Type t : UpnpHeader.Type.values()) {
+            if (!allowedUpnpHeaders.contains(t))
+                names.add(t.getHttpName());
+        }
+        disallowedHeaderNames = names.toArray(new String[0]);
+    }
+
+    final protected UpnpServiceConfiguration configuration;
+    final protected LongAdder accepted = new LongAdder();
+    final protected Map<DropReason, LongAdder> dropped = new EnumMap<>(DropReason.class);
+
+    /**
+     * @param configuration The configuration providing the exclusive service types, or <code>null</code>
+     *                      if service advertisements should not be checked.
+     */
+    public IncomingDatagramFilter(UpnpServiceConfiguration configuration) {
+        this.configuration = configuration;
+        for (DropReason reason : DropReason.values()) {
+            dropped.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * @param message The received message.
+     * @param networkAddressFactory The factory used to validate the remote hosts of the message.
+     * @return The message, or <code>null</code> if it has to be dropped.
+     */
+    public IncomingDatagramMessage<?> filter(IncomingDatagramMessage<?> message, NetworkAddressFactory networkAddressFactory) {
+        DropReason reason = getDropReason(message, networkAddressFactory);
+        if (reason != null) {
+            dropped.get(reason).increment();
+            if (log.isLoggable(Level.FINE))
+                log.fine("Dropping received datagram (" + reason + "): " + message);
+            return null;
+        }
+        accepted.increment();
+        return message;
+    }
+
+    /**
+     * @return The reason to drop the message, or <code>null</code> if it is admitted.
+     */
+    protected DropReason getDropReason(IncomingDatagramMessage<?> message, NetworkAddressFactory networkAddressFactory) {
+        IUpnpHeaders headers = message.getHeaders();
+        for (String name : disallowedHeaderNames) {
+            if (headers.containsKey(name))
+                return DropReason.DISALLOWED_HEADER;
+        }
+
+        List<String> values = headers.get(UpnpHeader.Type.CALLBACK.getHttpName());
+        if (values != null) {
+            for (String value : values) {
+                if (!isValidCallback(value, networkAddressFactory))
+                    return DropReason.INVALID_CALLBACK;
+            }
+        }
+        values = headers.get(UpnpHeader.Type.HOST.getHttpName());
+        if (values != null) {
+            for (String value : values) {
+                if (value != null && Common.isNotValidRemoteAddress(getHostOfHostPort(value), networkAddressFactory))
+                    return DropReason.INVALID_HOST;
+            }
+        }
+        values = headers.get(UpnpHeader.Type.LOCATION.getHttpName());
+        if (values != null) {
+            for (String value : values) {
+                String host = value != null ? getHostOfURL(value) : null;
+                if (host == null || Common.isNotValidRemoteAddress(host, networkAddressFactory))
+                    return DropReason.INVALID_LOCATION;
+            }
+        }
+
+        if (configuration != null && isAdvertisement(message) && !isByeBye(message)
+            && !isSupportedServiceAdvertisement(
+                headers.getFirstHeader(UpnpHeader.Type.USN.getHttpName()),
+                configuration.getExclusiveServiceTypes()
+            ))
+            return DropReason.UNSUPPORTED_ADVERTISEMENT;
+
+        return null;
+    }
+
+    protected boolean isValidCallback(String value, NetworkAddressFactory networkAddressFactory) {
+        if (value == null)
+            return true;
+        int start;
+        int end = 0;
+        while ((start = value.indexOf('<', end)) != -1 && (end = value.indexOf('>', start)) != -1) {
+            String url = value.substring(start + 1, end).trim();
+            if (url.startsWith("http://")) {
+                String host = getHostOfURL(url);
+                if (host == null || Common.isNotValidRemoteAddress(host, networkAddressFactory))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return <code>true</code> for search responses and <code>NOTIFY</code> messages.
+     */
+    protected boolean isAdvertisement(IncomingDatagramMessage<?> message) {
+        return message.getOperation() instanceof UpnpResponse
+            || (message.getOperation() instanceof UpnpRequest
+                && UpnpRequest.Method.NOTIFY.equals(((UpnpRequest) message.getOperation()).getMethod()));
+    }
+
+    protected boolean isByeBye(IncomingDatagramMessage<?> message) {
+        String ntsHeader = message.getHeaders().getFirstHeader(UpnpHeader.Type.NTS.getHttpName());
+        return ntsHeader != null && ntsHeader.equals(NotificationSubtype.BYEBYE.getHeaderString());
+    }
+
+    /**
+     * @param usnHeader The raw <code>USN</code> header value of an advertisement.
+     * @param exclusiveServiceTypes The exclusive service types of the configuration.
+     * @return <code>true</code> if the advertisement should be handled by the stack.
+     * @see UpnpServiceConfiguration#getExclusiveServiceTypes()
+     */
+    public static boolean isSupportedServiceAdvertisement(String usnHeader, ServiceType[] exclusiveServiceTypes) {
+        if (exclusiveServiceTypes == null) return false; // Discovery is disabled
+        if (exclusiveServiceTypes.length == 0) return true; // Any advertisement is fine
+
+        if (usnHeader == null) return false; // Not a service advertisement, drop it
+
+        try {
+            NamedServiceType nst = NamedServiceType.valueOf(usnHeader);
+            for (ServiceType exclusiveServiceType : exclusiveServiceTypes) {
+                if (nst.getServiceType().implementsVersion(exclusiveServiceType))
+                    return true;
+            }
+        } catch (InvalidValueException ex) {
+            if (log.isLoggable(Level.FINEST)) {
+                log.finest("Not a named service type header value: " + usnHeader);
+            }
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Service advertisement not supported, dropping it: " + usnHeader);
+        }
+        return false;
+    }
+
+    /**
+     * @param url An absolute URL string.
+     * @return The host part of the URL, with brackets for IPv6 literals, or <code>null</code> if the URL is malformed.
+     */
+    public static String getHostOfURL(String url) {
+        int start = url.indexOf("://");
+        if (start == -1)
+            return null;
+        start += 3;
+        int end = start;
+        while (end < url.length() && url.charAt(end) != '/' && url.charAt(end) != '?' && url.charAt(end) != '#')
+            end++;
+        int userInfo = url.lastIndexOf('@', end - 1);
+        if (userInfo >= start)
+            start = userInfo + 1;
+        String host = getHostOfHostPort(url.substring(start, end));
+        return host.isEmpty() ? null : host;
+    }
+
+    /**
+     * @param hostPort A <code>host[:port]</code> string, the host may be a bracketed IPv6 literal.
+     * @return The host part.
+     */
+    public static String getHostOfHostPort(String hostPort) {
+        if (hostPort.startsWith("[")) {
+            int end = hostPort.indexOf(']');
+            return end != -1 ? hostPort.substring(0, end + 1) : hostPort;
+        }
+        int colon = hostPort.indexOf(':');
+        return colon != -1 ? hostPort.substring(0, colon) : hostPort;
+    }
+
+    public long getAcceptedCount() {
+        return accepted.sum();
+    }
+
+    public long getDroppedCount(DropReason reason) {
+        return dropped.get(reason).sum();
+    }
+
+    /**
+     * @return A snapshot of the number of dropped messages, for each reason.
+     */
+    public Map<DropReason, Long> getDroppedCounts() {
+        Map<DropReason, Long> counts = new EnumMap<>(DropReason.class);
+        for (Map.Entry<DropReason, LongAdder> entry : dropped.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    public void resetCounts() {
+        accepted.reset();
+        for (LongAdder adder : dropped.values()) {
+            adder.reset();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Global pacing of outgoing datagrams, limiting the number of packets sent per second.
+ * <p>
+ * Each packet reserves a slot of <code>1/permitsPerSecond</code> second; a burst of a tenth
+ * of a second worth of packets passes without delay, further packets wait for their slot. The
+ * reservation itself never blocks, callers wait outside of any lock they hold.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class OutgoingDatagramRateLimiter {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private long theoreticalArrivalNanos;
+
+    /**
+     * @param permitsPerSecond The maximum number of datagrams per second, must be greater than zero.
+     */
+    public OutgoingDatagramRateLimiter(int permitsPerSecond) {
+        if (permitsPerSecond <= 0)
+            throw new IllegalArgumentException("Permits per second must be greater than zero: " + permitsPerSecond);
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        this.burstNanos = intervalNanos * Math.max(1, permitsPerSecond / 10);
+        this.theoreticalArrivalNanos = System.nanoTime();
+    }
+
+    /**
+     * Reserves slots for the given number of datagrams.
+     *
+     * @return The time in nanoseconds the caller has to wait before sending, <code>0</code> if it can send now.
+     */
+    public long reserve(int permits) {
+        if (permits <= 0)
+            return 0;
+        long now = System.nanoTime();
+        synchronized (this) {
+            theoreticalArrivalNanos = Math.max(theoreticalArrivalNanos, now) + permits * intervalNanos;
+            return Math.max(0, theoreticalArrivalNanos - now - burstNanos);
+        }
+    }
+
+    /**
+     * Reserves slots for the given number of datagrams and waits until they can be sent.
+     *
+     * @throws InterruptedException If the waiting thread was interrupted.
+     */
+    public void acquire(int permits) throws InterruptedException {
+        long waitNanos = reserve(permits);
+        if (waitNanos > 0)
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+}
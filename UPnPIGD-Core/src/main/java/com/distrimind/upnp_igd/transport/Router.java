@@ -27,6 +27,7 @@ import com.distrimind.upnp_igd.transport.spi.UpnpStream;
 
 import java.net.InetAddress;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Interface of the network transport layer.
@@ -139,6 +140,22 @@ public interface Router {
      */
 	void send(OutgoingDatagramMessage<?> msg) throws RouterException;
 
+    /**
+     * <p>
+     * Call this method to send a UDP datagram message only through the transport bound to the given
+     * local address, e.g. an advertisement whose location is only reachable on that interface.
+     * </p>
+     * <p>
+     * If no transport is bound to the address, the message is sent on all of them, as with
+     * {@link #send(OutgoingDatagramMessage)}.
+     * </p>
+     *
+     * @param msg The UDP datagram message to send.
+     * @param bindAddress The local address of the transport to send the message with.
+     * @throws RouterException if a recoverable error, such as thread interruption, occurs.
+     */
+	void send(OutgoingDatagramMessage<?> msg, InetAddress bindAddress) throws RouterException;
+
     /**
      * <p>
      * Call this method to send a TCP (HTTP) stream message.
@@ -149,6 +166,18 @@ public interface Router {
      */
 	StreamResponseMessage send(StreamRequestMessage msg) throws RouterException;
 
+    /**
+     * <p>
+     * Call this method to send a TCP (HTTP) stream message without blocking the calling thread.
+     * </p>
+     *
+     * @param msg The TCP (HTTP) stream message to send.
+     * @return The future response received from the server, completed with <code>null</code> if the
+     *         router is disabled or the request failed. Cancelling it aborts the request.
+     * @throws RouterException if a recoverable error, such as thread interruption, occurs.
+     */
+	CompletableFuture<StreamResponseMessage> sendAsync(StreamRequestMessage msg) throws RouterException;
+
     /**
      * <p>
      * Call this method to broadcast a UDP message to all hosts on the network.
@@ -48,7 +48,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
@@ -82,6 +86,12 @@ public class RouterImpl implements Router {
     protected final Map<InetAddress, DatagramIO<?>> datagramIOs = new HashMap<>();
     protected final Map<InetAddress, StreamServer<?>> streamServers = new HashMap<>();
 
+    protected volatile TransportSnapshot transports = TransportSnapshot.EMPTY;
+
+    protected IncomingDatagramFilter incomingDatagramFilter;
+    protected OutgoingDatagramRateLimiter outgoingDatagramRateLimiter;
+    protected StreamRequestHostLimiter streamRequestHostLimiter;
+
     protected RouterImpl() {
     }
 
@@ -94,6 +104,9 @@ public class RouterImpl implements Router {
         if (log.isLoggable(Level.INFO)) log.info("Creating Router: " + getClass().getName());
         this.configuration = configuration;
         this.protocolFactory = protocolFactory;
+        this.incomingDatagramFilter = createIncomingDatagramFilter();
+        this.outgoingDatagramRateLimiter = createOutgoingDatagramRateLimiter();
+        this.streamRequestHostLimiter = createStreamRequestHostLimiter();
     }
 
     public boolean enable(@Observes @Default EnableRouter event) throws RouterException {
@@ -114,6 +127,59 @@ public class RouterImpl implements Router {
         return protocolFactory;
     }
 
+    /**
+     * @return The admission filter of received datagrams, with its drop counters.
+     */
+    public IncomingDatagramFilter getIncomingDatagramFilter() {
+        return incomingDatagramFilter;
+    }
+
+    protected IncomingDatagramFilter createIncomingDatagramFilter() {
+        return new IncomingDatagramFilter(getConfiguration());
+    }
+
+    /**
+     * @return The global pacing of outgoing datagrams, or <code>null</code> if the configuration
+     *         doesn't limit them.
+     */
+    protected OutgoingDatagramRateLimiter createOutgoingDatagramRateLimiter() {
+        int maxDatagramsPerSecond = getConfiguration().getMaxOutgoingDatagramsPerSecond();
+        return maxDatagramsPerSecond > 0 ? new OutgoingDatagramRateLimiter(maxDatagramsPerSecond) : null;
+    }
+
+    /**
+     * @return The per-host limit and circuit breaker of stream requests, with the metrics of each
+     *         remote host, or <code>null</code> if the configuration doesn't limit them.
+     */
+    public StreamRequestHostLimiter getStreamRequestHostLimiter() {
+        return streamRequestHostLimiter;
+    }
+
+    protected StreamRequestHostLimiter createStreamRequestHostLimiter() {
+        int maxRequestsPerHost = getConfiguration().getMaxStreamRequestsPerHost();
+        return maxRequestsPerHost > 0 ? new StreamRequestHostLimiter(maxRequestsPerHost) : null;
+    }
+
+    /**
+     * Waits until the datagrams written for one message fit in the configured rate limit. The
+     * waiting doesn't hold the router lock, so a burst doesn't delay a shutdown.
+     *
+     * @param bindAddress The local address of the only {@link DatagramIO} sending the message, or
+     *                    <code>null</code> if all of them send it.
+     */
+    protected void paceOutgoingDatagrams(InetAddress bindAddress) throws RouterException {
+        if (outgoingDatagramRateLimiter == null)
+            return;
+        TransportSnapshot t = transports;
+        int datagrams = bindAddress != null && t.datagramIOs.containsKey(bindAddress) ? 1 : t.datagramIOArray.length;
+        try {
+            outgoingDatagramRateLimiter.acquire(datagrams);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RouterException("Sending datagram was interrupted", ex);
+        }
+    }
+
     /**
      * Initializes listening services: First an instance of {@link MulticastReceiver}
      * is bound to each network interface. Then an instance of {@link DatagramIO} and
@@ -143,6 +209,7 @@ public class RouterImpl implements Router {
                     // Start the HTTP client last, we don't even have to try if there is no network
                     streamClient = getConfiguration().createStreamClient();
 
+                    transports = createTransportSnapshot();
                     enabled = true;
                     return true;
                 } catch (InitializationException ex) {
@@ -162,6 +229,9 @@ public class RouterImpl implements Router {
             if (enabled) {
                 log.fine("Disabling network services...");
 
+                // Stop the lock-free senders before the transports
+                transports = TransportSnapshot.EMPTY;
+
                 if (streamClient != null) {
                     log.fine("Stopping stream client connection management/pool");
                     streamClient.stop();
@@ -226,44 +296,23 @@ public class RouterImpl implements Router {
 
     @Override
 	public List<NetworkAddress> getActiveStreamServers(InetAddress preferredAddress) throws RouterException {
-        lock(readLock);
-        try {
-            if (enabled && !streamServers.isEmpty()) {
-                List<NetworkAddress> streamServerAddresses = new ArrayList<>();
-
-                StreamServer<?> preferredServer;
-                if (preferredAddress != null &&
-                    (preferredServer = streamServers.get(preferredAddress)) != null) {
-                    streamServerAddresses.add(
-                        new NetworkAddress(
-                            preferredAddress,
-                            preferredServer.getPort(),
-                            networkAddressFactory.getHardwareAddress(preferredAddress)
-
-                        )
-                    );
-                    return streamServerAddresses;
-                }
-
-                for (Map.Entry<InetAddress, StreamServer<?>> entry : streamServers.entrySet()) {
-                    byte[] hardwareAddress = networkAddressFactory.getHardwareAddress(entry.getKey());
-                    streamServerAddresses.add(
-                        new NetworkAddress(entry.getKey(), entry.getValue().getPort(), hardwareAddress)
-                    );
-                }
-                return streamServerAddresses;
-            } else {
-                return Collections.emptyList();
-            }
-        } finally {
-            unlock(readLock);
+        TransportSnapshot t = transports;
+        if (preferredAddress != null) {
+            List<NetworkAddress> preferred = t.preferredStreamServerAddresses.get(preferredAddress);
+            if (preferred != null)
+                return preferred;
         }
+        return t.streamServerAddresses;
     }
 
     /**
      * Obtains the asynchronous protocol {@code Executor} and runs the protocol created
      * by the {@link ProtocolFactory} for the given message.
      * <p>
+     * The message is first checked by the {@link IncomingDatagramFilter}, on its raw headers,
+     * so that rejected datagrams never cost any typed header parsing.
+     * </p>
+     * <p>
      * If the factory doesn't create a protocol, the message is dropped immediately without
      * creating another thread or consuming further resources. This means we can filter the
      * datagrams in the protocol factory and e.g. completely disable discovery or only
@@ -280,6 +329,8 @@ public class RouterImpl implements Router {
 			}
 			return;
         }
+        if (incomingDatagramFilter.filter(msg, networkAddressFactory) == null)
+            return;
         try {
             ReceivingAsync<?> protocol = getProtocolFactory().createReceivingAsync(msg);
             if (protocol == null) {
@@ -322,31 +373,92 @@ public class RouterImpl implements Router {
      */
     @Override
 	public void send(OutgoingDatagramMessage<?> msg) throws RouterException {
-        lock(readLock);
-        try {
-            if (enabled) {
-                for (DatagramIO<?> datagramIO : datagramIOs.values()) {
-                    datagramIO.send(msg);
-                }
-            } else {
-				if (log.isLoggable(Level.FINE)) {
-					log.fine("Router disabled, not sending datagram: " + msg);
-				}
-			}
-        } finally {
-            unlock(readLock);
+        paceOutgoingDatagrams(null);
+        TransportSnapshot t = transports;
+        if (t.datagramIOArray.length > 0) {
+            for (DatagramIO<?> datagramIO : t.datagramIOArray) {
+                datagramIO.send(msg);
+            }
+        } else {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Router disabled, not sending datagram: " + msg);
+            }
+        }
+    }
+
+    /**
+     * Sends the UDP datagram on the {@link DatagramIO} bound to the given address, or on all
+     * bound {@link DatagramIO}s if there is none for this address.
+     *
+     * @param msg The UDP datagram message to send.
+     * @param bindAddress The local address of the {@link DatagramIO} to send the message with.
+     */
+    @Override
+	public void send(OutgoingDatagramMessage<?> msg, InetAddress bindAddress) throws RouterException {
+        paceOutgoingDatagrams(bindAddress);
+        TransportSnapshot t = transports;
+        DatagramIO<?> datagramIO = bindAddress != null ? t.datagramIOs.get(bindAddress) : null;
+        if (datagramIO != null) {
+            datagramIO.send(msg);
+        } else if (t.datagramIOArray.length > 0) {
+            for (DatagramIO<?> d : t.datagramIOArray) {
+                d.send(msg);
+            }
+        } else {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Router disabled, not sending datagram: " + msg);
+            }
         }
     }
 
     /**
-     * Sends the TCP stream request with the {@link StreamClient}.
+     * Sends the TCP stream request with the {@link StreamClient} and waits for the response
+     * of {@link #sendAsync(StreamRequestMessage)}.
+     * <p>
+     * The timeout of the client only starts once the request left the queue of its host, the
+     * wait is therefore bounded here, see {@link #getStreamRequestTimeoutMillis()}. A request
+     * still waiting after that time is cancelled.
+     * </p>
      *
      * @param msg The TCP (HTTP) stream message to send.
      * @return The return value of the {@link StreamClient#sendRequest(StreamRequestMessage)}
-     *         method or <code>null</code> if no <code>StreamClient</code> is available.
+     *         method or <code>null</code> if no <code>StreamClient</code> is available or if the
+     *         request timed out.
      */
     @Override
 	public StreamResponseMessage send(StreamRequestMessage msg) throws RouterException {
+        long timeoutMillis = getStreamRequestTimeoutMillis();
+        CompletableFuture<StreamResponseMessage> future = sendAsync(msg);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            if (log.isLoggable(Level.INFO)) log.info(
+                    "No response after " + timeoutMillis + "ms, cancelling stream request: " + msg
+            );
+            future.cancel(true);
+            return null;
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw new RouterException("Sending stream request was interrupted", ex);
+        } catch (ExecutionException | CancellationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends the TCP stream request with {@link StreamClient#sendRequestAsync(StreamRequestMessage)}.
+     * <p>
+     * The router lock is only held while the request is handed to the client, a request still
+     * in flight when the router is disabled completes with <code>null</code>. The request may wait
+     * for other requests to the same host, or complete immediately with <code>null</code> if the host
+     * didn't respond recently, see {@link StreamRequestHostLimiter}.
+     * </p>
+     *
+     * @param msg The TCP (HTTP) stream message to send.
+     * @return The future response, completed with <code>null</code> if no <code>StreamClient</code> is available.
+     */
+    @Override
+	public CompletableFuture<StreamResponseMessage> sendAsync(StreamRequestMessage msg) throws RouterException {
         lock(readLock);
         try {
             if (enabled) {
@@ -354,21 +466,19 @@ public class RouterImpl implements Router {
 					if (log.isLoggable(Level.FINE)) {
 						log.fine("No StreamClient available, not sending: " + msg);
 					}
-					return null;
+					return CompletableFuture.completedFuture(null);
                 }
 				if (log.isLoggable(Level.FINE)) {
 					log.fine("Sending via TCP unicast stream: " + msg);
 				}
-				try {
-                    return streamClient.sendRequest(msg);
-                } catch (InterruptedException ex) {
-                    throw new RouterException("Sending stream request was interrupted", ex);
-                }
+				if (streamRequestHostLimiter != null)
+					return streamRequestHostLimiter.send(msg, streamClient::sendRequestAsync);
+				return streamClient.sendRequestAsync(msg);
             } else {
 				if (log.isLoggable(Level.FINE)) {
 					log.fine("Router disabled, not sending stream request: " + msg);
 				}
-				return null;
+				return CompletableFuture.completedFuture(null);
             }
         } finally {
             unlock(readLock);
@@ -386,29 +496,32 @@ public class RouterImpl implements Router {
      */
     @Override
 	public void broadcast(byte[] bytes) throws RouterException {
-        lock(readLock);
-        try {
-            if (enabled) {
-                for (Map.Entry<InetAddress, DatagramIO<?>> entry : datagramIOs.entrySet()) {
-                    InetAddress broadcast = networkAddressFactory.getBroadcastAddress(entry.getKey());
-                    if (broadcast != null) {
-						if (log.isLoggable(Level.FINE)) {
-							log.fine("Sending UDP datagram to broadcast address: " + broadcast.getHostAddress());
-						}
-						DatagramPacket packet = new DatagramPacket(bytes, bytes.length, broadcast, 9);
-                        entry.getValue().send(packet);
-                    }
+        TransportSnapshot t = transports;
+        if (t.datagramIOArray.length > 0) {
+            for (int i = 0; i < t.broadcastIOs.length; i++) {
+                InetAddress broadcast = t.broadcastAddresses[i];
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Sending UDP datagram to broadcast address: " + broadcast.getHostAddress());
                 }
-            } else {
-				if (log.isLoggable(Level.FINE)) {
-					log.fine("Router disabled, not broadcasting bytes: " + bytes.length);
-				}
-			}
-        } finally {
-            unlock(readLock);
+                DatagramPacket packet = new DatagramPacket(bytes, bytes.length, broadcast, 9);
+                t.broadcastIOs[i].send(packet);
+            }
+        } else {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Router disabled, not broadcasting bytes: " + bytes.length);
+            }
         }
     }
 
+    /**
+     * Called with the write lock once all transports are started.
+     *
+     * @return The immutable view of the started transports used by the lock-free sending methods.
+     */
+    protected TransportSnapshot createTransportSnapshot() {
+        return new TransportSnapshot(datagramIOs, streamServers, networkAddressFactory);
+    }
+
     protected void startInterfaceBasedTransports(Iterator<NetworkInterface> interfaces) throws InitializationException {
         while (interfaces.hasNext()) {
             NetworkInterface networkInterface = interfaces.next();
@@ -522,6 +635,68 @@ public class RouterImpl implements Router {
         }
     }
 
+    /**
+     * Immutable view of the transports of an enabled router, replaced as a whole on enable and disable.
+     * <p>
+     * Datagram sends, broadcasts and stream server lookups only read the current snapshot, they
+     * neither take the router lock nor allocate. The addresses of the stream servers, with their
+     * hardware address, are built once here.
+     * </p>
+     */
+    protected static class TransportSnapshot {
+
+        public static final TransportSnapshot EMPTY = new TransportSnapshot();
+
+        public final Map<InetAddress, DatagramIO<?>> datagramIOs;
+        public final DatagramIO<?>[] datagramIOArray;
+        public final DatagramIO<?>[] broadcastIOs;
+        public final InetAddress[] broadcastAddresses;
+        public final List<NetworkAddress> streamServerAddresses;
+        public final Map<InetAddress, List<NetworkAddress>> preferredStreamServerAddresses;
+
+        protected TransportSnapshot() {
+            this.datagramIOs = Collections.emptyMap();
+            this.datagramIOArray = new DatagramIO<?>[0];
+            this.broadcastIOs = datagramIOArray;
+            this.broadcastAddresses = new InetAddress[0];
+            this.streamServerAddresses = Collections.emptyList();
+            this.preferredStreamServerAddresses = Collections.emptyMap();
+        }
+
+        public TransportSnapshot(Map<InetAddress, DatagramIO<?>> datagramIOs,
+                                 Map<InetAddress, StreamServer<?>> streamServers,
+                                 NetworkAddressFactory networkAddressFactory) {
+            this.datagramIOs = Collections.unmodifiableMap(new HashMap<>(datagramIOs));
+            this.datagramIOArray = datagramIOs.values().toArray(new DatagramIO<?>[0]);
+
+            List<DatagramIO<?>> bios = new ArrayList<>();
+            List<InetAddress> bas = new ArrayList<>();
+            for (Map.Entry<InetAddress, DatagramIO<?>> entry : datagramIOs.entrySet()) {
+                InetAddress broadcast = networkAddressFactory.getBroadcastAddress(entry.getKey());
+                if (broadcast != null) {
+                    bios.add(entry.getValue());
+                    bas.add(broadcast);
+                }
+            }
+            this.broadcastIOs = bios.toArray(new DatagramIO<?>[0]);
+            this.broadcastAddresses = bas.toArray(new InetAddress[0]);
+
+            List<NetworkAddress> addresses = new ArrayList<>();
+            Map<InetAddress, List<NetworkAddress>> preferred = new HashMap<>();
+            for (Map.Entry<InetAddress, StreamServer<?>> entry : streamServers.entrySet()) {
+                NetworkAddress networkAddress = new NetworkAddress(
+                        entry.getKey(),
+                        entry.getValue().getPort(),
+                        networkAddressFactory.getHardwareAddress(entry.getKey())
+                );
+                addresses.add(networkAddress);
+                preferred.put(entry.getKey(), Collections.singletonList(networkAddress));
+            }
+            this.streamServerAddresses = Collections.unmodifiableList(addresses);
+            this.preferredStreamServerAddresses = Collections.unmodifiableMap(preferred);
+        }
+    }
+
     protected void lock(Lock lock, int timeoutMilliseconds) throws RouterException {
         try {
 			if (log.isLoggable(Level.FINEST)) {
@@ -555,6 +730,20 @@ public class RouterImpl implements Router {
 		lock.unlock();
     }
 
+    /**
+     * @return The time {@link #send(StreamRequestMessage)} waits for a response, the timeout of the
+     *         stream client and one second for the request to leave the queue of its host.
+     */
+    protected long getStreamRequestTimeoutMillis() throws RouterException {
+        lock(readLock);
+        try {
+            int timeoutSeconds = streamClient != null ? streamClient.getConfiguration().getTimeoutSeconds() : 0;
+            return TimeUnit.SECONDS.toMillis(timeoutSeconds) + 1000;
+        } finally {
+            unlock(readLock);
+        }
+    }
+
     /**
      * @return Defaults to 6 seconds, should be longer than it takes the router to be enabled/disabled.
      */
@@ -0,0 +1,525 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.transport;
+
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits the TCP stream requests sent to each remote host, between the {@link Router} and
+ * the {@link com.distrimind.upnp_igd.transport.spi.StreamClient}.
+ * <p>
+ * At most a configured number of requests are in flight for a host (address and port), the
+ * following requests wait in a bounded FIFO queue until a request completes, or complete with
+ * <code>null</code> when the queue is full or when they waited too long. A request completed
+ * without response, because it timed out or the connection failed, counts as a failure of
+ * the host. After consecutive failures the circuit of the host opens: requests complete
+ * immediately with <code>null</code> instead of waiting for the timeout again. After a
+ * cooldown, a single probe request is sent, its response closes the circuit. A request
+ * cancelled by its caller is neither a success nor a failure of the host.
+ * </p>
+ * <p>
+ * A stream client may bound its own connections per host, like
+ * {@link com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientImpl}. Both limits are
+ * kept: this one bounds the requests of the router and decides when a host is unresponsive,
+ * the client one bounds the connections actually open. A request completed here by its
+ * timeout or cancellation can still hold its connection until the client ends the exchange,
+ * the next request of the host then waits in the client queue instead of opening another
+ * connection.
+ * </p>
+ * <p>
+ * The activity of each host is available with {@link #getHostMetrics()}. This class is thread-safe.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class StreamRequestHostLimiter {
+
+    private static final Logger log = Logger.getLogger(StreamRequestHostLimiter.class.getName());
+
+    public static final int DEFAULT_FAILURES_BEFORE_OPENING = 3;
+    public static final long DEFAULT_COOLDOWN_MILLIS = 30000;
+    public static final int DEFAULT_MAX_IDLE_HOSTS = 1024;
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS_PER_HOST = 64;
+    public static final long DEFAULT_MAX_QUEUE_MILLIS = 30000;
+
+    public enum CircuitState {
+        /**
+         * Requests are sent.
+         */
+        CLOSED,
+        /**
+         * Requests complete immediately without response.
+         */
+        OPEN,
+        /**
+         * One probe request is sent, the other requests complete immediately without response.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * A snapshot of the activity of a remote host.
+     */
+    public static class HostMetrics {
+
+        final private String host;
+        final private CircuitState circuitState;
+        final private int inFlightRequests;
+        final private int queuedRequests;
+        final private long sentRequests;
+        final private long succeededRequests;
+        final private long failedRequests;
+        final private long rejectedRequests;
+        final private long totalLatencyMillis;
+
+        public HostMetrics(String host, CircuitState circuitState, int inFlightRequests, int queuedRequests,
+                           long sentRequests, long succeededRequests, long failedRequests, long rejectedRequests,
+                           long totalLatencyMillis) {
+            this.host = host;
+            this.circuitState = circuitState;
+            this.inFlightRequests = inFlightRequests;
+            this.queuedRequests = queuedRequests;
+            this.sentRequests = sentRequests;
+            this.succeededRequests = succeededRequests;
+            this.failedRequests = failedRequests;
+            this.rejectedRequests = rejectedRequests;
+            this.totalLatencyMillis = totalLatencyMillis;
+        }
+
+        /**
+         * @return The address and port of the host.
+         */
+        public String getHost() {
+            return host;
+        }
+
+        public CircuitState getCircuitState() {
+            return circuitState;
+        }
+
+        public int getInFlightRequests() {
+            return inFlightRequests;
+        }
+
+        public int getQueuedRequests() {
+            return queuedRequests;
+        }
+
+        /**
+         * @return The number of requests handed to the stream client.
+         */
+        public long getSentRequests() {
+            return sentRequests;
+        }
+
+        /**
+         * @return The number of requests completed with a response, whatever its status.
+         */
+        public long getSucceededRequests() {
+            return succeededRequests;
+        }
+
+        /**
+         * @return The number of requests completed without response.
+         */
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        /**
+         * @return The number of requests not sent because the circuit was open, the queue was full
+         *         or they waited too long in it.
+         */
+        public long getRejectedRequests() {
+            return rejectedRequests;
+        }
+
+        /**
+         * @return The average time between sending a request and its completion, in milliseconds.
+         */
+        public long getAverageLatencyMillis() {
+            long completed = succeededRequests + failedRequests;
+            return completed > 0 ? totalLatencyMillis / completed : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + getClass().getSimpleName() + ") " + getHost() + " " + getCircuitState()
+                + ", in flight: " + getInFlightRequests() + ", queued: " + getQueuedRequests()
+                + ", sent: " + getSentRequests() + ", succeeded: " + getSucceededRequests()
+                + ", failed: " + getFailedRequests() + ", rejected: " + getRejectedRequests()
+                + ", average latency: " + getAverageLatencyMillis() + " ms";
+        }
+    }
+
+    protected static class PendingRequest {
+
+        final protected StreamRequestMessage requestMessage;
+        final protected CompletableFuture<StreamResponseMessage> future;
+        final protected long queuedNanos = System.nanoTime();
+
+        protected PendingRequest(StreamRequestMessage requestMessage, CompletableFuture<StreamResponseMessage> future) {
+            this.requestMessage = requestMessage;
+            this.future = future;
+        }
+    }
+
+    /**
+     * The state of a remote host, guarded by its monitor.
+     */
+    protected static class Host {
+
+        final protected String name;
+        final protected Queue<PendingRequest> queue = new ArrayDeque<>();
+        protected int inFlightRequests;
+        protected CircuitState circuitState = CircuitState.CLOSED;
+        protected int consecutiveFailures;
+        protected long openedNanos;
+        protected boolean probeInFlight;
+        protected long sentRequests;
+        protected long succeededRequests;
+        protected long failedRequests;
+        protected long rejectedRequests;
+        protected long totalLatencyMillis;
+        protected boolean removed;
+
+        protected Host(String name) {
+            this.name = name;
+        }
+
+        protected boolean isIdle() {
+            return inFlightRequests == 0 && queue.isEmpty() && circuitState == CircuitState.CLOSED;
+        }
+
+        protected HostMetrics getMetrics() {
+            return new HostMetrics(
+                name, circuitState, inFlightRequests, queue.size(),
+                sentRequests, succeededRequests, failedRequests, rejectedRequests, totalLatencyMillis
+            );
+        }
+    }
+
+    final protected int maxRequestsPerHost;
+    final protected int failuresBeforeOpening;
+    final protected long cooldownNanos;
+    final protected int maxIdleHosts;
+    final protected int maxQueuedRequestsPerHost;
+    final protected long maxQueueNanos;
+    final protected Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    public StreamRequestHostLimiter(int maxRequestsPerHost) {
+        this(maxRequestsPerHost, DEFAULT_FAILURES_BEFORE_OPENING, DEFAULT_COOLDOWN_MILLIS, DEFAULT_MAX_IDLE_HOSTS);
+    }
+
+    /**
+     * @param maxRequestsPerHost The maximum number of requests in flight for a host.
+     * @param failuresBeforeOpening The number of consecutive requests completed without response opening the circuit of a host.
+     * @param cooldownMillis The time the circuit of a host stays open before a probe request is sent.
+     * @param maxIdleHosts The number of hosts above which the hosts without activity are forgotten.
+     */
+    public StreamRequestHostLimiter(int maxRequestsPerHost, int failuresBeforeOpening, long cooldownMillis, int maxIdleHosts) {
+        this(maxRequestsPerHost, failuresBeforeOpening, cooldownMillis, maxIdleHosts,
+            DEFAULT_MAX_QUEUED_REQUESTS_PER_HOST, DEFAULT_MAX_QUEUE_MILLIS);
+    }
+
+    /**
+     * @param maxRequestsPerHost The maximum number of requests in flight for a host.
+     * @param failuresBeforeOpening The number of consecutive requests completed without response opening the circuit of a host.
+     * @param cooldownMillis The time the circuit of a host stays open before a probe request is sent.
+     * @param maxIdleHosts The number of hosts above which the hosts without activity are forgotten.
+     * @param maxQueuedRequestsPerHost The maximum number of requests waiting for a host, the following ones are rejected.
+     * @param maxQueueMillis The time a request may wait for a host before it is rejected.
+     */
+    public StreamRequestHostLimiter(int maxRequestsPerHost, int failuresBeforeOpening, long cooldownMillis, int maxIdleHosts,
+                                    int maxQueuedRequestsPerHost, long maxQueueMillis) {
+        if (maxRequestsPerHost < 1)
+            throw new IllegalArgumentException("At least one request per host must be allowed");
+        if (maxQueuedRequestsPerHost < 0)
+            throw new IllegalArgumentException("The maximum number of queued requests cannot be negative");
+        this.maxRequestsPerHost = maxRequestsPerHost;
+        this.failuresBeforeOpening = failuresBeforeOpening;
+        this.cooldownNanos = TimeUnit.MILLISECONDS.toNanos(cooldownMillis);
+        this.maxIdleHosts = maxIdleHosts;
+        this.maxQueuedRequestsPerHost = maxQueuedRequestsPerHost;
+        this.maxQueueNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueMillis);
+    }
+
+    /**
+     * Sends the request with the given sender now, or once a request of the same host completed.
+     *
+     * @param requestMessage The request to send.
+     * @param sender Sends the request, its future completes with <code>null</code> if there was no response.
+     * @return The future response, completed with <code>null</code> if the circuit of the host is open,
+     *         if the queue of the host is full or if the request waited too long in it.
+     */
+    public CompletableFuture<StreamResponseMessage> send(StreamRequestMessage requestMessage,
+                                                         Function<StreamRequestMessage, CompletableFuture<StreamResponseMessage>> sender) {
+        PendingRequest request = new PendingRequest(requestMessage, new CompletableFuture<>());
+        while (true) {
+            Host host = getHost(requestMessage);
+            boolean probe = false;
+            List<PendingRequest> rejected;
+            synchronized (host) {
+                // Evicted between the lookup and the lock, the host is not known anymore
+                if (host.removed)
+                    continue;
+
+                if (host.circuitState == CircuitState.OPEN && System.nanoTime() - host.openedNanos >= cooldownNanos)
+                    host.circuitState = CircuitState.HALF_OPEN;
+
+                if (host.circuitState == CircuitState.OPEN
+                    || (host.circuitState == CircuitState.HALF_OPEN && host.probeInFlight)) {
+                    host.rejectedRequests++;
+                    if (log.isLoggable(Level.FINE))
+                        log.fine("Circuit of " + host.name + " is " + host.circuitState + ", not sending: " + requestMessage);
+                    request.future.complete(null);
+                    return request.future;
+                }
+                if (host.circuitState == CircuitState.HALF_OPEN) {
+                    host.probeInFlight = true;
+                    probe = true;
+                }
+                if (!probe && host.inFlightRequests >= maxRequestsPerHost) {
+                    rejected = pollExpiredRequests(host);
+                    if (host.queue.size() >= maxQueuedRequestsPerHost) {
+                        host.rejectedRequests++;
+                        if (log.isLoggable(Level.FINE))
+                            log.fine("Too many requests queued for " + host.name + ", not sending: " + requestMessage);
+                        rejected.add(request);
+                    } else {
+                        if (log.isLoggable(Level.FINER))
+                            log.finer("Too many requests in flight for " + host.name + ", queuing: " + requestMessage);
+                        host.queue.add(request);
+                    }
+                } else {
+                    rejected = null;
+                    host.inFlightRequests++;
+                    host.sentRequests++;
+                }
+            }
+            if (rejected != null) {
+                reject(rejected);
+                return request.future;
+            }
+            dispatch(host, request, probe, sender);
+            return request.future;
+        }
+    }
+
+    /**
+     * @return The activity of each known remote host.
+     */
+    public List<HostMetrics> getHostMetrics() {
+        List<HostMetrics> metrics = new ArrayList<>(hosts.size());
+        for (Host host : hosts.values()) {
+            synchronized (host) {
+                metrics.add(host.getMetrics());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return The activity of the host of the given URI, or <code>null</code> if no request was sent to it.
+     */
+    public HostMetrics getHostMetrics(URI uri) {
+        Host host = hosts.get(getHostName(uri));
+        if (host == null)
+            return null;
+        synchronized (host) {
+            return host.getMetrics();
+        }
+    }
+
+    protected Host getHost(StreamRequestMessage requestMessage) {
+        String name = getHostName(requestMessage.getUri());
+        Host host = hosts.get(name);
+        if (host == null) {
+            if (hosts.size() >= maxIdleHosts)
+                removeIdleHosts();
+            host = hosts.computeIfAbsent(name, Host::new);
+        }
+        return host;
+    }
+
+    protected void removeIdleHosts() {
+        for (Host host : hosts.values()) {
+            synchronized (host) {
+                if (host.isIdle() && hosts.remove(host.name, host))
+                    host.removed = true;
+            }
+        }
+    }
+
+    protected String getHostName(URI uri) {
+        String host = uri.getHost() != null ? uri.getHost().toLowerCase(Locale.ROOT) : "";
+        int port = uri.getPort() != -1 ? uri.getPort() : 80;
+        return host + ":" + port;
+    }
+
+    /**
+     * Removes the cancelled and expired requests from the head of the queue, must be called
+     * holding the monitor of the host.
+     *
+     * @return The expired requests, to complete once the monitor is released.
+     */
+    protected List<PendingRequest> pollExpiredRequests(Host host) {
+        List<PendingRequest> expired = new ArrayList<>();
+        long now = System.nanoTime();
+        PendingRequest request;
+        while ((request = host.queue.peek()) != null
+            && (request.future.isDone() || now - request.queuedNanos >= maxQueueNanos)) {
+            host.queue.poll();
+            if (!request.future.isDone()) {
+                host.rejectedRequests++;
+                if (log.isLoggable(Level.FINE))
+                    log.fine("Request waited too long for " + host.name + ", not sending: " + request.requestMessage);
+                expired.add(request);
+            }
+        }
+        return expired;
+    }
+
+    protected void reject(List<PendingRequest> rejected) {
+        for (PendingRequest request : rejected) {
+            request.future.complete(null);
+        }
+    }
+
+    protected void dispatch(final Host host, PendingRequest request, boolean probe,
+                            final Function<StreamRequestMessage, CompletableFuture<StreamResponseMessage>> sender) {
+        // The next queued request is sent from this loop when the sender completes at once, so that
+        // a long queue does not nest a call per request
+        while (request != null) {
+            final PendingRequest current = request;
+            final boolean currentProbe = probe;
+            final long start = System.nanoTime();
+            CompletableFuture<StreamResponseMessage> response;
+            try {
+                response = sender.apply(current.requestMessage);
+            } catch (RuntimeException ex) {
+                if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "Sending stream request failed: " + current.requestMessage, ex);
+                response = CompletableFuture.completedFuture(null);
+            }
+            final CompletableFuture<StreamResponseMessage> sentResponse = response;
+            // Cancelling the returned future aborts the request
+            current.future.whenComplete((r, ex) -> {
+                if (current.future.isCancelled())
+                    sentResponse.cancel(true);
+            });
+            if (!sentResponse.isDone()) {
+                sentResponse.whenComplete((r, ex) -> {
+                    PendingRequest next = completed(host, current, currentProbe, sentResponse, start);
+                    if (next != null)
+                        dispatch(host, next, false, sender);
+                });
+                return;
+            }
+            request = completed(host, current, currentProbe, sentResponse, start);
+            probe = false;
+        }
+    }
+
+    /**
+     * Completes the given request with the response, once it is done.
+     *
+     * @return The next queued request to send, or <code>null</code>.
+     */
+    protected PendingRequest completed(Host host, PendingRequest request, boolean probe,
+                                       CompletableFuture<StreamResponseMessage> sentResponse, long start) {
+        StreamResponseMessage response;
+        try {
+            response = sentResponse.join();
+        } catch (CancellationException | CompletionException ex) {
+            response = null;
+        }
+        // A cancellation by the caller says nothing about the host
+        PendingRequest next = completed(host, response != null, request.future.isCancelled(), probe, System.nanoTime() - start);
+        request.future.complete(response);
+        return next;
+    }
+
+    /**
+     * @param succeeded <code>true</code> if the request completed with a response.
+     * @param cancelled <code>true</code> if the request was cancelled by its caller, it is then
+     *                  counted neither as a success nor as a failure.
+     * @return The next queued request to send, or <code>null</code>.
+     */
+    protected PendingRequest completed(Host host, boolean succeeded, boolean cancelled, boolean probe, long latencyNanos) {
+        List<PendingRequest> rejected;
+        PendingRequest next = null;
+        synchronized (host) {
+            host.inFlightRequests--;
+            if (probe)
+                host.probeInFlight = false;
+            if (cancelled) {
+                if (log.isLoggable(Level.FINER))
+                    log.finer("Request cancelled, not counted for " + host.name);
+            } else if (succeeded) {
+                host.totalLatencyMillis += TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+                host.succeededRequests++;
+                host.consecutiveFailures = 0;
+                if (host.circuitState != CircuitState.CLOSED && log.isLoggable(Level.INFO))
+                    log.info("Remote host responds again, closing circuit: " + host.name);
+                host.circuitState = CircuitState.CLOSED;
+            } else {
+                host.totalLatencyMillis += TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+                host.failedRequests++;
+                host.consecutiveFailures++;
+                if (host.circuitState == CircuitState.HALF_OPEN
+                    || (host.circuitState == CircuitState.CLOSED && host.consecutiveFailures >= failuresBeforeOpening)) {
+                    if (log.isLoggable(Level.INFO))
+                        log.info("Remote host failed " + host.consecutiveFailures + " consecutive requests, opening circuit: " + host.name);
+                    host.circuitState = CircuitState.OPEN;
+                    host.openedNanos = System.nanoTime();
+                }
+            }
+
+            if (host.circuitState == CircuitState.CLOSED) {
+                rejected = pollExpiredRequests(host);
+                next = host.queue.poll();
+                if (next != null) {
+                    host.inFlightRequests++;
+                    host.sentRequests++;
+                }
+            } else {
+                rejected = new ArrayList<>(host.queue);
+                host.rejectedRequests += rejected.size();
+                host.queue.clear();
+            }
+        }
+        reject(rejected);
+        return next;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A bounded pool of direct byte buffers, recycled between reads of network channels.
+ * <p>
+ * Buffers which are too small for a request, or which are released while the pool is
+ * full, are simply left to the garbage collector.
+ * </p>
+ * <p>
+ * Thread-safety is guaranteed through synchronization of methods of this pool.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class ByteBufferPool {
+
+    final protected int bufferCapacity;
+    final protected int maxPooledBuffers;
+    final protected Deque<ByteBuffer> buffers;
+
+    /**
+     * @param bufferCapacity The capacity in bytes of buffers allocated by this pool.
+     * @param maxPooledBuffers The maximum number of idle buffers kept for reuse.
+     */
+    public ByteBufferPool(int bufferCapacity, int maxPooledBuffers) {
+        if (bufferCapacity <= 0)
+            throw new IllegalArgumentException("Buffer capacity must be greater than zero");
+        if (maxPooledBuffers < 0)
+            throw new IllegalArgumentException("Maximum number of pooled buffers can't be negative");
+        this.bufferCapacity = bufferCapacity;
+        this.maxPooledBuffers = maxPooledBuffers;
+        this.buffers = new ArrayDeque<>(maxPooledBuffers);
+    }
+
+    public int getBufferCapacity() {
+        return bufferCapacity;
+    }
+
+    public int getMaxPooledBuffers() {
+        return maxPooledBuffers;
+    }
+
+    /**
+     * @param minCapacity The minimum capacity of the returned buffer.
+     * @return A cleared buffer, with its limit set to <code>minCapacity</code>.
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        ByteBuffer buffer = null;
+        if (minCapacity <= bufferCapacity) {
+            synchronized (this) {
+                buffer = buffers.pollFirst();
+            }
+        }
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(Math.max(minCapacity, bufferCapacity));
+        buffer.clear();
+        buffer.limit(minCapacity);
+        return buffer;
+    }
+
+    /**
+     * @param buffer A buffer previously obtained with {@link #acquire(int)}, it must no longer be used by the caller.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferCapacity)
+            return;
+        synchronized (this) {
+            if (buffers.size() < maxPooledBuffers)
+                buffers.offerFirst(buffer);
+        }
+    }
+
+    synchronized public int getPooledBufferCount() {
+        return buffers.size();
+    }
+}
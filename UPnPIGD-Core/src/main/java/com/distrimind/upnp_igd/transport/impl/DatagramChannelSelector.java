@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single <code>Selector</code> shared by all non-blocking datagram channels of the stack.
+ * <p>
+ * Instead of parking one blocking thread per bind address and per network interface, the
+ * {@link NIODatagramIOImpl} and {@link NIOMulticastReceiverImpl} services register their
+ * channel here. The first service started executes the selection loop on its thread, all
+ * other services return immediately from their <code>run()</code> method. The loop ends
+ * when the last channel has been unregistered, and is started again by the next
+ * registered service.
+ * </p>
+ * <p>
+ * Received datagrams are read into direct buffers of a {@link ByteBufferPool}; a
+ * {@link Handler} must not keep a reference to the buffer after it returns.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class DatagramChannelSelector implements Runnable {
+
+    private static final Logger log = Logger.getLogger(DatagramChannelSelector.class.getName());
+
+    /**
+     * Receives the datagrams read from a registered channel, on the selection thread.
+     */
+    public interface Handler {
+
+        /**
+         * @return The maximum number of bytes read for a single datagram.
+         */
+        int getMaxDatagramBytes();
+
+        /**
+         * @param data The datagram payload, between the buffer position and its limit.
+         * @param sourceAddress The address of the datagram sender.
+         */
+        void received(ByteBuffer data, InetSocketAddress sourceAddress);
+    }
+
+    static protected class Registration {
+        final protected DatagramChannel channel;
+        final protected Handler handler;
+
+        protected Registration(DatagramChannel channel, Handler handler) {
+            this.channel = channel;
+            this.handler = handler;
+        }
+    }
+
+    final protected ByteBufferPool bufferPool;
+    final protected Queue<Registration> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+    private Selector selector;
+    private int registeredChannels;
+    private boolean running;
+
+    /**
+     * Pools up to 16 buffers of 640 bytes (512 per UDA 1.0, 128 byte header).
+     */
+    public DatagramChannelSelector() {
+        this(new ByteBufferPool(640, 16));
+    }
+
+    public DatagramChannelSelector(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Switches the channel to non-blocking mode and adds it to the selection loop.
+     *
+     * @param channel The bound datagram channel.
+     * @param handler The callback for received datagrams.
+     * @throws IOException If the selector could not be opened or the channel could not be configured.
+     */
+    synchronized public void register(DatagramChannel channel, Handler handler) throws IOException {
+        channel.configureBlocking(false);
+        if (selector == null) {
+            selector = Selector.open();
+        }
+        registeredChannels++;
+        pendingRegistrations.add(new Registration(channel, handler));
+        selector.wakeup();
+    }
+
+    /**
+     * Removes the channel from the selection loop, the caller is responsible for closing it.
+     *
+     * @param channel A previously registered channel.
+     */
+    synchronized public void unregister(DatagramChannel channel) {
+        if (selector == null)
+            return;
+        SelectionKey key = channel.keyFor(selector);
+        if (key != null)
+            key.cancel();
+        registeredChannels--;
+        selector.wakeup();
+    }
+
+    synchronized public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Runs the selection loop until all channels have been unregistered.
+     * <p>
+     * Returns immediately if the loop is already executed by another thread.
+     * </p>
+     */
+    @Override
+    public void run() {
+        Selector s;
+        synchronized (this) {
+            if (running || selector == null)
+                return;
+            running = true;
+            s = selector;
+        }
+
+        if (log.isLoggable(Level.FINE))
+            log.fine("Entering shared selection loop, listening for UDP datagrams on all registered channels");
+
+        try {
+            while (isSelecting(s)) {
+                Registration registration;
+                while ((registration = pendingRegistrations.poll()) != null) {
+                    try {
+                        registration.channel.register(s, SelectionKey.OP_READ, registration.handler);
+                    } catch (ClosedChannelException ex) {
+                        log.fine("Channel closed before registration, ignoring it");
+                    }
+                }
+
+                s.select();
+
+                Iterator<SelectionKey> it = s.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid() && key.isReadable())
+                        read((DatagramChannel) key.channel(), (Handler) key.attachment());
+                }
+            }
+        } catch (ClosedSelectorException ex) {
+            log.fine("Selector closed");
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "Shared selection loop failed: " + ex, ex);
+            synchronized (this) {
+                running = false;
+                closeSelector();
+            }
+        }
+    }
+
+    synchronized protected boolean isSelecting(Selector s) {
+        if (registeredChannels > 0 && s == selector)
+            return true;
+        // Leave the loop and release the selector, the next registration opens a new one
+        running = false;
+        if (s == selector)
+            closeSelector();
+        log.fine("No more registered channels, leaving shared selection loop");
+        return false;
+    }
+
+    protected void closeSelector() {
+        try {
+            if (selector != null)
+                selector.close();
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Could not close selector: " + ex);
+        }
+        selector = null;
+        registeredChannels = 0;
+        pendingRegistrations.clear();
+    }
+
+    protected void read(DatagramChannel channel, Handler handler) {
+        ByteBuffer buffer = bufferPool.acquire(handler.getMaxDatagramBytes());
+        try {
+            SocketAddress sourceAddress;
+            // Drain the channel, a burst of datagrams only costs one selection
+            while ((sourceAddress = channel.receive(buffer)) != null) {
+                buffer.flip();
+                try {
+                    handler.received(buffer, (InetSocketAddress) sourceAddress);
+                } catch (RuntimeException ex) {
+                    if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "Handling received datagram failed: " + ex, ex);
+                }
+                buffer.clear();
+                buffer.limit(handler.getMaxDatagramBytes());
+            }
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Could not read from channel, ignoring it: " + ex);
+        } finally {
+            bufferPool.release(buffer);
+        }
+    }
+}
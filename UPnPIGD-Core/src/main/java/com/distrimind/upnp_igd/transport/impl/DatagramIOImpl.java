@@ -15,8 +15,6 @@
 
 package com.distrimind.upnp_igd.transport.impl;
 
-import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
-import com.distrimind.upnp_igd.transport.Common;
 import com.distrimind.upnp_igd.transport.Router;
 import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
 import com.distrimind.upnp_igd.transport.spi.DatagramIO;
@@ -131,10 +129,7 @@ public class DatagramIOImpl implements DatagramIO<DatagramIOConfigurationImpl> {
 				}
 
 
-				IncomingDatagramMessage<?> idm= Common.getValidIncomingDatagramMessage(datagramProcessor.read(localAddress.getAddress(), datagram), networkAddressFactory);
-                if (idm==null)
-                    continue;
-                router.received(idm);
+                router.received(datagramProcessor.read(localAddress.getAddress(), datagram));
 
             } catch (SocketException ex) {
                 log.fine("Socket closed");
@@ -66,6 +66,14 @@ public class DatagramProcessorImpl implements DatagramProcessor {
     @Override
 	public DatagramPacket write(OutgoingDatagramMessage<?> message) throws UnsupportedDataException {
 
+        if (message instanceof EncodedOutgoingDatagramMessage) {
+            byte[] data = ((EncodedOutgoingDatagramMessage<?>) message).getData();
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Writing encoded datagram packet with " + data.length + " bytes for: " + message);
+            }
+            return new DatagramPacket(data, data.length, message.getDestinationAddress(), message.getDestinationPort());
+        }
+
         StringBuilder statusLine = new StringBuilder();
 
         UpnpOperation operation = message.getOperation();
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import com.distrimind.upnp_igd.transport.spi.AbstractStreamClientConfiguration;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Settings for the {@link HttpClientStreamClientImpl}.
+ *
+ * @author Jason Mahdjoub
+ */
+public class HttpClientStreamClientConfigurationImpl extends AbstractStreamClientConfiguration {
+
+    private int maxConnectionsPerHost = 4;
+
+    public HttpClientStreamClientConfigurationImpl(ExecutorService requestExecutorService) {
+        super(requestExecutorService);
+    }
+
+    public HttpClientStreamClientConfigurationImpl(ExecutorService requestExecutorService, int timeoutSeconds) {
+        super(requestExecutorService, timeoutSeconds);
+    }
+
+    /**
+     * The HTTP client opens a new connection when all connections to a host are busy, bounding
+     * the concurrent requests per host bounds its connection pool.
+     * <p>
+     * The router limits the requests per host as well, see
+     * {@link com.distrimind.upnp_igd.UpnpServiceConfiguration#getMaxStreamRequestsPerHost()}. With the
+     * same value, requests only wait here for the connections of exchanges the router already gave up.
+     * </p>
+     *
+     * @return Defaults to 4 concurrent requests, and persistent connections, per host.
+     */
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+}
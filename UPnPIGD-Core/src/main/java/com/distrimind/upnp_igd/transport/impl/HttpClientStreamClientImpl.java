@@ -0,0 +1,394 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import com.distrimind.upnp_igd.http.IHeaders;
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.StreamingBody;
+import com.distrimind.upnp_igd.model.message.UpnpHeaders;
+import com.distrimind.upnp_igd.model.message.UpnpMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.transport.spi.StreamClient;
+import com.distrimind.upnp_igd.util.Exceptions;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation based on the JDK's <code>java.net.http.HttpClient</code>.
+ * <p>
+ * Connections are persistent and reused for the following requests to the same host, without
+ * changing the global <code>http.keepAlive</code> system property. A host gets at most
+ * {@link HttpClientStreamClientConfigurationImpl#getMaxConnectionsPerHost()} concurrent requests,
+ * hence connections. The non-standard methods of UPnP (<code>SUBSCRIBE</code>, <code>UNSUBSCRIBE</code>,
+ * <code>NOTIFY</code>) are supported without any stream handler workaround.
+ * </p>
+ * <p>
+ * The headers the HTTP client manages itself (<code>Host</code>, <code>Content-Length</code>,
+ * <code>Connection</code>...) are not copied from the request message.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class HttpClientStreamClientImpl implements StreamClient<HttpClientStreamClientConfigurationImpl> {
+
+    final private static Logger log = Logger.getLogger(StreamClient.class.getName());
+
+    static final private Set<String> restrictedHeaderNames = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    static {
+        restrictedHeaderNames.addAll(Arrays.asList(
+                "connection", "content-length", "date", "expect", "from", "host", "upgrade", "via", "warning"
+        ));
+    }
+
+    final protected HttpClientStreamClientConfigurationImpl configuration;
+    final protected HttpClient client;
+    final protected Map<String, HostConnections> hostConnections = new ConcurrentHashMap<>();
+
+    public HttpClientStreamClientImpl(HttpClientStreamClientConfigurationImpl configuration) {
+        this.configuration = configuration;
+        this.client = createHttpClient();
+    }
+
+    protected HttpClient createHttpClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1) // UPnP devices don't upgrade to HTTP/2
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofSeconds(getConfiguration().getTimeoutSeconds()));
+        if (getConfiguration().getRequestExecutorService() != null)
+            builder.executor(getConfiguration().getRequestExecutorService());
+        return builder.build();
+    }
+
+    @Override
+    public HttpClientStreamClientConfigurationImpl getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Sends the request with <code>HttpClient#sendAsync</code>, no thread waits for the response.
+     * <p>
+     * Requests beyond the connection limit of their host are queued until a connection is released.
+     * The returned future is completed with <code>null</code> once the timeout of the configuration
+     * expired, a request still queued is then dropped.
+     * </p>
+     * <p>
+     * A request in flight keeps its connection until the exchange of the HTTP client ends, at the
+     * latest with the same timeout set on the request. Cancelling the future of
+     * <code>HttpClient#sendAsync</code> completes it without aborting the exchange, so it is never
+     * cancelled here: the connection would be released while still in use.
+     * </p>
+     */
+    @Override
+    public CompletableFuture<StreamResponseMessage> sendRequestAsync(StreamRequestMessage requestMessage) {
+
+        final UpnpRequest requestOperation = requestMessage.getOperation();
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Preparing HTTP request message with method '" + requestOperation.getHttpMethodName() + "': " + requestMessage);
+        }
+
+        final HttpRequest request;
+        try {
+            request = createRequest(requestMessage);
+        } catch (RuntimeException ex) {
+            if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "HTTP request failed: " + requestMessage, Exceptions.unwrap(ex));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final long start = System.currentTimeMillis();
+        final CompletableFuture<StreamResponseMessage> future = new CompletableFuture<>();
+        final AtomicReference<CompletableFuture<HttpResponse<byte[]>>> exchange = new AtomicReference<>();
+
+        future.completeOnTimeout(null, getConfiguration().getTimeoutSeconds(), TimeUnit.SECONDS);
+        future.whenComplete((response, ex) -> {
+            CompletableFuture<HttpResponse<byte[]>> e = exchange.get();
+            if (e != null && !e.isDone() && !future.isCancelled() && log.isLoggable(Level.INFO)) log.info(
+                    "Timeout of " + getConfiguration().getTimeoutSeconds()
+                            + " seconds while waiting for HTTP request to complete, aborting: " + requestMessage
+            );
+        });
+
+        String hostKey = getHostKey(request.uri());
+        while (true) {
+            final HostConnections connections = hostConnections.computeIfAbsent(
+                    hostKey, k -> new HostConnections(k, hostConnections, getConfiguration().getMaxConnectionsPerHost())
+            );
+            boolean executed = connections.execute(() -> {
+                if (future.isDone()) {
+                    // Expired or cancelled while waiting for a connection
+                    return false;
+                }
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Sending HTTP request: " + requestMessage);
+                }
+                CompletableFuture<HttpResponse<byte[]>> e;
+                try {
+                    e = client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+                } catch (RuntimeException ex) {
+                    future.complete(handleResponse(requestMessage, null, ex, start));
+                    return false;
+                }
+                exchange.set(e);
+                e.whenComplete((httpResponse, ex) -> {
+                    // The exchange really ended, its connection is free
+                    connections.release();
+                    future.complete(handleResponse(requestMessage, httpResponse, ex, start));
+                });
+                return true;
+            });
+            // Otherwise the connections of the host became idle and were removed meanwhile
+            if (executed)
+                break;
+        }
+        return future;
+    }
+
+    protected StreamResponseMessage handleResponse(StreamRequestMessage requestMessage, HttpResponse<byte[]> httpResponse,
+                                                   Throwable ex, long start) {
+        if (ex != null) {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof HttpTimeoutException) {
+                if (log.isLoggable(Level.INFO)) log.info(
+                        "Timeout of " + getConfiguration().getTimeoutSeconds()
+                                + " seconds while waiting for HTTP request to complete, aborting: " + requestMessage
+                );
+            } else if (!(cause instanceof CancellationException)) {
+                if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "HTTP request failed: " + requestMessage, Exceptions.unwrap(cause));
+            }
+            return null;
+        }
+
+        long elapsed = System.currentTimeMillis() - start;
+        if (getConfiguration().getLogWarningSeconds() > 0
+                && elapsed > getConfiguration().getLogWarningSeconds() * 1000L) {
+            if (log.isLoggable(Level.WARNING)) log.warning("HTTP request took a long time (" + elapsed + "ms): " + requestMessage);
+        }
+        try {
+            return createResponse(httpResponse);
+        } catch (Exception e) {
+            if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "HTTP response processing failed: " + requestMessage, Exceptions.unwrap(e));
+            return null;
+        }
+    }
+
+    @Override
+    public void stop() {
+        // The JDK client has no close operation, idle connections expire with its keep-alive timeout
+        hostConnections.clear();
+    }
+
+    protected String getHostKey(URI uri) {
+        return uri.getHost() + ":" + uri.getPort();
+    }
+
+    protected HttpRequest createRequest(StreamRequestMessage requestMessage) {
+        UpnpRequest requestOperation = requestMessage.getOperation();
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(requestOperation.getURI())
+                .timeout(Duration.ofSeconds(getConfiguration().getTimeoutSeconds()))
+                .method(requestOperation.getHttpMethodName(), createBodyPublisher(requestMessage));
+
+        // Add the default user agent if not already set on the message
+        if (!requestMessage.getHeaders().containsKey(UpnpHeader.Type.USER_AGENT)) {
+            builder.setHeader(
+                    UpnpHeader.Type.USER_AGENT.getHttpName(),
+                    getConfiguration().getUserAgentValue(requestMessage.getUdaMajorVersion(), requestMessage.getUdaMinorVersion())
+            );
+        }
+
+        applyHeaders(builder, requestMessage.getHeaders());
+        return builder.build();
+    }
+
+    protected void applyHeaders(HttpRequest.Builder builder, IHeaders headers) {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Writing headers on HttpRequest: " + headers.size());
+        }
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            String headerName = entry.getKey();
+            if (restrictedHeaderNames.contains(headerName)) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Skipping header managed by the HTTP client: " + headerName);
+                }
+                continue;
+            }
+            for (String v : entry.getValue()) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Setting header '" + headerName + "': " + v);
+                }
+                builder.header(headerName, v);
+            }
+        }
+    }
+
+    protected HttpRequest.BodyPublisher createBodyPublisher(StreamRequestMessage requestMessage) {
+        if (!requestMessage.hasBody())
+            return HttpRequest.BodyPublishers.noBody();
+
+        if (requestMessage.getBodyType().equals(UpnpMessage.BodyType.STRING)) {
+            Charset charset = requestMessage.getContentTypeCharset() != null
+                    ? Charset.forName(requestMessage.getContentTypeCharset())
+                    : StandardCharsets.UTF_8;
+            return HttpRequest.BodyPublishers.ofString(requestMessage.getBodyString(), charset);
+        }
+        if (requestMessage.getBodyType().equals(UpnpMessage.BodyType.STREAM)) {
+            // Sent with chunked transfer encoding if the length is unknown
+            StreamingBody body = requestMessage.getStreamingBody();
+            HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(() -> {
+                try {
+                    return body.openStream();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+            long contentLength = body.getContentLength();
+            if (contentLength == 0)
+                return HttpRequest.BodyPublishers.noBody();
+            return contentLength > 0 ? HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength) : publisher;
+        }
+        return HttpRequest.BodyPublishers.ofByteArray(requestMessage.getBodyBytes());
+    }
+
+    protected StreamResponseMessage createResponse(HttpResponse<byte[]> response) throws UnsupportedEncodingException {
+
+        // Status, the JDK client doesn't expose the reason phrase
+        UpnpResponse.Status status = UpnpResponse.Status.getByStatusCode(response.statusCode());
+        UpnpResponse responseOperation = new UpnpResponse(response.statusCode(), status == null ? null : status.getStatusMsg());
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Received response: " + responseOperation);
+        }
+
+        // Message
+        StreamResponseMessage responseMessage = new StreamResponseMessage(responseOperation);
+
+        // Headers
+        responseMessage.setHeaders(new UpnpHeaders(response.headers().map()));
+
+        // Body
+        byte[] bodyBytes = response.body();
+        if (bodyBytes != null && bodyBytes.length > 0 && responseMessage.isContentTypeMissingOrText()) {
+
+            log.fine("Response contains textual entity body, converting then setting string on message");
+            responseMessage.setBodyCharacters(bodyBytes);
+
+        } else if (bodyBytes != null && bodyBytes.length > 0) {
+
+            log.fine("Response contains binary entity body, setting bytes on message");
+            responseMessage.setBody(UpnpMessage.BodyType.BYTES, bodyBytes);
+
+        } else {
+            log.fine("Response did not contain entity body");
+        }
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Response message complete: " + responseMessage);
+        }
+        return responseMessage;
+    }
+
+    /**
+     * The requests in flight to a host, and the requests waiting for one of its connections. Once
+     * the host has no request anymore, it is removed from the map of the client.
+     */
+    protected static class HostConnections {
+
+        protected final String key;
+        protected final Map<String, HostConnections> owner;
+        protected final int maxConnections;
+        protected final Deque<BooleanSupplier> waiting = new ArrayDeque<>();
+        protected int active;
+        protected boolean removed;
+
+        public HostConnections(String key, Map<String, HostConnections> owner, int maxConnections) {
+            this.key = key;
+            this.owner = owner;
+            this.maxConnections = Math.max(1, maxConnections);
+        }
+
+        /**
+         * Starts the request now if a connection is available, otherwise once one is released. The
+         * request returns <code>false</code> if it didn't use the connection, otherwise it has to
+         * call {@link #release()} when the connection is no longer used.
+         *
+         * @return <code>false</code> if these connections were removed, the request is then not
+         *         executed and has to be given to the connections now mapped to the host.
+         */
+        public boolean execute(BooleanSupplier request) {
+            synchronized (this) {
+                if (removed)
+                    return false;
+                if (active >= maxConnections) {
+                    waiting.addLast(request);
+                    return true;
+                }
+                active++;
+            }
+            if (!request.getAsBoolean())
+                release();
+            return true;
+        }
+
+        public void release() {
+            while (true) {
+                BooleanSupplier next;
+                synchronized (this) {
+                    next = waiting.pollFirst();
+                    if (next == null) {
+                        active--;
+                        if (active == 0) {
+                            removed = true;
+                            owner.remove(key, this);
+                        }
+                        return;
+                    }
+                }
+                // The connection passes to the next waiting request
+                if (next.getAsBoolean())
+                    return;
+            }
+        }
+    }
+
+}
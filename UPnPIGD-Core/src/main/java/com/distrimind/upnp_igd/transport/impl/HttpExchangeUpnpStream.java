@@ -19,13 +19,13 @@ import com.sun.net.httpserver.HttpExchange;
 import com.distrimind.upnp_igd.model.message.Connection;
 import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
 import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.StreamingBody;
 import com.distrimind.upnp_igd.model.message.UpnpHeaders;
 import com.distrimind.upnp_igd.model.message.UpnpMessage;
 import com.distrimind.upnp_igd.model.message.UpnpRequest;
 import com.distrimind.upnp_igd.protocol.ProtocolFactory;
 import com.distrimind.upnp_igd.transport.spi.UpnpStream;
 import com.distrimind.upnp_igd.util.Exceptions;
-import com.distrimind.upnp_igd.util.io.IO;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -98,7 +98,7 @@ public abstract class HttpExchangeUpnpStream extends UpnpStream {
             // Body
             byte[] bodyBytes;
 			try (InputStream is = getHttpExchange().getRequestBody()) {
-				bodyBytes = IO.readBytes(is);
+				bodyBytes = StreamingBody.of(is, getRequestContentLength()).readBytes();
 			}
 
 			if (log.isLoggable(Level.FINE)) {
@@ -133,19 +133,22 @@ public abstract class HttpExchangeUpnpStream extends UpnpStream {
                         responseMessage.getHeaders()
                 );
 
-                // Body
-                byte[] responseBodyBytes = responseMessage.hasBody() ? responseMessage.getBodyBytes() : null;
-                int contentLength = responseBodyBytes != null ? responseBodyBytes.length : -1;
+                // Body, the JDK server uses chunked transfer encoding if the length is zero
+                StreamingBody responseBody = responseMessage.getStreamingBody();
+                long contentLength = responseBody != null ? responseBody.getContentLength() : -1;
 
 				if (log.isLoggable(Level.FINE)) {
 					log.fine("Sending HTTP response message: " + responseMessage + " with content length: " + contentLength);
 				}
-				getHttpExchange().sendResponseHeaders(responseMessage.getOperation().getStatusCode(), contentLength);
+				getHttpExchange().sendResponseHeaders(
+                        responseMessage.getOperation().getStatusCode(),
+                        responseBody == null || contentLength == 0 ? -1 : Math.max(contentLength, 0)
+                );
 
-                if (contentLength > 0) {
+                if (responseBody != null && contentLength != 0) {
                     log.fine("Response message has body, writing bytes to stream...");
 					try (OutputStream os = getHttpExchange().getResponseBody()) {
-						IO.writeBytes(os, responseBodyBytes);
+						responseBody.writeTo(os);
 						os.flush();
 					}
                 }
@@ -185,6 +188,20 @@ public abstract class HttpExchangeUpnpStream extends UpnpStream {
         }
     }
 
+    /**
+     * @return The announced length of the request body, or <code>-1</code>.
+     */
+    protected long getRequestContentLength() {
+        String contentLength = getHttpExchange().getRequestHeaders().getFirst("Content-Length");
+        if (contentLength == null || getHttpExchange().getRequestHeaders().containsKey("Transfer-Encoding"))
+            return -1;
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
     abstract protected Connection createConnection();
 
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import com.distrimind.upnp_igd.model.UnsupportedDataException;
+import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.LazyUpnpHeaders;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads datagrams by tokenizing their bytes in place.
+ * <p>
+ * The start line is parsed without creating any intermediate string, and headers are
+ * provided by a {@link LazyUpnpHeaders} instance: only the headers actually read by the
+ * protocols are converted into strings and parsed. Most discovery messages are dropped
+ * after checking a few headers, so this avoids most allocations of the
+ * {@link DatagramProcessorImpl} on the discovery path. Writing datagrams is inherited.
+ * </p>
+ * <p>
+ * Enable this processor by overriding
+ * {@link com.distrimind.upnp_igd.DefaultUpnpServiceConfiguration#createDatagramProcessor()}.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class LazyDatagramProcessorImpl extends DatagramProcessorImpl {
+
+    private static final Logger log = Logger.getLogger(DatagramProcessor.class.getName());
+
+    static final private byte[] HTTP_1 = "HTTP/1.".getBytes(StandardCharsets.US_ASCII);
+    static final private byte[] HTTP_1_1 = "HTTP/1.1".getBytes(StandardCharsets.US_ASCII);
+
+    @Override
+    public IncomingDatagramMessage<?> read(InetAddress receivedOnAddress, DatagramPacket datagram) throws UnsupportedDataException {
+        return read(
+                receivedOnAddress,
+                datagram.getAddress(),
+                datagram.getPort(),
+                datagram.getData(),
+                datagram.getOffset(),
+                datagram.getOffset() + datagram.getLength()
+        );
+    }
+
+    /**
+     * Copies the datagram once, the buffer is reused by the caller and the headers are read lazily.
+     */
+    @Override
+    public IncomingDatagramMessage<?> read(InetAddress receivedOnAddress, InetSocketAddress sourceAddress, ByteBuffer data) throws UnsupportedDataException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return read(receivedOnAddress, sourceAddress.getAddress(), sourceAddress.getPort(), bytes, 0, bytes.length);
+    }
+
+    protected IncomingDatagramMessage<?> read(InetAddress receivedOnAddress,
+                                              InetAddress sourceAddress,
+                                              int sourcePort,
+                                              byte[] data,
+                                              int offset,
+                                              int end) throws UnsupportedDataException {
+        try {
+            if (log.isLoggable(Level.FINER)) {
+                log.finer("===================================== DATAGRAM BEGIN ============================================");
+                log.finer(new String(data, offset, end - offset, StandardCharsets.UTF_8));
+                log.finer("-===================================== DATAGRAM END =============================================");
+            }
+
+            // Start line tokens: [start, end) of the three first words
+            int lineEnd = offset;
+            while (lineEnd < end && data[lineEnd] != '\r' && data[lineEnd] != '\n')
+                lineEnd++;
+            int firstEnd = nextSpace(data, offset, lineEnd);
+            int secondStart = Math.min(firstEnd + 1, lineEnd);
+            int secondEnd = nextSpace(data, secondStart, lineEnd);
+            int thirdStart = Math.min(secondEnd + 1, lineEnd);
+            int thirdEnd = nextSpace(data, thirdStart, lineEnd);
+
+            int headersStart = lineEnd;
+            if (headersStart < end && data[headersStart] == '\r')
+                headersStart++;
+            if (headersStart < end && data[headersStart] == '\n')
+                headersStart++;
+
+            IncomingDatagramMessage<?> message;
+            if (startsWith(data, offset, firstEnd, HTTP_1)) {
+                UpnpResponse upnpResponse = new UpnpResponse(
+                        parseStatusCode(data, secondStart, secondEnd),
+                        readStatusMessage(data, secondStart, secondEnd, thirdStart, thirdEnd)
+                );
+                upnpResponse.setHttpMinorVersion(isHttp11(data, offset, firstEnd) ? 1 : 0);
+                message = new IncomingDatagramMessage<>(upnpResponse, sourceAddress, sourcePort, receivedOnAddress);
+            } else {
+                UpnpRequest upnpRequest = new UpnpRequest(readMethod(data, offset, firstEnd));
+                upnpRequest.setHttpMinorVersion(isHttp11(data, thirdStart, thirdEnd) ? 1 : 0);
+                message = new IncomingDatagramMessage<>(upnpRequest, sourceAddress, sourcePort, receivedOnAddress);
+            }
+            message.setHeaders(new LazyUpnpHeaders(data, headersStart, end));
+            return message;
+
+        } catch (Exception ex) {
+            throw new UnsupportedDataException(
+                    "Could not parse headers: " + ex, ex, Arrays.copyOfRange(data, offset, end)
+            );
+        }
+    }
+
+    static protected int nextSpace(byte[] data, int offset, int end) {
+        while (offset < end && data[offset] != ' ')
+            offset++;
+        return offset;
+    }
+
+    static protected boolean startsWith(byte[] data, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    static protected boolean isHttp11(byte[] data, int offset, int end) {
+        if (end - offset != HTTP_1_1.length)
+            return false;
+        for (int i = 0; i < HTTP_1_1.length; i++) {
+            if (Character.toUpperCase((char) data[offset + i]) != HTTP_1_1[i])
+                return false;
+        }
+        return true;
+    }
+
+    static protected int parseStatusCode(byte[] data, int offset, int end) {
+        if (offset == end)
+            throw new IllegalArgumentException("Missing status code");
+        int statusCode = 0;
+        for (int i = offset; i < end; i++) {
+            int digit = data[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Invalid status code: " + new String(data, offset, end - offset, StandardCharsets.ISO_8859_1));
+            statusCode = statusCode * 10 + digit;
+        }
+        return statusCode;
+    }
+
+    static protected String readStatusMessage(byte[] data, int codeStart, int codeEnd, int offset, int end) {
+        UpnpResponse.Status status = UpnpResponse.Status.getByStatusCode(parseStatusCode(data, codeStart, codeEnd));
+        if (status != null && equalsAscii(data, offset, end, status.getStatusMsg()))
+            return status.getStatusMsg();
+        return new String(data, offset, end - offset, StandardCharsets.ISO_8859_1);
+    }
+
+    static protected UpnpRequest.Method readMethod(byte[] data, int offset, int end) {
+        for (UpnpRequest.Method method : UpnpRequest.Method.values()) {
+            if (equalsAsciiIgnoreCase(data, offset, end, method.getHttpName()))
+                return method;
+        }
+        return UpnpRequest.Method.UNKNOWN;
+    }
+
+    static protected boolean equalsAscii(byte[] data, int offset, int end, String s) {
+        if (end - offset != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (data[offset + i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    static protected boolean equalsAsciiIgnoreCase(byte[] data, int offset, int end, String s) {
+        if (end - offset != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.toUpperCase((char) data[offset + i]) != Character.toUpperCase(s.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+}
@@ -15,8 +15,6 @@
 
 package com.distrimind.upnp_igd.transport.impl;
 
-import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
-import com.distrimind.upnp_igd.transport.Common;
 import com.distrimind.upnp_igd.transport.Router;
 import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
 import com.distrimind.upnp_igd.transport.spi.InitializationException;
@@ -141,10 +139,7 @@ public class MulticastReceiverImpl implements MulticastReceiver<MulticastReceive
 					);
 				}
 
-				IncomingDatagramMessage<?> idm=Common.getValidIncomingDatagramMessage(datagramProcessor.read(receivedOnLocalAddress, datagram),networkAddressFactory);
-                if (idm==null)
-                    continue;
-                router.received(idm);
+                router.received(datagramProcessor.read(receivedOnLocalAddress, datagram));
 
             } catch (SocketException ex) {
                 log.fine("Socket closed");
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import com.distrimind.upnp_igd.model.UnsupportedDataException;
+import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
+import com.distrimind.upnp_igd.transport.Router;
+import com.distrimind.upnp_igd.transport.spi.DatagramIO;
+import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
+import com.distrimind.upnp_igd.transport.spi.InitializationException;
+import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation based on a non-blocking <code>DatagramChannel</code>, served by a
+ * {@link DatagramChannelSelector} shared with all other NIO datagram services.
+ * <p>
+ * Enable this transport by overriding
+ * {@link com.distrimind.upnp_igd.UpnpServiceConfiguration#createDatagramIO(NetworkAddressFactory)}
+ * and returning instances which share the same selector, see {@link NIOMulticastReceiverImpl}.
+ * </p>
+ * <p>
+ * Thread-safety is guaranteed through synchronization of the life cycle methods of this
+ * service and by the thread-safe underlying channel.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class NIODatagramIOImpl implements DatagramIO<DatagramIOConfigurationImpl>, DatagramChannelSelector.Handler {
+
+    private static final Logger log = Logger.getLogger(DatagramIO.class.getName());
+
+    final protected DatagramIOConfigurationImpl configuration;
+    final protected DatagramChannelSelector channelSelector;
+
+    protected Router router;
+    protected DatagramProcessor datagramProcessor;
+    protected NetworkAddressFactory networkAddressFactory;
+    protected InetSocketAddress localAddress;
+    protected DatagramChannel channel; // For sending unicast & multicast, and receiving unicast
+
+    public NIODatagramIOImpl(DatagramIOConfigurationImpl configuration, DatagramChannelSelector channelSelector) {
+        this.configuration = configuration;
+        this.channelSelector = channelSelector;
+    }
+
+    @Override
+    public DatagramIOConfigurationImpl getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public int getMaxDatagramBytes() {
+        return getConfiguration().getMaxDatagramBytes();
+    }
+
+    @Override
+    synchronized public void init(NetworkAddressFactory networkAddressFactory, InetAddress bindAddress, Router router, DatagramProcessor datagramProcessor) throws InitializationException {
+
+        this.router = router;
+        this.networkAddressFactory = networkAddressFactory;
+        this.datagramProcessor = datagramProcessor;
+
+        try {
+            // Ephemeral port, see DatagramIOImpl
+            if (log.isLoggable(Level.INFO)) log.info("Creating bound channel (for datagram input/output) on: " + bindAddress);
+            localAddress = new InetSocketAddress(bindAddress, 0);
+            channel = DatagramChannel.open(
+                bindAddress instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET
+            );
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 262144); // Keep a backlog of incoming datagrams if we are not fast enough
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, configuration.getTimeToLive());
+            NetworkInterface networkInterface = NetworkInterface.getByInetAddress(bindAddress);
+            if (networkInterface != null) {
+                // Multicast from this address has to leave through its own interface
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            }
+            channel.bind(localAddress);
+            channelSelector.register(channel, this);
+        } catch (Exception ex) {
+            closeChannel();
+            throw new InitializationException("Could not initialize " + getClass().getSimpleName() + ": " + ex);
+        }
+    }
+
+    @Override
+    synchronized public void stop() {
+        if (channel != null && channel.isOpen()) {
+            channelSelector.unregister(channel);
+            closeChannel();
+        }
+    }
+
+    /**
+     * Joins the shared selection loop, returns immediately if it is already running.
+     */
+    @Override
+    public void run() {
+        channelSelector.run();
+    }
+
+    @Override
+    public void received(ByteBuffer data, InetSocketAddress sourceAddress) {
+        InetAddress receivedOnLocalAddress =
+                networkAddressFactory.getLocalAddress(
+                        null,
+                        sourceAddress.getAddress() instanceof Inet6Address,
+                        sourceAddress.getAddress()
+                );
+        if (receivedOnLocalAddress == null)
+            return;
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(
+                    "UDP datagram received from: "
+                            + sourceAddress.getAddress().getHostAddress()
+                            + ":" + sourceAddress.getPort()
+                            + " on: " + localAddress
+            );
+        }
+        try {
+            router.received(datagramProcessor.read(localAddress.getAddress(), sourceAddress, data));
+        } catch (UnsupportedDataException ex) {
+            if (log.isLoggable(Level.INFO)) log.info("Could not read datagram: " + ex.getMessage());
+        }
+    }
+
+    @Override
+    public void send(OutgoingDatagramMessage<?> message) {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Sending message from address: " + localAddress);
+        }
+        DatagramPacket packet = datagramProcessor.write(message);
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Sending UDP datagram packet to: " + message.getDestinationAddress() + ":" + message.getDestinationPort());
+        }
+
+        send(packet);
+    }
+
+    @Override
+    public void send(DatagramPacket datagram) {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Sending message from address: " + localAddress);
+        }
+
+        try {
+            int sent = channel.send(
+                    ByteBuffer.wrap(datagram.getData(), datagram.getOffset(), datagram.getLength()),
+                    datagram.getSocketAddress()
+            );
+            if (sent == 0 && log.isLoggable(Level.FINE)) {
+                log.fine("Send buffer full, dropped datagram to: " + datagram.getAddress());
+            }
+        } catch (ClosedChannelException ex) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Channel closed, aborting datagram send to: " + datagram.getAddress());
+            }
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            if (log.isLoggable(Level.SEVERE)) log.log(Level.SEVERE, "Exception sending datagram to: " + datagram.getAddress() + ": " + ex, ex);
+        }
+    }
+
+    protected void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            log.fine("Closing unicast channel");
+            channel.close();
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Could not close channel: " + ex);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import com.distrimind.upnp_igd.model.UnsupportedDataException;
+import com.distrimind.upnp_igd.transport.Router;
+import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
+import com.distrimind.upnp_igd.transport.spi.InitializationException;
+import com.distrimind.upnp_igd.transport.spi.MulticastReceiver;
+import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Implementation based on a non-blocking <code>DatagramChannel</code>, served by a
+ * {@link DatagramChannelSelector} shared with all other NIO datagram services.
+ * <p>
+ * A configuration enables this transport by returning instances sharing the same selector:
+ * </p>
+ * <pre>{@code
+ * final DatagramChannelSelector selector = new DatagramChannelSelector();
+ *
+ * public MulticastReceiver<?> createMulticastReceiver(NetworkAddressFactory naf) {
+ *     return new NIOMulticastReceiverImpl(
+ *         new MulticastReceiverConfigurationImpl(naf.getMulticastGroup(), naf.getMulticastPort()),
+ *         selector
+ *     );
+ * }
+ *
+ * public DatagramIO<?> createDatagramIO(NetworkAddressFactory naf) {
+ *     return new NIODatagramIOImpl(new DatagramIOConfigurationImpl(), selector);
+ * }
+ * }</pre>
+ * <p>
+ * Thread-safety is guaranteed through synchronization of the life cycle methods of this
+ * service and by the thread-safe underlying channel.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class NIOMulticastReceiverImpl implements MulticastReceiver<MulticastReceiverConfigurationImpl>, DatagramChannelSelector.Handler {
+
+    private static final Logger log = Logger.getLogger(MulticastReceiver.class.getName());
+
+    final protected MulticastReceiverConfigurationImpl configuration;
+    final protected DatagramChannelSelector channelSelector;
+
+    protected Router router;
+    protected NetworkAddressFactory networkAddressFactory;
+    protected DatagramProcessor datagramProcessor;
+
+    protected NetworkInterface multicastInterface;
+    protected InetSocketAddress multicastAddress;
+    protected DatagramChannel channel;
+    protected MembershipKey membershipKey;
+
+    public NIOMulticastReceiverImpl(MulticastReceiverConfigurationImpl configuration, DatagramChannelSelector channelSelector) {
+        this.configuration = configuration;
+        this.channelSelector = channelSelector;
+    }
+
+    @Override
+    public MulticastReceiverConfigurationImpl getConfiguration() {
+        return configuration;
+    }
+
+    @Override
+    public int getMaxDatagramBytes() {
+        return getConfiguration().getMaxDatagramBytes();
+    }
+
+    @Override
+    synchronized public void init(NetworkInterface networkInterface,
+                                  Router router,
+                                  NetworkAddressFactory networkAddressFactory,
+                                  DatagramProcessor datagramProcessor) throws InitializationException {
+
+        this.router = router;
+        this.networkAddressFactory = networkAddressFactory;
+        this.datagramProcessor = datagramProcessor;
+        this.multicastInterface = networkInterface;
+
+        try {
+
+            if (log.isLoggable(Level.INFO)) log.info("Creating wildcard channel (for receiving multicast datagrams) on port: " + configuration.getPort());
+            multicastAddress = new InetSocketAddress(configuration.getGroup(), configuration.getPort());
+
+            channel = DatagramChannel.open(
+                configuration.getGroup() instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET
+            );
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, 32768); // Keep a backlog of incoming datagrams if we are not fast enough
+            channel.bind(new InetSocketAddress(configuration.getPort()));
+
+            if (log.isLoggable(Level.INFO)) log.info("Joining multicast group: " + multicastAddress + " on network interface: " + multicastInterface.getDisplayName());
+            membershipKey = channel.join(configuration.getGroup(), multicastInterface);
+
+            channelSelector.register(channel, this);
+        } catch (Exception ex) {
+            closeChannel();
+            throw new InitializationException("Could not initialize " + getClass().getSimpleName() + ": " + ex);
+        }
+    }
+
+    @Override
+    synchronized public void stop() {
+        if (channel != null && channel.isOpen()) {
+            channelSelector.unregister(channel);
+            if (membershipKey != null) {
+                log.fine("Leaving multicast group");
+                membershipKey.drop();
+            }
+            closeChannel();
+        }
+    }
+
+    /**
+     * Joins the shared selection loop, returns immediately if it is already running.
+     */
+    @Override
+    public void run() {
+        channelSelector.run();
+    }
+
+    @Override
+    public void received(ByteBuffer data, InetSocketAddress sourceAddress) {
+        InetAddress receivedOnLocalAddress =
+                networkAddressFactory.getLocalAddress(
+                        multicastInterface,
+                        multicastAddress.getAddress() instanceof Inet6Address,
+                        sourceAddress.getAddress()
+                );
+        if (receivedOnLocalAddress == null)
+            return;
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(
+                    "UDP datagram received from: " + sourceAddress.getAddress().getHostAddress()
+                            + ":" + sourceAddress.getPort()
+                            + " on local interface: " + multicastInterface.getDisplayName()
+                            + " and address: " + receivedOnLocalAddress.getHostAddress()
+            );
+        }
+        try {
+            router.received(datagramProcessor.read(receivedOnLocalAddress, sourceAddress, data));
+        } catch (UnsupportedDataException ex) {
+            if (log.isLoggable(Level.INFO)) log.info("Could not read datagram: " + ex.getMessage());
+        }
+    }
+
+    protected void closeChannel() {
+        if (channel == null)
+            return;
+        try {
+            log.fine("Closing multicast channel");
+            channel.close();
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Could not close channel: " + ex);
+        }
+    }
+}
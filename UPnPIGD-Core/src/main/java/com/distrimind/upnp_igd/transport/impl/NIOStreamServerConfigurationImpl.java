@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+/**
+ * Settings for the {@link NIOStreamServerImpl}.
+ *
+ * @author Jason Mahdjoub
+ */
+public class NIOStreamServerConfigurationImpl extends StreamServerConfigurationImpl {
+
+    private int maxConcurrentRequests = 16;
+    private int maxConnections = 256;
+    private int keepAliveTimeoutMillis = 30000;
+    private int maxRequestBytes = 1024 * 1024;
+
+    /**
+     * Defaults to port '0', ephemeral.
+     */
+    public NIOStreamServerConfigurationImpl() {
+    }
+
+    public NIOStreamServerConfigurationImpl(int listenPort) {
+        super(listenPort);
+    }
+
+    /**
+     * Requests received beyond this limit wait on their connection until a running request
+     * has been answered.
+     *
+     * @return Defaults to 16 requests processed at the same time, each of them holds a thread of the
+     *         synchronous protocol executor.
+     */
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+    }
+
+    /**
+     * Connections beyond this limit are not accepted and wait in the backlog of the listening socket.
+     *
+     * @return Defaults to 256 open connections.
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * A connection is closed if it stays idle between two requests, or if a response can't be
+     * written, during this delay.
+     *
+     * @return Defaults to 30 seconds.
+     */
+    public int getKeepAliveTimeoutMillis() {
+        return keepAliveTimeoutMillis;
+    }
+
+    public void setKeepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+        this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+    }
+
+    /**
+     * @return Defaults to 1 MiB, the maximum size of a request, headers and body included.
+     */
+    public int getMaxRequestBytes() {
+        return maxRequestBytes;
+    }
+
+    public void setMaxRequestBytes(int maxRequestBytes) {
+        this.maxRequestBytes = maxRequestBytes;
+    }
+
+}
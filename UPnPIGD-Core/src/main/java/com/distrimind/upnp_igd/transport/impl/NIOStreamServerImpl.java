@@ -0,0 +1,1097 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import com.distrimind.upnp_igd.http.Headers;
+import com.distrimind.upnp_igd.model.message.Connection;
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.StreamingBody;
+import com.distrimind.upnp_igd.model.message.UpnpHeaders;
+import com.distrimind.upnp_igd.model.message.UpnpMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.transport.Router;
+import com.distrimind.upnp_igd.transport.spi.InitializationException;
+import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
+import com.distrimind.upnp_igd.transport.spi.StreamServer;
+import com.distrimind.upnp_igd.transport.spi.UpnpStream;
+import com.distrimind.upnp_igd.util.Exceptions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking HTTP/1.1 server, all connections are handled by a single selection loop.
+ * <p>
+ * Connections are persistent unless the client asks otherwise. Pipelined requests are answered
+ * in order: the next request of a connection is parsed once the response of the previous one has
+ * been written. Complete requests are handed to the {@link Router}, at most
+ * {@link NIOStreamServerConfigurationImpl#getMaxConcurrentRequests()} at the same time, the other
+ * ones wait until a response has been written.
+ * </p>
+ * <p>
+ * The selection loop keeps reading while a request is processed, a closed client connection is
+ * therefore reported by {@link Connection#isOpen()} to the running protocol.
+ * </p>
+ * <p>
+ * A {@link StreamingBody} response is read and written chunk by chunk, it is never held in memory.
+ * </p>
+ * <p>
+ * Enable this server by overriding
+ * {@link com.distrimind.upnp_igd.DefaultUpnpServiceConfiguration#createStreamServer(NetworkAddressFactory)}.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class NIOStreamServerImpl implements StreamServer<NIOStreamServerConfigurationImpl> {
+
+    private static final Logger log = Logger.getLogger(StreamServer.class.getName());
+
+    static final private int INITIAL_INPUT_CAPACITY = 4096;
+    static final private byte CR = 13;
+    static final private byte LF = 10;
+    static final private byte[] CONTINUE_RESPONSE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final private byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final private byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    static final private int STREAMING_CHUNK_SIZE = 16384;
+
+    final protected NIOStreamServerConfigurationImpl configuration;
+    final protected Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+
+    // Only accessed by the selection loop
+    final protected Set<HttpConnection> connections = new HashSet<>();
+    final protected Deque<HttpConnection> waitingConnections = new ArrayDeque<>();
+    protected int runningRequests;
+
+    protected Router router;
+    protected NetworkAddressFactory networkAddressFactory;
+    protected Selector selector;
+    protected ServerSocketChannel serverChannel;
+    protected SelectionKey serverKey;
+    private boolean running;
+    private boolean stopped;
+
+    public NIOStreamServerImpl(NIOStreamServerConfigurationImpl configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    synchronized public void init(InetAddress bindAddress, Router router, NetworkAddressFactory networkAddressFactory) throws InitializationException {
+        this.router = router;
+        this.networkAddressFactory = networkAddressFactory;
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(
+                    new InetSocketAddress(bindAddress, configuration.getListenPort()),
+                    configuration.getTcpConnectionBacklog()
+            );
+            serverChannel.configureBlocking(false);
+            serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+            if (log.isLoggable(Level.INFO)) log.info("Created server (for receiving TCP streams) on: " + serverChannel.getLocalAddress());
+
+        } catch (Exception ex) {
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+            throw new InitializationException("Could not initialize " + getClass().getSimpleName() + ": " + ex, ex);
+        }
+    }
+
+    @Override
+    synchronized public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public NIOStreamServerConfigurationImpl getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * Runs the selection loop until the server is stopped.
+     */
+    @Override
+    public void run() {
+        Selector s;
+        synchronized (this) {
+            if (running || stopped || selector == null)
+                return;
+            running = true;
+            s = selector;
+        }
+        log.fine("Starting StreamServer...");
+
+        long checkInterval = configuration.getKeepAliveTimeoutMillis() > 0
+                ? Math.min(1000, configuration.getKeepAliveTimeoutMillis())
+                : 1000;
+        long nextCheck = System.currentTimeMillis() + checkInterval;
+        try {
+            while (!isStopped()) {
+                runSelectorTasks();
+                dispatchWaitingRequests();
+
+                s.select(checkInterval);
+
+                Iterator<SelectionKey> it = s.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        HttpConnection connection = (HttpConnection) key.attachment();
+                        if (key.isWritable())
+                            write(connection);
+                        if (key.isValid() && key.isReadable())
+                            read(connection);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= nextCheck) {
+                    closeExpiredConnections(now);
+                    nextCheck = now + checkInterval;
+                }
+            }
+        } catch (ClosedSelectorException ex) {
+            log.fine("Selector closed");
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "Stream server selection loop failed: " + ex, ex);
+        } finally {
+            synchronized (this) {
+                // Responses handed over from now on fail immediately
+                running = false;
+                stopped = true;
+            }
+            for (HttpConnection connection : new ArrayList<>(connections)) {
+                close(connection);
+            }
+            runSelectorTasks();
+            closeQuietly(serverChannel);
+            closeQuietly(s);
+        }
+    }
+
+    @Override
+    synchronized public void stop() {
+        log.fine("Stopping StreamServer...");
+        stopped = true;
+        if (running) {
+            selector.wakeup();
+        } else {
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+        }
+    }
+
+    synchronized protected boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @param remoteAddress The address of a new client.
+     * @return <code>true</code> if the client is reachable through one of the local network interfaces.
+     */
+    protected boolean isAcceptedRemoteAddress(InetAddress remoteAddress) {
+        return networkAddressFactory.getLocalAddress(
+                null,
+                remoteAddress instanceof Inet6Address,
+                remoteAddress
+        ) != null;
+    }
+
+    protected void accept() {
+        while (connections.size() < configuration.getMaxConnections()) {
+            SocketChannel channel = null;
+            try {
+                channel = serverChannel.accept();
+                if (channel == null)
+                    break;
+                InetSocketAddress remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+                if (remoteAddress == null || !isAcceptedRemoteAddress(remoteAddress.getAddress())) {
+                    if (log.isLoggable(Level.FINE)) log.fine("Rejecting connection from: " + remoteAddress);
+                    closeQuietly(channel);
+                    continue;
+                }
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                HttpConnection connection = new HttpConnection(
+                        channel,
+                        remoteAddress.getAddress(),
+                        ((InetSocketAddress) channel.getLocalAddress()).getAddress(),
+                        Math.min(INITIAL_INPUT_CAPACITY, configuration.getMaxRequestBytes())
+                );
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.add(connection);
+            } catch (IOException ex) {
+                if (log.isLoggable(Level.FINE)) log.fine("Could not accept connection: " + ex);
+                closeQuietly(channel);
+                break;
+            }
+        }
+        updateAcceptInterest();
+    }
+
+    protected void updateAcceptInterest() {
+        if (serverKey != null && serverKey.isValid())
+            serverKey.interestOps(connections.size() < configuration.getMaxConnections() ? SelectionKey.OP_ACCEPT : 0);
+    }
+
+    protected void read(HttpConnection connection) {
+        try {
+            int capacity = connection.input.capacity();
+            if (!connection.input.hasRemaining() && capacity < configuration.getMaxRequestBytes()) {
+                ByteBuffer input = ByteBuffer.allocate(Math.min(capacity * 2, configuration.getMaxRequestBytes()));
+                connection.input.flip();
+                input.put(connection.input);
+                connection.input = input;
+            }
+            if (connection.channel.read(connection.input) < 0) {
+                if (log.isLoggable(Level.FINE)) log.fine("Connection closed by client: " + connection.getRemoteAddress());
+                close(connection);
+                return;
+            }
+            connection.lastActivity = System.currentTimeMillis();
+            if (!connection.processing)
+                processInput(connection);
+            write(connection);
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Could not read from connection, closing it: " + ex);
+            close(connection);
+        }
+    }
+
+    /**
+     * Parses the next request of the connection, and queues it for dispatching when it is complete.
+     */
+    protected void processInput(HttpConnection connection) {
+        HttpRequest request;
+        try {
+            request = parseRequest(connection);
+        } catch (BadRequestException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Rejecting request of " + connection.getRemoteAddress() + ": " + ex.getMessage());
+            sendError(connection, ex.getStatusCode(), ex.getMessage());
+            return;
+        }
+        if (request == null) {
+            if (!connection.input.hasRemaining() && connection.input.capacity() >= configuration.getMaxRequestBytes())
+                sendError(connection, 413, "Payload Too Large");
+            return;
+        }
+        connection.processing = true;
+        connection.waitingRequest = request;
+        waitingConnections.add(connection);
+    }
+
+    protected void dispatchWaitingRequests() {
+        HttpConnection connection;
+        while (runningRequests < configuration.getMaxConcurrentRequests()
+                && (connection = waitingConnections.poll()) != null) {
+            HttpRequest request = connection.waitingRequest;
+            connection.waitingRequest = null;
+            runningRequests++;
+            try {
+                if (log.isLoggable(Level.FINE)) log.fine("Received HTTP request: " + request.getMethod() + " " + request.getTarget());
+                router.received(createUpnpStream(connection, request));
+            } catch (RuntimeException ex) {
+                if (log.isLoggable(Level.WARNING)) log.warning("Could not dispatch HTTP request, closing connection: " + ex);
+                runningRequests--;
+                close(connection);
+            }
+        }
+    }
+
+    protected UpnpStream createUpnpStream(HttpConnection connection, HttpRequest request) {
+        return new HttpConnectionUpnpStream(connection, request);
+    }
+
+    /**
+     * Hands the encoded response over to the selection loop, called by the thread processing the request.
+     *
+     * @return A future completed when the response has been written, or exceptionally when the connection was closed before.
+     */
+    protected CompletableFuture<Void> respond(HttpConnection connection, ByteBuffer[] response, boolean keepAlive) {
+        return send(connection, response, true, keepAlive);
+    }
+
+    /**
+     * Hands a part of the response over to the selection loop, called by the thread processing the request.
+     *
+     * @param last <code>true</code> if this is the end of the response.
+     * @param keepAlive <code>false</code> if the connection is closed after the end of the response.
+     * @return A future completed when the buffers have been written, or exceptionally when the connection was closed before.
+     */
+    protected CompletableFuture<Void> send(HttpConnection connection, ByteBuffer[] buffers, boolean last, boolean keepAlive) {
+        Output output = new Output(buffers, new CompletableFuture<>(), last, last && !keepAlive);
+        synchronized (this) {
+            if (!stopped) {
+                selectorTasks.add(() -> queueResponse(connection, output));
+                selector.wakeup();
+                return output.written;
+            }
+        }
+        output.written.completeExceptionally(new ClosedChannelException());
+        return output.written;
+    }
+
+    protected void queueResponse(HttpConnection connection, Output output) {
+        if (!connection.isOpen()) {
+            fail(output);
+            return;
+        }
+        connection.outputs.add(output);
+        write(connection);
+    }
+
+    protected void sendError(HttpConnection connection, int statusCode, String statusMessage) {
+        connection.processing = true;
+        connection.outputs.add(new Output(
+                encodeResponse(statusCode, statusMessage, null, null, "close"),
+                null,
+                false,
+                true
+        ));
+    }
+
+    protected void write(HttpConnection connection) {
+        try {
+            Output output;
+            while ((output = connection.outputs.peek()) != null) {
+                connection.channel.write(output.buffers);
+                if (output.buffers[output.buffers.length - 1].hasRemaining())
+                    break;
+                connection.outputs.poll();
+                connection.lastActivity = System.currentTimeMillis();
+                if (output.request)
+                    runningRequests--;
+                if (output.written != null)
+                    output.written.complete(null);
+                if (output.close) {
+                    close(connection);
+                    return;
+                }
+                if (output.request) {
+                    // Next pipelined request, if already received
+                    connection.processing = false;
+                    processInput(connection);
+                }
+            }
+            updateInterest(connection);
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Could not write to connection, closing it: " + ex);
+            close(connection);
+        }
+    }
+
+    protected void updateInterest(HttpConnection connection) {
+        if (!connection.key.isValid())
+            return;
+        int ops = 0;
+        if (!connection.outputs.isEmpty())
+            ops |= SelectionKey.OP_WRITE;
+        // Keep reading to notice a closed connection, unless the buffer can't grow
+        if (connection.input.hasRemaining() || connection.input.capacity() < configuration.getMaxRequestBytes())
+            ops |= SelectionKey.OP_READ;
+        connection.key.interestOps(ops);
+    }
+
+    protected void closeExpiredConnections(long now) {
+        if (configuration.getKeepAliveTimeoutMillis() <= 0)
+            return;
+        for (HttpConnection connection : new ArrayList<>(connections)) {
+            // A running protocol may take its time, the client is waiting
+            boolean awaitingResponse = connection.processing && connection.outputs.isEmpty();
+            if (!awaitingResponse && now - connection.lastActivity >= configuration.getKeepAliveTimeoutMillis()) {
+                if (log.isLoggable(Level.FINE)) log.fine("Closing expired connection: " + connection.getRemoteAddress());
+                close(connection);
+            }
+        }
+    }
+
+    protected void close(HttpConnection connection) {
+        if (!connections.remove(connection))
+            return;
+        connection.open = false;
+        connection.key.cancel();
+        closeQuietly(connection.channel);
+        Output output;
+        while ((output = connection.outputs.poll()) != null) {
+            fail(output);
+        }
+        if (connection.waitingRequest != null) {
+            connection.waitingRequest = null;
+            waitingConnections.remove(connection);
+        }
+        updateAcceptInterest();
+    }
+
+    protected void fail(Output output) {
+        if (output.request)
+            runningRequests--;
+        if (output.written != null)
+            output.written.completeExceptionally(new ClosedChannelException());
+    }
+
+    protected void runSelectorTasks() {
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Parses the request at the start of the input buffer, the request is removed from the buffer
+     * once it has been received completely.
+     *
+     * @return The request, or <code>null</code> if more bytes have to be received.
+     * @throws BadRequestException If the request is malformed or too large.
+     */
+    protected HttpRequest parseRequest(HttpConnection connection) throws BadRequestException {
+        ByteBuffer input = connection.input;
+        int end = input.position();
+        if (connection.head == null) {
+            // Empty lines may precede a request line
+            int start = 0;
+            while (start < end && (input.get(start) == CR || input.get(start) == LF))
+                start++;
+            int headerEnd = indexOfHeaderEnd(input, Math.max(start, connection.scanOffset - 3), end);
+            if (headerEnd < 0) {
+                connection.scanOffset = end;
+                return null;
+            }
+            connection.head = parseHead(input, start, headerEnd);
+            connection.bodyStart = headerEnd;
+        }
+
+        HttpRequest request = connection.head;
+        ByteBuffer body;
+        int requestEnd;
+        if (request.isChunked()) {
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+            requestEnd = decodeChunks(input, connection.bodyStart, end, bodyBytes);
+            if (requestEnd < 0) {
+                sendContinue(connection);
+                return null;
+            }
+            body = ByteBuffer.wrap(bodyBytes.toByteArray());
+        } else {
+            requestEnd = connection.bodyStart + request.getContentLength();
+            if (requestEnd > end) {
+                sendContinue(connection);
+                return null;
+            }
+            body = ByteBuffer.wrap(copy(input, connection.bodyStart, requestEnd));
+        }
+        request.body = body;
+
+        connection.head = null;
+        connection.scanOffset = 0;
+        connection.continueSent = false;
+        consume(connection, requestEnd);
+        return request;
+    }
+
+    protected void sendContinue(HttpConnection connection) {
+        if (connection.head.isExpectingContinue() && !connection.continueSent) {
+            connection.continueSent = true;
+            connection.outputs.add(new Output(new ByteBuffer[]{ByteBuffer.wrap(CONTINUE_RESPONSE)}, null, false, false));
+        }
+    }
+
+    protected HttpRequest parseHead(ByteBuffer input, int start, int end) throws BadRequestException {
+        ByteArrayInputStream is = new ByteArrayInputStream(copy(input, start, end));
+        String[] requestLine = Headers.readLine(is).split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1."))
+            throw new BadRequestException(HttpURLConnection.HTTP_BAD_REQUEST, "Bad Request");
+        UpnpHeaders headers = new UpnpHeaders(is);
+
+        int contentLength = 0;
+        String contentLengthValue = headers.getFirstHeader("Content-Length");
+        if (contentLengthValue != null) {
+            try {
+                long l = Long.parseLong(contentLengthValue.trim());
+                if (l < 0)
+                    throw new BadRequestException(HttpURLConnection.HTTP_BAD_REQUEST, "Bad Request");
+                if (end + l > configuration.getMaxRequestBytes())
+                    throw new BadRequestException(413, "Payload Too Large");
+                contentLength = (int) l;
+            } catch (NumberFormatException ex) {
+                throw new BadRequestException(HttpURLConnection.HTTP_BAD_REQUEST, "Bad Request");
+            }
+        }
+        String transferEncoding = headers.getFirstHeader("Transfer-Encoding");
+        boolean chunked = transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains("chunked");
+
+        int httpMinorVersion = "HTTP/1.0".equals(requestLine[2]) ? 0 : 1;
+        String connectionValue = headers.getFirstHeader("Connection");
+        connectionValue = connectionValue != null ? connectionValue.toLowerCase(Locale.ROOT) : "";
+        boolean keepAlive = httpMinorVersion == 1
+                ? !connectionValue.contains("close")
+                : connectionValue.contains("keep-alive");
+        String expect = headers.getFirstHeader("Expect");
+
+        return new HttpRequest(
+                requestLine[0],
+                requestLine[1],
+                httpMinorVersion,
+                headers,
+                keepAlive,
+                httpMinorVersion == 1 && "100-continue".equalsIgnoreCase(expect),
+                chunked,
+                contentLength
+        );
+    }
+
+    /**
+     * @return The position following the decoded chunks and trailers, or <code>-1</code> if more bytes have to be received.
+     */
+    protected int decodeChunks(ByteBuffer input, int start, int end, ByteArrayOutputStream body) throws BadRequestException {
+        int position = start;
+        while (true) {
+            int lineEnd = indexOf(input, LF, position, end);
+            if (lineEnd < 0)
+                return -1;
+            String sizeLine = new String(copy(input, position, lineEnd), StandardCharsets.ISO_8859_1);
+            int extension = sizeLine.indexOf(';');
+            if (extension >= 0)
+                sizeLine = sizeLine.substring(0, extension);
+            int size;
+            try {
+                size = Integer.parseInt(sizeLine.trim(), 16);
+            } catch (NumberFormatException ex) {
+                throw new BadRequestException(HttpURLConnection.HTTP_BAD_REQUEST, "Bad Request");
+            }
+            if (size < 0)
+                throw new BadRequestException(HttpURLConnection.HTTP_BAD_REQUEST, "Bad Request");
+            position = lineEnd + 1;
+
+            if (size == 0) {
+                // Skip trailers until the empty line
+                while (true) {
+                    lineEnd = indexOf(input, LF, position, end);
+                    if (lineEnd < 0)
+                        return -1;
+                    boolean empty = lineEnd == position || (lineEnd == position + 1 && input.get(position) == CR);
+                    position = lineEnd + 1;
+                    if (empty)
+                        return position;
+                }
+            }
+
+            if (body.size() + (long) size > configuration.getMaxRequestBytes())
+                throw new BadRequestException(413, "Payload Too Large");
+            if ((long) position + size >= end)
+                return -1;
+            body.write(copy(input, position, position + size), 0, size);
+            position += size;
+            if (input.get(position) == CR) {
+                position++;
+                if (position >= end)
+                    return -1;
+            }
+            if (input.get(position) != LF)
+                throw new BadRequestException(HttpURLConnection.HTTP_BAD_REQUEST, "Bad Request");
+            position++;
+        }
+    }
+
+    /**
+     * @return The position following the empty line ending the headers, or <code>-1</code>.
+     */
+    static protected int indexOfHeaderEnd(ByteBuffer input, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (input.get(i) != LF)
+                continue;
+            if (i + 1 < end && input.get(i + 1) == LF)
+                return i + 2;
+            if (i + 2 < end && input.get(i + 1) == CR && input.get(i + 2) == LF)
+                return i + 3;
+        }
+        return -1;
+    }
+
+    static protected int indexOf(ByteBuffer input, byte b, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (input.get(i) == b)
+                return i;
+        }
+        return -1;
+    }
+
+    static protected byte[] copy(ByteBuffer input, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        ByteBuffer source = input.duplicate();
+        source.limit(to).position(from);
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Removes the first bytes of the input buffer, and shrinks it back once a large request has been read.
+     */
+    protected void consume(HttpConnection connection, int length) {
+        ByteBuffer input = connection.input;
+        input.flip();
+        input.position(length);
+        int initialCapacity = Math.min(INITIAL_INPUT_CAPACITY, configuration.getMaxRequestBytes());
+        if (input.capacity() > initialCapacity && input.remaining() <= initialCapacity) {
+            connection.input = ByteBuffer.allocate(initialCapacity);
+            connection.input.put(input);
+        } else {
+            input.compact();
+        }
+    }
+
+    /**
+     * @param body The body, or <code>null</code>.
+     * @param connectionHeader The value of the <code>Connection</code> header, or <code>null</code>.
+     */
+    protected ByteBuffer[] encodeResponse(int statusCode, String statusMessage,
+                                          Map<String, List<String>> headers, ByteBuffer body,
+                                          String connectionHeader) {
+        ByteBuffer head = encodeHead(
+                statusCode, statusMessage, headers, body != null ? body.remaining() : 0, false, connectionHeader
+        );
+        return body != null && body.hasRemaining()
+                ? new ByteBuffer[]{head, body}
+                : new ByteBuffer[]{head};
+    }
+
+    /**
+     * @param contentLength The length of the body, or <code>-1</code> if unknown.
+     * @param chunked <code>true</code> if the body is sent with chunked transfer encoding.
+     * @param connectionHeader The value of the <code>Connection</code> header, or <code>null</code>.
+     */
+    protected ByteBuffer encodeHead(int statusCode, String statusMessage,
+                                    Map<String, List<String>> headers, long contentLength, boolean chunked,
+                                    String connectionHeader) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("HTTP/1.1 ").append(statusCode).append(' ').append(statusMessage != null ? statusMessage : "").append("\r\n");
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                String name = entry.getKey();
+                // Framing is managed by this server
+                if (name == null
+                        || name.equalsIgnoreCase("Content-Length")
+                        || name.equalsIgnoreCase("Transfer-Encoding")
+                        || name.equalsIgnoreCase("Connection"))
+                    continue;
+                for (String value : entry.getValue()) {
+                    sb.append(name).append(": ").append(value != null ? value : "").append("\r\n");
+                }
+            }
+        }
+        if (chunked)
+            sb.append("Transfer-Encoding: chunked\r\n");
+        else if (contentLength >= 0 && statusCode != HttpURLConnection.HTTP_NOT_MODIFIED && statusCode != HttpURLConnection.HTTP_NO_CONTENT)
+            sb.append("Content-Length: ").append(contentLength).append("\r\n");
+        if (connectionHeader != null)
+            sb.append("Connection: ").append(connectionHeader).append("\r\n");
+        sb.append("\r\n");
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * @param end <code>true</code> if the last chunk follows the data.
+     */
+    static protected ByteBuffer[] encodeChunk(ByteBuffer data, boolean end) {
+        List<ByteBuffer> buffers = new ArrayList<>(4);
+        if (data.hasRemaining()) {
+            buffers.add(ByteBuffer.wrap((Integer.toHexString(data.remaining()) + "\r\n").getBytes(StandardCharsets.US_ASCII)));
+            buffers.add(data);
+            buffers.add(ByteBuffer.wrap(CRLF));
+        }
+        if (end)
+            buffers.add(ByteBuffer.wrap(LAST_CHUNK));
+        if (buffers.isEmpty())
+            buffers.add(ByteBuffer.allocate(0));
+        return buffers.toArray(new ByteBuffer[0]);
+    }
+
+    static protected void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+        try {
+            closeable.close();
+        } catch (IOException ex) {
+            if (log.isLoggable(Level.FINE)) log.fine("Could not close " + closeable + ": " + ex);
+        }
+    }
+
+    /**
+     * A request line, its headers and its body.
+     */
+    protected static class HttpRequest {
+
+        final private String method;
+        final private String target;
+        final private int httpMinorVersion;
+        final private UpnpHeaders headers;
+        final private boolean keepAlive;
+        final private boolean expectingContinue;
+        final private boolean chunked;
+        final private int contentLength;
+        private ByteBuffer body;
+
+        protected HttpRequest(String method, String target, int httpMinorVersion, UpnpHeaders headers,
+                              boolean keepAlive, boolean expectingContinue, boolean chunked, int contentLength) {
+            this.method = method;
+            this.target = target;
+            this.httpMinorVersion = httpMinorVersion;
+            this.headers = headers;
+            this.keepAlive = keepAlive;
+            this.expectingContinue = expectingContinue;
+            this.chunked = chunked;
+            this.contentLength = contentLength;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public int getHttpMinorVersion() {
+            return httpMinorVersion;
+        }
+
+        public UpnpHeaders getHeaders() {
+            return headers;
+        }
+
+        /**
+         * @return <code>true</code> if the connection stays open after the response.
+         */
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        public boolean isExpectingContinue() {
+            return expectingContinue;
+        }
+
+        public boolean isChunked() {
+            return chunked;
+        }
+
+        public int getContentLength() {
+            return contentLength;
+        }
+
+        /**
+         * @return The decoded body, empty if the request has no body.
+         */
+        public ByteBuffer getBody() {
+            return body;
+        }
+    }
+
+    /**
+     * Bytes waiting to be written on a connection.
+     */
+    protected static class Output {
+
+        final protected ByteBuffer[] buffers;
+        final protected CompletableFuture<Void> written;
+        final protected boolean request;
+        final protected boolean close;
+
+        /**
+         * @param written Completed once the buffers have been written, may be <code>null</code>.
+         * @param request <code>true</code> if this is the response to a dispatched request.
+         * @param close <code>true</code> if the connection is closed once the buffers have been written.
+         */
+        protected Output(ByteBuffer[] buffers, CompletableFuture<Void> written, boolean request, boolean close) {
+            this.buffers = buffers;
+            this.written = written;
+            this.request = request;
+            this.close = close;
+        }
+    }
+
+    /**
+     * State of a client connection, only the selection loop accesses it, except {@link #isOpen()}.
+     */
+    protected static class HttpConnection implements Connection {
+
+        final protected SocketChannel channel;
+        final protected InetAddress remoteAddress;
+        final protected InetAddress localAddress;
+        final protected Deque<Output> outputs = new ArrayDeque<>();
+        protected SelectionKey key;
+        protected ByteBuffer input;
+        protected long lastActivity = System.currentTimeMillis();
+
+        // Request being received
+        protected HttpRequest head;
+        protected int bodyStart;
+        protected int scanOffset;
+        protected boolean continueSent;
+
+        // Request waiting for dispatching, or dispatched and not yet answered
+        protected HttpRequest waitingRequest;
+        protected boolean processing;
+
+        protected volatile boolean open = true;
+
+        protected HttpConnection(SocketChannel channel, InetAddress remoteAddress, InetAddress localAddress, int inputCapacity) {
+            this.channel = channel;
+            this.remoteAddress = remoteAddress;
+            this.localAddress = localAddress;
+            this.input = ByteBuffer.allocate(inputCapacity);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public InetAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public InetAddress getLocalAddress() {
+            return localAddress;
+        }
+    }
+
+    protected static class BadRequestException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        final private int statusCode;
+
+        public BadRequestException(int statusCode, String statusMessage) {
+            super(statusMessage);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Processes a request on a thread of the synchronous protocol executor, then waits until the
+     * selection loop has written the response.
+     */
+    protected class HttpConnectionUpnpStream extends UpnpStream {
+
+        final protected HttpConnection connection;
+        final protected HttpRequest request;
+
+        public HttpConnectionUpnpStream(HttpConnection connection, HttpRequest request) {
+            super(router.getProtocolFactory());
+            this.connection = connection;
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            StreamResponseMessage responseMessage;
+            StreamingBody body;
+            try {
+                responseMessage = process(createRequestMessage());
+                body = responseMessage != null ? responseMessage.getStreamingBody() : null;
+            } catch (Throwable t) {
+                // Catch everything, the client would otherwise wait for a response until its timeout
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Exception occured during UPnP stream processing: " + t);
+                    log.log(Level.FINE, "Cause: " + Exceptions.unwrap(t), Exceptions.unwrap(t));
+                }
+                respond(
+                        connection,
+                        encodeResponse(HttpURLConnection.HTTP_INTERNAL_ERROR, "Internal Server Error", null, null, getConnectionHeader(request.isKeepAlive())),
+                        request.isKeepAlive()
+                );
+                responseException(t);
+                return;
+            }
+
+            try {
+                if (body == null || body.getBuffer() != null)
+                    respond(connection, createResponse(responseMessage, body), request.isKeepAlive()).get();
+                else
+                    sendStreamingResponse(responseMessage, body);
+                responseSent(responseMessage);
+            } catch (ExecutionException ex) {
+                if (log.isLoggable(Level.FINE)) log.fine("Response not sent, connection closed: " + connection.getRemoteAddress());
+                responseException(ex.getCause());
+            } catch (IOException ex) {
+                if (log.isLoggable(Level.FINE)) log.fine("Response not sent, could not read body: " + ex);
+                responseException(ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                responseException(ex);
+            }
+        }
+
+        protected StreamRequestMessage createRequestMessage() throws IOException {
+            UpnpRequest.Method method = UpnpRequest.Method.getByHttpName(request.getMethod());
+            if (method.equals(UpnpRequest.Method.UNKNOWN)) {
+                if (log.isLoggable(Level.FINE)) log.fine("Method not supported by UPnP stack: " + request.getMethod());
+                throw new RuntimeException("Method not supported: " + request.getMethod());
+            }
+
+            StreamRequestMessage requestMessage = new StreamRequestMessage(method, URI.create(request.getTarget()));
+            requestMessage.getOperation().setHttpMinorVersion(request.getHttpMinorVersion());
+            requestMessage.setConnection(connection);
+            requestMessage.setHeaders(request.getHeaders());
+
+            ByteBuffer body = request.getBody();
+            if (body.hasRemaining()) {
+                byte[] bodyBytes = body.hasArray() && body.arrayOffset() == 0 && body.remaining() == body.array().length
+                        ? body.array()
+                        : copy(body, body.position(), body.limit());
+                if (requestMessage.isContentTypeMissingOrText()) {
+                    log.fine("Request contains textual entity body, converting then setting string on message");
+                    requestMessage.setBodyCharacters(bodyBytes);
+                } else {
+                    log.fine("Request contains binary entity body, setting bytes on message");
+                    requestMessage.setBody(UpnpMessage.BodyType.BYTES, bodyBytes);
+                }
+            }
+            if (log.isLoggable(Level.FINE)) log.fine("Created new request message: " + requestMessage);
+            return requestMessage;
+        }
+
+        protected ByteBuffer[] createResponse(StreamResponseMessage responseMessage, StreamingBody body) {
+            if (responseMessage == null) {
+                // If it's null, it's 404, everything else needs a proper httpResponse
+                return encodeResponse(HttpURLConnection.HTTP_NOT_FOUND, "Not Found", null, null, getConnectionHeader(request.isKeepAlive()));
+            }
+            if (log.isLoggable(Level.FINE)) log.fine("Sending HTTP response message: " + responseMessage);
+            return encodeResponse(
+                    responseMessage.getOperation().getStatusCode(),
+                    responseMessage.getOperation().getStatusMessage(),
+                    responseMessage.getHeaders(),
+                    body != null ? body.getBuffer() : null,
+                    getConnectionHeader(request.isKeepAlive())
+            );
+        }
+
+        /**
+         * Reads the body in chunks, and hands each chunk over to the selection loop once the previous one has been written.
+         * <p>
+         * A body of unknown length is sent with chunked transfer encoding, or delimited by the end of the
+         * connection for an HTTP/1.0 client. If the body can't be read completely, the connection is closed.
+         * </p>
+         */
+        protected void sendStreamingResponse(StreamResponseMessage responseMessage, StreamingBody body)
+                throws IOException, ExecutionException, InterruptedException {
+            ReadableByteChannel channel;
+            try {
+                channel = body.openChannel();
+            } catch (IOException ex) {
+                respond(
+                        connection,
+                        encodeResponse(HttpURLConnection.HTTP_INTERNAL_ERROR, "Internal Server Error", null, null, getConnectionHeader(request.isKeepAlive())),
+                        request.isKeepAlive()
+                );
+                throw ex;
+            }
+
+            long contentLength = body.getContentLength();
+            boolean chunked = contentLength < 0 && request.getHttpMinorVersion() == 1;
+            boolean keepAlive = request.isKeepAlive() && (contentLength >= 0 || chunked);
+            if (log.isLoggable(Level.FINE)) log.fine("Streaming HTTP response message: " + responseMessage + " with content length: " + contentLength);
+
+            boolean endSent = false;
+            try (ReadableByteChannel c = channel) {
+                send(connection, new ByteBuffer[]{encodeHead(
+                        responseMessage.getOperation().getStatusCode(),
+                        responseMessage.getOperation().getStatusMessage(),
+                        responseMessage.getHeaders(),
+                        contentLength,
+                        chunked,
+                        getConnectionHeader(keepAlive)
+                )}, false, keepAlive).get();
+
+                // Written before the next chunk is read, the buffer can be reused
+                ByteBuffer buffer = ByteBuffer.allocate(STREAMING_CHUNK_SIZE);
+                long sent = 0;
+                boolean end = false;
+                while (!end) {
+                    while (buffer.hasRemaining() && !end) {
+                        end = c.read(buffer) < 0;
+                    }
+                    buffer.flip();
+                    sent += buffer.remaining();
+                    if (contentLength >= 0 && (sent > contentLength || (end && sent < contentLength)))
+                        throw new IOException("Body length doesn't match its content length " + contentLength + ": " + sent);
+                    endSent = end;
+                    send(connection, chunked ? encodeChunk(buffer, end) : new ByteBuffer[]{buffer}, end, keepAlive).get();
+                    buffer.clear();
+                }
+            } finally {
+                if (!endSent) {
+                    // The client notices an incomplete body when the connection is closed
+                    send(connection, new ByteBuffer[]{ByteBuffer.allocate(0)}, true, false);
+                }
+            }
+        }
+
+        protected String getConnectionHeader(boolean keepAlive) {
+            if (!keepAlive)
+                return "close";
+            return request.getHttpMinorVersion() == 0 ? "keep-alive" : null;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + getClass().getSimpleName() + ") " + request.getMethod() + " " + request.getTarget();
+        }
+    }
+}
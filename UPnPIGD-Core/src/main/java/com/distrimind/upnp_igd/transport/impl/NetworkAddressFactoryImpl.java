@@ -48,6 +48,8 @@ public class NetworkAddressFactoryImpl implements NetworkAddressFactory {
     final protected List<NetworkInterface> networkInterfaces = new ArrayList<>();
     final protected List<InetAddress> bindAddresses = new ArrayList<>();
 
+    protected volatile SubnetRoutingTable subnetRoutingTable = SubnetRoutingTable.EMPTY;
+
     protected int streamListenPort;
     private final int multicastPort;
 
@@ -76,6 +78,7 @@ public class NetworkAddressFactoryImpl implements NetworkAddressFactory {
 
         discoverNetworkInterfaces();
         discoverBindAddresses();
+        updateSubnetRoutingTable();
 
         if ((networkInterfaces.isEmpty() || bindAddresses.isEmpty())) {
             log.warning("No usable network interface or addresses found");
@@ -143,6 +146,7 @@ public class NetworkAddressFactoryImpl implements NetworkAddressFactory {
 				synchronized (networkInterfaces) {
 					networkInterfaces.remove(index);
 				}
+				updateSubnetRoutingTable();
 			}
 		};
     }
@@ -155,6 +159,7 @@ public class NetworkAddressFactoryImpl implements NetworkAddressFactory {
 				synchronized (bindAddresses) {
 					bindAddresses.remove(index);
 				}
+				updateSubnetRoutingTable();
 			}
 		};
     }
@@ -248,28 +253,38 @@ public class NetworkAddressFactoryImpl implements NetworkAddressFactory {
     }
 
     protected InetAddress getBindAddressInSubnetOf(InetAddress inetAddress) {
+        return subnetRoutingTable.getBindAddress(inetAddress);
+    }
+
+    /**
+     * Rebuilds the table used by {@link #getBindAddressInSubnetOf(InetAddress)}.
+     * <p>
+     * Called once the interfaces and bind addresses have been discovered and whenever
+     * one of them is removed. The new table is published atomically, lookups never block.
+     * </p>
+     */
+    protected void updateSubnetRoutingTable() {
+        List<InetAddress> addresses = new ArrayList<>();
+        List<Short> prefixLengths = new ArrayList<>();
         synchronized (networkInterfaces) {
             for (NetworkInterface iface : networkInterfaces) {
                 for (InterfaceAddress ifaceAddress : getInterfaceAddresses(iface)) {
-
+                    if (ifaceAddress == null)
+                        continue;
                     synchronized (bindAddresses) {
-                        if (ifaceAddress == null || !bindAddresses.contains(ifaceAddress.getAddress())) {
+                        if (!bindAddresses.contains(ifaceAddress.getAddress())) {
                             continue;
                         }
                     }
-
-                    if (isInSubnet(
-                            inetAddress.getAddress(),
-                            ifaceAddress.getAddress().getAddress(),
-                            ifaceAddress.getNetworkPrefixLength())
-                            ) {
-                        return ifaceAddress.getAddress();
-                    }
+                    addresses.add(ifaceAddress.getAddress());
+                    prefixLengths.add(ifaceAddress.getNetworkPrefixLength());
                 }
-
             }
+            short[] prefixes = new short[prefixLengths.size()];
+            for (int i = 0; i < prefixes.length; i++)
+                prefixes[i] = prefixLengths.get(i);
+            subnetRoutingTable = new SubnetRoutingTable(addresses.toArray(new InetAddress[0]), prefixes);
         }
-        return null;
     }
 
     protected boolean isInSubnet(byte[] ip, byte[] network, short _prefix) {
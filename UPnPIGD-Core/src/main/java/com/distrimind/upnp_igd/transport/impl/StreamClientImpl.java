@@ -20,6 +20,7 @@ import com.distrimind.upnp_igd.model.profile.RemoteClientInfo;
 import com.distrimind.upnp_igd.model.ModelUtil;
 import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
 import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.StreamingBody;
 import com.distrimind.upnp_igd.model.message.UpnpHeaders;
 import com.distrimind.upnp_igd.model.message.UpnpMessage;
 import com.distrimind.upnp_igd.model.message.UpnpRequest;
@@ -39,6 +40,8 @@ import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -200,6 +203,19 @@ public class StreamClientImpl implements StreamClient<StreamClientConfigurationI
         }
     }
 
+    /**
+     * <code>HttpURLConnection</code> can only block, the request is executed on the request executor service.
+     */
+    @Override
+    public CompletableFuture<StreamResponseMessage> sendRequestAsync(StreamRequestMessage requestMessage) {
+        try {
+            return CompletableFuture.supplyAsync(() -> sendRequest(requestMessage), getConfiguration().getRequestExecutorService());
+        } catch (RejectedExecutionException ex) {
+            if (log.isLoggable(Level.WARNING)) log.warning("HTTP request rejected (on shutdown?): " + requestMessage);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
     @Override
     public void stop() {
         // NOOP
@@ -253,10 +269,23 @@ public class StreamClientImpl implements StreamClient<StreamClientConfigurationI
             IO.writeUTF8(urlConnection.getOutputStream(), requestMessage.getBodyString());
         } else if (requestMessage.getBodyType().equals(UpnpMessage.BodyType.BYTES)) {
             IO.writeBytes(urlConnection.getOutputStream(), requestMessage.getBodyBytes());
+        } else if (requestMessage.getBodyType().equals(UpnpMessage.BodyType.STREAM)) {
+            StreamingBody body = requestMessage.getStreamingBody();
+            if (body.getContentLength() >= 0)
+                urlConnection.setFixedLengthStreamingMode(body.getContentLength());
+            else
+                urlConnection.setChunkedStreamingMode(0);
+            body.writeTo(urlConnection.getOutputStream());
         }
         urlConnection.getOutputStream().flush();
     }
 
+    protected boolean hasResponseBody(int statusCode) {
+        return statusCode >= 200
+                && statusCode != HttpURLConnection.HTTP_NO_CONTENT
+                && statusCode != HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
     protected StreamResponseMessage createResponse(HttpURLConnection urlConnection, InputStream inputStream) throws Exception {
 
         if (urlConnection.getResponseCode() == -1) {
@@ -285,7 +314,9 @@ public class StreamClientImpl implements StreamClient<StreamClientConfigurationI
         // Body
         byte[] bodyBytes = null;
 		try (InputStream is = inputStream) {
-			if (inputStream != null) bodyBytes = IO.readBytes(is);
+			// A 304 response might announce the length of the unmodified representation
+			if (inputStream != null && hasResponseBody(responseOperation.getStatusCode()))
+				bodyBytes = StreamingBody.of(is, urlConnection.getContentLengthLong()).readBytes();
 		}
 
         if (bodyBytes != null && bodyBytes.length > 0 && responseMessage.isContentTypeMissingOrText()) {
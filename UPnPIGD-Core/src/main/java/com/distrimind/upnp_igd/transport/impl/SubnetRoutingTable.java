@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.transport.impl;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/**
+ * Immutable lookup table mapping a remote address to the local bind address in the same subnet.
+ * <p>
+ * IPv4 subnets are stored as parallel network/mask arrays and are matched in the order
+ * they have been given, IPv6 subnets are stored in a binary prefix trie and the longest
+ * matching prefix wins. A table is never modified once built, so it can be shared between
+ * threads without locking, see {@link NetworkAddressFactoryImpl#updateSubnetRoutingTable()}.
+ * </p>
+ *
+ * @author Jason Mahdjoub
+ */
+public class SubnetRoutingTable {
+
+    public static final SubnetRoutingTable EMPTY = new SubnetRoutingTable(new InetAddress[0], new short[0]);
+
+    final private int[] ipv4Networks;
+    final private int[] ipv4Masks;
+    final private InetAddress[] ipv4BindAddresses;
+    final private TrieNode ipv6Root;
+
+    /**
+     * @param bindAddresses The local bind addresses, in order of preference.
+     * @param prefixLengths The network prefix length of each bind address.
+     */
+    public SubnetRoutingTable(InetAddress[] bindAddresses, short[] prefixLengths) {
+        if (bindAddresses.length != prefixLengths.length)
+            throw new IllegalArgumentException("Expected one prefix length per bind address");
+
+        int[] networks = new int[bindAddresses.length];
+        int[] masks = new int[bindAddresses.length];
+        InetAddress[] addresses = new InetAddress[bindAddresses.length];
+        TrieNode root = null;
+        int count = 0;
+        for (int i = 0; i < bindAddresses.length; i++) {
+            InetAddress bindAddress = bindAddresses[i];
+            if (bindAddress instanceof Inet4Address) {
+                int prefix = normalizePrefixLength(prefixLengths[i], 32);
+                if (prefix < 0)
+                    continue;
+                masks[count] = prefix == 0 ? 0 : -1 << (32 - prefix);
+                networks[count] = toInt(bindAddress.getAddress()) & masks[count];
+                addresses[count++] = bindAddress;
+            } else if (bindAddress instanceof Inet6Address) {
+                int prefix = normalizePrefixLength(prefixLengths[i], 128);
+                if (prefix < 0)
+                    continue;
+                if (root == null)
+                    root = new TrieNode();
+                root.insert(bindAddress.getAddress(), prefix, bindAddress);
+            }
+        }
+        this.ipv4Networks = new int[count];
+        this.ipv4Masks = new int[count];
+        this.ipv4BindAddresses = new InetAddress[count];
+        System.arraycopy(networks, 0, ipv4Networks, 0, count);
+        System.arraycopy(masks, 0, ipv4Masks, 0, count);
+        System.arraycopy(addresses, 0, ipv4BindAddresses, 0, count);
+        this.ipv6Root = root;
+    }
+
+    /**
+     * @param remoteAddress The address of a remote host.
+     * @return The local bind address in the same subnet, or <code>null</code> if there is none.
+     */
+    public InetAddress getBindAddress(InetAddress remoteAddress) {
+        if (remoteAddress instanceof Inet4Address) {
+            if (ipv4Networks.length == 0)
+                return null;
+            int ip = toInt(remoteAddress.getAddress());
+            for (int i = 0; i < ipv4Networks.length; i++) {
+                if ((ip & ipv4Masks[i]) == ipv4Networks[i])
+                    return ipv4BindAddresses[i];
+            }
+            return null;
+        }
+        if (remoteAddress instanceof Inet6Address && ipv6Root != null)
+            return ipv6Root.lookup(remoteAddress.getAddress());
+        return null;
+    }
+
+    public boolean isEmpty() {
+        return ipv4Networks.length == 0 && ipv6Root == null;
+    }
+
+    /**
+     * Some network cards report bogus prefix lengths, this keeps the behavior of
+     * {@link NetworkAddressFactoryImpl#isInSubnet(byte[], byte[], short)}: a negative prefix
+     * matches everything, a prefix slightly longer than the address is an exact match and
+     * a prefix longer by a whole byte or more never matches.
+     *
+     * @return The prefix length to use, or <code>-1</code> if the address should be ignored.
+     */
+    protected static int normalizePrefixLength(short prefixLength, int addressBits) {
+        if (prefixLength < 0)
+            return 0;
+        if (prefixLength / 8 > addressBits / 8)
+            return -1;
+        return Math.min(prefixLength, addressBits);
+    }
+
+    protected static int toInt(byte[] address) {
+        return ((address[0] & 0xFF) << 24)
+            | ((address[1] & 0xFF) << 16)
+            | ((address[2] & 0xFF) << 8)
+            | (address[3] & 0xFF);
+    }
+
+    protected static boolean isBitSet(byte[] address, int bit) {
+        return (address[bit >>> 3] & (0x80 >>> (bit & 7))) != 0;
+    }
+
+    protected static class TrieNode {
+
+        private TrieNode zero;
+        private TrieNode one;
+        private InetAddress bindAddress;
+
+        void insert(byte[] network, int prefixLength, InetAddress address) {
+            TrieNode node = this;
+            for (int bit = 0; bit < prefixLength; bit++) {
+                if (isBitSet(network, bit)) {
+                    if (node.one == null)
+                        node.one = new TrieNode();
+                    node = node.one;
+                } else {
+                    if (node.zero == null)
+                        node.zero = new TrieNode();
+                    node = node.zero;
+                }
+            }
+            // The first bind address given for a subnet is preferred
+            if (node.bindAddress == null)
+                node.bindAddress = address;
+        }
+
+        InetAddress lookup(byte[] address) {
+            TrieNode node = this;
+            InetAddress match = bindAddress;
+            for (int bit = 0; bit < address.length * 8; bit++) {
+                node = isBitSet(address, bit) ? node.one : node.zero;
+                if (node == null)
+                    break;
+                if (node.bindAddress != null)
+                    match = node.bindAddress;
+            }
+            return match;
+        }
+    }
+}
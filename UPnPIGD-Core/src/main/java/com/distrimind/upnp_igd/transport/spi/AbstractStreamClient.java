@@ -19,10 +19,10 @@ import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
 import com.distrimind.upnp_igd.util.Exceptions;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,71 +35,83 @@ public abstract class AbstractStreamClient<C extends StreamClientConfiguration,
 
     final private static Logger log = Logger.getLogger(StreamClient.class.getName());
 
+    /**
+     * Executes the request on the request executor service.
+     * <p>
+     * The returned future is completed with <code>null</code> once the timeout of the configuration
+     * expired, the request is then aborted. The synchronous {@link #sendRequest(StreamRequestMessage)}
+     * waits for this future, it doesn't hold another thread than the one executing the request.
+     * </p>
+     */
     @Override
-    public StreamResponseMessage sendRequest(StreamRequestMessage requestMessage) throws InterruptedException {
+    public CompletableFuture<StreamResponseMessage> sendRequestAsync(StreamRequestMessage requestMessage) {
 
         if (log.isLoggable(Level.FINE))
             log.fine("Preparing HTTP request: " + requestMessage);
 
-        REQUEST request = createRequest(requestMessage);
+        final REQUEST request = createRequest(requestMessage);
         if (request == null)
-            return null;
+            return CompletableFuture.completedFuture(null);
 
-        Callable<StreamResponseMessage> callable = createCallable(requestMessage, request);
+        final Callable<StreamResponseMessage> callable = createCallable(requestMessage, request);
 
         // We want to track how long it takes
-        long start = System.currentTimeMillis();
-
-        // Execute the request on a new thread
-        Future<StreamResponseMessage> future =
-            getConfiguration().getRequestExecutorService().submit(callable);
-
-        // Wait on the current thread for completion
-        try {
-            if (log.isLoggable(Level.FINE))
-                log.fine(
-                    "Waiting " + getConfiguration().getTimeoutSeconds()
-                    + " seconds for HTTP request to complete: " + requestMessage
-                );
-            StreamResponseMessage response =
-                future.get(getConfiguration().getTimeoutSeconds(), TimeUnit.SECONDS);
-
-            // Log a warning if it took too long
-            long elapsed = System.currentTimeMillis() - start;
-            if (log.isLoggable(Level.FINEST))
-                log.finest("Got HTTP response in " + elapsed + "ms: " + requestMessage);
-            if (getConfiguration().getLogWarningSeconds() > 0
-                && elapsed > getConfiguration().getLogWarningSeconds()* 1000L) {
-                if (log.isLoggable(Level.WARNING)) log.warning("HTTP request took a long time (" + elapsed + "ms): " + requestMessage);
+        final long start = System.currentTimeMillis();
+
+        final CompletableFuture<StreamResponseMessage> future = new CompletableFuture<>();
+        final AtomicBoolean executed = new AtomicBoolean(false);
+
+        future.completeOnTimeout(null, getConfiguration().getTimeoutSeconds(), TimeUnit.SECONDS);
+        future.whenComplete((response, ex) -> {
+            if (future.isCancelled()) {
+                if (log.isLoggable(Level.FINE))
+                    log.fine("Cancellation, aborting request: " + requestMessage);
+                abort(request);
+            } else if (!executed.get()) {
+                if (log.isLoggable(Level.INFO)) log.info(
+                    "Timeout of " + getConfiguration().getTimeoutSeconds()
+                    + " seconds while waiting for HTTP request to complete, aborting: " + requestMessage
+                    );
+                abort(request);
+            } else {
+                // Log a warning if it took too long
+                long elapsed = System.currentTimeMillis() - start;
+                if (log.isLoggable(Level.FINEST))
+                    log.finest("Got HTTP response in " + elapsed + "ms: " + requestMessage);
+                if (getConfiguration().getLogWarningSeconds() > 0
+                    && elapsed > getConfiguration().getLogWarningSeconds()* 1000L) {
+                    if (log.isLoggable(Level.WARNING)) log.warning("HTTP request took a long time (" + elapsed + "ms): " + requestMessage);
+                }
             }
-
-            return response;
-
-        } catch (InterruptedException ex) {
-
-            if (log.isLoggable(Level.FINE))
-                log.fine("Interruption, aborting request: " + requestMessage);
-            abort(request);
-            throw new InterruptedException("HTTP request interrupted and aborted");
-
-        } catch (TimeoutException ex) {
-
-            if (log.isLoggable(Level.INFO)) log.info(
-                "Timeout of " + getConfiguration().getTimeoutSeconds()
-                + " seconds while waiting for HTTP request to complete, aborting: " + requestMessage
-                );
-            abort(request);
-            return null;
-
-        } catch (ExecutionException ex) {
-            Throwable cause = ex.getCause();
-            if (!logExecutionException(cause)) {
-                if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "HTTP request failed: " + requestMessage, Exceptions.unwrap(cause));
-            }
-            return null;
-        } finally {
             onFinally(request);
+        });
+
+        if (log.isLoggable(Level.FINE))
+            log.fine(
+                "Waiting " + getConfiguration().getTimeoutSeconds()
+                + " seconds for HTTP request to complete: " + requestMessage
+            );
+        try {
+            getConfiguration().getRequestExecutorService().execute(() -> {
+                StreamResponseMessage response = null;
+                try {
+                    if (!future.isDone())
+                        response = callable.call();
+                } catch (Exception ex) {
+                    if (!logExecutionException(ex)) {
+                        if (log.isLoggable(Level.WARNING)) log.log(Level.WARNING, "HTTP request failed: " + requestMessage, Exceptions.unwrap(ex));
+                    }
+                } finally {
+                    executed.set(true);
+                    future.complete(response);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            if (log.isLoggable(Level.WARNING)) log.warning("HTTP request rejected (on shutdown?): " + requestMessage);
+            executed.set(true);
+            future.complete(null);
         }
+        return future;
     }
 
     /**
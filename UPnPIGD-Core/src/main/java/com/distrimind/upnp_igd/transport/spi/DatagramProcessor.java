@@ -24,6 +24,8 @@ import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
 
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 /**
  * Reads and creates UDP datagrams from and into UPnP messages.
@@ -49,6 +51,26 @@ public interface DatagramProcessor {
      */
 	IncomingDatagramMessage<?> read(InetAddress receivedOnAddress, DatagramPacket datagram) throws UnsupportedDataException;
 
+    /**
+     * Reads a datagram received by a channel and instantiates a message.
+     * <p>
+     * The buffer is only valid for the duration of this call, it will be reused for the
+     * next received datagram. The default implementation copies the payload and delegates
+     * to {@link #read(InetAddress, DatagramPacket)}.
+     * </p>
+     *
+     * @param receivedOnAddress The address of the channel on which this datagram was received.
+     * @param sourceAddress The address of the datagram sender.
+     * @param data The datagram payload, between the buffer position and its limit.
+     * @return The populated instance.
+     * @throws UnsupportedDataException If the datagram could not be read, or didn't contain required data.
+     */
+	default IncomingDatagramMessage<?> read(InetAddress receivedOnAddress, InetSocketAddress sourceAddress, ByteBuffer data) throws UnsupportedDataException {
+		byte[] bytes = new byte[data.remaining()];
+		data.get(bytes);
+		return read(receivedOnAddress, new DatagramPacket(bytes, bytes.length, sourceAddress));
+	}
+
     /**
      * Creates a UDP datagram with the content of a message.
      * <p>
@@ -18,6 +18,10 @@ package com.distrimind.upnp_igd.transport.spi;
 import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
 import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
 /**
  * Service for sending TCP (HTTP) stream request messages.
  * 
@@ -62,12 +66,40 @@ public interface StreamClient<C extends StreamClientConfiguration> {
      * the given message did not already contain such a header. You can set this default value in your
      * {@link StreamClientConfiguration}.
    
+     *
+     * <p>
+     * The default implementation waits for {@link #sendRequestAsync(StreamRequestMessage)}, an interruption
+     * cancels the request.
+     * </p>
      *
      * @param message The message to send.
      * @return The response or <code>null</code> if no response has been received or an error occurred.
      * @throws InterruptedException if you interrupt the calling thread.
      */
-	StreamResponseMessage sendRequest(StreamRequestMessage message) throws InterruptedException;
+	default StreamResponseMessage sendRequest(StreamRequestMessage message) throws InterruptedException {
+        CompletableFuture<StreamResponseMessage> future = sendRequestAsync(message);
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            future.cancel(true);
+            throw new InterruptedException("HTTP request interrupted and aborted");
+        } catch (ExecutionException | CancellationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends the given request via TCP (HTTP) without blocking the calling thread.
+     * <p>
+     * The same rules as for {@link #sendRequest(StreamRequestMessage)} apply: the returned future
+     * completes with the response, or with <code>null</code> if the request expired or failed. It
+     * only completes exceptionally if the caller cancels it, which aborts the request.
+     * </p>
+     *
+     * @param message The message to send.
+     * @return The future response.
+     */
+	CompletableFuture<StreamResponseMessage> sendRequestAsync(StreamRequestMessage message);
 
     /**
      * Stops the service, closes any connection pools etc.
@@ -17,6 +17,7 @@ module com.distrimind.upnp_igd {
 
 
 	requires java.logging;
+	requires java.net.http;
 	requires jdk.httpserver;
 	requires org.jsoup;
 	requires static java.desktop;
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.gena;
+
+import com.distrimind.upnp_igd.mock.MockRouter;
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.model.gena.CancelReason;
+import com.distrimind.upnp_igd.model.gena.LocalGENASubscription;
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.model.meta.LocalDevice;
+import com.distrimind.upnp_igd.model.meta.LocalService;
+import com.distrimind.upnp_igd.protocol.sync.SendingEvent;
+import org.testng.annotations.Test;
+
+import java.net.URL;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class SendingEventTest {
+
+    @Test
+    public void sendToCallbackURLsInOrder() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService() {
+            @Override
+            protected MockRouter createRouter() {
+                return new MockRouter(getConfiguration(), getProtocolFactory()) {
+                    @Override
+                    public StreamResponseMessage getStreamResponseMessage(StreamRequestMessage request) {
+                        if (request.getUri().getPath().equals("/unreachable"))
+                            return null;
+                        if (request.getUri().getPath().equals("/failing"))
+                            return new StreamResponseMessage(UpnpResponse.Status.INTERNAL_SERVER_ERROR);
+                        return new StreamResponseMessage(UpnpResponse.Status.OK);
+                    }
+                };
+            }
+        };
+
+        SendingEvent protocol = new SendingEvent(upnpService, createSubscription(
+            new URL("http://10.0.0.1:8080/unreachable"),
+            new URL("http://10.0.0.1:8080/failing"),
+            new URL("http://10.0.0.1:8080/event"),
+            new URL("http://10.0.0.1:8080/other")
+        ));
+        protocol.run();
+
+        // Sent one after the other, to every callback URL
+        List<StreamRequestMessage> sent = upnpService.getRouter().getSentStreamRequestMessages();
+        assertEquals(sent.size(), 4);
+        assertEquals(sent.get(0).getUri().getPath(), "/unreachable");
+        assertEquals(sent.get(1).getUri().getPath(), "/failing");
+        assertEquals(sent.get(2).getUri().getPath(), "/event");
+        assertEquals(sent.get(3).getUri().getPath(), "/other");
+        // The response of the last callback URL
+        StreamResponseMessage response = protocol.getOutputMessage();
+        assertNotNull(response);
+        assertEquals(response.getOperation().getStatusCode(), UpnpResponse.Status.OK.getStatusCode());
+    }
+
+    protected LocalGENASubscription<GenaSampleData.LocalTestService> createSubscription(URL... callbackURLs) throws Exception {
+        LocalDevice<GenaSampleData.LocalTestService> localDevice = GenaSampleData.createTestDevice(GenaSampleData.LocalTestService.class);
+        LocalService<GenaSampleData.LocalTestService> localService = localDevice.getServices().iterator().next();
+        return new LocalGENASubscription<>(localService, 1800, List.of(callbackURLs)) {
+
+            @Override
+            public void ended(CancelReason reason) {
+            }
+
+            @Override
+            public void established() {
+            }
+
+            @Override
+            public void eventReceived() {
+            }
+        };
+    }
+}
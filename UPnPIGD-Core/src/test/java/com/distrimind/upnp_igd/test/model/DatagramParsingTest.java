@@ -26,6 +26,7 @@ import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 import com.distrimind.upnp_igd.model.message.header.ServerHeader;
 import com.distrimind.upnp_igd.model.message.header.EXTHeader;
 import com.distrimind.upnp_igd.model.message.header.InterfaceMacHeader;
+import com.distrimind.upnp_igd.model.message.LazyUpnpHeaders;
 import com.distrimind.upnp_igd.model.message.UpnpMessage;
 import com.distrimind.upnp_igd.model.message.UpnpRequest;
 import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
@@ -33,27 +34,38 @@ import com.distrimind.upnp_igd.model.message.discovery.OutgoingNotificationReque
 import com.distrimind.upnp_igd.test.data.SampleData;
 import com.distrimind.upnp_igd.test.data.SampleDeviceRoot;
 import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
+import com.distrimind.upnp_igd.transport.impl.LazyDatagramProcessorImpl;
 import com.distrimind.upnp_igd.transport.impl.NetworkAddressFactoryImpl;
 import com.distrimind.upnp_igd.DefaultUpnpServiceConfiguration;
 import com.distrimind.upnp_igd.util.io.HexBin;
 import org.testng.Assert;
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 
 import static org.testng.Assert.*;
 
 
 public class DatagramParsingTest {
 
-    @Test
-    public void readSource() throws Exception {
+    public static final String PROCESSORS = "processors";
 
-        DatagramPacket packet = getDatagramPacket();
+    @DataProvider(name = PROCESSORS)
+    public Object[][] getProcessors() {
+        return new DatagramProcessor[][]{
+            {new DefaultUpnpServiceConfiguration().getDatagramProcessor()},
+            {new LazyDatagramProcessorImpl()}
+        };
+    }
 
-        DatagramProcessor processor = new DefaultUpnpServiceConfiguration().getDatagramProcessor();
+    @Test(dataProvider = PROCESSORS)
+    public void readSource(DatagramProcessor processor) throws Exception {
+
+        DatagramPacket packet = getDatagramPacket();
 
         @SuppressWarnings("unchecked") UpnpMessage<UpnpRequest> msg = (UpnpMessage<UpnpRequest>)processor.read(InetAddress.getByName("127.0.0.1"), packet);
         assertEquals(msg.getOperation().getMethod(), UpnpRequest.Method.NOTIFY);
@@ -96,7 +108,50 @@ public class DatagramParsingTest {
     }
 
     @Test
-    public void parseRoundtrip() throws Exception {
+    public void readLazily() throws Exception {
+        DatagramPacket packet = getDatagramPacket();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(640);
+        buffer.put(packet.getData(), packet.getOffset(), packet.getLength());
+        buffer.flip();
+
+        UpnpMessage<?> msg = new LazyDatagramProcessorImpl().read(
+            InetAddress.getByName("127.0.0.1"), (InetSocketAddress) packet.getSocketAddress(), buffer
+        );
+        buffer.clear(); // The receive buffer is reused for the next datagram
+
+        assertEquals(((UpnpRequest) msg.getOperation()).getMethod(), UpnpRequest.Method.NOTIFY);
+        assertEquals(msg.getOperation().getHttpMinorVersion(), 1);
+        assertEquals(msg.getHeaders().getFirstHeader("nts"), "ssdp:alive");
+        assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.MAX_AGE, MaxAgeHeader.class).getValue().toString(), "2000");
+        assertNull(msg.getHeaders().getFirstHeader(UpnpHeader.Type.ST));
+        assertFalse(((LazyUpnpHeaders) msg.getHeaders()).isMaterialized());
+
+        // Any other access switches to the regular headers
+        assertEquals(msg.getHeaders().size(), 9);
+        assertTrue(((LazyUpnpHeaders) msg.getHeaders()).isMaterialized());
+        assertEquals(msg.getHeaders().getFirstHeader("Location"), "http://localhost:0/some/path/123/desc.xml");
+    }
+
+    @Test
+    public void readFoldedLazily() throws Exception {
+        String source = "HTTP/1.1 200 OK\r\n" +
+                        "CACHE-CONTROL: max-age=1800\r\n" +
+                        "SERVER: foo/1\r\n" +
+                        " UPnP/1.0 bar/2\r\n" +
+                        "EXT:\r\n\r\n";
+        DatagramPacket packet = new DatagramPacket(source.getBytes(), source.getBytes().length, new InetSocketAddress("123.123.123.123", 1234));
+
+        UpnpMessage<?> msg = new LazyDatagramProcessorImpl().read(InetAddress.getByName("127.0.0.1"), packet);
+        UpnpMessage<?> expected = new DefaultUpnpServiceConfiguration().getDatagramProcessor().read(InetAddress.getByName("127.0.0.1"), packet);
+
+        assertEquals(msg.getOperation().getHttpMinorVersion(), 1);
+        assertEquals(msg.getHeaders().getFirstHeader("SERVER"), expected.getHeaders().getFirstHeader("SERVER"));
+        assertEquals(msg.getHeaders().getFirstHeaderString(UpnpHeader.Type.MAX_AGE), "max-age=1800");
+        assertNotNull(msg.getHeaders().getFirstHeader(UpnpHeader.Type.EXT));
+    }
+
+    @Test(dataProvider = PROCESSORS)
+    public void parseRoundtrip(DatagramProcessor processor) throws Exception {
         Location location = new Location(
                 new NetworkAddress(
                         InetAddress.getByName("localhost"),
@@ -115,8 +170,6 @@ public class DatagramParsingTest {
 
         msg.getHeaders().add(UpnpHeader.Type.EXT, new EXTHeader()); // Again, the empty header value
 
-        DatagramProcessor processor = new DefaultUpnpServiceConfiguration().getDatagramProcessor();
-
         DatagramPacket packet = processor.write(msg);
 
         Assert.assertTrue(new String(packet.getData()).endsWith("\r\n\r\n"));
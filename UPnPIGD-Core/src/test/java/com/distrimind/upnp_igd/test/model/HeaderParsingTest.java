@@ -193,6 +193,29 @@ public class HeaderParsingTest {
         header.setString("max-foo=123");
     }
 
+    @Test
+    public void parseRawMaxAge() {
+        assertEquals(MaxAgeHeader.parseMaxAgeSeconds("max-age=1234, foobar=baz"), 1234);
+        assertEquals(MaxAgeHeader.parseMaxAgeSeconds("no-cache, MAX-AGE = 60"), 60);
+        assertEquals(MaxAgeHeader.parseMaxAgeSeconds("max-foo=123"), -1);
+        assertEquals(MaxAgeHeader.parseMaxAgeSeconds("max-age="), -1);
+        assertEquals(MaxAgeHeader.parseMaxAgeSeconds("max-age=99999999999"), -1);
+        assertEquals(MaxAgeHeader.parseMaxAgeSeconds(null), -1);
+    }
+
+    @Test
+    public void parseBootIdHeader() {
+        BootIdHeader header = new BootIdHeader();
+        header.setString(" 42 ");
+        assertEquals(header.getValue(), Integer.valueOf(42));
+    }
+
+    @Test(expectedExceptions = InvalidHeaderException.class)
+    public void parseInvalidBootIdHeader() {
+        BootIdHeader header = new BootIdHeader();
+        header.setString("-1");
+    }
+
     @Test
     public void parseMXHeader() {
         MXHeader header = new MXHeader();
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.test.protocol;
+
+import com.distrimind.upnp_igd.model.types.ServiceId;
+import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.model.types.UDN;
+import com.distrimind.upnp_igd.protocol.FileRemoteDescriptorCache;
+import com.distrimind.upnp_igd.protocol.RemoteDescriptorCache;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class FileRemoteDescriptorCacheTest {
+
+    @Test
+    public void persistDescriptors() throws Exception {
+        Path file = Files.createTempFile("descriptors", ".cache");
+        try {
+            UDN udn = UDN.uniqueSystemIdentifier("persist");
+            FileRemoteDescriptorCache cache = new FileRemoteDescriptorCache(file);
+            cache.putDeviceDescriptor(createDevice(udn, "http://10.0.0.1/desc.xml", 3, "\"a\""));
+            cache.putDeviceDescriptor(createDevice(udn, "http://10.0.0.2/desc.xml", null, null));
+            cache.putServiceDescriptor(new RemoteDescriptorCache.ServiceDescriptor(
+                    udn, new URL("http://10.0.0.1/scpd.xml"), 3, "\"b\"", "<scpd/>",
+                    ServiceType.valueOf("urn:schemas-upnp-org:service:SwitchPower:1"),
+                    ServiceId.valueOf("urn:upnp-org:serviceId:SwitchPower"),
+                    null
+            ));
+            cache.removeDeviceDescriptor(new URL("http://10.0.0.2/desc.xml"));
+            cache.close();
+
+            cache = new FileRemoteDescriptorCache(file);
+            assertEquals(cache.getDeviceDescriptorCount(), 1);
+            assertEquals(cache.getServiceDescriptorCount(), 1);
+            RemoteDescriptorCache.DeviceDescriptor device =
+                    cache.getDeviceDescriptor(udn, new URL("http://10.0.0.1/desc.xml"));
+            assertNotNull(device);
+            assertEquals(device.getConfigId(), Integer.valueOf(3));
+            assertEquals(device.getEntityTag(), "\"a\"");
+            assertEquals(device.getDescriptorXML(), "<root>é</root>");
+            assertEquals(device.getMaxAgeSeconds(), Integer.valueOf(1800));
+            assertEquals(device.getDiscoveredOnLocalAddress(), InetAddress.getByName("10.0.0.100"));
+            assertNull(cache.getDeviceDescriptor(udn, new URL("http://10.0.0.2/desc.xml")));
+            RemoteDescriptorCache.ServiceDescriptor service =
+                    cache.getServiceDescriptor(udn, new URL("http://10.0.0.1/scpd.xml"));
+            assertNotNull(service);
+            assertEquals(service.getServiceId().getId(), "SwitchPower");
+            assertEquals(service.getDescriptorXML(), "<scpd/>");
+            assertNull(service.getService());
+
+            cache.clear();
+            cache.close();
+            cache = new FileRemoteDescriptorCache(file);
+            assertEquals(cache.getDeviceDescriptorCount(), 0);
+            assertEquals(cache.getServiceDescriptorCount(), 0);
+            cache.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void discardTruncatedRecord() throws Exception {
+        Path file = Files.createTempFile("descriptors", ".cache");
+        try {
+            UDN udn = UDN.uniqueSystemIdentifier("truncated");
+            FileRemoteDescriptorCache cache = new FileRemoteDescriptorCache(file);
+            cache.putDeviceDescriptor(createDevice(udn, "http://10.0.0.1/desc.xml", 1, null));
+            cache.putDeviceDescriptor(createDevice(udn, "http://10.0.0.2/desc.xml", 1, null));
+            cache.close();
+
+            // Crash while the last record was written
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 3);
+            }
+
+            cache = new FileRemoteDescriptorCache(file);
+            assertEquals(cache.getDeviceDescriptorCount(), 1);
+            cache.putDeviceDescriptor(createDevice(udn, "http://10.0.0.3/desc.xml", 1, null));
+            cache.close();
+
+            cache = new FileRemoteDescriptorCache(file);
+            assertEquals(cache.getDeviceDescriptorCount(), 2);
+            assertNotNull(cache.getDeviceDescriptor(udn, new URL("http://10.0.0.3/desc.xml")));
+            cache.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void compactRecords() throws Exception {
+        Path file = Files.createTempFile("descriptors", ".cache");
+        try {
+            UDN udn = UDN.uniqueSystemIdentifier("compact");
+            FileRemoteDescriptorCache cache = new FileRemoteDescriptorCache(file);
+            for (int i = 0; i < 1000; i++) {
+                cache.putDeviceDescriptor(createDevice(udn, "http://10.0.0.1/desc.xml", i, null));
+            }
+            cache.putDeviceDescriptor(createDevice(udn, "http://10.0.0.1/desc.xml", 1000, null));
+            // Outdated records were discarded
+            assertTrue(Files.size(file) < 100 * 100);
+            cache.close();
+
+            cache = new FileRemoteDescriptorCache(file);
+            assertEquals(cache.getDeviceDescriptorCount(), 1);
+            assertEquals(cache.getDeviceDescriptor(udn, new URL("http://10.0.0.1/desc.xml")).getConfigId(), Integer.valueOf(1000));
+            cache.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    protected RemoteDescriptorCache.DeviceDescriptor createDevice(UDN udn, String url, Integer configId, String entityTag) throws Exception {
+        return new RemoteDescriptorCache.DeviceDescriptor(
+                udn, new URL(url), configId, entityTag, "<root>é</root>", 1800, InetAddress.getByName("10.0.0.100")
+        );
+    }
+}
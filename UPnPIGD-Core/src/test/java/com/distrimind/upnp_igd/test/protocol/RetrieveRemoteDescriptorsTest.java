@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.protocol;
+
+import com.distrimind.upnp_igd.mock.MockRouter;
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.mock.MockUpnpServiceConfiguration;
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.model.message.header.HostHeader;
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.model.meta.RemoteDevice;
+import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
+import com.distrimind.upnp_igd.model.meta.RemoteService;
+import com.distrimind.upnp_igd.protocol.DescriptorRetrievalCoordinator;
+import com.distrimind.upnp_igd.protocol.FileRemoteDescriptorCache;
+import com.distrimind.upnp_igd.protocol.RemoteDescriptorCache;
+import com.distrimind.upnp_igd.protocol.RestoreRemoteDevices;
+import com.distrimind.upnp_igd.protocol.RetrieveRemoteDescriptors;
+import com.distrimind.upnp_igd.protocol.sync.ReceivingRetrieval;
+import com.distrimind.upnp_igd.test.data.SampleData;
+import com.distrimind.upnp_igd.test.data.SampleDeviceRoot;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class RetrieveRemoteDescriptorsTest {
+
+    @Test
+    public void revalidateWithEntityTags() throws Exception {
+        MockUpnpService server = createServer();
+        MockUpnpService client = createClient(server);
+
+        retrieve(client, null);
+        List<StreamRequestMessage> sent = client.getRouter().getSentStreamRequestMessages();
+        assertEquals(sent.size(), 4);
+        for (StreamRequestMessage request : sent) {
+            assertNull(request.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_IF_NONE_MATCH));
+        }
+        RemoteDevice first = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+        assertNotNull(first);
+
+        // Rediscovery revalidates all descriptors and reuses the hydrated services
+        client.getRegistry().removeAllRemoteDevices();
+        sent.clear();
+        retrieve(client, null);
+        assertEquals(sent.size(), 4);
+        for (StreamRequestMessage request : sent) {
+            assertNotNull(request.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_IF_NONE_MATCH));
+        }
+        RemoteDevice second = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+        assertNotNull(second);
+        assertNotSame(second, first);
+        assertServicesMatch(second, first);
+    }
+
+    @Test
+    public void skipUnchangedConfiguration() throws Exception {
+        MockUpnpService server = createServer();
+        MockUpnpService client = createClient(server);
+
+        retrieve(client, 7);
+        List<StreamRequestMessage> sent = client.getRouter().getSentStreamRequestMessages();
+        assertEquals(sent.size(), 4);
+        RemoteDevice first = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+
+        // Same CONFIGID, nothing is requested
+        client.getRegistry().removeAllRemoteDevices();
+        sent.clear();
+        retrieve(client, 7);
+        assertEquals(sent.size(), 0);
+        RemoteDevice second = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+        assertNotNull(second);
+        assertServicesMatch(second, first);
+
+        // A new CONFIGID revalidates the descriptors
+        client.getRegistry().removeAllRemoteDevices();
+        sent.clear();
+        retrieve(client, 8);
+        assertEquals(sent.size(), 4);
+        assertNotNull(client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true));
+    }
+
+    @Test
+    public void notModifiedDescriptorResponse() throws Exception {
+        MockUpnpService server = createServer();
+
+        StreamResponseMessage response = retrieveDescriptor(server, null);
+        String entityTag = response.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_ETAG);
+        assertNotNull(entityTag);
+        assertNotNull(response.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_LAST_MODIFIED));
+
+        response = retrieveDescriptor(server, entityTag);
+        assertEquals(response.getOperation().getStatusCode(), UpnpResponse.Status.NOT_MODIFIED.getStatusCode());
+        assertFalse(response.hasBody());
+        assertEquals(response.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_ETAG), entityTag);
+
+        response = retrieveDescriptor(server, "W/\"other\", " + entityTag);
+        assertEquals(response.getOperation().getStatusCode(), UpnpResponse.Status.NOT_MODIFIED.getStatusCode());
+
+        response = retrieveDescriptor(server, "\"other\"");
+        assertEquals(response.getOperation().getStatusCode(), UpnpResponse.Status.OK.getStatusCode());
+        assertTrue(response.hasBody());
+    }
+
+    @Test
+    public void restoreFromFile() throws Exception {
+        Path file = Files.createTempFile("descriptors", ".cache");
+        try {
+            MockUpnpService server = createServer();
+            MockUpnpService client = createClient(server, createConfiguration(file));
+            retrieve(client, 7);
+            RemoteDevice first = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+            assertNotNull(first);
+            client.shutdown();
+
+            // Restoring doesn't send any request
+            client = createClient(server, createConfiguration(file));
+            RemoteDescriptorCache.DeviceDescriptor descriptor =
+                    client.getConfiguration().getRemoteDescriptorCache().getDeviceDescriptors().get(0);
+            assertEquals(descriptor.getConfigId(), Integer.valueOf(7));
+            assertTrue(new RetrieveRemoteDescriptors(client, new RemoteDevice(descriptor.createIdentity())).restore());
+            assertEquals(client.getRouter().getSentStreamRequestMessages().size(), 0);
+            RemoteDevice restored = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+            assertNotNull(restored);
+            assertServicesMatch(restored, first);
+            client.shutdown();
+
+            // Restored devices are revalidated even if the CONFIGID didn't change
+            client = createClient(server, createConfiguration(file));
+            new RestoreRemoteDevices(client).run();
+            List<StreamRequestMessage> sent = client.getRouter().getSentStreamRequestMessages();
+            assertEquals(sent.size(), 4);
+            for (StreamRequestMessage request : sent) {
+                assertNotNull(request.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_IF_NONE_MATCH));
+            }
+            restored = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+            assertNotNull(restored);
+            assertServicesMatch(restored, first);
+            client.shutdown();
+
+            // Unreachable devices are removed after restoring them
+            client = new MockUpnpService(createConfiguration(file));
+            new RestoreRemoteDevices(client).run();
+            assertEquals(client.getRouter().getSentStreamRequestMessages().size(), 1);
+            assertNull(client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true));
+            client.shutdown();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void retrieveServicesConcurrently() throws Exception {
+        MockUpnpService server = createServer();
+        AtomicInteger maxConcurrentRequests = new AtomicInteger();
+        MockUpnpService client = createClient(server, new MockUpnpServiceConfiguration(false, true), 200, maxConcurrentRequests);
+        try {
+            retrieve(client, null);
+            assertEquals(client.getRouter().getSentStreamRequestMessages().size(), 4);
+            assertEquals(maxConcurrentRequests.get(), 3);
+            RemoteDevice device = client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true);
+            assertNotNull(device);
+            assertEquals(device.findServices().size(), 3);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void abortAfterDeadline() throws Exception {
+        MockUpnpService server = createServer();
+        MockUpnpServiceConfiguration configuration = new MockUpnpServiceConfiguration(false, true) {
+            @Override
+            public int getDescriptorRetrievalConcurrency() {
+                return 1;
+            }
+
+            @Override
+            public int getDescriptorRetrievalTimeoutMillis() {
+                return 300;
+            }
+        };
+        MockUpnpService client = createClient(server, configuration, 200, new AtomicInteger());
+        try {
+            retrieve(client, null);
+            // The device descriptor and the first two service descriptors
+            assertEquals(client.getRouter().getSentStreamRequestMessages().size(), 3);
+            assertNull(client.getRegistry().getRemoteDevice(SampleDeviceRoot.getRootUDN(), true));
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void joinActiveRetrieval() throws Exception {
+        MockUpnpService server = createServer();
+        final MockUpnpService client = createClient(server, new MockUpnpServiceConfiguration(false, true), 300, new AtomicInteger());
+        try {
+            final RetrieveRemoteDescriptors first = createRetrieval(client, null);
+            CompletableFuture<CompletableFuture<RemoteDevice>> firstFuture = CompletableFuture.supplyAsync(first::retrieve);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (client.getRouter().getSentStreamRequestMessages().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // A late caller waits for the retrieval in progress instead of sending requests
+            CompletableFuture<RemoteDevice> second = createRetrieval(client, null).retrieve();
+            assertFalse(second.isDone());
+            RemoteDevice device = second.get(5, TimeUnit.SECONDS);
+            assertNotNull(device);
+            assertSame(firstFuture.get(5, TimeUnit.SECONDS).get(), device);
+            assertEquals(client.getRouter().getSentStreamRequestMessages().size(), 4);
+
+            // Already discovered
+            assertSame(createRetrieval(client, null).retrieve().get(), device);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void backoffAfterFailure() throws Exception {
+        MockUpnpService client = new MockUpnpService();
+        DescriptorRetrievalCoordinator coordinator = client.getProtocolFactory().getDescriptorRetrievalCoordinator();
+        URL descriptorURL = SampleData.createRemoteDeviceIdentity().getDescriptorURL();
+
+        assertNull(createRetrieval(client, null).retrieve().get());
+        assertEquals(client.getRouter().getSentStreamRequestMessages().size(), 1);
+        assertEquals(coordinator.getFailureCount(descriptorURL), 1);
+        assertTrue(coordinator.isBackingOff(descriptorURL));
+
+        // The device announces itself again, nothing is requested
+        assertNull(createRetrieval(client, null).retrieve().get());
+        assertEquals(client.getRouter().getSentStreamRequestMessages().size(), 1);
+        client.shutdown();
+    }
+
+    @Test
+    public void backoffDelays() throws Exception {
+        URL first = new URL("http://10.0.0.1/desc.xml");
+        URL second = new URL("http://10.0.0.2/desc.xml");
+        URL third = new URL("http://10.0.0.3/desc.xml");
+
+        // Retrying immediately counts consecutive failures
+        DescriptorRetrievalCoordinator coordinator = new DescriptorRetrievalCoordinator(0, 0, 2);
+        coordinator.retrieve(first, () -> null);
+        coordinator.retrieve(first, () -> null);
+        assertFalse(coordinator.isBackingOff(first));
+        assertEquals(coordinator.getFailureCount(first), 2);
+
+        // Recent failures are kept when too many descriptor URLs failed
+        coordinator = new DescriptorRetrievalCoordinator(60000, 600000, 2);
+        coordinator.retrieve(first, () -> null);
+        coordinator.retrieve(second, () -> null);
+        coordinator.retrieve(third, () -> null);
+        assertTrue(coordinator.isBackingOff(first));
+        assertTrue(coordinator.isBackingOff(second));
+        assertFalse(coordinator.isBackingOff(third));
+
+        // Success forgets the failures
+        coordinator = new DescriptorRetrievalCoordinator(0, 0, 2);
+        coordinator.retrieve(first, () -> null);
+        RemoteDevice device = new RemoteDevice(SampleData.createRemoteDeviceIdentity());
+        assertSame(coordinator.retrieve(first, () -> device).get(), device);
+        assertEquals(coordinator.getFailureCount(first), 0);
+    }
+
+    protected MockUpnpServiceConfiguration createConfiguration(final Path file) {
+        return new MockUpnpServiceConfiguration() {
+            @Override
+            protected RemoteDescriptorCache createRemoteDescriptorCache() {
+                return new FileRemoteDescriptorCache(file);
+            }
+        };
+    }
+
+    protected MockUpnpService createServer() throws Exception {
+        MockUpnpService server = new MockUpnpService();
+        server.getRegistry().addDevice(SampleData.createLocalDevice());
+        return server;
+    }
+
+    protected MockUpnpService createClient(final MockUpnpService server) {
+        return createClient(server, new MockUpnpServiceConfiguration());
+    }
+
+    protected MockUpnpService createClient(final MockUpnpService server, MockUpnpServiceConfiguration configuration) {
+        return createClient(server, configuration, 0, new AtomicInteger());
+    }
+
+    /**
+     * @param serviceDelayMillis The time the server takes to answer a service descriptor request.
+     * @param maxConcurrentRequests Updated with the maximum number of service descriptor requests
+     *                              answered at the same time.
+     */
+    protected MockUpnpService createClient(final MockUpnpService server, MockUpnpServiceConfiguration configuration,
+                                           final long serviceDelayMillis, final AtomicInteger maxConcurrentRequests) {
+        final AtomicInteger concurrentRequests = new AtomicInteger();
+        return new MockUpnpService(configuration) {
+            @Override
+            protected MockRouter createRouter() {
+                return new MockRouter(getConfiguration(), getProtocolFactory()) {
+                    @Override
+                    public StreamResponseMessage getStreamResponseMessage(StreamRequestMessage request) {
+                        if (serviceDelayMillis == 0
+                                || request.getUri().getPath().equals(SampleDeviceRoot.getDeviceDescriptorURI().getPath()))
+                            return retrieve(request);
+                        maxConcurrentRequests.accumulateAndGet(concurrentRequests.incrementAndGet(), Math::max);
+                        try {
+                            Thread.sleep(serviceDelayMillis);
+                            return retrieve(request);
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            return null;
+                        } finally {
+                            concurrentRequests.decrementAndGet();
+                        }
+                    }
+
+                    protected StreamResponseMessage retrieve(StreamRequestMessage request) {
+                        // Answer with the server's descriptors, the registry only knows relative paths
+                        StreamRequestMessage localRequest = new StreamRequestMessage(
+                                UpnpRequest.Method.GET,
+                                URI.create(request.getUri().getPath())
+                        );
+                        localRequest.getHeaders().putAll(request.getHeaders());
+                        localRequest.getHeaders().add(UpnpHeader.Type.HOST, new HostHeader("localhost", 1234));
+                        ReceivingRetrieval prot = new ReceivingRetrieval(server, localRequest);
+                        prot.run();
+                        return prot.getOutputMessage();
+                    }
+                };
+            }
+        };
+    }
+
+    protected void retrieve(MockUpnpService client, Integer configId) throws Exception {
+        createRetrieval(client, configId).run();
+    }
+
+    protected RetrieveRemoteDescriptors createRetrieval(MockUpnpService client, Integer configId) throws Exception {
+        RemoteDeviceIdentity identity = SampleData.createRemoteDeviceIdentity();
+        return new RetrieveRemoteDescriptors(client, new RemoteDevice(new RemoteDeviceIdentity(
+                identity.getUdn(),
+                identity.getMaxAgeSeconds(),
+                identity.getDescriptorURL(),
+                null,
+                identity.getDiscoveredOnLocalAddress(),
+                configId
+        )));
+    }
+
+    protected StreamResponseMessage retrieveDescriptor(MockUpnpService server, String ifNoneMatch) {
+        StreamRequestMessage request = new StreamRequestMessage(UpnpRequest.Method.GET, SampleDeviceRoot.getDeviceDescriptorURI());
+        request.getHeaders().add(UpnpHeader.Type.HOST, new HostHeader("localhost", 1234));
+        if (ifNoneMatch != null)
+            request.getHeaders().add(ReceivingRetrieval.HEADER_IF_NONE_MATCH, ifNoneMatch);
+        ReceivingRetrieval prot = new ReceivingRetrieval(server, request);
+        prot.run();
+        return prot.getOutputMessage();
+    }
+
+    protected void assertServicesMatch(RemoteDevice a, RemoteDevice b) {
+        RemoteService[] servicesA = a.findServices().toArray(new RemoteService[0]);
+        RemoteService[] servicesB = b.findServices().toArray(new RemoteService[0]);
+        assertEquals(servicesA.length, servicesB.length);
+        assertEquals(servicesA.length, 3);
+        int actions = 0;
+        for (RemoteService serviceA : servicesA) {
+            RemoteService serviceB = b.findService(serviceA.getServiceId());
+            assertNotNull(serviceB);
+            assertNotSame(serviceA, serviceB);
+            assertSame(serviceA.getDevice().getRoot(), a);
+            assertEquals(serviceA.getActions().size(), serviceB.getActions().size());
+            assertEquals(serviceA.getStateVariables().size(), serviceB.getStateVariables().size());
+            actions += serviceA.getActions().size();
+            for (com.distrimind.upnp_igd.model.meta.Action<RemoteService> action : serviceA.getActions()) {
+                assertSame(action.getService(), serviceA);
+            }
+        }
+        assertTrue(actions > 0);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.test.registry;
+
+import com.distrimind.upnp_igd.registry.ExpirationQueue;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class ExpirationQueueTest {
+
+    @Test
+    public void pollDueInDeadlineOrder() {
+        ExpirationQueue<String> queue = new ExpirationQueue<>();
+        queue.schedule("c", 300);
+        queue.schedule("a", 100);
+        queue.schedule("b", 200);
+
+        assertEquals(queue.getNextDeadline(), 100);
+        assertTrue(queue.pollDue(99).isEmpty());
+        assertEquals(queue.pollDue(200), List.of("a", "b"));
+        assertEquals(queue.size(), 1);
+        assertEquals(queue.getNextDeadline(), 300);
+        assertFalse(queue.contains("a"));
+        assertTrue(queue.contains("c"));
+    }
+
+    @Test
+    public void rescheduleAndCancel() {
+        ExpirationQueue<String> queue = new ExpirationQueue<>();
+        queue.schedule("a", 100);
+        queue.schedule("b", 200);
+
+        // Replaces the previous deadline
+        queue.schedule("a", 500);
+        assertEquals(queue.getDeadline("a"), Long.valueOf(500));
+        assertEquals(queue.getNextDeadline(), 200);
+
+        assertTrue(queue.cancel("b"));
+        assertFalse(queue.cancel("b"));
+        assertNull(queue.getDeadline("b"));
+        assertTrue(queue.pollDue(400).isEmpty());
+        assertEquals(queue.pollDue(500), List.of("a"));
+        assertEquals(queue.getNextDeadline(), Long.MAX_VALUE);
+        assertEquals(queue.size(), 0);
+    }
+
+    @Test
+    public void compactReplacedDeadlines() {
+        ExpirationQueue<Integer> queue = new ExpirationQueue<>();
+        for (int i = 0; i < 100000; i++)
+            queue.schedule(i % 10, 1000 + i);
+        assertEquals(queue.size(), 10);
+        assertEquals(queue.getNextDeadline(), 1000 + 99990);
+        assertEquals(queue.pollDue(Long.MAX_VALUE - 1).size(), 10);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.registry;
+
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.model.meta.DeviceDetails;
+import com.distrimind.upnp_igd.model.meta.RemoteDevice;
+import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
+import com.distrimind.upnp_igd.model.meta.RemoteService;
+import com.distrimind.upnp_igd.model.types.UDADeviceType;
+import com.distrimind.upnp_igd.model.types.UDAServiceId;
+import com.distrimind.upnp_igd.model.types.UDAServiceType;
+import com.distrimind.upnp_igd.model.types.UDN;
+import com.distrimind.upnp_igd.registry.DefaultRegistryListener;
+import com.distrimind.upnp_igd.registry.Registry;
+import com.distrimind.upnp_igd.test.data.SampleData;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * Concurrent additions, updates, removals and lookups of remote devices.
+ *
+ * @author Jason Mahdjoub
+ */
+public class RegistryConcurrencyTest {
+
+    static final int DEVICES = 64;
+    static final int THREADS = 8;
+    static final int OPERATIONS = 4000;
+
+    static final UDADeviceType ROOT_TYPE = new UDADeviceType("StressRoot", 1);
+    static final UDADeviceType EMBEDDED_TYPE = new UDADeviceType("StressEmbedded", 1);
+    static final UDAServiceType SERVICE_TYPE = new UDAServiceType("StressService", 1);
+
+    /**
+     * Checks that additions and removals of each device are notified alternately.
+     */
+    static class CountingListener extends DefaultRegistryListener {
+
+        final Map<UDN, AtomicInteger> registered = new ConcurrentHashMap<>();
+        final AtomicInteger added = new AtomicInteger();
+        final AtomicInteger removed = new AtomicInteger();
+        final AtomicInteger violations = new AtomicInteger();
+
+        @Override
+        public void remoteDeviceAdded(Registry registry, RemoteDevice device) {
+            added.incrementAndGet();
+            if (registered.computeIfAbsent(device.getIdentity().getUdn(), udn -> new AtomicInteger()).incrementAndGet() != 1)
+                violations.incrementAndGet();
+        }
+
+        @Override
+        public void remoteDeviceRemoved(Registry registry, RemoteDevice device) {
+            removed.incrementAndGet();
+            if (registered.computeIfAbsent(device.getIdentity().getUdn(), udn -> new AtomicInteger()).decrementAndGet() != 0)
+                violations.incrementAndGet();
+        }
+    }
+
+    @Test
+    public void concurrentAddUpdateRemoveAndLookup() throws Exception {
+        final MockUpnpService upnpService = new MockUpnpService();
+        final Registry registry = upnpService.getRegistry();
+        final CountingListener listener = new CountingListener();
+        registry.addListener(listener);
+
+        final List<RemoteDevice> devices = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++)
+            devices.add(createDevice(i));
+        int resourcesPerDevice = upnpService.getConfiguration().getNamespace().getResources(devices.get(0)).size();
+        assertTrue(resourcesPerDevice > 0);
+
+        final AtomicInteger inconsistentLookups = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final Random random = new Random(t);
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < OPERATIONS; i++) {
+                    RemoteDevice device = devices.get(random.nextInt(DEVICES));
+                    UDN udn = device.getIdentity().getUdn();
+                    UDN embeddedUDN = device.getEmbeddedDevices().get(0).getIdentity().getUdn();
+                    switch (random.nextInt(6)) {
+                        case 0:
+                            registry.addDevice(device);
+                            break;
+                        case 1:
+                            registry.update(device.getIdentity());
+                            break;
+                        case 2:
+                            registry.removeDevice(device);
+                            break;
+                        case 3:
+                            RemoteDevice embedded = registry.getRemoteDevice(embeddedUDN, false);
+                            if (embedded != null && !embedded.getIdentity().getUdn().equals(embeddedUDN))
+                                inconsistentLookups.incrementAndGet();
+                            if (registry.getRemoteDevice(embeddedUDN, true) != null)
+                                inconsistentLookups.incrementAndGet();
+                            break;
+                        case 4:
+                            if (registry.getDevices(EMBEDDED_TYPE).size() > DEVICES
+                                    || registry.getDevices(SERVICE_TYPE).size() > 2 * DEVICES)
+                                inconsistentLookups.incrementAndGet();
+                            break;
+                        default:
+                            if (registry.getRemoteDevices().size() > DEVICES)
+                                inconsistentLookups.incrementAndGet();
+                            registry.getResources();
+                            break;
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures)
+            future.get(60, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        assertEquals(listener.violations.get(), 0);
+        assertEquals(inconsistentLookups.get(), 0);
+
+        // The indexes, the resources and the notified listeners agree on the registered devices
+        int registered = 0;
+        for (RemoteDevice device : devices) {
+            UDN udn = device.getIdentity().getUdn();
+            AtomicInteger state = listener.registered.get(udn);
+            boolean notifiedAsRegistered = state != null && state.get() == 1;
+            assertEquals(registry.getRemoteDevice(udn, true) != null, notifiedAsRegistered);
+            assertEquals(
+                    registry.getRemoteDevice(device.getEmbeddedDevices().get(0).getIdentity().getUdn(), false) != null,
+                    notifiedAsRegistered
+            );
+            if (notifiedAsRegistered)
+                registered++;
+        }
+        assertEquals(listener.added.get() - listener.removed.get(), registered);
+        assertEquals(registry.getRemoteDevices().size(), registered);
+        assertEquals(registry.getDevices(ROOT_TYPE).size(), registered);
+        assertEquals(registry.getDevices(EMBEDDED_TYPE).size(), registered);
+        assertEquals(registry.getDevices(SERVICE_TYPE).size(), 2 * registered);
+        assertEquals(registry.getResources().size(), resourcesPerDevice * registered);
+
+        registry.removeAllRemoteDevices();
+        assertEquals(registry.getRemoteDevices().size(), 0);
+        assertEquals(registry.getDevices(SERVICE_TYPE).size(), 0);
+        assertEquals(registry.getResources().size(), 0);
+        assertEquals(listener.added.get(), listener.removed.get());
+
+        upnpService.shutdown();
+    }
+
+    protected RemoteDevice createDevice(int index) throws Exception {
+        RemoteDeviceIdentity identity = new RemoteDeviceIdentity(
+                new UDN("STRESS-ROOT-" + index),
+                1800,
+                SampleData.getLocalBaseURL(),
+                null,
+                SampleData.getLocalBaseAddress()
+        );
+        RemoteDevice embedded = new RemoteDevice(
+                new RemoteDeviceIdentity(new UDN("STRESS-EMBEDDED-" + index), identity),
+                EMBEDDED_TYPE,
+                new DeviceDetails("Embedded " + index),
+                createService(index, "embedded")
+        );
+        return new RemoteDevice(
+                identity,
+                ROOT_TYPE,
+                new DeviceDetails("Root " + index),
+                createService(index, "root"),
+                embedded
+        );
+    }
+
+    protected RemoteService createService(int index, String name) throws Exception {
+        String path = "/stress/" + index + "/" + name;
+        return new RemoteService(
+                SERVICE_TYPE,
+                new UDAServiceId("Stress" + name),
+                URI.create(path + "/desc"),
+                URI.create(path + "/control"),
+                URI.create(path + "/event")
+        );
+    }
+}
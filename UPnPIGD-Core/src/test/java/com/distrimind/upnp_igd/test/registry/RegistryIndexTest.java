@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.registry;
+
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.model.UnsupportedDataException;
+import com.distrimind.upnp_igd.model.gena.CancelReason;
+import com.distrimind.upnp_igd.model.gena.RemoteGENASubscription;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.model.meta.RemoteDevice;
+import com.distrimind.upnp_igd.model.meta.RemoteService;
+import com.distrimind.upnp_igd.model.types.UDADeviceType;
+import com.distrimind.upnp_igd.model.types.UDAServiceType;
+import com.distrimind.upnp_igd.registry.Registry;
+import com.distrimind.upnp_igd.test.data.SampleData;
+import com.distrimind.upnp_igd.test.data.SampleDeviceEmbeddedOne;
+import com.distrimind.upnp_igd.test.data.SampleDeviceEmbeddedTwo;
+import com.distrimind.upnp_igd.test.data.SampleDeviceRoot;
+import org.testng.annotations.Test;
+
+import java.util.Collection;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class RegistryIndexTest {
+
+    @Test
+    public void lookupEmbeddedDevices() {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        registry.addDevice(rd);
+
+        assertEquals(registry.getDevice(SampleDeviceRoot.getRootUDN(), true), rd);
+        assertNull(registry.getDevice(SampleDeviceEmbeddedOne.getEmbeddedOneUDN(), true));
+        assertEquals(
+                registry.getRemoteDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false),
+                rd.findDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN())
+        );
+        assertNull(registry.getLocalDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false));
+
+        // Compatible versions are matched
+        Collection<?> devices = registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-TWO", 1));
+        assertEquals(devices.size(), 1);
+        assertTrue(devices.contains(rd.findDevice(SampleDeviceEmbeddedOne.getEmbeddedOneUDN())));
+        assertEquals(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-TWO", 3)).size(), 0);
+        assertEquals(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-UNKNOWN", 1)).size(), 0);
+
+        devices = registry.getDevices(new UDAServiceType("MY-SERVICE-TYPE-TWO", 1));
+        assertEquals(devices.size(), 1);
+        assertTrue(devices.contains(rd.findDevice(SampleDeviceEmbeddedOne.getEmbeddedOneUDN())));
+        assertEquals(registry.getDevices(new UDAServiceType("MY-SERVICE-TYPE-TWO", 3)).size(), 0);
+
+        // Refreshing the expiration keeps the indexes
+        assertTrue(registry.update(rd.getIdentity()));
+        assertNotNull(registry.getDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false));
+        assertEquals(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-THREE", 3)).size(), 1);
+
+        assertTrue(registry.removeDevice(rd));
+        assertNull(registry.getDevice(SampleDeviceRoot.getRootUDN(), false));
+        assertNull(registry.getDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false));
+        assertEquals(registry.getDevices(new UDADeviceType("MY-DEVICE-TYPE-TWO", 1)).size(), 0);
+        assertEquals(registry.getDevices(new UDAServiceType("MY-SERVICE-TYPE-TWO", 1)).size(), 0);
+        assertEquals(registry.getDevices().size(), 0);
+
+        // Registered again after removal
+        registry.addDevice(rd);
+        assertNotNull(registry.getDevice(SampleDeviceEmbeddedTwo.getEmbeddedTwoUDN(), false));
+        assertEquals(registry.getDevices(new UDAServiceType("MY-SERVICE-TYPE-ONE", 1)).size(), 1);
+
+        upnpService.shutdown();
+    }
+
+    @Test
+    public void lookupSubscriptions() {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        registry.addDevice(rd);
+
+        RemoteGENASubscription first = createSubscription(SampleData.getFirstService(rd), "uuid:1");
+        RemoteGENASubscription second = createSubscription(SampleData.getFirstService(rd), "uuid:2");
+        registry.addRemoteSubscription(first);
+        registry.addRemoteSubscription(second);
+
+        assertEquals(registry.getRemoteSubscription("uuid:1"), first);
+        assertEquals(registry.getRemoteSubscription("uuid:2"), second);
+        assertNull(registry.getRemoteSubscription("uuid:3"));
+
+        registry.updateRemoteSubscription(first);
+        assertEquals(registry.getRemoteSubscription("uuid:1"), first);
+
+        registry.removeRemoteSubscription(first);
+        assertNull(registry.getRemoteSubscription("uuid:1"));
+        assertEquals(registry.getRemoteSubscription("uuid:2"), second);
+
+        // Subscriptions end with their device
+        registry.removeDevice(rd);
+        assertNull(registry.getRemoteSubscription("uuid:2"));
+
+        upnpService.shutdown();
+    }
+
+    protected RemoteGENASubscription createSubscription(RemoteService service, String subscriptionId) {
+        RemoteGENASubscription subscription = new RemoteGENASubscription(service, 1800) {
+            @Override
+            public void failed(UpnpResponse responseStatus) {
+            }
+
+            @Override
+            public void ended(CancelReason reason, UpnpResponse responseStatus) {
+            }
+
+            @Override
+            public void eventsMissed(int numberOfMissedEvents) {
+            }
+
+            @Override
+            public void established() {
+            }
+
+            @Override
+            public void eventReceived() {
+            }
+
+            @Override
+            public void invalidMessage(UnsupportedDataException ex) {
+            }
+        };
+        subscription.setSubscriptionId(subscriptionId);
+        return subscription;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.registry;
+
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.model.meta.LocalDevice;
+import com.distrimind.upnp_igd.model.resource.Resource;
+import com.distrimind.upnp_igd.registry.Registry;
+import com.distrimind.upnp_igd.test.data.SampleData;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.Collection;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class RegistryResourceTest {
+
+    @Test
+    public void lookupResources() {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        for (int i = 0; i < 1000; i++)
+            registry.addResource(new Resource<>(URI.create("/callback/" + i), "model" + i));
+
+        assertEquals(registry.getResource(URI.create("/callback/42")).getModel(), "model42");
+        // Trailing slash added by some control points
+        assertEquals(registry.getResource(URI.create("/callback/42/")).getModel(), "model42");
+        assertNull(registry.getResource(URI.create("/callback/1000")));
+
+        // Replaced under the same path
+        registry.addResource(new Resource<>(URI.create("/callback/42"), "other"));
+        assertEquals(registry.getResource(URI.create("/callback/42")).getModel(), "other");
+        assertEquals(registry.getResources().size(), 1000);
+
+        assertTrue(registry.removeResource(new Resource<>(URI.create("/callback/42"), "removed")));
+        assertNull(registry.getResource(URI.create("/callback/42")));
+        assertFalse(registry.removeResource(new Resource<>(URI.create("/callback/42"), "removed")));
+
+        upnpService.shutdown();
+    }
+
+    @Test
+    public void lookupCustomMatchingResources() {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        Resource<String> prefixResource = new Resource<>(URI.create("/prefix"), "prefix") {
+            @Override
+            public boolean matches(URI pathQuery) {
+                return pathQuery.getPath().startsWith(getPathQuery().getPath());
+            }
+        };
+        registry.addResource(prefixResource);
+        registry.addResource(new Resource<>(URI.create("/prefix/exact"), "exact"));
+
+        assertEquals(registry.getResource(URI.create("/prefix/exact")).getModel(), "exact");
+        assertEquals(registry.getResource(URI.create("/prefix/other")), prefixResource);
+
+        registry.removeResource(prefixResource);
+        assertNull(registry.getResource(URI.create("/prefix/other")));
+
+        upnpService.shutdown();
+    }
+
+    @Test
+    public void lookupLocalDeviceResources() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        Registry registry = upnpService.getRegistry();
+
+        LocalDevice<?> localDevice = SampleData.createLocalDevice();
+        registry.addDevice(localDevice);
+
+        Collection<Resource<?>> resources = upnpService.getConfiguration().getNamespace().getResources(localDevice);
+        assertFalse(resources.isEmpty());
+        for (Resource<?> resource : resources) {
+            assertEquals(registry.getResource(resource.getPathQuery()), resource);
+        }
+
+        registry.removeDevice(localDevice);
+        for (Resource<?> resource : resources) {
+            assertNull(registry.getResource(resource.getPathQuery()));
+        }
+
+        upnpService.shutdown();
+    }
+}
@@ -26,6 +26,7 @@ import com.distrimind.upnp_igd.model.message.header.ContentTypeHeader;
 import com.distrimind.upnp_igd.model.message.header.HostHeader;
 import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 import com.distrimind.upnp_igd.protocol.sync.ReceivingRetrieval;
+import com.distrimind.upnp_igd.registry.DescriptorCache;
 import com.distrimind.upnp_igd.test.data.SampleData;
 import com.distrimind.upnp_igd.test.data.SampleDeviceRoot;
 import org.testng.annotations.Test;
@@ -69,6 +70,59 @@ public class DeviceDescriptorRetrievalTest {
         );
     }
 
+    @Test
+    public void retrieveCachedDescriptor() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+
+        LocalDevice<?> localDevice = SampleData.createLocalDevice();
+        upnpService.getRegistry().addDevice(localDevice);
+
+        StreamResponseMessage first = retrieveDescriptor(upnpService);
+        StreamResponseMessage second = retrieveDescriptor(upnpService);
+        assertEquals(upnpService.getRegistry().getDescriptorCache().size(), 1);
+
+        String entityTag = first.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_ETAG);
+        assertNotNull(entityTag);
+        assertEquals(second.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_ETAG), entityTag);
+        assertEquals(second.getStreamingBody().getContentLength(), first.getBodyBytes().length);
+        assertEquals(second.getBodyBytes(), first.getBodyBytes());
+
+        // Registration changes invalidate the cache
+        upnpService.getRegistry().removeDevice(localDevice);
+        assertEquals(upnpService.getRegistry().getDescriptorCache().size(), 0);
+        assertNull(retrieveDescriptor(upnpService));
+
+        upnpService.getRegistry().addDevice(SampleData.createLocalDevice());
+        StreamResponseMessage third = retrieveDescriptor(upnpService);
+        assertEquals(third.getBodyBytes(), first.getBodyBytes());
+        assertEquals(third.getHeaders().getFirstHeader(ReceivingRetrieval.HEADER_ETAG), entityTag);
+    }
+
+    @Test
+    public void limitDescriptorVariants() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+
+        // The sample provider returns new device details for every request
+        LocalDevice<?> localDevice = SampleData.createLocalDevice(true);
+        upnpService.getRegistry().addDevice(localDevice);
+
+        DescriptorCache cache = upnpService.getRegistry().getDescriptorCache();
+        for (int i = 0; i < cache.getMaxVariantsPerResource() + 4; i++) {
+            assertNotNull(retrieveDescriptor(upnpService));
+            assertTrue(cache.size() <= cache.getMaxVariantsPerResource());
+        }
+    }
+
+    protected StreamResponseMessage retrieveDescriptor(MockUpnpService upnpService) throws Exception {
+        StreamRequestMessage descRetrievalMessage = new StreamRequestMessage(UpnpRequest.Method.GET, SampleDeviceRoot.getDeviceDescriptorURI());
+        descRetrievalMessage.getHeaders().add(UpnpHeader.Type.HOST, new HostHeader("localhost", 1234));
+        ReceivingRetrieval prot = new ReceivingRetrieval(upnpService, descRetrievalMessage);
+        prot.run();
+        return prot.getOutputMessage();
+    }
+
     @Test
     public void retrieveNonExistentDescriptor() throws Exception {
 
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.ssdp;
+
+import com.distrimind.upnp_igd.mock.MockScheduledExecutorService;
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.mock.MockUpnpServiceConfiguration;
+import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.model.meta.LocalDevice;
+import com.distrimind.upnp_igd.model.types.NotificationSubtype;
+import com.distrimind.upnp_igd.model.types.UDN;
+import com.distrimind.upnp_igd.protocol.async.SendingNotificationAlive;
+import com.distrimind.upnp_igd.protocol.async.SendingSearch;
+import com.distrimind.upnp_igd.registry.AliveAdvertisementSchedule;
+import com.distrimind.upnp_igd.transport.OutgoingDatagramRateLimiter;
+import com.distrimind.upnp_igd.test.data.SampleData;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class AdvertisementSchedulingTest {
+
+    @Test
+    public void spreadFirstRefreshOverPeriod() {
+        AliveAdvertisementSchedule schedule = new AliveAdvertisementSchedule(new Random(42));
+        long period = 900000;
+        int devices = 300;
+        int[] buckets = new int[5];
+        for (int i = 0; i < devices; i++) {
+            UDN udn = new UDN("device-" + i);
+            schedule.scheduleFirst(udn, period, 0);
+            long next = schedule.getNextAdvertisementTimestamp(udn);
+            assertTrue(next >= period / 2 && next <= period, "Out of window: " + next);
+            buckets[(int) Math.min(4, (next - period / 2) * 5 / (period / 2))]++;
+        }
+        // Devices registered together don't refresh together
+        for (int bucket : buckets)
+            assertTrue(bucket > devices / 10, "Uneven spread: " + bucket);
+    }
+
+    @Test
+    public void rescheduleWithJitter() {
+        AliveAdvertisementSchedule schedule = new AliveAdvertisementSchedule(new Random(42));
+        UDN udn = new UDN("device");
+        schedule.scheduleFirst(udn, 1000, 0);
+        assertFalse(schedule.isDue(udn, 499));
+        assertTrue(schedule.isDue(udn, 1000));
+
+        schedule.scheduleNext(udn, 1000, 1000);
+        long next = schedule.getNextAdvertisementTimestamp(udn);
+        assertTrue(next >= 1900 && next <= 2000, "Out of window: " + next);
+
+        // Not expiring, not refreshed
+        schedule.scheduleNext(udn, 0, 2000);
+        assertFalse(schedule.isScheduled(udn));
+        assertFalse(schedule.isDue(udn, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void limitOutgoingDatagrams() {
+        OutgoingDatagramRateLimiter limiter = new OutgoingDatagramRateLimiter(100);
+        // A tenth of a second passes without waiting
+        long waited = 0;
+        for (int i = 0; i < 9; i++)
+            waited += limiter.reserve(1);
+        assertEquals(waited, 0);
+
+        // Then each datagram waits for its slot of 10 milliseconds
+        long wait = limiter.reserve(50);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400) && wait <= TimeUnit.MILLISECONDS.toNanos(500), "Wait: " + wait);
+        assertEquals(limiter.reserve(0), 0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectInvalidLimit() {
+        new OutgoingDatagramRateLimiter(0);
+    }
+
+    @Test
+    public void scheduleAliveRepeats() throws Exception {
+        ManualScheduledExecutorService scheduler = new ManualScheduledExecutorService();
+        MockUpnpService upnpService = createUpnpService(scheduler);
+        LocalDevice<?> device = SampleData.createLocalDevice();
+        upnpService.getRegistry().addDevice(device);
+
+        new SendingNotificationAlive(upnpService, device).run();
+        int bulk = countAliveMessages(upnpService);
+        assertTrue(bulk > 0);
+        // The executing thread only sent the first bulk
+        assertEquals(scheduler.tasks.size(), 2);
+
+        scheduler.runTasks();
+        assertEquals(countAliveMessages(upnpService), 3 * bulk);
+    }
+
+    @Test
+    public void skipAliveRepeatsOfRemovedDevice() throws Exception {
+        ManualScheduledExecutorService scheduler = new ManualScheduledExecutorService();
+        MockUpnpService upnpService = createUpnpService(scheduler);
+        LocalDevice<?> device = SampleData.createLocalDevice();
+        upnpService.getRegistry().addDevice(device);
+
+        new SendingNotificationAlive(upnpService, device).run();
+        int bulk = countAliveMessages(upnpService);
+
+        // Its BYEBYE is on its way, no ALIVE may follow it
+        upnpService.getRegistry().removeDevice(device);
+        scheduler.runTasks();
+        assertEquals(countAliveMessages(upnpService), bulk);
+    }
+
+    @Test
+    public void keepAliveRepeatsOfUnregisteredDevice() throws Exception {
+        ManualScheduledExecutorService scheduler = new ManualScheduledExecutorService();
+        MockUpnpService upnpService = createUpnpService(scheduler);
+        LocalDevice<?> device = SampleData.createLocalDevice();
+
+        new SendingNotificationAlive(upnpService, device).run();
+        int bulk = countAliveMessages(upnpService);
+        scheduler.runTasks();
+        assertEquals(countAliveMessages(upnpService), 3 * bulk);
+    }
+
+    @Test
+    public void scheduleSearchRepeats() throws Exception {
+        ManualScheduledExecutorService scheduler = new ManualScheduledExecutorService();
+        MockUpnpService upnpService = createUpnpService(scheduler);
+
+        SendingSearch search = new SendingSearch(upnpService);
+        search.run();
+        assertEquals(upnpService.getRouter().getOutgoingDatagramMessages().size(), 1);
+        assertEquals(scheduler.tasks.size(), search.getBulkRepeat() - 1);
+
+        scheduler.runTasks();
+        assertEquals(upnpService.getRouter().getOutgoingDatagramMessages().size(), search.getBulkRepeat());
+    }
+
+    protected MockUpnpService createUpnpService(final ScheduledExecutorService scheduler) {
+        return new MockUpnpService(new MockUpnpServiceConfiguration() {
+            @Override
+            public ScheduledExecutorService getScheduledExecutorService() {
+                return scheduler;
+            }
+        });
+    }
+
+    protected int countAliveMessages(MockUpnpService upnpService) {
+        int count = 0;
+        for (OutgoingDatagramMessage<?> msg : upnpService.getRouter().getOutgoingDatagramMessages()) {
+            if (NotificationSubtype.ALIVE.getHeaderString().equals(msg.getHeaders().getFirstHeaderString(UpnpHeader.Type.NTS)))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Keeps the scheduled tasks until the test runs them.
+     */
+    static class ManualScheduledExecutorService extends MockScheduledExecutorService {
+
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            tasks.add(command);
+            return null;
+        }
+
+        void runTasks() {
+            List<Runnable> due = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : due)
+                task.run();
+        }
+    }
+}
@@ -15,7 +15,9 @@
 
 package com.distrimind.upnp_igd.test.ssdp;
 
+import com.distrimind.upnp_igd.mock.MockRouter;
 import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.model.NetworkAddress;
 import com.distrimind.upnp_igd.model.ServerClientTokens;
 import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.UpnpMessage;
@@ -27,8 +29,14 @@ import com.distrimind.upnp_igd.protocol.async.SendingNotificationByebye;
 import com.distrimind.upnp_igd.test.data.SampleData;
 import com.distrimind.upnp_igd.test.data.SampleDeviceRoot;
 import com.distrimind.upnp_igd.test.data.SampleUSNHeaders;
+import com.distrimind.upnp_igd.transport.RouterException;
 import org.testng.annotations.Test;
 
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.testng.Assert.assertEquals;
 
 
@@ -76,6 +84,49 @@ public class AdvertisementTest {
             rootDevice, embeddedDevice, UpnpHeader.Type.NT);
     }
 
+    @Test
+    public void sendAliveMessagesPerInterface() throws Exception {
+
+        final InetAddress first = InetAddress.getByName("10.0.0.1");
+        final InetAddress second = InetAddress.getByName("192.168.1.1");
+        final List<InetAddress> bindAddresses = new ArrayList<>();
+
+        MockUpnpService upnpService = new MockUpnpService() {
+            @Override
+            protected MockRouter createRouter() {
+                return new MockRouter(getConfiguration(), getProtocolFactory()) {
+                    @Override
+                    public List<NetworkAddress> getActiveStreamServers(InetAddress preferredAddress) {
+                        return List.of(new NetworkAddress(first, 8080), new NetworkAddress(second, 8080));
+                    }
+
+                    @Override
+                    public void send(OutgoingDatagramMessage<?> msg, InetAddress bindAddress) throws RouterException {
+                        bindAddresses.add(bindAddress);
+                        super.send(msg, bindAddress);
+                    }
+                };
+            }
+        };
+
+        LocalDevice<?> rootDevice = SampleData.createLocalDevice();
+
+        SendingNotificationAlive prot = new SendingNotificationAlive(upnpService, rootDevice);
+        prot.run();
+
+        List<OutgoingDatagramMessage<?>> msgs = upnpService.getRouter().getOutgoingDatagramMessages();
+        assertEquals(bindAddresses.size(), msgs.size());
+        int onFirst = 0;
+        for (int i = 0; i < msgs.size(); i++) {
+            // Each advertisement only leaves through the interface of its location
+            URL location = (URL) msgs.get(i).getHeaders().getFirstHeader(UpnpHeader.Type.LOCATION).getValue();
+            assertEquals(InetAddress.getByName(location.getHost()), bindAddresses.get(i));
+            if (bindAddresses.get(i).equals(first))
+                onFirst++;
+        }
+        assertEquals(onFirst * 2, msgs.size());
+    }
+
     protected void assertAliveMsgBasics(UpnpMessage<?> msg) {
         assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.NTS).getValue(), NotificationSubtype.ALIVE);
         assertEquals(msg.getHeaders().getFirstHeader(UpnpHeader.Type.LOCATION).getValue().toString(), SampleDeviceRoot.getDeviceDescriptorURL().toString());
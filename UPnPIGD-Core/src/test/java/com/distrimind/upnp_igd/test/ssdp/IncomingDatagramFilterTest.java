@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.ssdp;
+
+import com.distrimind.upnp_igd.UpnpServiceConfiguration;
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.mock.MockUpnpServiceConfiguration;
+import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.UpnpHeaders;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.model.types.ServiceType;
+import com.distrimind.upnp_igd.model.types.UDAServiceType;
+import com.distrimind.upnp_igd.protocol.ProtocolFactory;
+import com.distrimind.upnp_igd.protocol.ProtocolFactoryImpl;
+import com.distrimind.upnp_igd.protocol.ReceivingAsync;
+import com.distrimind.upnp_igd.transport.IncomingDatagramFilter;
+import com.distrimind.upnp_igd.transport.RouterImpl;
+import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class IncomingDatagramFilterTest {
+
+    @Test
+    public void admitSearchResponse() throws Exception {
+        MockUpnpServiceConfiguration configuration = new MockUpnpServiceConfiguration();
+        NetworkAddressFactory networkAddressFactory = configuration.createNetworkAddressFactory();
+        IncomingDatagramFilter filter = new IncomingDatagramFilter(configuration);
+
+        assertNotNull(filter.filter(createResponse("http://127.0.0.1:8080/desc.xml"), networkAddressFactory));
+        assertEquals(filter.getAcceptedCount(), 1);
+    }
+
+    @Test
+    public void dropInvalidMessages() throws Exception {
+        MockUpnpServiceConfiguration configuration = new MockUpnpServiceConfiguration();
+        NetworkAddressFactory networkAddressFactory = configuration.createNetworkAddressFactory();
+        IncomingDatagramFilter filter = new IncomingDatagramFilter(configuration);
+
+        IncomingDatagramMessage<UpnpRequest> notify = new IncomingDatagramMessage<>(
+            new UpnpRequest(UpnpRequest.Method.NOTIFY), InetAddress.getByName("127.0.0.1"), 1900, InetAddress.getByName("127.0.0.1")
+        );
+        UpnpHeaders headers = new UpnpHeaders();
+        headers.add("HOST", "239.255.255.250:1900");
+        headers.add("NT", "upnp:rootdevice");
+        headers.add("NTS", "ssdp:alive");
+        notify.setHeaders(headers);
+        assertNull(filter.filter(notify, networkAddressFactory));
+        assertEquals(filter.getDroppedCount(IncomingDatagramFilter.DropReason.DISALLOWED_HEADER), 1);
+
+        assertNull(filter.filter(createResponse("http://10.11.12.13:8080/desc.xml"), networkAddressFactory));
+        assertNull(filter.filter(createResponse("not a url"), networkAddressFactory));
+        assertEquals(filter.getDroppedCount(IncomingDatagramFilter.DropReason.INVALID_LOCATION), 2);
+
+        assertEquals(filter.getAcceptedCount(), 0);
+    }
+
+    @Test
+    public void dropUnsupportedAdvertisement() throws Exception {
+        MockUpnpServiceConfiguration configuration = new MockUpnpServiceConfiguration() {
+            @Override
+            public ServiceType[] getExclusiveServiceTypes() {
+                return new ServiceType[]{new UDAServiceType("WANIPConnection", 1)};
+            }
+        };
+        NetworkAddressFactory networkAddressFactory = configuration.createNetworkAddressFactory();
+        IncomingDatagramFilter filter = new IncomingDatagramFilter(configuration);
+
+        assertNull(filter.filter(createResponse("http://127.0.0.1:8080/desc.xml"), networkAddressFactory));
+        assertEquals(filter.getDroppedCount(IncomingDatagramFilter.DropReason.UNSUPPORTED_ADVERTISEMENT), 1);
+
+        IncomingDatagramMessage<UpnpResponse> supported = createResponse("http://127.0.0.1:8080/desc.xml");
+        supported.getHeaders().set("USN", "uuid:1234::urn:schemas-upnp-org:service:WANIPConnection:2");
+        assertNotNull(filter.filter(supported, networkAddressFactory));
+    }
+
+    @Test
+    public void admitUDA11SearchResponseThroughRouter() throws Exception {
+        MockUpnpService upnpService = new MockUpnpService();
+        final List<IncomingDatagramMessage<?>> handled = new ArrayList<>();
+        ReceivingRouter router = new ReceivingRouter(
+            upnpService.getConfiguration(),
+            new ProtocolFactoryImpl(upnpService) {
+                @Override
+                public ReceivingAsync<?> createReceivingAsync(IncomingDatagramMessage<?> message) {
+                    handled.add(message);
+                    return null;
+                }
+            }
+        );
+
+        IncomingDatagramMessage<UpnpResponse> response = createResponse("http://127.0.0.1:8080/desc.xml");
+        response.getHeaders().add("CONFIGID.UPNP.ORG", "1");
+        router.received(response);
+
+        assertEquals(handled.size(), 1);
+        assertEquals(router.getIncomingDatagramFilter().getAcceptedCount(), 1);
+        assertEquals(router.getIncomingDatagramFilter().getDroppedCount(IncomingDatagramFilter.DropReason.DISALLOWED_HEADER), 0);
+    }
+
+    @Test
+    public void parseHosts() {
+        assertEquals(IncomingDatagramFilter.getHostOfURL("http://192.168.1.1:49152/rootDesc.xml"), "192.168.1.1");
+        assertEquals(IncomingDatagramFilter.getHostOfURL("http://user@example.com/x"), "example.com");
+        assertEquals(IncomingDatagramFilter.getHostOfURL("http://[fe80::1]:80/x"), "[fe80::1]");
+        assertNull(IncomingDatagramFilter.getHostOfURL("http:///x"));
+        assertEquals(IncomingDatagramFilter.getHostOfHostPort("239.255.255.250:1900"), "239.255.255.250");
+    }
+
+    protected IncomingDatagramMessage<UpnpResponse> createResponse(String location) throws Exception {
+        IncomingDatagramMessage<UpnpResponse> msg = new IncomingDatagramMessage<>(
+            new UpnpResponse(UpnpResponse.Status.OK), InetAddress.getByName("127.0.0.1"), 1900, InetAddress.getByName("127.0.0.1")
+        );
+        UpnpHeaders headers = new UpnpHeaders();
+        headers.add("CACHE-CONTROL", "max-age=1800");
+        headers.add("EXT", null);
+        headers.add("LOCATION", location);
+        headers.add("SERVER", "Linux/3.0 UPnP/1.0 IGD/1.0");
+        headers.add("ST", "upnp:rootdevice");
+        headers.add("USN", "uuid:1234::upnp:rootdevice");
+        msg.setHeaders(headers);
+        return msg;
+    }
+
+    /**
+     * A router handing received datagrams to its filter and protocols, without any transport.
+     */
+    static class ReceivingRouter extends RouterImpl {
+
+        ReceivingRouter(UpnpServiceConfiguration configuration, ProtocolFactory protocolFactory) {
+            super(configuration, protocolFactory);
+            this.networkAddressFactory = configuration.createNetworkAddressFactory();
+            this.enabled = true;
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.distrimind.upnp_igd.model.Constants;
 import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.UpnpRequest;
 import com.distrimind.upnp_igd.model.message.discovery.IncomingNotificationRequest;
+import com.distrimind.upnp_igd.model.message.header.BootIdHeader;
 import com.distrimind.upnp_igd.model.message.header.HostHeader;
 import com.distrimind.upnp_igd.model.message.header.LocationHeader;
 import com.distrimind.upnp_igd.model.message.header.MaxAgeHeader;
@@ -31,7 +32,10 @@ import com.distrimind.upnp_igd.model.message.header.USNRootDeviceHeader;
 import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
 import com.distrimind.upnp_igd.model.meta.RemoteDevice;
+import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
 import com.distrimind.upnp_igd.model.types.NotificationSubtype;
+import com.distrimind.upnp_igd.registry.DefaultRegistryListener;
+import com.distrimind.upnp_igd.registry.Registry;
 import com.distrimind.upnp_igd.test.data.SampleData;
 import com.distrimind.upnp_igd.test.data.SampleDeviceRoot;
 import org.testng.annotations.Test;
@@ -182,6 +186,98 @@ public class NotifyTest {
         upnpService.shutdown();
     }
 
+    @Test
+    public void receivedKnownAliveRefreshesInPlace() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+        CountingListener listener = new CountingListener();
+        upnpService.getRegistry().addListener(listener);
+
+        RemoteDevice rd = SampleData.createRemoteDevice();
+        upnpService.getRegistry().addDevice(rd);
+        assertEquals(listener.added, 1);
+
+        IncomingNotificationRequest msg = createAliveMessage(rd, rd.getIdentity().getMaxAgeSeconds());
+        upnpService.getProtocolFactory().createReceivingAsync(msg).run();
+        upnpService.getProtocolFactory().createReceivingAsync(msg).run();
+
+        // Nothing changed, no descriptor retrieval and no listener notification
+        assertEquals(upnpService.getRouter().getSentStreamRequestMessages().size(), 0);
+        assertEquals(listener.updated, 0);
+        assertEquals(upnpService.getRegistry().getRemoteDevices().size(), 1);
+
+        // Another maximum age is a change
+        msg = createAliveMessage(rd, rd.getIdentity().getMaxAgeSeconds() + 1);
+        upnpService.getProtocolFactory().createReceivingAsync(msg).run();
+        assertEquals(listener.updated, 1);
+        assertEquals(upnpService.getRouter().getSentStreamRequestMessages().size(), 0);
+
+        // And now refreshed in place again
+        upnpService.getProtocolFactory().createReceivingAsync(msg).run();
+        assertEquals(listener.updated, 1);
+    }
+
+    @Test
+    public void receivedAliveWithNewBootId() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+        CountingListener listener = new CountingListener();
+        upnpService.getRegistry().addListener(listener);
+
+        RemoteDeviceIdentity identity = SampleData.createRemoteDeviceIdentity();
+        RemoteDevice rd = SampleData.createRemoteDevice(
+                new RemoteDeviceIdentity(
+                        identity.getUdn(), identity.getMaxAgeSeconds(), identity.getDescriptorURL(),
+                        null, identity.getDiscoveredOnLocalAddress(), null, 1
+                )
+        );
+        upnpService.getRegistry().addDevice(rd);
+
+        IncomingNotificationRequest msg = createAliveMessage(rd, rd.getIdentity().getMaxAgeSeconds());
+        msg.getHeaders().add(UpnpHeader.Type.BOOTID, new BootIdHeader(1));
+        upnpService.getProtocolFactory().createReceivingAsync(msg).run();
+        assertEquals(upnpService.getRouter().getSentStreamRequestMessages().size(), 0);
+        assertEquals(listener.removed, 0);
+
+        // The device rebooted, its descriptors are retrieved again
+        msg = createAliveMessage(rd, rd.getIdentity().getMaxAgeSeconds());
+        msg.getHeaders().add(UpnpHeader.Type.BOOTID, new BootIdHeader(2));
+        upnpService.getProtocolFactory().createReceivingAsync(msg).run();
+        assertEquals(listener.removed, 1);
+        assertEquals(upnpService.getRouter().getSentStreamRequestMessages().size(), 1);
+    }
+
+    protected IncomingNotificationRequest createAliveMessage(RemoteDevice rd, int maxAgeSeconds) throws UnknownHostException {
+        IncomingNotificationRequest msg = createRequestMessage();
+        msg.getHeaders().add(UpnpHeader.Type.NTS, new NTSHeader(NotificationSubtype.ALIVE));
+        msg.getHeaders().add(UpnpHeader.Type.NT, new RootDeviceHeader());
+        msg.getHeaders().add(UpnpHeader.Type.USN, new USNRootDeviceHeader(rd.getIdentity().getUdn()));
+        msg.getHeaders().add(UpnpHeader.Type.LOCATION, new LocationHeader(SampleDeviceRoot.getDeviceDescriptorURL()));
+        msg.getHeaders().add(UpnpHeader.Type.MAX_AGE, new MaxAgeHeader(maxAgeSeconds));
+        return msg;
+    }
+
+    static class CountingListener extends DefaultRegistryListener {
+        int added;
+        int updated;
+        int removed;
+
+        @Override
+        public void remoteDeviceAdded(Registry registry, RemoteDevice device) {
+            added++;
+        }
+
+        @Override
+        public void remoteDeviceUpdated(Registry registry, RemoteDevice device) {
+            updated++;
+        }
+
+        @Override
+        public void remoteDeviceRemoved(Registry registry, RemoteDevice device) {
+            removed++;
+        }
+    }
+
     protected IncomingNotificationRequest createRequestMessage() throws UnknownHostException {
         IncomingNotificationRequest msg = new IncomingNotificationRequest(
                 new IncomingDatagramMessage<>(
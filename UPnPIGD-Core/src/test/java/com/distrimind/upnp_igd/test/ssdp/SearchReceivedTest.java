@@ -19,6 +19,7 @@ import com.distrimind.upnp_igd.UpnpService;
 import com.distrimind.upnp_igd.model.Constants;
 import com.distrimind.upnp_igd.model.DiscoveryOptions;
 import com.distrimind.upnp_igd.model.Namespace;
+import com.distrimind.upnp_igd.model.message.EncodedOutgoingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.UpnpMessage;
@@ -285,6 +286,84 @@ public class SearchReceivedTest {
         assertEquals(upnpService.getRouter().getOutgoingDatagramMessages().size(), 10);
     }
 
+    @Test
+    public void receivedSearchReusesEncodedResponses() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+
+        LocalDevice<?> localDevice = SampleData.createLocalDevice();
+        upnpService.getRegistry().addDevice(localDevice);
+
+        IncomingSearchRequest searchMsg = createRequestMessage();
+        searchMsg.getHeaders().add(UpnpHeader.Type.MAN, new MANHeader(NotificationSubtype.DISCOVER.getHeaderString()));
+        searchMsg.getHeaders().add(UpnpHeader.Type.MX, new MXHeader(1));
+        searchMsg.getHeaders().add(UpnpHeader.Type.ST, new STAllHeader());
+        searchMsg.getHeaders().add(UpnpHeader.Type.HOST, new HostHeader());
+
+        createProtocol(upnpService, searchMsg).run();
+        int cachedTemplates = upnpService.getProtocolFactory().getOutgoingDatagramTemplates().size();
+        assertTrue(cachedTemplates > 0);
+
+        IncomingSearchRequest otherSearchMsg = new IncomingSearchRequest(
+                new IncomingDatagramMessage<>(
+                        new UpnpRequest(UpnpRequest.Method.MSEARCH),
+                        InetAddress.getByName("127.0.0.2"),
+                        12345,
+                        InetAddress.getByName("127.0.0.1")
+                )
+        );
+        otherSearchMsg.setHeaders(searchMsg.getHeaders());
+        createProtocol(upnpService, otherSearchMsg).run();
+
+        assertEquals(upnpService.getProtocolFactory().getOutgoingDatagramTemplates().size(), cachedTemplates);
+        assertEquals(upnpService.getRouter().getOutgoingDatagramMessages().size(), 20);
+        for (int i = 0; i < 10; i++) {
+            EncodedOutgoingDatagramMessage<?> first =
+                (EncodedOutgoingDatagramMessage<?>) upnpService.getRouter().getOutgoingDatagramMessages().get(i);
+            EncodedOutgoingDatagramMessage<?> second =
+                (EncodedOutgoingDatagramMessage<?>) upnpService.getRouter().getOutgoingDatagramMessages().get(i + 10);
+            assertSame(second.getData(), first.getData());
+            assertEquals(second.getDestinationAddress(), InetAddress.getByName("127.0.0.2"));
+            assertEquals(second.getDestinationPort(), 12345);
+            assertEquals(
+                first.getData(),
+                upnpService.getConfiguration().getDatagramProcessor().write(first.getEncodedMessage()).getData()
+            );
+        }
+    }
+
+    @Test
+    public void removedDeviceInvalidatesEncodedResponses() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+
+        LocalDevice<?> localDevice = SampleData.createLocalDevice();
+        upnpService.getRegistry().addDevice(localDevice);
+
+        IncomingSearchRequest searchMsg = createRequestMessage();
+        searchMsg.getHeaders().add(UpnpHeader.Type.MAN, new MANHeader(NotificationSubtype.DISCOVER.getHeaderString()));
+        searchMsg.getHeaders().add(UpnpHeader.Type.MX, new MXHeader(1));
+        searchMsg.getHeaders().add(UpnpHeader.Type.ST, new STAllHeader());
+        searchMsg.getHeaders().add(UpnpHeader.Type.HOST, new HostHeader());
+
+        createProtocol(upnpService, searchMsg).run();
+        assertTrue(upnpService.getProtocolFactory().getOutgoingDatagramTemplates().size() > 0);
+        EncodedOutgoingDatagramMessage<?> first =
+            (EncodedOutgoingDatagramMessage<?>) upnpService.getRouter().getOutgoingDatagramMessages().get(0);
+
+        upnpService.getRegistry().removeDevice(localDevice);
+        assertEquals(upnpService.getProtocolFactory().getOutgoingDatagramTemplates().size(), 0);
+
+        // Registered again, the responses are encoded again
+        upnpService.getRegistry().addDevice(localDevice);
+        upnpService.getRouter().getOutgoingDatagramMessages().clear();
+        createProtocol(upnpService, searchMsg).run();
+        EncodedOutgoingDatagramMessage<?> second =
+            (EncodedOutgoingDatagramMessage<?>) upnpService.getRouter().getOutgoingDatagramMessages().get(0);
+        assertNotSame(second.getData(), first.getData());
+        assertEquals(second.getData(), first.getData());
+    }
+
     protected ReceivingSearch createProtocol(UpnpService upnpService, IncomingSearchRequest searchMsg) throws Exception {
         return new ReceivingSearch(upnpService, searchMsg);
     }
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.ssdp;
+
+import com.distrimind.upnp_igd.protocol.async.SearchResponseScheduler;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class SearchResponseSchedulerTest {
+
+    @Test
+    public void foldDuplicateSearches() throws Exception {
+        ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1);
+        try {
+            SearchResponseScheduler scheduler = new SearchResponseScheduler(timer, Runnable::run);
+            InetAddress requester = InetAddress.getByName("192.168.1.20");
+            AtomicInteger responses = new AtomicInteger();
+            CountDownLatch latch = new CountDownLatch(2);
+            Runnable response = () -> {
+                responses.incrementAndGet();
+                latch.countDown();
+            };
+
+            assertTrue(scheduler.schedule(requester, 50000, "ssdp:all", response, 200));
+            assertFalse(scheduler.schedule(requester, 50000, "ssdp:all", response, 10));
+            assertFalse(scheduler.schedule(requester, 50000, "ssdp:all", response, 10));
+            assertTrue(scheduler.schedule(requester, 50001, "ssdp:all", response, 10));
+            assertEquals(scheduler.getPendingCount(), 2);
+            assertEquals(scheduler.getCoalescedCount(), 2);
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(responses.get(), 2);
+            assertEquals(scheduler.getPendingCount(), 0);
+
+            // Once sent, the next search of the same control point gets a response again
+            assertTrue(scheduler.schedule(requester, 50000, "ssdp:all", response, 0));
+        } finally {
+            timer.shutdownNow();
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.distrimind.upnp_igd.model.Constants;
 import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
 import com.distrimind.upnp_igd.model.message.UpnpResponse;
 import com.distrimind.upnp_igd.model.message.discovery.IncomingSearchResponse;
+import com.distrimind.upnp_igd.model.message.header.BootIdHeader;
 import com.distrimind.upnp_igd.model.message.header.EXTHeader;
 import com.distrimind.upnp_igd.model.message.header.HostHeader;
 import com.distrimind.upnp_igd.model.message.header.LocationHeader;
@@ -31,8 +32,10 @@ import com.distrimind.upnp_igd.model.message.header.USNRootDeviceHeader;
 import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
 import com.distrimind.upnp_igd.model.meta.LocalDevice;
 import com.distrimind.upnp_igd.model.meta.RemoteDevice;
+import com.distrimind.upnp_igd.model.meta.RemoteDeviceIdentity;
 import com.distrimind.upnp_igd.test.data.SampleData;
 import com.distrimind.upnp_igd.test.data.SampleDeviceRoot;
+import com.distrimind.upnp_igd.transport.IncomingDatagramFilter;
 import org.testng.annotations.Test;
 
 import java.net.InetAddress;
@@ -141,6 +144,47 @@ public class SearchResponseTest {
         upnpService.shutdown();
     }
 
+    @Test
+    public void receivedKnownDeviceThroughRouter() throws Exception {
+
+        MockUpnpService upnpService = new MockUpnpService();
+        IncomingDatagramFilterTest.ReceivingRouter router = new IncomingDatagramFilterTest.ReceivingRouter(
+                upnpService.getConfiguration(), upnpService.getProtocolFactory()
+        );
+
+        RemoteDeviceIdentity identity = SampleData.createRemoteDeviceIdentity();
+        RemoteDevice rd = SampleData.createRemoteDevice(
+                new RemoteDeviceIdentity(
+                        identity.getUdn(), identity.getMaxAgeSeconds(), identity.getDescriptorURL(),
+                        null, identity.getDiscoveredOnLocalAddress(), null, 1
+                )
+        );
+        upnpService.getRegistry().addDevice(rd);
+
+        // Refreshed in place, without descriptor retrieval
+        router.received(createKnownDeviceResponse(rd, 1));
+        assertEquals(router.getIncomingDatagramFilter().getAcceptedCount(), 1);
+        assertEquals(upnpService.getRouter().getSentStreamRequestMessages().size(), 0);
+        assertEquals(upnpService.getRegistry().getRemoteDevices().size(), 1);
+
+        // The device rebooted, its descriptors are retrieved again
+        router.received(createKnownDeviceResponse(rd, 2));
+        assertEquals(router.getIncomingDatagramFilter().getAcceptedCount(), 2);
+        assertEquals(router.getIncomingDatagramFilter().getDroppedCount(IncomingDatagramFilter.DropReason.DISALLOWED_HEADER), 0);
+        assertEquals(upnpService.getRouter().getSentStreamRequestMessages().size(), 1);
+    }
+
+    protected IncomingSearchResponse createKnownDeviceResponse(RemoteDevice rd, int bootId) throws UnknownHostException {
+        IncomingSearchResponse msg = createResponseMessage(new STAllHeader());
+        // Search responses are unicast, they don't have a HOST header
+        msg.getHeaders().remove(UpnpHeader.Type.HOST);
+        msg.getHeaders().add(UpnpHeader.Type.USN, new USNRootDeviceHeader(rd.getIdentity().getUdn()));
+        msg.getHeaders().add(UpnpHeader.Type.LOCATION, new LocationHeader(rd.getIdentity().getDescriptorURL()));
+        msg.getHeaders().add(UpnpHeader.Type.MAX_AGE, new MaxAgeHeader(rd.getIdentity().getMaxAgeSeconds()));
+        msg.getHeaders().add(UpnpHeader.Type.BOOTID, new BootIdHeader(bootId));
+        return msg;
+    }
+
     protected IncomingSearchResponse createResponseMessage(UpnpHeader<?> stHeader) throws UnknownHostException {
         IncomingSearchResponse msg = new IncomingSearchResponse(
                 new IncomingDatagramMessage<>(
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.ssdp;
+
+import com.distrimind.upnp_igd.transport.impl.SubnetRoutingTable;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class SubnetRoutingTableTest {
+
+    @Test
+    public void lookupIPv4() throws Exception {
+        InetAddress lan = InetAddress.getByName("192.168.1.10");
+        InetAddress wide = InetAddress.getByName("10.1.2.3");
+        InetAddress bogus = InetAddress.getByName("172.16.0.1");
+        SubnetRoutingTable table = new SubnetRoutingTable(
+            new InetAddress[]{lan, wide, bogus},
+            new short[]{24, 8, 64}
+        );
+
+        assertEquals(table.getBindAddress(InetAddress.getByName("192.168.1.1")), lan);
+        assertEquals(table.getBindAddress(InetAddress.getByName("10.200.0.1")), wide);
+        assertNull(table.getBindAddress(InetAddress.getByName("192.168.2.1")));
+        assertNull(table.getBindAddress(InetAddress.getByName("172.16.0.1")));
+        assertNull(table.getBindAddress(InetAddress.getByName("fe80::1")));
+    }
+
+    @Test
+    public void lookupIPv6() throws Exception {
+        InetAddress linkLocal = InetAddress.getByName("fe80::1");
+        InetAddress site = InetAddress.getByName("fe80:0:0:1::1");
+        SubnetRoutingTable table = new SubnetRoutingTable(
+            new InetAddress[]{linkLocal, site},
+            new short[]{10, 64}
+        );
+
+        assertEquals(table.getBindAddress(InetAddress.getByName("fe80::2")), linkLocal);
+        assertEquals(table.getBindAddress(InetAddress.getByName("fe80:0:0:1::2")), site);
+        assertNull(table.getBindAddress(InetAddress.getByName("2001:db8::1")));
+        assertNull(table.getBindAddress(InetAddress.getByName("192.168.1.1")));
+    }
+
+    @Test
+    public void emptyTable() throws Exception {
+        assertTrue(SubnetRoutingTable.EMPTY.isEmpty());
+        assertNull(SubnetRoutingTable.EMPTY.getBindAddress(InetAddress.getByName("127.0.0.1")));
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.transport;
+
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.transport.spi.AbstractStreamClient;
+import com.distrimind.upnp_igd.transport.spi.AbstractStreamClientConfiguration;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class AbstractStreamClientTest {
+
+    static class TestConfiguration extends AbstractStreamClientConfiguration {
+        TestConfiguration(ExecutorService executorService, int timeoutSeconds) {
+            super(executorService, timeoutSeconds);
+        }
+    }
+
+    /**
+     * Each request blocks until it is aborted, or until it is released.
+     */
+    static class TestStreamClient extends AbstractStreamClient<TestConfiguration, CountDownLatch> {
+
+        final TestConfiguration configuration;
+        final AtomicInteger aborted = new AtomicInteger();
+        final AtomicInteger finished = new AtomicInteger();
+
+        TestStreamClient(TestConfiguration configuration) {
+            this.configuration = configuration;
+        }
+
+        @Override
+        public TestConfiguration getConfiguration() {
+            return configuration;
+        }
+
+        @Override
+        protected CountDownLatch createRequest(StreamRequestMessage requestMessage) {
+            return new CountDownLatch(1);
+        }
+
+        @Override
+        protected Callable<StreamResponseMessage> createCallable(StreamRequestMessage requestMessage, CountDownLatch request) {
+            return () -> {
+                request.await();
+                return new StreamResponseMessage(new UpnpResponse(UpnpResponse.Status.OK));
+            };
+        }
+
+        @Override
+        protected void abort(CountDownLatch request) {
+            aborted.incrementAndGet();
+            request.countDown();
+        }
+
+        @Override
+        protected boolean logExecutionException(Throwable t) {
+            return false;
+        }
+
+        @Override
+        protected void onFinally(CountDownLatch request) {
+            finished.incrementAndGet();
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+
+    protected StreamRequestMessage createRequestMessage() {
+        return new StreamRequestMessage(UpnpRequest.Method.GET, URI.create("http://127.0.0.1:1/test"));
+    }
+
+    @Test
+    public void abortOnDeadline() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            TestStreamClient client = new TestStreamClient(new TestConfiguration(executor, 1));
+            CompletableFuture<StreamResponseMessage> future = client.sendRequestAsync(createRequestMessage());
+            assertNull(future.get(5, TimeUnit.SECONDS));
+            // The clean up runs right after the completion, in the timer thread
+            for (int i = 0; i < 50 && client.finished.get() == 0; i++)
+                Thread.sleep(10);
+            assertEquals(client.aborted.get(), 1);
+            assertEquals(client.finished.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void abortOnCancellation() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            TestStreamClient client = new TestStreamClient(new TestConfiguration(executor, 60));
+            CompletableFuture<StreamResponseMessage> future = client.sendRequestAsync(createRequestMessage());
+            assertTrue(future.cancel(true));
+            assertEquals(client.aborted.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void synchronousInterruptionAborts() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            TestStreamClient client = new TestStreamClient(new TestConfiguration(executor, 60));
+            Thread.currentThread().interrupt();
+            try {
+                client.sendRequest(createRequestMessage());
+                fail("Expected interruption");
+            } catch (InterruptedException ex) {
+                // Expected
+            }
+            assertEquals(client.aborted.get(), 1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.transport;
+
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientConfigurationImpl;
+import com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientImpl;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class HttpClientStreamClientTest {
+
+    protected HttpServer server;
+    protected ExecutorService serverExecutor;
+    protected ExecutorService executor;
+    protected HttpClientStreamClientImpl client;
+    protected final List<String> receivedMethods = new CopyOnWriteArrayList<>();
+    protected final Set<Integer> remotePorts = ConcurrentHashMap.newKeySet();
+
+    protected void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            receivedMethods.add(exchange.getRequestMethod());
+            remotePorts.add(exchange.getRemoteAddress().getPort());
+            exchange.getRequestBody().readAllBytes();
+            try {
+                if (exchange.getRequestURI().getPath().equals("/slow"))
+                    Thread.sleep(200);
+                else if (exchange.getRequestURI().getPath().equals("/hang"))
+                    Thread.sleep(3000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            boolean fault = exchange.getRequestURI().getPath().equals("/fault");
+            byte[] body = (fault ? "<fault/>" : "<ok/>").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "text/xml; charset=\"utf-8\"");
+            if ("SUBSCRIBE".equals(exchange.getRequestMethod()))
+                exchange.getResponseHeaders().add("SID", "uuid:1234");
+            exchange.sendResponseHeaders(fault ? 500 : 200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        executor = Executors.newCachedThreadPool();
+        client = new HttpClientStreamClientImpl(createConfiguration());
+    }
+
+    protected HttpClientStreamClientConfigurationImpl createConfiguration() {
+        return new HttpClientStreamClientConfigurationImpl(executor, 5);
+    }
+
+    protected void stop() {
+        client.stop();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    protected URI uri(String path) {
+        return URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getAddress().getPort() + path);
+    }
+
+    @Test
+    public void sendNonStandardMethods() throws Exception {
+        start();
+        try {
+            StreamRequestMessage subscribe = new StreamRequestMessage(UpnpRequest.Method.SUBSCRIBE, uri("/event"));
+            subscribe.getHeaders().add(UpnpHeader.Type.NT.getHttpName(), "upnp:event");
+            // Managed by the HTTP client, not copied
+            subscribe.getHeaders().add(UpnpHeader.Type.HOST.getHttpName(), "127.0.0.1");
+
+            StreamResponseMessage response = client.sendRequest(subscribe);
+            assertNotNull(response);
+            assertEquals(response.getOperation().getStatusCode(), 200);
+            assertEquals(response.getHeaders().getFirstHeader("SID"), "uuid:1234");
+
+            assertNotNull(client.sendRequest(new StreamRequestMessage(UpnpRequest.Method.UNSUBSCRIBE, uri("/event"))));
+            assertNotNull(client.sendRequest(new StreamRequestMessage(UpnpRequest.Method.NOTIFY, uri("/event"), "<e/>")));
+            assertEquals(receivedMethods, List.of("SUBSCRIBE", "UNSUBSCRIBE", "NOTIFY"));
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void reusePersistentConnection() throws Exception {
+        start();
+        try {
+            for (int i = 0; i < 5; i++) {
+                StreamResponseMessage response =
+                        client.sendRequest(new StreamRequestMessage(UpnpRequest.Method.POST, uri("/control"), "<a/>"));
+                assertNotNull(response);
+                assertEquals(response.getBodyString(), "<ok/>");
+            }
+            assertEquals(receivedMethods.size(), 5);
+            assertEquals(remotePorts.size(), 1);
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void readErrorResponseBody() throws Exception {
+        start();
+        try {
+            StreamResponseMessage response =
+                    client.sendRequest(new StreamRequestMessage(UpnpRequest.Method.POST, uri("/fault"), "<a/>"));
+            assertNotNull(response);
+            assertEquals(response.getOperation().getStatusCode(), 500);
+            assertEquals(response.getBodyString(), "<fault/>");
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void queueRequestsBeyondConnectionLimit() throws Exception {
+        HttpClientStreamClientTest test = new HttpClientStreamClientTest() {
+            @Override
+            protected HttpClientStreamClientConfigurationImpl createConfiguration() {
+                HttpClientStreamClientConfigurationImpl configuration = super.createConfiguration();
+                configuration.setMaxConnectionsPerHost(1);
+                return configuration;
+            }
+        };
+        test.start();
+        try {
+            List<CompletableFuture<StreamResponseMessage>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(test.client.sendRequestAsync(
+                        new StreamRequestMessage(UpnpRequest.Method.POST, test.uri("/slow"), "<a/>")
+                ));
+            }
+            for (CompletableFuture<StreamResponseMessage> future : futures) {
+                StreamResponseMessage response = future.get(5, TimeUnit.SECONDS);
+                assertNotNull(response);
+                assertEquals(response.getOperation().getStatusCode(), 200);
+            }
+            // One connection at a time, always the same
+            assertEquals(test.receivedMethods.size(), 4);
+            assertEquals(test.remotePorts.size(), 1);
+        } finally {
+            test.stop();
+        }
+    }
+
+    @Test
+    public void expiredRequestCompletesWithNull() throws Exception {
+        HttpClientStreamClientTest test = new HttpClientStreamClientTest() {
+            @Override
+            protected HttpClientStreamClientConfigurationImpl createConfiguration() {
+                return new HttpClientStreamClientConfigurationImpl(executor, 1);
+            }
+        };
+        test.start();
+        try {
+            long start = System.currentTimeMillis();
+            CompletableFuture<StreamResponseMessage> future = test.client.sendRequestAsync(
+                    new StreamRequestMessage(UpnpRequest.Method.GET, test.uri("/hang"))
+            );
+            assertNull(future.get(5, TimeUnit.SECONDS));
+            assertTrue(System.currentTimeMillis() - start < 2500);
+        } finally {
+            test.stop();
+        }
+    }
+
+    @Test
+    public void keepConnectionOfCancelledRequestUntilExchangeEnds() throws Exception {
+        HttpClientStreamClientTest test = new HttpClientStreamClientTest() {
+            @Override
+            protected HttpClientStreamClientConfigurationImpl createConfiguration() {
+                HttpClientStreamClientConfigurationImpl configuration = new HttpClientStreamClientConfigurationImpl(executor, 1);
+                configuration.setMaxConnectionsPerHost(1);
+                return configuration;
+            }
+        };
+        test.start();
+        try {
+            CompletableFuture<StreamResponseMessage> hanging = test.client.sendRequestAsync(
+                    new StreamRequestMessage(UpnpRequest.Method.GET, test.uri("/hang"))
+            );
+            long deadline = System.currentTimeMillis() + 2000;
+            while (test.receivedMethods.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(test.receivedMethods.size(), 1);
+            hanging.cancel(true);
+
+            // The exchange is still in flight, the next request waits for its connection
+            CompletableFuture<StreamResponseMessage> queued = test.client.sendRequestAsync(
+                    new StreamRequestMessage(UpnpRequest.Method.POST, test.uri("/control"), "<a/>")
+            );
+            Thread.sleep(300);
+            assertFalse(queued.isDone());
+            assertEquals(test.receivedMethods.size(), 1);
+            queued.get(5, TimeUnit.SECONDS);
+
+            // The request timeout ended the exchange, and released its connection
+            StreamResponseMessage response = test.client.sendRequestAsync(
+                    new StreamRequestMessage(UpnpRequest.Method.POST, test.uri("/control"), "<a/>")
+            ).get(5, TimeUnit.SECONDS);
+            assertNotNull(response);
+            assertEquals(response.getOperation().getStatusCode(), 200);
+        } finally {
+            test.stop();
+        }
+    }
+
+    @Test
+    public void forgetHostsWithoutRequests() throws Exception {
+        start();
+        try {
+            HostCountingClient countingClient = new HostCountingClient(new HttpClientStreamClientConfigurationImpl(executor, 5));
+            List<CompletableFuture<StreamResponseMessage>> responses = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                responses.add(countingClient.sendRequestAsync(
+                        new StreamRequestMessage(UpnpRequest.Method.POST, uri("/slow"), "<a/>")
+                ));
+            }
+            assertEquals(countingClient.getHostCount(), 1);
+            for (CompletableFuture<StreamResponseMessage> response : responses) {
+                assertNotNull(response.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(countingClient.getHostCount(), 0);
+
+            // A host seen again gets new connections
+            assertNotNull(countingClient.sendRequest(new StreamRequestMessage(UpnpRequest.Method.POST, uri("/control"), "<a/>")));
+            assertEquals(countingClient.getHostCount(), 0);
+        } finally {
+            stop();
+        }
+    }
+
+    static class HostCountingClient extends HttpClientStreamClientImpl {
+
+        HostCountingClient(HttpClientStreamClientConfigurationImpl configuration) {
+            super(configuration);
+        }
+
+        int getHostCount() {
+            return hostConnections.size();
+        }
+    }
+
+    @Test
+    public void failedConnectionReturnsNull() throws Exception {
+        start();
+        try {
+            int port = server.getAddress().getPort();
+            server.stop(0);
+            assertNull(client.sendRequest(new StreamRequestMessage(
+                    UpnpRequest.Method.GET,
+                    URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + port + "/gone")
+            )));
+        } finally {
+            stop();
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.test.transport;
+
+import com.distrimind.upnp_igd.mock.MockRouter;
+import com.distrimind.upnp_igd.model.message.IncomingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.header.UpnpHeader;
+import com.distrimind.upnp_igd.transport.impl.ByteBufferPool;
+import com.distrimind.upnp_igd.transport.impl.DatagramChannelSelector;
+import com.distrimind.upnp_igd.transport.impl.DatagramIOConfigurationImpl;
+import com.distrimind.upnp_igd.transport.impl.DatagramProcessorImpl;
+import com.distrimind.upnp_igd.transport.impl.NIODatagramIOImpl;
+import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
+import org.testng.annotations.Test;
+
+import java.lang.reflect.Proxy;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class NIODatagramIOTest {
+
+    static final String NOTIFY =
+            "NOTIFY * HTTP/1.1\r\n" +
+            "HOST: 239.255.255.250:1900\r\n" +
+            "CACHE-CONTROL: max-age=1800\r\n" +
+            "LOCATION: http://127.0.0.1:8080/dev.xml\r\n" +
+            "NT: upnp:rootdevice\r\n" +
+            "NTS: ssdp:alive\r\n" +
+            "USN: uuid:2fac1234-31f8-11b4-a222-08002b34c003::upnp:rootdevice\r\n" +
+            "\r\n";
+
+    @Test
+    public void acquireAndReleaseBuffers() {
+        ByteBufferPool pool = new ByteBufferPool(1024, 2);
+
+        ByteBuffer a = pool.acquire(512);
+        assertTrue(a.isDirect());
+        assertEquals(a.capacity(), 1024);
+        assertEquals(a.position(), 0);
+        assertEquals(a.limit(), 512);
+        ByteBuffer b = pool.acquire(1024);
+        ByteBuffer c = pool.acquire(1024);
+        assertEquals(pool.getPooledBufferCount(), 0);
+
+        pool.release(a);
+        pool.release(b);
+        // The pool is full
+        pool.release(c);
+        assertEquals(pool.getPooledBufferCount(), 2);
+
+        // Recycled and cleared
+        b.put((byte) 1);
+        ByteBuffer recycled = pool.acquire(100);
+        assertSame(recycled, b);
+        assertEquals(recycled.position(), 0);
+        assertEquals(recycled.limit(), 100);
+        assertEquals(pool.getPooledBufferCount(), 1);
+
+        // Too large for the pool, allocated and never pooled
+        ByteBuffer large = pool.acquire(4096);
+        assertEquals(large.capacity(), 4096);
+        pool.release(large);
+        pool.release(ByteBuffer.allocate(1024));
+        assertEquals(pool.getPooledBufferCount(), 1);
+    }
+
+    @Test
+    public void sendAndReceiveOnLoopback() throws Exception {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        DatagramChannelSelector selector = new DatagramChannelSelector(new ByteBufferPool(640, 4));
+        List<IncomingDatagramMessage<?>> received = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(2);
+        MockRouter router = new MockRouter(null, null) {
+            @Override
+            public void received(IncomingDatagramMessage<?> msg) {
+                received.add(msg);
+                latch.countDown();
+            }
+        };
+
+        TestDatagramIO receiver = new TestDatagramIO(selector);
+        TestDatagramIO sender = new TestDatagramIO(selector);
+        receiver.init(createNetworkAddressFactory(loopback), loopback, router, new DatagramProcessorImpl());
+        sender.init(createNetworkAddressFactory(loopback), loopback, new MockRouter(null, null), new DatagramProcessorImpl());
+
+        // One thread runs the selection loop shared by both services
+        Thread selectionThread = new Thread(receiver);
+        selectionThread.start();
+
+        byte[] bytes = NOTIFY.getBytes(StandardCharsets.US_ASCII);
+        InetSocketAddress destination = receiver.getBoundAddress();
+        sender.send(new DatagramPacket(bytes, bytes.length, destination));
+        sender.send(new DatagramPacket(bytes, bytes.length, destination));
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (IncomingDatagramMessage<?> message : received) {
+            assertEquals(((UpnpRequest) message.getOperation()).getMethod(), UpnpRequest.Method.NOTIFY);
+            assertEquals(message.getHeaders().getFirstHeader(UpnpHeader.Type.NTS).getString(), "ssdp:alive");
+            assertEquals(message.getSourcePort(), sender.getBoundAddress().getPort());
+            assertEquals(message.getLocalAddress(), loopback);
+        }
+        // The receive buffer goes back to the pool once the channel is drained
+        long end = System.currentTimeMillis() + 5000;
+        while (selector.getBufferPool().getPooledBufferCount() == 0 && System.currentTimeMillis() < end)
+            Thread.sleep(10);
+        assertEquals(selector.getBufferPool().getPooledBufferCount(), 1);
+
+        receiver.stop();
+        sender.stop();
+        selectionThread.join(5000);
+        assertFalse(selectionThread.isAlive());
+        assertFalse(selector.isRunning());
+    }
+
+    protected NetworkAddressFactory createNetworkAddressFactory(InetAddress localAddress) {
+        return (NetworkAddressFactory) Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[]{NetworkAddressFactory.class},
+                (proxy, method, args) -> method.getName().equals("getLocalAddress") ? localAddress : null
+        );
+    }
+
+    static class TestDatagramIO extends NIODatagramIOImpl {
+
+        TestDatagramIO(DatagramChannelSelector selector) {
+            super(new DatagramIOConfigurationImpl(), selector);
+        }
+
+        InetSocketAddress getBoundAddress() throws Exception {
+            return (InetSocketAddress) channel.getLocalAddress();
+        }
+    }
+}
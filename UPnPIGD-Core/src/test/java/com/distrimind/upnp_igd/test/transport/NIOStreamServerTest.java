@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.transport;
+
+import com.distrimind.upnp_igd.mock.MockRouter;
+import com.distrimind.upnp_igd.model.message.Connection;
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.StreamingBody;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.transport.impl.NIOStreamServerConfigurationImpl;
+import com.distrimind.upnp_igd.transport.impl.NIOStreamServerImpl;
+import com.distrimind.upnp_igd.transport.spi.UpnpStream;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class NIOStreamServerTest {
+
+    static final protected byte[] LARGE_BODY = new byte[100000];
+
+    static {
+        for (int i = 0; i < LARGE_BODY.length; i++)
+            LARGE_BODY[i] = (byte) ('a' + i % 26);
+    }
+
+    protected ExecutorService executor;
+    protected NIOStreamServerImpl server;
+    protected final List<String> receivedBodies = new CopyOnWriteArrayList<>();
+    protected final List<Connection> receivedConnections = new CopyOnWriteArrayList<>();
+    protected final AtomicInteger runningRequests = new AtomicInteger();
+    protected final AtomicInteger maxRunningRequests = new AtomicInteger();
+    protected final CountDownLatch connectionClosed = new CountDownLatch(1);
+
+    protected void start(NIOStreamServerConfigurationImpl configuration) throws Exception {
+        executor = Executors.newCachedThreadPool();
+        MockRouter router = new MockRouter(null, null) {
+            @Override
+            public void received(UpnpStream stream) {
+                executor.execute(stream);
+            }
+        };
+        server = new NIOStreamServerImpl(configuration) {
+            @Override
+            protected boolean isAcceptedRemoteAddress(InetAddress remoteAddress) {
+                return true;
+            }
+
+            @Override
+            protected UpnpStream createUpnpStream(HttpConnection connection, HttpRequest request) {
+                return new HttpConnectionUpnpStream(connection, request) {
+                    @Override
+                    public StreamResponseMessage process(StreamRequestMessage requestMessage) {
+                        return NIOStreamServerTest.this.process(requestMessage);
+                    }
+                };
+            }
+        };
+        server.init(InetAddress.getLoopbackAddress(), router, null);
+        executor.execute(server);
+    }
+
+    protected void stop() {
+        server.stop();
+        executor.shutdownNow();
+    }
+
+    protected StreamResponseMessage process(StreamRequestMessage requestMessage) {
+        int running = runningRequests.incrementAndGet();
+        maxRunningRequests.accumulateAndGet(running, Math::max);
+        try {
+            String path = requestMessage.getUri().getPath();
+            receivedBodies.add(requestMessage.hasBody() ? requestMessage.getBodyString() : "");
+            receivedConnections.add(requestMessage.getConnection());
+            if (path.equals("/slow")) {
+                Thread.sleep(200);
+            } else if (path.equals("/wait")) {
+                // Until the client goes away
+                long end = System.currentTimeMillis() + 5000;
+                while (requestMessage.getConnection().isOpen() && System.currentTimeMillis() < end)
+                    Thread.sleep(10);
+                if (!requestMessage.getConnection().isOpen())
+                    connectionClosed.countDown();
+            } else if (path.equals("/missing")) {
+                return null;
+            } else if (path.equals("/stream")) {
+                return new StreamResponseMessage(StreamingBody.of(new ByteArrayInputStream(LARGE_BODY), -1));
+            } else if (path.equals("/sized")) {
+                return new StreamResponseMessage(StreamingBody.of(new ByteArrayInputStream(LARGE_BODY), LARGE_BODY.length));
+            }
+            return new StreamResponseMessage("<ok path=\"" + path + "\"/>");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new StreamResponseMessage(UpnpResponse.Status.INTERNAL_SERVER_ERROR);
+        } finally {
+            runningRequests.decrementAndGet();
+        }
+    }
+
+    protected Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    protected static String post(String path, String body, String... headers) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("POST ").append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+        for (String header : headers)
+            sb.append(header).append("\r\n");
+        sb.append("Content-Type: text/xml\r\nContent-Length: ").append(body.getBytes(StandardCharsets.UTF_8).length).append("\r\n\r\n");
+        sb.append(body);
+        return sb.toString();
+    }
+
+    protected static void write(Socket socket, String data) throws IOException {
+        OutputStream os = socket.getOutputStream();
+        os.write(data.getBytes(StandardCharsets.UTF_8));
+        os.flush();
+    }
+
+    /**
+     * @return The status line, headers and body of the next response.
+     */
+    protected static String readResponse(InputStream is) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int b;
+        while ((b = is.read()) != -1) {
+            head.write(b);
+            byte[] bytes = head.toByteArray();
+            int l = bytes.length;
+            if (l >= 4 && bytes[l - 4] == '\r' && bytes[l - 3] == '\n' && bytes[l - 2] == '\r' && bytes[l - 1] == '\n')
+                break;
+        }
+        String headString = head.toString(StandardCharsets.ISO_8859_1);
+        int contentLength = 0;
+        for (String line : headString.split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:"))
+                contentLength = Integer.parseInt(line.substring(15).trim());
+        }
+        return headString + new String(is.readNBytes(contentLength), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void answerPipelinedRequestsInOrder() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try (Socket socket = connect()) {
+            write(socket, post("/slow", "<a/>") + post("/fast", "<b/>") + post("/missing", ""));
+            InputStream is = socket.getInputStream();
+            String first = readResponse(is);
+            assertTrue(first.startsWith("HTTP/1.1 200 OK\r\n"));
+            assertTrue(first.endsWith("<ok path=\"/slow\"/>"));
+            assertTrue(readResponse(is).endsWith("<ok path=\"/fast\"/>"));
+            assertTrue(readResponse(is).startsWith("HTTP/1.1 404 Not Found\r\n"));
+
+            // Still open
+            write(socket, post("/again", "<c/>"));
+            assertTrue(readResponse(is).endsWith("<ok path=\"/again\"/>"));
+            assertEquals(receivedBodies, List.of("<a/>", "<b/>", "", "<c/>"));
+            assertSame(receivedConnections.get(0), receivedConnections.get(3));
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void sendContinueBeforeBody() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try (Socket socket = connect()) {
+            write(socket,
+                    "POST /control HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/xml\r\n"
+                            + "Content-Length: 4\r\nExpect: 100-continue\r\n\r\n");
+            InputStream is = socket.getInputStream();
+            assertEquals(readResponse(is), "HTTP/1.1 100 Continue\r\n\r\n");
+            write(socket, "<a/>");
+            assertTrue(readResponse(is).endsWith("<ok path=\"/control\"/>"));
+            assertEquals(receivedBodies, List.of("<a/>"));
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void decodeChunkedBody() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try (Socket socket = connect()) {
+            write(socket,
+                    "NOTIFY /event HTTP/1.1\r\nHost: localhost\r\nContent-Type: text/xml\r\n"
+                            + "Transfer-Encoding: chunked\r\n\r\n4\r\n<e>a\r\n");
+            Thread.sleep(50);
+            write(socket, "5;x=y\r\nb</e>\r\n0\r\n\r\n");
+            assertTrue(readResponse(socket.getInputStream()).endsWith("<ok path=\"/event\"/>"));
+            assertEquals(receivedBodies, List.of("<e>ab</e>"));
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void closeConnectionWhenRequested() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try (Socket socket = connect()) {
+            write(socket, post("/control", "<a/>", "Connection: close"));
+            InputStream is = socket.getInputStream();
+            String response = readResponse(is);
+            assertTrue(response.contains("\r\nConnection: close\r\n"));
+            assertEquals(is.read(), -1);
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void rejectMalformedRequest() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try (Socket socket = connect()) {
+            write(socket, "NOT A REQUEST\r\n\r\n");
+            InputStream is = socket.getInputStream();
+            assertTrue(readResponse(is).startsWith("HTTP/1.1 400 Bad Request\r\n"));
+            assertEquals(is.read(), -1);
+            assertTrue(receivedBodies.isEmpty());
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void rejectTooLargeRequest() throws Exception {
+        NIOStreamServerConfigurationImpl configuration = new NIOStreamServerConfigurationImpl();
+        configuration.setMaxRequestBytes(1024);
+        start(configuration);
+        try (Socket socket = connect()) {
+            write(socket, post("/control", "x".repeat(2048)));
+            assertTrue(readResponse(socket.getInputStream()).startsWith("HTTP/1.1 413 "));
+            assertTrue(receivedBodies.isEmpty());
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void detectClosedClientConnection() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try {
+            try (Socket socket = connect()) {
+                write(socket, post("/wait", "<a/>"));
+                Thread.sleep(100);
+                assertEquals(receivedConnections.size(), 1);
+                assertTrue(receivedConnections.get(0).isOpen());
+            }
+            assertTrue(connectionClosed.await(5, TimeUnit.SECONDS));
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void limitConcurrentRequests() throws Exception {
+        NIOStreamServerConfigurationImpl configuration = new NIOStreamServerConfigurationImpl();
+        configuration.setMaxConcurrentRequests(2);
+        start(configuration);
+        Socket[] sockets = new Socket[5];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = connect();
+                write(sockets[i], post("/slow", "<a/>"));
+            }
+            for (Socket socket : sockets) {
+                assertTrue(readResponse(socket.getInputStream()).startsWith("HTTP/1.1 200 OK\r\n"));
+            }
+            assertEquals(receivedBodies.size(), sockets.length);
+            assertEquals(maxRunningRequests.get(), 2);
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null)
+                    socket.close();
+            }
+            stop();
+        }
+    }
+
+    @Test
+    public void closeIdleConnection() throws Exception {
+        NIOStreamServerConfigurationImpl configuration = new NIOStreamServerConfigurationImpl();
+        configuration.setKeepAliveTimeoutMillis(200);
+        start(configuration);
+        try (Socket socket = connect()) {
+            write(socket, post("/control", "<a/>"));
+            InputStream is = socket.getInputStream();
+            assertTrue(readResponse(is).startsWith("HTTP/1.1 200 OK\r\n"));
+            long start = System.currentTimeMillis();
+            assertEquals(is.read(), -1);
+            assertTrue(System.currentTimeMillis() - start < 3000);
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void streamBodyOfUnknownLengthInChunks() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try (Socket socket = connect()) {
+            write(socket, post("/stream", ""));
+            InputStream is = socket.getInputStream();
+            String head = readResponse(is);
+            assertTrue(head.contains("\r\nTransfer-Encoding: chunked\r\n"));
+            assertFalse(head.contains("Content-Length"));
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int size;
+            do {
+                StringBuilder sizeLine = new StringBuilder();
+                int b;
+                while ((b = is.read()) != '\n')
+                    sizeLine.append((char) b);
+                size = Integer.parseInt(sizeLine.toString().trim(), 16);
+                body.write(is.readNBytes(size));
+                assertEquals(is.read(), '\r');
+                assertEquals(is.read(), '\n');
+            } while (size > 0);
+            assertEquals(body.toByteArray(), LARGE_BODY);
+
+            // Still open
+            write(socket, post("/again", "<c/>"));
+            assertTrue(readResponse(is).endsWith("<ok path=\"/again\"/>"));
+        } finally {
+            stop();
+        }
+    }
+
+    @Test
+    public void streamBodyOfKnownLength() throws Exception {
+        start(new NIOStreamServerConfigurationImpl());
+        try (Socket socket = connect()) {
+            write(socket, post("/sized", ""));
+            InputStream is = socket.getInputStream();
+            String response = readResponse(is);
+            assertTrue(response.contains("\r\nContent-Length: " + LARGE_BODY.length + "\r\n"));
+            assertTrue(response.endsWith(new String(LARGE_BODY, StandardCharsets.UTF_8)));
+        } finally {
+            stop();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.transport;
+
+import com.distrimind.upnp_igd.mock.MockUpnpService;
+import com.distrimind.upnp_igd.mock.MockUpnpServiceConfiguration;
+import com.distrimind.upnp_igd.model.NetworkAddress;
+import com.distrimind.upnp_igd.model.message.OutgoingDatagramMessage;
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.discovery.OutgoingSearchRequest;
+import com.distrimind.upnp_igd.model.message.header.STAllHeader;
+import com.distrimind.upnp_igd.transport.Router;
+import com.distrimind.upnp_igd.transport.RouterImpl;
+import com.distrimind.upnp_igd.transport.impl.HttpClientStreamClientConfigurationImpl;
+import com.distrimind.upnp_igd.transport.spi.DatagramIO;
+import com.distrimind.upnp_igd.transport.spi.DatagramIOConfiguration;
+import com.distrimind.upnp_igd.transport.spi.DatagramProcessor;
+import com.distrimind.upnp_igd.transport.spi.MulticastReceiver;
+import com.distrimind.upnp_igd.transport.spi.NetworkAddressFactory;
+import com.distrimind.upnp_igd.transport.spi.StreamClient;
+import com.distrimind.upnp_igd.transport.spi.StreamServer;
+import com.distrimind.upnp_igd.transport.spi.StreamServerConfiguration;
+import org.testng.annotations.Test;
+
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.testng.Assert.*;
+
+/**
+ * Tests the transports of {@link RouterImpl} read without lock while the router is enabled,
+ * disabled and bound again, and the wait of its synchronous stream requests.
+ *
+ * @author Jason Mahdjoub
+ */
+public class RouterTransportSnapshotTest {
+
+    static final AtomicInteger ports = new AtomicInteger(20000);
+
+    static class TestStreamServer implements StreamServer<StreamServerConfiguration> {
+
+        final int port = ports.incrementAndGet();
+
+        @Override
+        public void init(InetAddress bindAddress, Router router, NetworkAddressFactory networkAddressFactory) {
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public StreamServerConfiguration getConfiguration() {
+            return null;
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    static class TestDatagramIO implements DatagramIO<DatagramIOConfiguration> {
+
+        final LongAdder sent;
+
+        TestDatagramIO(LongAdder sent) {
+            this.sent = sent;
+        }
+
+        @Override
+        public void init(NetworkAddressFactory networkAddressFactory, InetAddress bindAddress, Router router, DatagramProcessor datagramProcessor) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public DatagramIOConfiguration getConfiguration() {
+            return null;
+        }
+
+        @Override
+        public void send(OutgoingDatagramMessage<?> message) {
+            sent.increment();
+        }
+
+        @Override
+        public void send(DatagramPacket datagram) {
+            sent.increment();
+        }
+
+        @Override
+        public void run() {
+        }
+    }
+
+    static class TestConfiguration extends MockUpnpServiceConfiguration {
+
+        final LongAdder sent = new LongAdder();
+
+        @Override
+        public int getMaxOutgoingDatagramsPerSecond() {
+            return 0;
+        }
+
+        @Override
+        public MulticastReceiver<?> createMulticastReceiver(NetworkAddressFactory networkAddressFactory) {
+            return null;
+        }
+
+        @Override
+        public StreamServer<?> createStreamServer(NetworkAddressFactory networkAddressFactory) {
+            return new TestStreamServer();
+        }
+
+        @Override
+        public DatagramIO<?> createDatagramIO(NetworkAddressFactory networkAddressFactory) {
+            return new TestDatagramIO(sent);
+        }
+
+        @Override
+        public StreamClient<?> createStreamClient() {
+            return null;
+        }
+    }
+
+    protected RouterImpl createRouter(TestConfiguration configuration) {
+        return new RouterImpl(configuration, new MockUpnpService(configuration).getProtocolFactory());
+    }
+
+    @Test
+    public void activeStreamServersAreUnmodifiable() throws Exception {
+        TestConfiguration configuration = new TestConfiguration();
+        RouterImpl router = createRouter(configuration);
+        assertTrue(router.enable());
+        try {
+            InetAddress address = InetAddress.getByName("127.0.0.1");
+            List<NetworkAddress> all = router.getActiveStreamServers(null);
+            List<NetworkAddress> preferred = router.getActiveStreamServers(address);
+            assertEquals(all.size(), 1);
+            assertEquals(preferred.size(), 1);
+            assertEquals(preferred.get(0).getAddress(), address);
+            assertUnmodifiable(all);
+            assertUnmodifiable(preferred);
+            // The same instances are returned, nothing is allocated per lookup
+            assertSame(router.getActiveStreamServers(null), all);
+            assertSame(router.getActiveStreamServers(address), preferred);
+        } finally {
+            router.disable();
+        }
+        assertTrue(router.getActiveStreamServers(null).isEmpty());
+        assertUnmodifiable(router.getActiveStreamServers(null));
+    }
+
+    @Test
+    public void readTransportsWhileRebinding() throws Exception {
+        final TestConfiguration configuration = new TestConfiguration();
+        final RouterImpl router = createRouter(configuration);
+        final OutgoingDatagramMessage<?> message = new OutgoingSearchRequest(new STAllHeader(), 1);
+        final AtomicBoolean done = new AtomicBoolean();
+        final Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        final int readers = 4;
+        final CountDownLatch started = new CountDownLatch(readers);
+        Thread[] threads = new Thread[readers];
+        for (int i = 0; i < readers; i++) {
+            threads[i] = new Thread(() -> {
+                started.countDown();
+                try {
+                    while (!done.get()) {
+                        router.send(message);
+                        List<NetworkAddress> addresses = router.getActiveStreamServers(null);
+                        // Either disabled, or one consistent snapshot of the single bound address
+                        if (addresses.size() > 1)
+                            throw new AssertionError("Unexpected stream servers: " + addresses);
+                        for (NetworkAddress address : addresses) {
+                            if (address.getPort() <= 20000)
+                                throw new AssertionError("Unknown stream server: " + address);
+                        }
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            });
+            threads[i].start();
+        }
+        started.await();
+
+        int lastPort = -1;
+        for (int i = 0; i < 200; i++) {
+            assertTrue(router.enable());
+            int port = router.getActiveStreamServers(null).get(0).getPort();
+            // Bound again with new transports
+            assertNotEquals(port, lastPort);
+            lastPort = port;
+            assertTrue(router.disable());
+            assertTrue(router.getActiveStreamServers(null).isEmpty());
+        }
+        assertTrue(router.enable());
+        done.set(true);
+        for (Thread thread : threads) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+        assertTrue(errors.isEmpty(), errors.toString());
+
+        // Sends reach the transports of the last binding
+        long sent = configuration.sent.sum();
+        router.send(message);
+        assertEquals(configuration.sent.sum(), sent + 1);
+        router.disable();
+        router.send(message);
+        assertEquals(configuration.sent.sum(), sent + 1);
+    }
+
+    @Test
+    public void boundSynchronousStreamRequests() throws Exception {
+        final List<CompletableFuture<StreamResponseMessage>> requests = new CopyOnWriteArrayList<>();
+        TestConfiguration configuration = new TestConfiguration() {
+            @Override
+            public StreamClient<?> createStreamClient() {
+                return new StreamClient<HttpClientStreamClientConfigurationImpl>() {
+                    final HttpClientStreamClientConfigurationImpl configuration =
+                        new HttpClientStreamClientConfigurationImpl(null, 1);
+
+                    @Override
+                    public CompletableFuture<StreamResponseMessage> sendRequestAsync(StreamRequestMessage message) {
+                        // The host never responds, and the client never times out
+                        CompletableFuture<StreamResponseMessage> future = new CompletableFuture<>();
+                        requests.add(future);
+                        return future;
+                    }
+
+                    @Override
+                    public void stop() {
+                    }
+
+                    @Override
+                    public HttpClientStreamClientConfigurationImpl getConfiguration() {
+                        return configuration;
+                    }
+                };
+            }
+        };
+        RouterImpl router = createRouter(configuration);
+        assertTrue(router.enable());
+        try {
+            long start = System.currentTimeMillis();
+            assertNull(router.send(new StreamRequestMessage(UpnpRequest.Method.GET, URI.create("http://10.0.0.1:5000/a"))));
+            long elapsed = System.currentTimeMillis() - start;
+            // The timeout of the client and a margin
+            assertTrue(elapsed >= 1000 && elapsed < 5000, "Waited " + elapsed + "ms");
+            assertEquals(requests.size(), 1);
+            assertTrue(requests.get(0).isCancelled());
+        } finally {
+            router.disable();
+        }
+    }
+
+    protected void assertUnmodifiable(List<NetworkAddress> addresses) {
+        try {
+            addresses.add(null);
+            fail();
+        } catch (UnsupportedOperationException ex) {
+            // Expected
+        }
+    }
+}
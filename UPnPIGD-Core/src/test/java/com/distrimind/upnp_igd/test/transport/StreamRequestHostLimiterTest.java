@@ -0,0 +1,287 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+
+package com.distrimind.upnp_igd.test.transport;
+
+import com.distrimind.upnp_igd.model.message.StreamRequestMessage;
+import com.distrimind.upnp_igd.model.message.StreamResponseMessage;
+import com.distrimind.upnp_igd.model.message.UpnpRequest;
+import com.distrimind.upnp_igd.model.message.UpnpResponse;
+import com.distrimind.upnp_igd.transport.StreamRequestHostLimiter;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class StreamRequestHostLimiterTest {
+
+    /**
+     * Records the sent requests, their responses are completed by the test.
+     */
+    static class Sender implements Function<StreamRequestMessage, CompletableFuture<StreamResponseMessage>> {
+
+        final List<StreamRequestMessage> requests = new ArrayList<>();
+        final List<CompletableFuture<StreamResponseMessage>> responses = new ArrayList<>();
+
+        @Override
+        public synchronized CompletableFuture<StreamResponseMessage> apply(StreamRequestMessage request) {
+            CompletableFuture<StreamResponseMessage> response = new CompletableFuture<>();
+            requests.add(request);
+            responses.add(response);
+            return response;
+        }
+
+        void respond(int index) {
+            responses.get(index).complete(new StreamResponseMessage(UpnpResponse.Status.OK));
+        }
+
+        void fail(int index) {
+            responses.get(index).complete(null);
+        }
+    }
+
+    @Test
+    public void limitRequestsPerHost() {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(2);
+        Sender sender = new Sender();
+
+        StreamRequestMessage first = createRequest("http://10.0.0.1:5000/a");
+        StreamRequestMessage second = createRequest("http://10.0.0.1:5000/b");
+        StreamRequestMessage third = createRequest("http://10.0.0.1:5000/c");
+        StreamRequestMessage fourth = createRequest("http://10.0.0.1:5000/d");
+        CompletableFuture<StreamResponseMessage> firstResponse = limiter.send(first, sender);
+        limiter.send(second, sender);
+        CompletableFuture<StreamResponseMessage> thirdResponse = limiter.send(third, sender);
+        limiter.send(fourth, sender);
+        // Other hosts are not delayed
+        limiter.send(createRequest("http://10.0.0.2:5000/a"), sender);
+        assertEquals(sender.requests.size(), 3);
+        assertEquals(limiter.getHostMetrics(URI.create("http://10.0.0.1:5000/")).getQueuedRequests(), 2);
+
+        // Queued requests are sent in order
+        sender.respond(0);
+        assertTrue(firstResponse.isDone());
+        assertEquals(sender.requests.size(), 4);
+        assertSame(sender.requests.get(3), third);
+        sender.respond(1);
+        assertSame(sender.requests.get(4), fourth);
+        sender.respond(3);
+        assertNotNull(thirdResponse.join());
+
+        StreamRequestHostLimiter.HostMetrics metrics = limiter.getHostMetrics(URI.create("http://10.0.0.1:5000/"));
+        assertEquals(metrics.getSentRequests(), 4);
+        assertEquals(metrics.getSucceededRequests(), 3);
+        assertEquals(metrics.getInFlightRequests(), 1);
+        assertEquals(metrics.getQueuedRequests(), 0);
+        assertEquals(limiter.getHostMetrics().size(), 2);
+    }
+
+    @Test
+    public void openCircuitAfterFailures() throws Exception {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1, 2, 200, 16);
+        Sender sender = new Sender();
+        URI host = URI.create("http://10.0.0.1:5000/");
+
+        limiter.send(createRequest("http://10.0.0.1:5000/a"), sender);
+        CompletableFuture<StreamResponseMessage> queued = limiter.send(createRequest("http://10.0.0.1:5000/b"), sender);
+        sender.fail(0);
+        assertEquals(sender.requests.size(), 2);
+        // The second failure opens the circuit, the waiting requests complete without response
+        CompletableFuture<StreamResponseMessage> rejected = limiter.send(createRequest("http://10.0.0.1:5000/c"), sender);
+        sender.fail(1);
+        assertTrue(queued.isDone());
+        assertNull(rejected.join());
+        assertEquals(sender.requests.size(), 2);
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.OPEN);
+
+        // Fails fast while open
+        assertNull(limiter.send(createRequest("http://10.0.0.1:5000/d"), sender).join());
+        assertEquals(sender.requests.size(), 2);
+
+        // A single probe after the cooldown
+        Thread.sleep(300);
+        CompletableFuture<StreamResponseMessage> probe = limiter.send(createRequest("http://10.0.0.1:5000/e"), sender);
+        assertEquals(sender.requests.size(), 3);
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.HALF_OPEN);
+        assertNull(limiter.send(createRequest("http://10.0.0.1:5000/f"), sender).join());
+        assertEquals(sender.requests.size(), 3);
+
+        sender.respond(2);
+        assertNotNull(probe.join());
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.CLOSED);
+        limiter.send(createRequest("http://10.0.0.1:5000/g"), sender);
+        assertEquals(sender.requests.size(), 4);
+
+        StreamRequestHostLimiter.HostMetrics metrics = limiter.getHostMetrics(host);
+        assertEquals(metrics.getFailedRequests(), 2);
+        assertEquals(metrics.getRejectedRequests(), 3);
+        assertEquals(metrics.getSucceededRequests(), 1);
+    }
+
+    @Test
+    public void failedProbeReopensCircuit() throws Exception {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1, 1, 100, 16);
+        Sender sender = new Sender();
+        URI host = URI.create("http://10.0.0.1:5000/");
+
+        limiter.send(createRequest("http://10.0.0.1:5000/a"), sender);
+        sender.fail(0);
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.OPEN);
+
+        Thread.sleep(200);
+        limiter.send(createRequest("http://10.0.0.1:5000/b"), sender);
+        sender.fail(1);
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.OPEN);
+        assertNull(limiter.send(createRequest("http://10.0.0.1:5000/c"), sender).join());
+        assertEquals(sender.requests.size(), 2);
+    }
+
+    @Test
+    public void cancelQueuedRequest() {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1);
+        Sender sender = new Sender();
+
+        limiter.send(createRequest("http://10.0.0.1/a"), sender);
+        CompletableFuture<StreamResponseMessage> cancelled = limiter.send(createRequest("http://10.0.0.1/b"), sender);
+        limiter.send(createRequest("http://10.0.0.1/c"), sender);
+        cancelled.cancel(true);
+        sender.respond(0);
+        assertEquals(sender.requests.size(), 2);
+        assertEquals(sender.requests.get(1).getUri().getPath(), "/c");
+
+        // Cancelling a sent request cancels the request of the stream client
+        CompletableFuture<StreamResponseMessage> sent = limiter.send(createRequest("http://10.0.0.2/a"), sender);
+        sent.cancel(true);
+        assertTrue(sender.responses.get(2).isCancelled());
+    }
+
+    @Test
+    public void cancellationIsNotFailure() throws Exception {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1, 1, 100, 16);
+        Sender sender = new Sender();
+        URI host = URI.create("http://10.0.0.1:5000/");
+
+        limiter.send(createRequest("http://10.0.0.1:5000/a"), sender).cancel(true);
+        StreamRequestHostLimiter.HostMetrics metrics = limiter.getHostMetrics(host);
+        assertEquals(metrics.getCircuitState(), StreamRequestHostLimiter.CircuitState.CLOSED);
+        assertEquals(metrics.getFailedRequests(), 0);
+        assertEquals(metrics.getInFlightRequests(), 0);
+
+        // A cancelled probe leaves the next request probing the host
+        limiter.send(createRequest("http://10.0.0.1:5000/b"), sender);
+        sender.fail(1);
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.OPEN);
+        Thread.sleep(200);
+        limiter.send(createRequest("http://10.0.0.1:5000/c"), sender).cancel(true);
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.HALF_OPEN);
+        CompletableFuture<StreamResponseMessage> probe = limiter.send(createRequest("http://10.0.0.1:5000/d"), sender);
+        assertEquals(sender.requests.size(), 4);
+        sender.respond(3);
+        assertNotNull(probe.join());
+        assertEquals(limiter.getHostMetrics(host).getCircuitState(), StreamRequestHostLimiter.CircuitState.CLOSED);
+        assertEquals(limiter.getHostMetrics(host).getFailedRequests(), 1);
+    }
+
+    @Test
+    public void rejectRequestsAboveQueueLimit() {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1, 3, 100, 16, 1, 30000);
+        Sender sender = new Sender();
+
+        limiter.send(createRequest("http://10.0.0.1:5000/a"), sender);
+        CompletableFuture<StreamResponseMessage> queued = limiter.send(createRequest("http://10.0.0.1:5000/b"), sender);
+        CompletableFuture<StreamResponseMessage> rejected = limiter.send(createRequest("http://10.0.0.1:5000/c"), sender);
+        assertFalse(queued.isDone());
+        assertTrue(rejected.isDone());
+        assertNull(rejected.join());
+        assertEquals(limiter.getHostMetrics(URI.create("http://10.0.0.1:5000/")).getRejectedRequests(), 1);
+
+        sender.respond(0);
+        assertEquals(sender.requests.size(), 2);
+        sender.respond(1);
+        assertNotNull(queued.join());
+    }
+
+    @Test
+    public void expireQueuedRequests() throws Exception {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1, 3, 100, 16, 16, 100);
+        Sender sender = new Sender();
+
+        limiter.send(createRequest("http://10.0.0.1:5000/a"), sender);
+        CompletableFuture<StreamResponseMessage> expired = limiter.send(createRequest("http://10.0.0.1:5000/b"), sender);
+        Thread.sleep(200);
+        CompletableFuture<StreamResponseMessage> queued = limiter.send(createRequest("http://10.0.0.1:5000/c"), sender);
+        // Expired requests are dropped when a request is queued behind them
+        assertTrue(expired.isDone());
+        assertNull(expired.join());
+        assertFalse(queued.isDone());
+
+        sender.respond(0);
+        assertEquals(sender.requests.size(), 2);
+        assertEquals(sender.requests.get(1).getUri(), URI.create("http://10.0.0.1:5000/c"));
+        assertEquals(limiter.getHostMetrics(URI.create("http://10.0.0.1:5000/")).getRejectedRequests(), 1);
+    }
+
+    @Test
+    public void dispatchQueuedRequestsWithoutRecursion() {
+        int count = 50000;
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1, 3, 100, 16, count, 60000);
+        CompletableFuture<StreamResponseMessage> first = new CompletableFuture<>();
+        // Only the first request waits, the next ones complete as soon as they are sent
+        Function<StreamRequestMessage, CompletableFuture<StreamResponseMessage>> sender = request ->
+            request.getUri().getPath().equals("/first") ? first
+                : CompletableFuture.completedFuture(new StreamResponseMessage(UpnpResponse.Status.OK));
+
+        limiter.send(createRequest("http://10.0.0.1:5000/first"), sender);
+        List<CompletableFuture<StreamResponseMessage>> queued = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            queued.add(limiter.send(createRequest("http://10.0.0.1:5000/" + i), sender));
+        }
+        first.complete(new StreamResponseMessage(UpnpResponse.Status.OK));
+        for (CompletableFuture<StreamResponseMessage> response : queued) {
+            assertNotNull(response.getNow(null));
+        }
+        StreamRequestHostLimiter.HostMetrics metrics = limiter.getHostMetrics(URI.create("http://10.0.0.1:5000/"));
+        assertEquals(metrics.getSucceededRequests(), count + 1);
+        assertEquals(metrics.getInFlightRequests(), 0);
+    }
+
+    @Test
+    public void forgetIdleHosts() {
+        StreamRequestHostLimiter limiter = new StreamRequestHostLimiter(1, 3, 100, 1);
+        Sender sender = new Sender();
+
+        limiter.send(createRequest("http://10.0.0.1:5000/a"), sender);
+        sender.respond(0);
+        limiter.send(createRequest("http://10.0.0.2:5000/a"), sender);
+        assertNull(limiter.getHostMetrics(URI.create("http://10.0.0.1:5000/")));
+        // A busy host is kept
+        limiter.send(createRequest("http://10.0.0.3:5000/a"), sender);
+        assertNotNull(limiter.getHostMetrics(URI.create("http://10.0.0.2:5000/")));
+        assertEquals(limiter.getHostMetrics(URI.create("http://10.0.0.3:5000/")).getSentRequests(), 1);
+    }
+
+    protected StreamRequestMessage createRequest(String uri) {
+        return new StreamRequestMessage(UpnpRequest.Method.GET, URI.create(uri));
+    }
+}
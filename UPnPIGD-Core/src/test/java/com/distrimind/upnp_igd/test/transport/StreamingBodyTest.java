@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 4th Line GmbH, Switzerland
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * Lesser General Public License Version 2 or later ("LGPL") or the
+ * Common Development and Distribution License Version 1 or later
+ * ("CDDL") (collectively, the "License"). You may not use this file
+ * except in compliance with the License. See LICENSE.txt for more
+ * information.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package com.distrimind.upnp_igd.test.transport;
+
+import com.distrimind.upnp_igd.model.message.StreamingBody;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author Jason Mahdjoub
+ */
+public class StreamingBodyTest {
+
+    @Test
+    public void readBodyLargerThanInitialBuffer() throws Exception {
+        byte[] bytes = new byte[200_000];
+        new Random(1).nextBytes(bytes);
+        assertEquals(StreamingBody.of(new ByteArrayInputStream(bytes), bytes.length).readBytes(), bytes);
+        assertEquals(StreamingBody.of(new ByteArrayInputStream(bytes), -1).readBytes(), bytes);
+        assertEquals(StreamingBody.of(new ByteArrayInputStream(new byte[0]), 0).readBytes().length, 0);
+    }
+
+    @Test
+    public void readOnlyContentLength() throws Exception {
+        byte[] bytes = new byte[100];
+        new Random(2).nextBytes(bytes);
+        byte[] read = StreamingBody.of(new ByteArrayInputStream(bytes), 10).readBytes();
+        assertEquals(read.length, 10);
+        for (int i = 0; i < read.length; i++)
+            assertEquals(read[i], bytes[i]);
+    }
+
+    @Test
+    public void rejectShortBodyOfHugeContentLength() {
+        // A peer announcing a huge length doesn't get the memory allocated upfront
+        try {
+            StreamingBody.of(new ByteArrayInputStream(new byte[1000]), Integer.MAX_VALUE).readBytes();
+            fail();
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().contains("1000 of " + Integer.MAX_VALUE));
+        }
+    }
+}